@@ -0,0 +1,69 @@
+package org.okawa.util.nlang.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.dict.DictionaryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 辞書構築のベンチマーク
+ * 構築は入力のリストを整列順に並べ替えるため、毎回複製したリストから構築する (複製に
+ * 要する時間は構築に比べて無視できる)。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BuildBenchmark {
+    /** "synthetic"またはタブ区切りテキストファイルのパス */
+    @Param({Datasets.SYNTHETIC})
+    public String dataset;
+    /** キーワード数 */
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /** 未整列の語彙素 */
+    private List<Datasets.Entry> unsorted;
+    /** 整列済みの語彙素 */
+    private List<Datasets.Entry> sorted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+	this.unsorted = Datasets.load(this.dataset, this.size);
+	this.sorted = Datasets.sorted(this.unsorted);
+    }
+
+    /** 未整列の語彙素から構築 (整列を含む) */
+    @Benchmark
+    public Dictionary unsorted() {
+	return new Dictionary(new ArrayList<Datasets.Entry>(this.unsorted), false);
+    }
+
+    /** 整列済みの語彙素から構築 */
+    @Benchmark
+    public Dictionary sorted() {
+	return new Dictionary(new ArrayList<Datasets.Entry>(this.sorted), true);
+    }
+
+    /** 整列済みの語彙素から逐次構築 (DictionaryBuilder) */
+    @Benchmark
+    public Dictionary streamed() {
+	return new DictionaryBuilder().addAll(this.sorted.iterator()).build();
+    }
+}
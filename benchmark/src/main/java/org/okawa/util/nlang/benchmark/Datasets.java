@@ -0,0 +1,202 @@
+package org.okawa.util.nlang.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.okawa.util.nlang.dict.Lexeme;
+import org.okawa.util.nlang.trie.Trie;
+
+/**
+ * ベンチマークの入力データ
+ * datasetに"synthetic"を指定した場合は乱数から語彙素を生成し、それ以外はタブ区切り
+ * テキストファイル (一行につき「キー TAB 訳語」、UTF-8) のパスとして先頭から読み込む。
+ * 乱数の種は固定のため、同じ件数を指定すれば常に同じデータとなる。
+ */
+final class Datasets {
+    /** 乱数から生成するデータセットの名称 */
+    static final String SYNTHETIC = "synthetic";
+    /** 乱数の種 */
+    private static final long SEED = 0x5EEDL;
+    /** キーと訳語の区切り文字 */
+    private static final char SEPARATOR = '\t';
+
+    private Datasets() {
+    }
+
+    /**
+     * ベンチマーク用の語彙素
+     */
+    static final class Entry implements Lexeme {
+	/** キー */
+	private final String key;
+	/** 訳語 */
+	private final String value;
+
+	Entry(String key, String value) {
+	    this.key = key;
+	    this.value = value;
+	}
+
+	@Override
+	public String getKey() {
+	    return this.key;
+	}
+
+	@Override
+	public String getValue() {
+	    return this.value;
+	}
+
+	@Override
+	public int compareTo(Trie.Entry o) {
+	    return this.key.compareTo(o.getKey());
+	}
+    }
+
+    /**
+     * 語彙素を読み込む (キーは重複しない、順序は未整列)
+     *
+     * @param dataset "synthetic"またはタブ区切りテキストファイルのパス
+     * @param size 件数 (ファイルの場合は上限)
+     */
+    static List<Entry> load(String dataset, int size) throws IOException {
+	if (Datasets.SYNTHETIC.equals(dataset)) {
+	    return Datasets.synthetic(size);
+	}
+	final List<Entry> entries = new ArrayList<Entry>();
+	final Set<String> keys = new HashSet<String>();
+	final BufferedReader reader = Files.newBufferedReader(Paths.get(dataset), StandardCharsets.UTF_8);
+	try {
+	    String line;
+	    while (entries.size() < size && (line = reader.readLine()) != null) {
+		final int separator = line.indexOf(Datasets.SEPARATOR);
+		final String key = separator < 0 ? line : line.substring(0, separator);
+		if (!key.isEmpty() && keys.add(key)) {
+		    entries.add(new Entry(key, separator < 0 ? "" : line.substring(separator + 1)));
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+	return entries;
+    }
+
+    /**
+     * 乱数から語彙素を生成する
+     * 英小文字の語 (出現しやすい文字に偏りを持たせる) と、ひらがな・漢字の語を混在させる。
+     *
+     * @param size 件数
+     */
+    private static List<Entry> synthetic(int size) {
+	final Random random = new Random(Datasets.SEED);
+	final List<Entry> entries = new ArrayList<Entry>(size);
+	final Set<String> keys = new HashSet<String>(size * 2);
+	final StringBuilder key = new StringBuilder();
+	while (entries.size() < size) {
+	    key.setLength(0);
+	    final int length = 2 + random.nextInt(11);
+	    final boolean japanese = random.nextInt(4) == 0;
+	    for (int i = 0; i < length; i++) {
+		key.append(japanese ? Datasets.japanese(random) : Datasets.latin(random));
+	    }
+	    final String k = key.toString();
+	    if (keys.add(k)) {
+		entries.add(new Entry(k, "v" + entries.size() % 10007 + ":" + k.length()));
+	    }
+	}
+	return entries;
+    }
+
+    /** 出現頻度に偏りのある英小文字 */
+    private static char latin(Random random) {
+	return (char) ('a' + (int) Math.min(25, Math.abs(random.nextGaussian() * 8)));
+    }
+
+    /** ひらがな (8割) または常用漢字の範囲の漢字 */
+    private static char japanese(Random random) {
+	return random.nextInt(5) < 4 ? (char) (0x3041 + random.nextInt(83)) : (char) (0x4E00 + random.nextInt(2000));
+    }
+
+    /**
+     * 登録されているキーを無作為に選ぶ
+     *
+     * @param entries 語彙素
+     * @param count 件数
+     */
+    static String[] hits(List<Entry> entries, int count) {
+	final Random random = new Random(Datasets.SEED + 1);
+	final String[] keys = new String[count];
+	for (int i = 0; i < count; i++) {
+	    keys[i] = entries.get(random.nextInt(entries.size())).getKey();
+	}
+	return keys;
+    }
+
+    /**
+     * 登録されていないキーを生成する
+     * 登録されているキーの一文字を置き換えたものを使用し、途中まで一致する検索とする。
+     *
+     * @param entries 語彙素
+     * @param count 件数
+     */
+    static String[] misses(List<Entry> entries, int count) {
+	final Random random = new Random(Datasets.SEED + 2);
+	final Set<String> keys = new HashSet<String>(entries.size() * 2);
+	for (Entry entry : entries) {
+	    keys.add(entry.getKey());
+	}
+	final String[] misses = new String[count];
+	for (int i = 0; i < count; ) {
+	    final char[] key = entries.get(random.nextInt(entries.size())).getKey().toCharArray();
+	    key[random.nextInt(key.length)] = Datasets.latin(random);
+	    final String miss = new String(key);
+	    if (!keys.contains(miss)) {
+		misses[i++] = miss;
+	    }
+	}
+	return misses;
+    }
+
+    /**
+     * 登録されているキーと未知の文字列を連ねたテキストを生成する
+     * 全体の約7割を登録されているキーとし、残りは区切り文字と未知の語とする。
+     *
+     * @param entries 語彙素
+     * @param length テキストの文字数
+     */
+    static String text(List<Entry> entries, int length) {
+	final Random random = new Random(Datasets.SEED + 3);
+	final StringBuilder text = new StringBuilder(length + 16);
+	while (text.length() < length) {
+	    if (random.nextInt(10) < 7) {
+		text.append(entries.get(random.nextInt(entries.size())).getKey());
+	    } else {
+		text.append(random.nextBoolean() ? ' ' : '、');
+		for (int i = random.nextInt(6); i > 0; i--) {
+		    text.append(Datasets.latin(random));
+		}
+	    }
+	}
+	text.setLength(length);
+	return text.toString();
+    }
+
+    /**
+     * 整列済みの複製を返す
+     *
+     * @param entries 語彙素
+     */
+    static List<Entry> sorted(List<Entry> entries) {
+	final List<Entry> sorted = new ArrayList<Entry>(entries);
+	Collections.sort(sorted);
+	return sorted;
+    }
+}
@@ -0,0 +1,121 @@
+package org.okawa.util.nlang.benchmark;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 辞書が保持するメモリ量のベンチマーク
+ * 構築前後にGCを行い、構築した辞書が保持するヒープとヒープ外のバッファのバイト数を
+ * キーワード一件当たりの値として補助カウンタに報告する。時間は参考値である。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FootprintBenchmark {
+    /** GCを繰り返す回数の上限 */
+    private static final int GC_ROUNDS = 8;
+
+    /** "synthetic"またはタブ区切りテキストファイルのパス */
+    @Param({Datasets.SYNTHETIC})
+    public String dataset;
+    /** キーワード数 */
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int size;
+    /** trueの場合、ヒープ外のバッファ上に辞書を構築 */
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    /** 語彙素 */
+    private List<Datasets.Entry> entries;
+
+    /**
+     * キーワード一件当たりのバイト数 (イテレーション毎に報告)
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retained {
+	/** 辞書が保持するヒープのバイト数 */
+	public double heapBytesPerKey;
+	/** 辞書が保持するヒープ外のバッファのバイト数 */
+	public double directBytesPerKey;
+
+	@Setup(Level.Iteration)
+	public void clear() {
+	    this.heapBytesPerKey = 0;
+	    this.directBytesPerKey = 0;
+	}
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+	this.entries = Datasets.sorted(Datasets.load(this.dataset, this.size));
+    }
+
+    /**
+     * 辞書を構築し、構築前後の使用量の差を記録する
+     * 辞書は戻り値とするまで到達可能なため、計測中に回収されない。
+     */
+    @Benchmark
+    public Dictionary retained(Retained retained) {
+	final List<Datasets.Entry> entries = new ArrayList<Datasets.Entry>(this.entries);
+	final long heapBefore = FootprintBenchmark.usedHeap();
+	final long directBefore = FootprintBenchmark.usedDirect();
+	final Dictionary dictionary = new Dictionary(entries, true, this.offHeap);
+	final long heapAfter = FootprintBenchmark.usedHeap();
+	final long directAfter = FootprintBenchmark.usedDirect();
+	retained.heapBytesPerKey = (double) (heapAfter - heapBefore) / this.entries.size();
+	retained.directBytesPerKey = (double) (directAfter - directBefore) / this.entries.size();
+	return dictionary;
+    }
+
+    /**
+     * GC後のヒープ使用量
+     * 使用量が減らなくなるまでGCを繰り返す。
+     */
+    private static long usedHeap() {
+	final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	long used = Long.MAX_VALUE;
+	for (int i = 0; i < FootprintBenchmark.GC_ROUNDS; i++) {
+	    System.gc();
+	    final long current = memory.getHeapMemoryUsage().getUsed();
+	    if (current >= used) {
+		break;
+	    }
+	    used = current;
+	}
+	return used;
+    }
+
+    /**
+     * ヒープ外のバッファ (direct/mapped) の使用量
+     */
+    private static long usedDirect() {
+	long used = 0;
+	for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+	    used += pool.getMemoryUsed();
+	}
+	return used;
+    }
+}
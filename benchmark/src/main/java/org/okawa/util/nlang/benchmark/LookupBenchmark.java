@@ -0,0 +1,128 @@
+package org.okawa.util.nlang.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.trie.TrieSearcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 検索のベンチマーク
+ * 一回の呼び出しでBATCH件の問い合わせを処理し、一件当たりの時間を報告する。問い合わせは
+ * 構築時に無作為に選んだものを繰り返し使用する。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class LookupBenchmark {
+    /** 一回の呼び出しで処理する問い合わせ数 */
+    private static final int BATCH = 1 << 12;
+    /** 共通接頭辞検索に使用するテキストの文字数 */
+    private static final int TEXT_LENGTH = LookupBenchmark.BATCH;
+
+    /** "synthetic"またはタブ区切りテキストファイルのパス */
+    @Param({Datasets.SYNTHETIC})
+    public String dataset;
+    /** キーワード数 */
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int size;
+    /** trueの場合、ヒープ外のバッファ上に辞書を構築 */
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    /** 検索対象の辞書 */
+    private Dictionary dictionary;
+    /** 登録されているキー */
+    private String[] hits;
+    /** 登録されていないキー */
+    private String[] misses;
+    /** 登録されているキーのID */
+    private int[] ids;
+    /** 共通接頭辞検索に使用するテキスト */
+    private String text;
+    /** 訳語の複製先 */
+    private final StringBuilder translation = new StringBuilder();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+	final List<Datasets.Entry> entries = Datasets.load(this.dataset, this.size);
+	this.hits = Datasets.hits(entries, LookupBenchmark.BATCH);
+	this.misses = Datasets.misses(entries, LookupBenchmark.BATCH);
+	this.text = Datasets.text(entries, LookupBenchmark.TEXT_LENGTH);
+	this.dictionary = new Dictionary(new ArrayList<Datasets.Entry>(entries), false, this.offHeap);
+	this.ids = new int[LookupBenchmark.BATCH];
+	for (int i = 0; i < LookupBenchmark.BATCH; i++) {
+	    this.ids[i] = this.dictionary.membership(this.hits[i]);
+	}
+    }
+
+    /** 登録されているキーの検索 */
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.BATCH)
+    public void membershipHit(Blackhole blackhole) {
+	for (String key : this.hits) {
+	    blackhole.consume(this.dictionary.membership(key));
+	}
+    }
+
+    /** 登録されていないキーの検索 */
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.BATCH)
+    public void membershipMiss(Blackhole blackhole) {
+	for (String key : this.misses) {
+	    blackhole.consume(this.dictionary.membership(key));
+	}
+    }
+
+    /** テキストの各位置からの共通接頭辞検索 (一位置を一件とする) */
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.TEXT_LENGTH)
+    public void eachCommonPrefix(final Blackhole blackhole) {
+	final TrieSearcher.Callback func = new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    blackhole.consume(id);
+		}
+	    };
+	for (int begin = 0; begin < LookupBenchmark.TEXT_LENGTH; begin++) {
+	    this.dictionary.prefix(this.text, begin, func);
+	}
+    }
+
+    /** IDから訳語を復元 (文字列を生成) */
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.BATCH)
+    public void getTranslation(Blackhole blackhole) {
+	for (int id : this.ids) {
+	    blackhole.consume(this.dictionary.getTranslation(id));
+	}
+    }
+
+    /** IDから訳語を復元 (再利用するStringBuilderへ複製) */
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.BATCH)
+    public void getTranslationInto(Blackhole blackhole) {
+	for (int id : this.ids) {
+	    this.translation.setLength(0);
+	    blackhole.consume(this.dictionary.getTranslation(id, this.translation));
+	}
+    }
+}
@@ -0,0 +1,62 @@
+package org.okawa.util.nlang.flow;
+
+/**
+ * テキスト中に出現したキー
+ * 共通接頭辞検索のコールバック関数と同様に、位置・文字数・IDのみを保持する。キーの文字列は
+ * 保持しないため、訳語はIDから辞書に問い合わせる。
+ */
+public final class Match {
+    /** 入力全体におけるキーの開始位置 (文字単位) */
+    private final long position;
+    /** キーの文字数 */
+    private final int length;
+    /** キーのID */
+    private final int id;
+
+    /**
+     * 位置・文字数・IDからインスタンス化
+     *
+     * @param position 入力全体におけるキーの開始位置
+     * @param length キーの文字数
+     * @param id キーのID
+     */
+    public Match(long position, int length, int id) {
+	this.position = position;
+	this.length = length;
+	this.id = id;
+    }
+
+    /** 入力全体におけるキーの開始位置 (文字単位) */
+    public long getPosition() {
+	return this.position;
+    }
+
+    /** キーの文字数 */
+    public int getLength() {
+	return this.length;
+    }
+
+    /** キーのID */
+    public int getId() {
+	return this.id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (!(obj instanceof Match)) {
+	    return false;
+	}
+	final Match other = (Match) obj;
+	return this.position == other.position && this.length == other.length && this.id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+	return (int) (this.position ^ (this.position >>> 32)) * 31 * 31 + this.length * 31 + this.id;
+    }
+
+    @Override
+    public String toString() {
+	return "Match[position=" + this.position + ", length=" + this.length + ", id=" + this.id + "]";
+    }
+}
@@ -0,0 +1,475 @@
+package org.okawa.util.nlang.flow;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.okawa.util.nlang.tokenizer.Tokenizer;
+import org.okawa.util.nlang.tokenizer.WindowedReader;
+import org.okawa.util.nlang.trie.Trie;
+import org.okawa.util.nlang.trie.TrieSearcher;
+import org.okawa.util.nlang.trie.impl.DoubleArrayScanner;
+
+/**
+ * テキスト中に出現するキーを要求された数ずつ発行するPublisher
+ * 購読毎に入力を開き、一定の大きさのバッファへ順に読み込みながら照合する。照合は購読者が
+ * request(n)で要求した数を発行した時点で止まり、次の要求まで入力も読み込まない。使用する
+ * メモリは入力の大きさや購読者の処理速度に関わらず、購読毎のバッファの大きさのみで決まる。
+ *
+ * 照合の方法はインスタンス化に使用したものにより次のいずれかとなる。
+ * <ul>
+ * <li>Trie: 入力の各位置から始まるキーを共通接頭辞検索で求める。開始位置の昇順、同じ位置
+ *     では短い順に発行する。キーは最大でmaxTokenLength文字まで照合する。</li>
+ * <li>DoubleArrayScanner: Aho-Corasick法で入力を一度だけ走査する。終了位置の昇順、同じ
+ *     位置では長い順に発行する (Trie#scanと同じ順序)。</li>
+ * </ul>
+ *
+ * 照合と発行は指定したExecutor上で行い、一つの購読に対するシグナルが同時に呼び出される
+ * ことはない。cancelの後は照合中でも次の読み込みの前に照合を止める。完了・エラー・
+ * キャンセルのいずれの場合も入力は閉じる。
+ */
+public final class MatchPublisher implements Flow.Publisher<Match> {
+    /** バッファの大きさの最小値 */
+    private static final int MIN_BUFFER_SIZE = 1 << 13;
+
+    /** 共通接頭辞検索に使用するTrie (走査する場合はnull) */
+    private final Trie trie;
+    /** キーの最大文字数 (共通接頭辞検索の場合のみ使用) */
+    private final int maxTokenLength;
+    /** 走査に使用する状態遷移 (共通接頭辞検索の場合はnull) */
+    private final DoubleArrayScanner scanner;
+    /** 入力 (購読毎に開く) */
+    private final Callable<? extends Reader> source;
+    /** 照合と発行を行うExecutor */
+    private final Executor executor;
+
+    /**
+     * 共通接頭辞検索で照合するPublisherをインスタンス化
+     * 照合と発行は共通のForkJoinPoolで行う。
+     *
+     * @param trie 検索に使用するTrie
+     * @param source 入力を開く処理 (購読毎に呼び出す)
+     */
+    public MatchPublisher(Trie trie, Callable<? extends Reader> source) {
+	this(trie, Tokenizer.DEFAULT_MAX_TOKEN_LENGTH, source, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 共通接頭辞検索で照合するPublisherをインスタンス化
+     * 入力の読み込みで待つことがある場合は、専用のExecutorを指定すること。
+     *
+     * @param trie 検索に使用するTrie
+     * @param maxTokenLength キーの最大文字数
+     * @param source 入力を開く処理 (購読毎に呼び出す)
+     * @param executor 照合と発行を行うExecutor
+     */
+    public MatchPublisher(Trie trie, int maxTokenLength, Callable<? extends Reader> source, Executor executor) {
+	this(trie, maxTokenLength, null, source, executor);
+	if (trie == null) {
+	    throw new NullPointerException("trie");
+	}
+	if (maxTokenLength <= 0) {
+	    throw new IllegalArgumentException("maxTokenLength must be positive: " + maxTokenLength);
+	}
+    }
+
+    /**
+     * Aho-Corasick法で走査するPublisherをインスタンス化
+     * 照合と発行は共通のForkJoinPoolで行う。
+     *
+     * @param scanner 走査に使用する状態遷移 (Dictionary#scanner等)
+     * @param source 入力を開く処理 (購読毎に呼び出す)
+     */
+    public MatchPublisher(DoubleArrayScanner scanner, Callable<? extends Reader> source) {
+	this(scanner, source, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Aho-Corasick法で走査するPublisherをインスタンス化
+     * 入力の読み込みで待つことがある場合は、専用のExecutorを指定すること。
+     *
+     * @param scanner 走査に使用する状態遷移 (Dictionary#scanner等)
+     * @param source 入力を開く処理 (購読毎に呼び出す)
+     * @param executor 照合と発行を行うExecutor
+     */
+    public MatchPublisher(DoubleArrayScanner scanner, Callable<? extends Reader> source, Executor executor) {
+	this(null, 0, scanner, source, executor);
+	if (scanner == null) {
+	    throw new NullPointerException("scanner");
+	}
+    }
+
+    private MatchPublisher(Trie trie, int maxTokenLength, DoubleArrayScanner scanner, Callable<? extends Reader> source, Executor executor) {
+	if (source == null) {
+	    throw new NullPointerException("source");
+	}
+	if (executor == null) {
+	    throw new NullPointerException("executor");
+	}
+	this.trie = trie;
+	this.maxTokenLength = maxTokenLength;
+	this.scanner = scanner;
+	this.source = source;
+	this.executor = executor;
+    }
+
+    /**
+     * 購読を開始する
+     * 入力は最初の要求を受けた時点で開く。入力を開けない場合はonErrorで通知する。
+     *
+     * @param subscriber 購読者
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Match> subscriber) {
+	if (subscriber == null) {
+	    throw new NullPointerException("subscriber");
+	}
+	subscriber.onSubscribe(new MatchSubscription(subscriber));
+    }
+
+    /**
+     * 入力を開き、照合を準備する
+     *
+     * @param subscription 購読 (キャンセルの確認に使用)
+     */
+    private Matcher open(MatchSubscription subscription) throws Exception {
+	final Reader reader = this.source.call();
+	if (this.scanner != null) {
+	    return new ScanMatcher(this.scanner, reader, subscription);
+	}
+	return new PrefixMatcher(this.trie, this.maxTokenLength, reader, subscription);
+    }
+
+    /**
+     * 購読
+     * 要求数を加算したスレッドのうち、照合中のものがいない場合のみ照合をExecutorへ投入する。
+     * 照合中に要求やキャンセルがあった場合は、照合中のスレッドがそれを引き継ぐ。
+     */
+    private final class MatchSubscription implements Flow.Subscription, Runnable {
+	/** 購読者 */
+	private final Flow.Subscriber<? super Match> subscriber;
+	/** 未発行の要求数 */
+	private final AtomicLong requested = new AtomicLong();
+	/** 照合の実行要求数 (0以外の間は照合中) */
+	private final AtomicInteger wip = new AtomicInteger();
+	/** キャンセルされた場合true */
+	private volatile boolean cancelled;
+	/** 不正な要求数を受けた場合の例外 */
+	private volatile Throwable error;
+	/** 照合 (入力を開くまではnull、照合するスレッドのみ参照) */
+	private Matcher matcher;
+	/** 終了した場合true (照合するスレッドのみ参照) */
+	private boolean done;
+
+	MatchSubscription(Flow.Subscriber<? super Match> subscriber) {
+	    this.subscriber = subscriber;
+	}
+
+	/**
+	 * 要求数を加算する (上限はLong.MAX_VALUE)
+	 * 正でない要求数はonErrorで通知して終了する。
+	 */
+	@Override
+	public void request(long n) {
+	    if (n <= 0) {
+		this.error = new IllegalArgumentException("request must be positive: " + n);
+	    } else {
+		long current;
+		long next;
+		do {
+		    current = this.requested.get();
+		    next = current + n;
+		    if (next < 0) {
+			next = Long.MAX_VALUE;
+		    }
+		} while (!this.requested.compareAndSet(current, next));
+	    }
+	    this.schedule();
+	}
+
+	@Override
+	public void cancel() {
+	    this.cancelled = true;
+	    this.schedule();
+	}
+
+	/**
+	 * 照合中のスレッドがいなければ照合を投入する
+	 */
+	private void schedule() {
+	    if (this.wip.getAndIncrement() != 0) {
+		return;
+	    }
+	    try {
+		MatchPublisher.this.executor.execute(this);
+	    } catch (RejectedExecutionException e) {
+		// 照合中のスレッドはいないため、このスレッドで終了を通知する
+		if (!this.done) {
+		    this.terminate();
+		    this.subscriber.onError(e);
+		}
+	    }
+	}
+
+	@Override
+	public void run() {
+	    int missed = 1;
+	    do {
+		if (!this.done) {
+		    try {
+			this.drain();
+		    } catch (RuntimeException | Error e) {
+			// 購読者が例外を投げた場合はキャンセルされたものとする
+			this.terminate();
+			throw e;
+		    }
+		}
+		missed = this.wip.addAndGet(-missed);
+	    } while (missed != 0);
+	}
+
+	/**
+	 * 要求数に達するか、入力の終端に達するまで照合して発行する
+	 */
+	private void drain() {
+	    long emitted = 0;
+	    long requested = this.requested.get();
+	    while (true) {
+		if (this.cancelled) {
+		    this.terminate();
+		    return;
+		}
+		final Throwable error = this.error;
+		if (error != null) {
+		    this.terminate();
+		    this.subscriber.onError(error);
+		    return;
+		}
+		if (emitted == requested) {
+		    requested = this.requested.addAndGet(-emitted);
+		    emitted = 0;
+		    if (requested == 0) {
+			return;
+		    }
+		}
+		final boolean found;
+		try {
+		    if (this.matcher == null) {
+			this.matcher = MatchPublisher.this.open(this);
+		    }
+		    found = this.matcher.find();
+		} catch (Exception e) {
+		    this.terminate();
+		    this.subscriber.onError(e);
+		    return;
+		}
+		if (found) {
+		    this.subscriber.onNext(this.matcher.match());
+		    emitted++;
+		} else if (!this.cancelled) {
+		    this.terminate();
+		    this.subscriber.onComplete();
+		    return;
+		}
+	    }
+	}
+
+	/**
+	 * 終了し、入力を閉じる
+	 */
+	private void terminate() {
+	    this.done = true;
+	    this.cancelled = true;
+	    if (this.matcher != null) {
+		try {
+		    this.matcher.close();
+		} catch (IOException e) {
+		    // 以降は読み込まないため無視する
+		}
+		this.matcher = null;
+	    }
+	}
+    }
+
+    /**
+     * 入力を読み込みながらキーを一つずつ見つける処理の基底クラス
+     */
+    private abstract static class Matcher {
+	/** 入力 */
+	private final Reader reader;
+	/** 購読 (キャンセルの確認に使用) */
+	private final MatchSubscription subscription;
+	/** 入力を読み込むバッファ */
+	final WindowedReader input;
+	/** 見つけたキーの入力全体における開始位置 */
+	long position;
+	/** 見つけたキーの文字数 */
+	int length;
+	/** 見つけたキーのID */
+	int id;
+
+	Matcher(Reader reader, int bufferSize, MatchSubscription subscription) {
+	    this.reader = reader;
+	    this.input = new WindowedReader(bufferSize);
+	    this.input.reset(reader);
+	    this.subscription = subscription;
+	}
+
+	/**
+	 * 照合済みの範囲をバッファから取り除き、空いた領域に入力を読み込む
+	 * 読み込みの度にキャンセルを確認する。
+	 *
+	 * @param consumed 照合済みの位置
+	 * @return キャンセルされた場合false
+	 */
+	boolean fill(int consumed) throws IOException {
+	    this.input.compact(consumed);
+	    while (!this.subscription.cancelled && this.input.read()) {
+		// 一杯になるまで読み込む
+	    }
+	    return !this.subscription.cancelled;
+	}
+
+	/**
+	 * 次のキーを見つける
+	 *
+	 * @return 見つかった場合true、入力の終端に達したかキャンセルされた場合false
+	 */
+	abstract boolean find() throws IOException;
+
+	/** 見つけたキー */
+	Match match() {
+	    return new Match(this.position, this.length, this.id);
+	}
+
+	void close() throws IOException {
+	    this.reader.close();
+	}
+    }
+
+    /**
+     * 共通接頭辞検索による照合
+     * 各位置の照合はその位置からmaxTokenLength文字先までを読み込んでから行うため、結果は
+     * 入力の区切られ方に依存しない (Tokenizerと同じ)。一つの位置から始まるキーは文字数が
+     * 異なるため、保留するキーは最大でもmaxTokenLength個となる。
+     */
+    private static final class PrefixMatcher extends Matcher {
+	/** 検索に使用するTrie */
+	private final Trie trie;
+	/** キーの最大文字数 */
+	private final int maxTokenLength;
+	/** 照合中の位置から始まるキーの文字数 (短い順) */
+	private int[] lengths;
+	/** 照合中の位置から始まるキーのID */
+	private int[] ids;
+	/** 照合中の位置から始まるキーの数 */
+	private int count;
+	/** 次に発行するキーのインデックス */
+	private int index;
+	/** 照合中のバッファ上の位置 */
+	private int current;
+	/** 次に照合するバッファ上の位置 */
+	private int next;
+	/** 照合する位置の上限 (この位置は含まない) */
+	private int limit;
+	/** 照合中の位置から始まるキーを記録するコールバック関数 */
+	private final TrieSearcher.Callback collect = new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    final PrefixMatcher self = PrefixMatcher.this;
+		    if (offset == 0) {
+			return;
+		    }
+		    if (self.count == self.lengths.length) {
+			self.lengths = Arrays.copyOf(self.lengths, self.count * 2);
+			self.ids = Arrays.copyOf(self.ids, self.count * 2);
+		    }
+		    self.lengths[self.count] = offset;
+		    self.ids[self.count] = id;
+		    self.count++;
+		}
+	    };
+
+	PrefixMatcher(Trie trie, int maxTokenLength, Reader reader, MatchSubscription subscription) {
+	    super(reader, Math.max(MatchPublisher.MIN_BUFFER_SIZE, maxTokenLength * 4), subscription);
+	    this.trie = trie;
+	    this.maxTokenLength = maxTokenLength;
+	    this.lengths = new int[Math.min(maxTokenLength, 16)];
+	    this.ids = new int[this.lengths.length];
+	}
+
+	@Override
+	boolean find() throws IOException {
+	    while (this.index == this.count) {
+		if (this.next >= this.limit) {
+		    if (this.input.isEof() || !this.fill(this.next)) {
+			return false;
+		    }
+		    this.next = 0;
+		    // 終端以外ではキーの最大文字数分の先読みが可能な位置までを照合する
+		    final int filled = this.input.filled();
+		    this.limit = this.input.isEof() ? filled : filled - this.maxTokenLength;
+		    continue;
+		}
+		this.count = 0;
+		this.index = 0;
+		this.current = this.next;
+		final int end = (int) Math.min(this.input.filled(), (long) this.next + this.maxTokenLength);
+		this.trie.prefix(this.input.window(end), this.next, this.collect);
+		this.next++;
+	    }
+	    this.position = this.input.offset() + this.current;
+	    this.length = this.lengths[this.index];
+	    this.id = this.ids[this.index];
+	    this.index++;
+	    return true;
+	}
+    }
+
+    /**
+     * Aho-Corasick法による照合
+     * 走査の状態はint一つのため、読み込んだ文字はバッファに残さない。同じ位置で終わるキー
+     * は出力を一つずつ辿って発行する。
+     */
+    private static final class ScanMatcher extends Matcher {
+	/** 走査に使用する状態遷移 */
+	private final DoubleArrayScanner scanner;
+	/** 走査の状態 */
+	private int state = DoubleArrayScanner.START;
+	/** 次に発行する出力 */
+	private int output = DoubleArrayScanner.NONE;
+	/** 次に読み込むバッファ上の位置 */
+	private int next;
+
+	ScanMatcher(DoubleArrayScanner scanner, Reader reader, MatchSubscription subscription) {
+	    super(reader, MatchPublisher.MIN_BUFFER_SIZE, subscription);
+	    this.scanner = scanner;
+	}
+
+	@Override
+	boolean find() throws IOException {
+	    while (this.output == DoubleArrayScanner.NONE) {
+		if (this.next == this.input.filled()) {
+		    if (this.input.isEof() || !this.fill(this.next)) {
+			return false;
+		    }
+		    this.next = 0;
+		    continue;
+		}
+		this.state = this.scanner.step(this.state, this.input.charAt(this.next++));
+		this.output = this.scanner.output(this.state);
+	    }
+	    this.length = this.scanner.outputLength(this.output);
+	    this.id = this.scanner.outputId(this.output);
+	    this.position = this.input.offset() + this.next - this.length;
+	    this.output = this.scanner.nextOutput(this.output);
+	    return true;
+	}
+    }
+}
@@ -0,0 +1,412 @@
+package org.okawa.util.nlang.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.tokenizer.Tokenizer;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 要求された数ずつキーを発行するPublisherのテスト
+ * 要求数を数える購読者で、要求を超えて発行しないこと、発行順が共通接頭辞検索と走査のそれぞれ
+ * の順序と一致すること、キャンセル・不正な要求・入力のエラーで入力を閉じて終了することを
+ * 確認する。テキストはバッファ (8192文字) を何度か跨ぐ長さとする。
+ */
+public class MatchPublisherTest {
+    /** バッファの大きさ (キーの最大文字数が既定値の場合) */
+    private static final int BUFFER_SIZE = 8192;
+    /** 呼び出したスレッドでそのまま実行するExecutor (シグナルを同期的に受け取る) */
+    private static final Executor DIRECT = new Executor() {
+	    @Override
+	    public void execute(Runnable command) {
+		command.run();
+	    }
+	};
+
+    private static Dictionary dictionary;
+    private static String text;
+
+    /**
+     * 読み込んだ文字数と閉じられたかを記録するReader
+     */
+    private static class CountingReader extends Reader {
+	private final Reader reader;
+	/** 読み込んだ文字数 */
+	volatile long count;
+	/** 閉じられた場合true */
+	volatile boolean closed;
+
+	CountingReader(String text) {
+	    this.reader = new StringReader(text);
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+	    final int n = this.reader.read(cbuf, off, len);
+	    if (n > 0) {
+		this.count += n;
+	    }
+	    return n;
+	}
+
+	@Override
+	public void close() {
+	    this.closed = true;
+	}
+    }
+
+    /**
+     * 購読毎にCountingReaderを開く入力
+     */
+    private static class Source implements Callable<Reader> {
+	private final String text;
+	/** 開いた回数 */
+	volatile int opened;
+	/** 最後に開いたReader */
+	volatile CountingReader reader;
+
+	Source(String text) {
+	    this.text = text;
+	}
+
+	@Override
+	public Reader call() throws Exception {
+	    this.opened++;
+	    this.reader = new CountingReader(this.text);
+	    return this.reader;
+	}
+    }
+
+    /**
+     * 要求数を数える購読者
+     * 要求した数を超えて発行された場合や、終了後にシグナルを受けた場合は記録して、購読の
+     * 終了後に検証する。
+     */
+    private static final class CountingSubscriber implements Flow.Subscriber<Match> {
+	/** 受け取ったキー */
+	final List<Match> items = new ArrayList<Match>();
+	/** 完了またはエラーで減る */
+	final CountDownLatch done = new CountDownLatch(1);
+	/** 全て受け取る度に要求する数 (0の場合は追加で要求しない) */
+	private final long batch;
+	/** 購読 */
+	private Flow.Subscription subscription;
+	/** 要求した数の累計 */
+	private long requested;
+	/** 要求を超えて発行された場合true */
+	boolean overflow;
+	/** 終了後にシグナルを受けた場合true */
+	boolean late;
+	/** 完了した場合true */
+	boolean completed;
+	/** 通知されたエラー */
+	Throwable error;
+
+	CountingSubscriber(long batch) {
+	    this.batch = batch;
+	}
+
+	synchronized void request(long n) {
+	    if (n > 0) {
+		this.requested = this.requested + n < 0 ? Long.MAX_VALUE : this.requested + n;
+	    }
+	    this.subscription.request(n);
+	}
+
+	void cancel() {
+	    this.subscription.cancel();
+	}
+
+	@Override
+	public synchronized void onSubscribe(Flow.Subscription subscription) {
+	    this.subscription = subscription;
+	    if (this.batch > 0) {
+		this.request(this.batch);
+	    }
+	}
+
+	@Override
+	public synchronized void onNext(Match item) {
+	    this.late |= this.completed || this.error != null;
+	    this.overflow |= this.items.size() >= this.requested;
+	    this.items.add(item);
+	    if (this.batch > 0 && this.items.size() == this.requested) {
+		this.request(this.batch);
+	    }
+	}
+
+	@Override
+	public synchronized void onError(Throwable throwable) {
+	    this.late |= this.completed || this.error != null;
+	    this.error = throwable;
+	    this.done.countDown();
+	}
+
+	@Override
+	public synchronized void onComplete() {
+	    this.late |= this.completed || this.error != null;
+	    this.completed = true;
+	    this.done.countDown();
+	}
+
+	/**
+	 * 要求を超えて発行されず、終了後にシグナルを受けていないことを確認する
+	 */
+	synchronized void assertWellBehaved() {
+	    assertFalse("emitted more than requested", this.overflow);
+	    assertFalse("signal after termination", this.late);
+	}
+    }
+
+    @BeforeClass
+    public static void setUp() {
+	final List<String> keys = Fixtures.randomKeys(2000, 5, 41L);
+	MatchPublisherTest.dictionary = new Dictionary(Fixtures.entries(keys), false);
+	// キーと未知の文字列を交互に並べ、バッファの境界をキーが跨ぐようにする
+	final Random random = new Random(42L);
+	final StringBuilder builder = new StringBuilder();
+	while (builder.length() < MatchPublisherTest.BUFFER_SIZE * 3 + 100) {
+	    builder.append(keys.get(random.nextInt(keys.size())));
+	    builder.append(Fixtures.random(random, random.nextInt(3)));
+	}
+	MatchPublisherTest.text = builder.toString();
+    }
+
+    /**
+     * テキストの各位置から始まるキー (開始位置の昇順、同じ位置では短い順)
+     */
+    private static List<Match> prefixOrder() {
+	final List<Match> matches = new ArrayList<Match>();
+	for (int begin = 0; begin < MatchPublisherTest.text.length(); begin++) {
+	    final List<Match> at = new ArrayList<Match>();
+	    MatchPublisherTest.dictionary.prefix(MatchPublisherTest.text, begin, new TrieSearcher.Callback() {
+		    @Override
+		    public void apply(int begin, int offset, int id) {
+			if (offset > 0) {
+			    at.add(new Match(begin, offset, id));
+			}
+		    }
+		});
+	    Collections.sort(at, new Comparator<Match>() {
+		    @Override
+		    public int compare(Match a, Match b) {
+			return Integer.compare(a.getLength(), b.getLength());
+		    }
+		});
+	    matches.addAll(at);
+	}
+	return matches;
+    }
+
+    /**
+     * 走査で報告される順序 (終了位置の昇順、同じ位置では長い順)
+     */
+    private static List<Match> scanOrder() {
+	final List<Match> matches = MatchPublisherTest.prefixOrder();
+	Collections.sort(matches, new Comparator<Match>() {
+		@Override
+		public int compare(Match a, Match b) {
+		    final int c = Long.compare(a.getPosition() + a.getLength(), b.getPosition() + b.getLength());
+		    return c != 0 ? c : Long.compare(a.getPosition(), b.getPosition());
+		}
+	    });
+	return matches;
+    }
+
+    private static MatchPublisher prefixPublisher(Source source) {
+	return new MatchPublisher(MatchPublisherTest.dictionary, Tokenizer.DEFAULT_MAX_TOKEN_LENGTH, source, MatchPublisherTest.DIRECT);
+    }
+
+    private static MatchPublisher scanPublisher(Source source) {
+	return new MatchPublisher(MatchPublisherTest.dictionary.scanner(), source, MatchPublisherTest.DIRECT);
+    }
+
+    @Test
+    public void testPrefixOrder() {
+	final Source source = new Source(MatchPublisherTest.text);
+	final CountingSubscriber subscriber = new CountingSubscriber(7);
+	MatchPublisherTest.prefixPublisher(source).subscribe(subscriber);
+	assertTrue(subscriber.completed);
+	assertNull(subscriber.error);
+	subscriber.assertWellBehaved();
+	assertEquals(MatchPublisherTest.prefixOrder(), subscriber.items);
+	assertTrue(source.reader.closed);
+    }
+
+    @Test
+    public void testScanOrder() {
+	final Source source = new Source(MatchPublisherTest.text);
+	final CountingSubscriber subscriber = new CountingSubscriber(7);
+	MatchPublisherTest.scanPublisher(source).subscribe(subscriber);
+	assertTrue(subscriber.completed);
+	assertNull(subscriber.error);
+	subscriber.assertWellBehaved();
+	final List<Match> expected = MatchPublisherTest.scanOrder();
+	assertEquals(expected, subscriber.items);
+	// 同じキーを異なる順序で発行する
+	assertFalse(expected.equals(MatchPublisherTest.prefixOrder()));
+	assertTrue(source.reader.closed);
+    }
+
+    @Test
+    public void testCommonPool() throws InterruptedException {
+	final CountingSubscriber prefix = new CountingSubscriber(64);
+	new MatchPublisher(MatchPublisherTest.dictionary, new Source(MatchPublisherTest.text)).subscribe(prefix);
+	final CountingSubscriber scan = new CountingSubscriber(64);
+	new MatchPublisher(MatchPublisherTest.dictionary.scanner(), new Source(MatchPublisherTest.text)).subscribe(scan);
+	assertTrue(prefix.done.await(30, TimeUnit.SECONDS));
+	assertTrue(scan.done.await(30, TimeUnit.SECONDS));
+	synchronized (prefix) {
+	    assertTrue(prefix.completed);
+	    prefix.assertWellBehaved();
+	    assertEquals(MatchPublisherTest.prefixOrder(), prefix.items);
+	}
+	synchronized (scan) {
+	    assertTrue(scan.completed);
+	    scan.assertWellBehaved();
+	    assertEquals(MatchPublisherTest.scanOrder(), scan.items);
+	}
+    }
+
+    @Test
+    public void testBackpressure() {
+	final List<Match> expected = MatchPublisherTest.prefixOrder();
+	final Source source = new Source(MatchPublisherTest.text);
+	final CountingSubscriber subscriber = new CountingSubscriber(0);
+	MatchPublisherTest.prefixPublisher(source).subscribe(subscriber);
+	// 最初の要求まで入力は開かない
+	assertEquals(0, source.opened);
+
+	subscriber.request(3);
+	assertEquals(expected.subList(0, 3), subscriber.items);
+	assertFalse(subscriber.completed);
+	// 要求を満たすのに必要なバッファ一つ分までしか読み込まない
+	assertTrue(source.reader.count <= MatchPublisherTest.BUFFER_SIZE);
+
+	subscriber.request(5);
+	assertEquals(expected.subList(0, 8), subscriber.items);
+	assertFalse(subscriber.completed);
+	assertFalse(source.reader.closed);
+
+	subscriber.request(Long.MAX_VALUE);
+	subscriber.request(Long.MAX_VALUE);
+	assertTrue(subscriber.completed);
+	subscriber.assertWellBehaved();
+	assertEquals(expected, subscriber.items);
+	assertEquals(MatchPublisherTest.text.length(), source.reader.count);
+	assertTrue(source.reader.closed);
+	assertEquals(1, source.opened);
+    }
+
+    @Test
+    public void testCancelClosesReader() {
+	for (boolean scan : new boolean[] { false, true }) {
+	    final Source source = new Source(MatchPublisherTest.text);
+	    final CountingSubscriber subscriber = new CountingSubscriber(0);
+	    (scan ? MatchPublisherTest.scanPublisher(source) : MatchPublisherTest.prefixPublisher(source)).subscribe(subscriber);
+	    subscriber.request(10);
+	    assertFalse(source.reader.closed);
+	    subscriber.cancel();
+	    assertTrue(source.reader.closed);
+	    // キャンセル後の要求には応じない
+	    subscriber.request(10);
+	    assertEquals(10, subscriber.items.size());
+	    assertFalse(subscriber.completed);
+	    assertNull(subscriber.error);
+	}
+    }
+
+    @Test
+    public void testNonPositiveRequest() {
+	for (long n : new long[] { 0, -1, Long.MIN_VALUE }) {
+	    final Source source = new Source(MatchPublisherTest.text);
+	    final CountingSubscriber subscriber = new CountingSubscriber(0);
+	    MatchPublisherTest.scanPublisher(source).subscribe(subscriber);
+	    subscriber.request(2);
+	    subscriber.request(n);
+	    // 規則3.9: 正でない要求数はIllegalArgumentExceptionで通知する
+	    assertTrue(String.valueOf(n), subscriber.error instanceof IllegalArgumentException);
+	    assertFalse(subscriber.completed);
+	    assertEquals(2, subscriber.items.size());
+	    assertTrue(source.reader.closed);
+	    subscriber.request(10);
+	    assertEquals(2, subscriber.items.size());
+	    subscriber.assertWellBehaved();
+	}
+    }
+
+    @Test
+    public void testFailingSource() {
+	final IOException failure = new IOException("cannot open");
+	final CountingSubscriber subscriber = new CountingSubscriber(0);
+	MatchPublisherTest.prefixPublisher(new Source(MatchPublisherTest.text) {
+		@Override
+		public Reader call() throws Exception {
+		    throw failure;
+		}
+	    }).subscribe(subscriber);
+	subscriber.request(1);
+	assertSame(failure, subscriber.error);
+	assertFalse(subscriber.completed);
+	assertTrue(subscriber.items.isEmpty());
+    }
+
+    @Test
+    public void testFailingReader() {
+	final IOException failure = new IOException("broken");
+	final CountingReader broken = new CountingReader(MatchPublisherTest.text) {
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+		    if (this.count >= MatchPublisherTest.BUFFER_SIZE) {
+			throw failure;
+		    }
+		    return super.read(cbuf, off, Math.min(len, 1000));
+		}
+	    };
+	final CountingSubscriber subscriber = new CountingSubscriber(0);
+	MatchPublisherTest.scanPublisher(new Source(MatchPublisherTest.text) {
+		@Override
+		public Reader call() {
+		    return broken;
+		}
+	    }).subscribe(subscriber);
+	subscriber.request(Long.MAX_VALUE);
+	assertSame(failure, subscriber.error);
+	assertFalse(subscriber.completed);
+	assertFalse(subscriber.items.isEmpty());
+	assertTrue(broken.closed);
+	subscriber.assertWellBehaved();
+    }
+
+    @Test
+    public void testEmptySourceCompletes() {
+	final Source source = new Source("");
+	final CountingSubscriber subscriber = new CountingSubscriber(0);
+	MatchPublisherTest.scanPublisher(source).subscribe(subscriber);
+	subscriber.request(1);
+	assertTrue(subscriber.completed);
+	assertNull(subscriber.error);
+	assertTrue(subscriber.items.isEmpty());
+	assertTrue(source.reader.closed);
+    }
+}
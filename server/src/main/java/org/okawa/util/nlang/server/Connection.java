@@ -0,0 +1,237 @@
+package org.okawa.util.nlang.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.okawa.util.nlang.dict.Lexicon;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 一つの接続に対する要求の処理
+ * 接続毎に一つの仮想スレッドで、ブロッキングI/Oにより読み込みと書き込みを行う。
+ * 一度に読み込めた要求はまとめて処理し、その応答を一度に書き込む。キーはバイト列のまま
+ * 検索するため、文字列へは変換しない。
+ */
+final class Connection implements Runnable {
+    /** 受信・送信バッファの初期の大きさ */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** 接続を受け付けたサーバー */
+    private final LookupServer server;
+    /** 接続 */
+    private final SocketChannel channel;
+    /** 要求のペイロード長の上限 */
+    private final int maxPayloadSize;
+    /** 受信バッファ (書き込みモード) */
+    private ByteBuffer in = ByteBuffer.allocate(Connection.BUFFER_SIZE);
+    /** 送信バッファ (書き込みモード) */
+    private ByteBuffer out = ByteBuffer.allocate(Connection.BUFFER_SIZE);
+    /** 訳語の復号先 */
+    private final StringBuilder translation = new StringBuilder();
+    /** 訳語・エラーメッセージの符号化 */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** 共通接頭辞検索で一致したバイト数 */
+    private int[] lengths = new int[16];
+    /** 共通接頭辞検索で一致したキーのID */
+    private int[] ids = new int[16];
+    /** 共通接頭辞検索で一致したキーの数 */
+    private int count;
+    /** 共通接頭辞検索の結果を記録するコールバック関数 */
+    private final TrieSearcher.Callback collect = new TrieSearcher.Callback() {
+	    @Override
+	    public void apply(int begin, int offset, int id) {
+		final Connection self = Connection.this;
+		if (self.count == self.lengths.length) {
+		    self.lengths = Arrays.copyOf(self.lengths, self.count * 2);
+		    self.ids = Arrays.copyOf(self.ids, self.count * 2);
+		}
+		self.lengths[self.count] = offset;
+		self.ids[self.count] = id;
+		self.count++;
+	    }
+	};
+
+    Connection(LookupServer server, SocketChannel channel, int maxPayloadSize) {
+	this.server = server;
+	this.channel = channel;
+	this.maxPayloadSize = maxPayloadSize;
+    }
+
+    @Override
+    public void run() {
+	try {
+	    this.serve();
+	} catch (IOException e) {
+	    // 切断された接続は閉じるのみ
+	} finally {
+	    this.close();
+	    this.server.closed(this);
+	}
+    }
+
+    /**
+     * 接続を閉じる (処理中の読み込み・書き込みは例外で終わる)
+     */
+    void close() {
+	try {
+	    this.channel.close();
+	} catch (IOException e) {
+	    // 以降は使用しないため無視する
+	}
+    }
+
+    /**
+     * 切断されるまで要求を処理する
+     */
+    private void serve() throws IOException {
+	while (this.channel.read(this.in) >= 0) {
+	    this.in.flip();
+	    // 一度に受け取った要求は同じ辞書で処理する
+	    final Lexicon lexicon = this.server.lexicon();
+	    while (this.in.remaining() >= Protocol.HEADER_SIZE) {
+		final int start = this.in.position();
+		final int length = this.in.getInt(start + 1);
+		if (length < 0 || length > this.maxPayloadSize) {
+		    this.error("payload too large: " + length);
+		    this.flush();
+		    return;
+		}
+		final int end = start + Protocol.HEADER_SIZE + length;
+		if (end > this.in.limit()) {
+		    break;
+		}
+		this.handle(lexicon, this.in.get(start), start + Protocol.HEADER_SIZE, end);
+		this.in.position(end);
+	    }
+	    this.in.compact();
+	    // 受信途中のフレームが収まらない場合は拡張する
+	    if (this.in.position() >= Protocol.HEADER_SIZE) {
+		final int size = Protocol.HEADER_SIZE + this.in.getInt(1);
+		if (size > this.in.capacity()) {
+		    this.in.flip();
+		    this.in = ByteBuffer.allocate(size).put(this.in);
+		}
+	    }
+	    this.flush();
+	}
+    }
+
+    /**
+     * 一つの要求を処理し、応答を送信バッファへ書き込む
+     *
+     * @param lexicon 検索に使用する辞書
+     * @param op 要求の種別
+     * @param from ペイロードの開始位置
+     * @param to ペイロードの終了位置 (この位置は含まない)
+     */
+    private void handle(Lexicon lexicon, byte op, int from, int to) throws IOException {
+	switch (op) {
+	case Protocol.MEMBERSHIP: {
+	    final int id = lexicon.membership(this.in, from, to);
+	    if (id < 0) {
+		this.header(Protocol.NOT_FOUND, 0);
+	    } else {
+		this.header(Protocol.OK, 4);
+		this.out.putInt(id);
+	    }
+	    break;
+	}
+	case Protocol.PREFIX:
+	    this.count = 0;
+	    lexicon.prefix(this.in, from, to, this.collect);
+	    this.header(Protocol.OK, this.count * 8);
+	    for (int i = 0; i < this.count; i++) {
+		this.out.putInt(this.lengths[i]);
+		this.out.putInt(this.ids[i]);
+	    }
+	    break;
+	case Protocol.TRANSLATION:
+	    if (to - from != 4) {
+		this.error("translation payload must be 4 bytes: " + (to - from));
+		break;
+	    }
+	    this.translation.setLength(0);
+	    try {
+		lexicon.getTranslation(this.in.getInt(from), this.translation);
+	    } catch (IndexOutOfBoundsException e) {
+		this.header(Protocol.NOT_FOUND, 0);
+		break;
+	    }
+	    this.text(Protocol.OK, this.translation);
+	    break;
+	default:
+	    this.error("unknown operation: " + op);
+	}
+    }
+
+    /**
+     * 不正な要求への応答を書き込む
+     *
+     * @param message 理由
+     */
+    private void error(String message) throws IOException {
+	this.text(Protocol.BAD_REQUEST, message);
+    }
+
+    /**
+     * 文字列をペイロードとする応答を書き込む
+     *
+     * @param status 応答の種別
+     * @param text ペイロード
+     */
+    private void text(byte status, CharSequence text) throws IOException {
+	// UTF-16の一文字は最大で3バイト
+	this.reserve(Protocol.HEADER_SIZE + text.length() * 3);
+	final int start = this.out.position();
+	this.out.position(start + Protocol.HEADER_SIZE);
+	this.encoder.reset();
+	this.encoder.encode(CharBuffer.wrap(text), this.out, true);
+	this.encoder.flush(this.out);
+	this.out.put(start, status);
+	this.out.putInt(start + 1, this.out.position() - start - Protocol.HEADER_SIZE);
+    }
+
+    /**
+     * 応答のヘッダを書き込み、ペイロードの領域を確保する
+     *
+     * @param status 応答の種別
+     * @param length ペイロード長
+     */
+    private void header(byte status, int length) throws IOException {
+	this.reserve(Protocol.HEADER_SIZE + length);
+	this.out.put(status);
+	this.out.putInt(length);
+    }
+
+    /**
+     * 送信バッファに指定のバイト数の空きを作る
+     * 足りない場合は送信済みの応答を書き込み、それでも足りない場合は拡張する。
+     */
+    private void reserve(int size) throws IOException {
+	if (this.out.remaining() >= size) {
+	    return;
+	}
+	this.flush();
+	if (this.out.capacity() < size) {
+	    this.out = ByteBuffer.allocate(size);
+	}
+    }
+
+    /**
+     * 送信バッファの内容を全て書き込む
+     */
+    private void flush() throws IOException {
+	this.out.flip();
+	while (this.out.hasRemaining()) {
+	    this.channel.write(this.out);
+	}
+	this.out.clear();
+    }
+}
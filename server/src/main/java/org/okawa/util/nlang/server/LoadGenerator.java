@@ -0,0 +1,282 @@
+package org.okawa.util.nlang.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 検索サーバーの負荷生成クライアント
+ * 指定した数の接続をそれぞれ仮想スレッドで開き、depth件の要求を送ってから応答をまとめて
+ * 受け取ることを繰り返す。ウォームアップ後の要求数から毎秒の処理件数を、要求のまとまり毎
+ * の往復時間の分布から百分位数を求める。百分位数は2のべき乗毎の区間の上限である。
+ *
+ * 引数: アドレス キーのファイル [-c 接続数] [-d パイプラインの深さ] [-t 計測秒数]
+ * [-w ウォームアップ秒数] [-o membership|prefix|translation]
+ * キーのファイルはUTF-8で一行に一つのキーとし、タブ以降は無視する (辞書の入力と同じ形式)。
+ */
+public final class LoadGenerator {
+    /** 往復時間の分布の区間数 (longのビット数 + 1) */
+    private static final int BUCKETS = Long.SIZE + 1;
+    /** キーと訳語の区切り文字 */
+    private static final char SEPARATOR = '\t';
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+	if (args.length < 2) {
+	    System.err.println("usage: LoadGenerator <unix:path | host:port> <keys> [-c connections] [-d depth] [-t seconds] [-w warmup seconds] [-o membership|prefix|translation]");
+	    System.exit(2);
+	}
+	final SocketAddress address = Protocol.parseAddress(args[0]);
+	int connections = 4;
+	int depth = 32;
+	int seconds = 10;
+	int warmup = 2;
+	String name = "membership";
+	for (int i = 2; i + 1 < args.length; i += 2) {
+	    final String value = args[i + 1];
+	    if ("-c".equals(args[i])) {
+		connections = Integer.parseInt(value);
+	    } else if ("-d".equals(args[i])) {
+		depth = Integer.parseInt(value);
+	    } else if ("-t".equals(args[i])) {
+		seconds = Integer.parseInt(value);
+	    } else if ("-w".equals(args[i])) {
+		warmup = Integer.parseInt(value);
+	    } else if ("-o".equals(args[i])) {
+		name = value;
+	    } else {
+		throw new IllegalArgumentException("unknown option: " + args[i]);
+	    }
+	}
+
+	final byte op = LoadGenerator.op(name);
+	final List<String> keys = LoadGenerator.load(args[1]);
+	if (keys.isEmpty()) {
+	    throw new IllegalArgumentException("no keys in " + args[1]);
+	}
+	final int[] ids = op == Protocol.TRANSLATION ? LoadGenerator.resolve(address, keys) : null;
+
+	final long start = System.nanoTime();
+	final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+	final long measureTo = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+	final Worker[] workers = new Worker[connections];
+	final Thread[] threads = new Thread[connections];
+	for (int i = 0; i < connections; i++) {
+	    workers[i] = new Worker(address, op, keys, ids, depth, keys.size() * i / connections, measureFrom, measureTo);
+	    threads[i] = Thread.ofVirtual().name("load-" + i).start(workers[i]);
+	}
+	long requests = 0;
+	final long[] histogram = new long[LoadGenerator.BUCKETS];
+	for (int i = 0; i < connections; i++) {
+	    threads[i].join();
+	    if (workers[i].error != null) {
+		throw workers[i].error;
+	    }
+	    requests += workers[i].requests;
+	    for (int b = 0; b < LoadGenerator.BUCKETS; b++) {
+		histogram[b] += workers[i].histogram[b];
+	    }
+	}
+
+	System.out.printf("op=%s connections=%d depth=%d keys=%d%n", name, connections, depth, keys.size());
+	System.out.printf("requests: %d in %d s, %.0f req/s%n", requests, seconds, requests / (double) seconds);
+	System.out.printf("round trip per batch (ns, upper bound): p50=%d p99=%d p999=%d%n",
+			  LoadGenerator.percentile(histogram, 0.5),
+			  LoadGenerator.percentile(histogram, 0.99),
+			  LoadGenerator.percentile(histogram, 0.999));
+    }
+
+    /**
+     * 一つの接続で要求を送り続ける処理
+     */
+    private static final class Worker implements Runnable {
+	/** サーバーのアドレス */
+	private final SocketAddress address;
+	/** 要求の種別 */
+	private final byte op;
+	/** キー */
+	private final List<String> keys;
+	/** キーのID (translationの場合のみ) */
+	private final int[] ids;
+	/** 一度に送る要求の数 */
+	private final int depth;
+	/** 計測を開始する時刻 */
+	private final long measureFrom;
+	/** 計測を終了する時刻 */
+	private final long measureTo;
+	/** 次に使用するキーのインデックス */
+	private int next;
+	/** 計測中に応答を受け取った要求の数 */
+	private long requests;
+	/** 計測中の往復時間の分布 */
+	private final long[] histogram = new long[LoadGenerator.BUCKETS];
+	/** 失敗した場合の例外 */
+	private Exception error;
+	/** 共通接頭辞検索の結果 (読み捨てる) */
+	private final TrieSearcher.Callback discard = new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		}
+	    };
+
+	Worker(SocketAddress address, byte op, List<String> keys, int[] ids, int depth, int next, long measureFrom, long measureTo) {
+	    this.address = address;
+	    this.op = op;
+	    this.keys = keys;
+	    this.ids = ids;
+	    this.depth = depth;
+	    this.next = next;
+	    this.measureFrom = measureFrom;
+	    this.measureTo = measureTo;
+	}
+
+	@Override
+	public void run() {
+	    try (LookupClient client = new LookupClient(this.address)) {
+		long now = System.nanoTime();
+		while (now < this.measureTo) {
+		    for (int i = 0; i < this.depth; i++) {
+			this.send(client);
+		    }
+		    client.flush();
+		    for (int i = 0; i < this.depth; i++) {
+			this.receive(client);
+		    }
+		    final long end = System.nanoTime();
+		    if (now >= this.measureFrom) {
+			this.requests += this.depth;
+			this.histogram[Long.SIZE - Long.numberOfLeadingZeros(end - now)]++;
+		    }
+		    now = end;
+		}
+	    } catch (IOException e) {
+		this.error = e;
+	    }
+	}
+
+	private void send(LookupClient client) throws IOException {
+	    switch (this.op) {
+	    case Protocol.MEMBERSHIP:
+		client.sendMembership(this.keys.get(this.next));
+		break;
+	    case Protocol.PREFIX:
+		client.sendPrefix(this.keys.get(this.next));
+		break;
+	    default:
+		client.sendTranslation(this.ids[this.next % this.ids.length]);
+		break;
+	    }
+	    if (++this.next == this.keys.size()) {
+		this.next = 0;
+	    }
+	}
+
+	private void receive(LookupClient client) throws IOException {
+	    switch (this.op) {
+	    case Protocol.MEMBERSHIP:
+		client.receiveMembership();
+		break;
+	    case Protocol.PREFIX:
+		client.receivePrefix(this.discard);
+		break;
+	    default:
+		client.receiveTranslation();
+		break;
+	    }
+	}
+    }
+
+    /**
+     * 要求の種別の名称を解釈する
+     */
+    private static byte op(String name) {
+	if ("membership".equals(name)) {
+	    return Protocol.MEMBERSHIP;
+	} else if ("prefix".equals(name)) {
+	    return Protocol.PREFIX;
+	} else if ("translation".equals(name)) {
+	    return Protocol.TRANSLATION;
+	}
+	throw new IllegalArgumentException("unknown operation: " + name);
+    }
+
+    /**
+     * キーを読み込む (タブ以降は無視する)
+     */
+    private static List<String> load(String path) throws IOException {
+	final List<String> keys = new ArrayList<String>();
+	try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		final int separator = line.indexOf(LoadGenerator.SEPARATOR);
+		final String key = separator < 0 ? line : line.substring(0, separator);
+		if (!key.isEmpty()) {
+		    keys.add(key);
+		}
+	    }
+	}
+	return keys;
+    }
+
+    /**
+     * translationで使用するIDをサーバーに問い合わせる (登録されていないキーは除く)
+     */
+    private static int[] resolve(SocketAddress address, List<String> keys) throws IOException {
+	final int batch = 256;
+	final int[] ids = new int[keys.size()];
+	int count = 0;
+	try (LookupClient client = new LookupClient(address)) {
+	    for (int from = 0; from < keys.size(); from += batch) {
+		final int to = Math.min(keys.size(), from + batch);
+		for (int i = from; i < to; i++) {
+		    client.sendMembership(keys.get(i));
+		}
+		client.flush();
+		for (int i = from; i < to; i++) {
+		    final int id = client.receiveMembership();
+		    if (id >= 0) {
+			ids[count++] = id;
+		    }
+		}
+	    }
+	}
+	if (count == 0) {
+	    throw new IllegalArgumentException("no registered keys for translation");
+	}
+	final int[] resolved = new int[count];
+	System.arraycopy(ids, 0, resolved, 0, count);
+	return resolved;
+    }
+
+    /**
+     * 往復時間の分布から百分位数を求める
+     *
+     * @param histogram 往復時間の分布
+     * @param quantile 求める位置 (0から1)
+     * @return 該当する区間の上限 (ナノ秒、要求が無い場合は0)
+     */
+    private static long percentile(long[] histogram, double quantile) {
+	long total = 0;
+	for (long count : histogram) {
+	    total += count;
+	}
+	final long rank = (long) Math.ceil(total * quantile);
+	long count = 0;
+	for (int i = 0; i < histogram.length; i++) {
+	    count += histogram[i];
+	    if (count >= rank && count > 0) {
+		return i == 0 ? 0 : i >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+	    }
+	}
+	return 0;
+    }
+}
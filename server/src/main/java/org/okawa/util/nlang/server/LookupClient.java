@@ -0,0 +1,259 @@
+package org.okawa.util.nlang.server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 検索サーバーのクライアント
+ * membership等は要求を送って応答を待つ。応答を待たずに複数の要求を送る場合は、send*で
+ * 要求を溜めてflushで送り、送った順にreceive*で応答を受け取る。応答を受け取らずに送る
+ * 要求は、ソケットのバッファに収まる数 (数百から数千件) に留めること。
+ *
+ * 一つのクライアントを複数のスレッドから同時に使用しないこと。
+ */
+public final class LookupClient implements Closeable {
+    /** 受信・送信バッファの初期の大きさ */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** 接続 */
+    private final SocketChannel channel;
+    /** 送信バッファ (書き込みモード) */
+    private ByteBuffer out = ByteBuffer.allocate(LookupClient.BUFFER_SIZE);
+    /** 受信バッファ (読み込みモード) */
+    private ByteBuffer in = ByteBuffer.allocate(LookupClient.BUFFER_SIZE).flip();
+    /** キーの符号化 */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * サーバーに接続する
+     *
+     * @param address サーバーのアドレス (InetSocketAddressまたはUnixDomainSocketAddress)
+     */
+    public LookupClient(SocketAddress address) throws IOException {
+	this.channel = SocketChannel.open(address);
+	if (this.channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+	    this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+    }
+
+    /**
+     * キーが登録されているかの問い合わせ
+     *
+     * @param key 検索対象となるキー
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    public int membership(CharSequence key) throws IOException {
+	this.sendMembership(key);
+	this.flush();
+	return this.receiveMembership();
+    }
+
+    /**
+     * 共通接頭辞検索
+     * コールバック関数にはバイト単位の位置 (開始位置として0、一致したキーのUTF-8のバイト数)
+     * を渡す。
+     *
+     * @param query 問い合わせ対象となる文字列
+     * @param func コールバック関数
+     * @return 一致したキーの数
+     */
+    public int prefix(CharSequence query, TrieSearcher.Callback func) throws IOException {
+	this.sendPrefix(query);
+	this.flush();
+	return this.receivePrefix(func);
+    }
+
+    /**
+     * キーワード番号で登録されている訳語を返す
+     *
+     * @param id キーワード登録番号
+     * @return 訳語、IDが範囲外の場合はnull
+     */
+    public String getTranslation(int id) throws IOException {
+	this.sendTranslation(id);
+	this.flush();
+	return this.receiveTranslation();
+    }
+
+    /**
+     * membershipの要求を溜める
+     */
+    public void sendMembership(CharSequence key) throws IOException {
+	this.sendText(Protocol.MEMBERSHIP, key);
+    }
+
+    /**
+     * prefixの要求を溜める
+     */
+    public void sendPrefix(CharSequence query) throws IOException {
+	this.sendText(Protocol.PREFIX, query);
+    }
+
+    /**
+     * getTranslationの要求を溜める
+     */
+    public void sendTranslation(int id) throws IOException {
+	this.reserve(Protocol.HEADER_SIZE + 4);
+	this.out.put(Protocol.TRANSLATION);
+	this.out.putInt(4);
+	this.out.putInt(id);
+    }
+
+    /**
+     * 溜めた要求を全て送る
+     */
+    public void flush() throws IOException {
+	this.out.flip();
+	while (this.out.hasRemaining()) {
+	    this.channel.write(this.out);
+	}
+	this.out.clear();
+    }
+
+    /**
+     * membershipの応答を受け取る
+     *
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    public int receiveMembership() throws IOException {
+	final int length = this.receive();
+	if (length == -1) {
+	    return -1;
+	}
+	if (length != 4) {
+	    throw new ProtocolException("unexpected payload length: " + length);
+	}
+	return this.in.getInt();
+    }
+
+    /**
+     * prefixの応答を受け取る
+     *
+     * @param func コールバック関数 (開始位置として0、一致したバイト数、ID)
+     * @return 一致したキーの数
+     */
+    public int receivePrefix(TrieSearcher.Callback func) throws IOException {
+	final int length = this.receive();
+	if (length < 0 || length % 8 != 0) {
+	    throw new ProtocolException("unexpected payload length: " + length);
+	}
+	final int count = length / 8;
+	for (int i = 0; i < count; i++) {
+	    final int matched = this.in.getInt();
+	    func.apply(0, matched, this.in.getInt());
+	}
+	return count;
+    }
+
+    /**
+     * getTranslationの応答を受け取る
+     *
+     * @return 訳語、IDが範囲外の場合はnull
+     */
+    public String receiveTranslation() throws IOException {
+	final int length = this.receive();
+	if (length == -1) {
+	    return null;
+	}
+	return this.text(length);
+    }
+
+    @Override
+    public void close() throws IOException {
+	this.channel.close();
+    }
+
+    /**
+     * 文字列をペイロードとする要求を溜める
+     */
+    private void sendText(byte op, CharSequence text) throws IOException {
+	// UTF-16の一文字は最大で3バイト
+	this.reserve(Protocol.HEADER_SIZE + text.length() * 3);
+	final int start = this.out.position();
+	this.out.position(start + Protocol.HEADER_SIZE);
+	this.encoder.reset();
+	this.encoder.encode(CharBuffer.wrap(text), this.out, true);
+	this.encoder.flush(this.out);
+	this.out.put(start, op);
+	this.out.putInt(start + 1, this.out.position() - start - Protocol.HEADER_SIZE);
+    }
+
+    /**
+     * 送信バッファに指定のバイト数の空きを作る
+     */
+    private void reserve(int size) throws IOException {
+	if (this.out.remaining() >= size) {
+	    return;
+	}
+	this.flush();
+	if (this.out.capacity() < size) {
+	    this.out = ByteBuffer.allocate(size);
+	}
+    }
+
+    /**
+     * 応答を一つ受け取り、受信バッファをペイロードの先頭に位置付ける
+     *
+     * @return ペイロード長、NOT_FOUNDの場合は-1
+     * @throws ProtocolException サーバーが要求を不正とした場合
+     */
+    private int receive() throws IOException {
+	this.fill(Protocol.HEADER_SIZE);
+	final byte status = this.in.get();
+	final int length = this.in.getInt();
+	this.fill(length);
+	switch (status) {
+	case Protocol.OK:
+	    return length;
+	case Protocol.NOT_FOUND:
+	    this.in.position(this.in.position() + length);
+	    return -1;
+	case Protocol.BAD_REQUEST:
+	    throw new ProtocolException(this.text(length));
+	default:
+	    throw new ProtocolException("unknown status: " + status);
+	}
+    }
+
+    /**
+     * 受信バッファの現在位置からlengthバイトを文字列として読み込む
+     */
+    private String text(int length) {
+	final String text = new String(this.in.array(), this.in.arrayOffset() + this.in.position(), length, StandardCharsets.UTF_8);
+	this.in.position(this.in.position() + length);
+	return text;
+    }
+
+    /**
+     * 受信バッファに少なくともsizeバイトが揃うまで読み込む
+     */
+    private void fill(int size) throws IOException {
+	if (this.in.remaining() >= size) {
+	    return;
+	}
+	if (this.in.capacity() < size) {
+	    this.in = ByteBuffer.allocate(size).put(this.in);
+	} else {
+	    this.in.compact();
+	}
+	while (this.in.position() < size) {
+	    if (this.channel.read(this.in) < 0) {
+		throw new EOFException("connection closed by server");
+	    }
+	}
+	this.in.flip();
+    }
+}
@@ -0,0 +1,244 @@
+package org.okawa.util.nlang.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import org.okawa.util.nlang.dict.DictionaryHolder;
+import org.okawa.util.nlang.dict.DictionarySnapshot;
+import org.okawa.util.nlang.dict.Lexicon;
+
+/**
+ * 辞書をソケット越しに検索させるサーバー
+ * 一つのプロセスが索引を保持し、同じホストの他のプロセスはTCPのループバックまたはUnix
+ * ドメインソケットで接続して検索する。通信規約はProtocolを参照。
+ *
+ * 接続毎に一つの仮想スレッドを割り当てる。仮想スレッドはブロッキングI/Oで待つ間に
+ * キャリアスレッドを占有しないため、接続数に比例するのはメモリのみとなる。
+ *
+ * DictionaryHolderを指定した場合は、受信した要求のまとまり毎に現在のスナップショットを
+ * 取得するため、辞書を差し替えても接続を切る必要はない。
+ */
+public final class LookupServer implements Closeable {
+    /** 検索に使用するスナップショットの保持先 (Lexiconを直接指定した場合はnull) */
+    private final DictionaryHolder holder;
+    /** 検索に使用する辞書 (DictionaryHolderを指定した場合はnull) */
+    private final Lexicon lexicon;
+    /** 要求のペイロード長の上限 */
+    private final int maxPayloadSize;
+    /** 接続の受け付け */
+    private final ServerSocketChannel channel;
+    /** 待ち受けているアドレス */
+    private final SocketAddress address;
+    /** 受け付けと接続の処理を行う仮想スレッドの生成 */
+    private final ThreadFactory threads = Thread.ofVirtual().name("lookup-", 0).factory();
+    /** 処理中の接続 */
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    /** 接続を受け付けるスレッド (開始前はnull) */
+    private Thread acceptor;
+    /** 閉じた場合true */
+    private volatile boolean closed;
+
+    /**
+     * スナップショットを検索するサーバーを待ち受け状態にする
+     * 接続はstartを呼び出すまで受け付けない。
+     *
+     * @param holder 検索に使用するスナップショットの保持先
+     * @param address 待ち受けるアドレス (InetSocketAddressまたはUnixDomainSocketAddress)
+     */
+    public LookupServer(DictionaryHolder holder, SocketAddress address) throws IOException {
+	this(holder, address, Protocol.DEFAULT_MAX_PAYLOAD_SIZE);
+    }
+
+    /**
+     * スナップショットを検索するサーバーを待ち受け状態にする
+     *
+     * @param holder 検索に使用するスナップショットの保持先
+     * @param address 待ち受けるアドレス (InetSocketAddressまたはUnixDomainSocketAddress)
+     * @param maxPayloadSize 要求のペイロード長の上限
+     */
+    public LookupServer(DictionaryHolder holder, SocketAddress address, int maxPayloadSize) throws IOException {
+	this(holder, null, address, maxPayloadSize);
+	if (holder == null) {
+	    throw new NullPointerException("holder");
+	}
+    }
+
+    /**
+     * 辞書を検索するサーバーを待ち受け状態にする
+     * 検索は複数の仮想スレッドから同時に行うため、サーバーを閉じるまで辞書を更新しないこと。
+     *
+     * @param lexicon 検索に使用する辞書
+     * @param address 待ち受けるアドレス (InetSocketAddressまたはUnixDomainSocketAddress)
+     */
+    public LookupServer(Lexicon lexicon, SocketAddress address) throws IOException {
+	this(lexicon, address, Protocol.DEFAULT_MAX_PAYLOAD_SIZE);
+    }
+
+    /**
+     * 辞書を検索するサーバーを待ち受け状態にする
+     *
+     * @param lexicon 検索に使用する辞書
+     * @param address 待ち受けるアドレス (InetSocketAddressまたはUnixDomainSocketAddress)
+     * @param maxPayloadSize 要求のペイロード長の上限
+     */
+    public LookupServer(Lexicon lexicon, SocketAddress address, int maxPayloadSize) throws IOException {
+	this(null, lexicon, address, maxPayloadSize);
+	if (lexicon == null) {
+	    throw new NullPointerException("lexicon");
+	}
+    }
+
+    private LookupServer(DictionaryHolder holder, Lexicon lexicon, SocketAddress address, int maxPayloadSize) throws IOException {
+	if (maxPayloadSize <= 0) {
+	    throw new IllegalArgumentException("maxPayloadSize must be positive: " + maxPayloadSize);
+	}
+	this.holder = holder;
+	this.lexicon = lexicon;
+	this.maxPayloadSize = maxPayloadSize;
+	this.channel = address instanceof UnixDomainSocketAddress
+	    ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+	    : ServerSocketChannel.open();
+	try {
+	    this.channel.bind(address);
+	    this.address = this.channel.getLocalAddress();
+	} catch (IOException e) {
+	    this.channel.close();
+	    throw e;
+	}
+    }
+
+    /**
+     * 待ち受けているアドレス (ポート番号0を指定した場合は割り当てられたポート)
+     */
+    public SocketAddress getLocalAddress() {
+	return this.address;
+    }
+
+    /**
+     * 接続の受け付けを開始する
+     */
+    public synchronized void start() {
+	if (this.acceptor != null) {
+	    throw new IllegalStateException("already started");
+	}
+	this.acceptor = this.threads.newThread(new Runnable() {
+		@Override
+		public void run() {
+		    LookupServer.this.accept();
+		}
+	    });
+	this.acceptor.start();
+    }
+
+    /**
+     * 閉じられるまで待つ
+     */
+    public void join() throws InterruptedException {
+	final Thread acceptor;
+	synchronized (this) {
+	    acceptor = this.acceptor;
+	}
+	if (acceptor != null) {
+	    acceptor.join();
+	}
+    }
+
+    /**
+     * 受け付けを止め、全ての接続を閉じる
+     * Unixドメインソケットの場合はソケットファイルも削除する。
+     */
+    @Override
+    public void close() throws IOException {
+	this.closed = true;
+	this.channel.close();
+	for (Connection connection : this.connections) {
+	    connection.close();
+	}
+	if (this.address instanceof UnixDomainSocketAddress) {
+	    Files.deleteIfExists(((UnixDomainSocketAddress) this.address).getPath());
+	}
+    }
+
+    /**
+     * 要求の処理に使用する辞書
+     */
+    Lexicon lexicon() {
+	return this.holder != null ? this.holder.get() : this.lexicon;
+    }
+
+    /**
+     * 接続の処理が終わった
+     */
+    void closed(Connection connection) {
+	this.connections.remove(connection);
+    }
+
+    /**
+     * 閉じられるまで接続を受け付ける
+     */
+    private void accept() {
+	while (!this.closed) {
+	    final SocketChannel client;
+	    try {
+		client = this.channel.accept();
+	    } catch (IOException e) {
+		// 閉じた場合以外は接続毎の失敗のため受け付けを続ける
+		continue;
+	    }
+	    try {
+		if (client.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+		    // 小さな応答を溜めずに送る
+		    client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		}
+	    } catch (IOException e) {
+		// 遅延が増えるのみ
+	    }
+	    final Connection connection = new Connection(this, client, this.maxPayloadSize);
+	    this.connections.add(connection);
+	    if (this.closed) {
+		connection.close();
+	    }
+	    this.threads.newThread(connection).start();
+	}
+    }
+
+    /**
+     * 辞書ファイルを読み込み、閉じられるまで検索を受け付ける
+     * 引数は辞書ファイルのパスと待ち受けるアドレス ("unix:パス"または"ホスト:ポート")。
+     * 三つ目の引数を指定した場合は、その件数の検索キャッシュを使用する。
+     */
+    public static void main(String[] args) throws Exception {
+	if (args.length < 2) {
+	    System.err.println("usage: LookupServer <dictionary> <unix:path | host:port> [cache capacity]");
+	    System.exit(2);
+	}
+	DictionarySnapshot snapshot = DictionarySnapshot.load(Paths.get(args[0]));
+	if (args.length > 2) {
+	    snapshot = snapshot.withCache(Integer.parseInt(args[2]));
+	}
+	final LookupServer server = new LookupServer(new DictionaryHolder(snapshot), Protocol.parseAddress(args[1]));
+	Runtime.getRuntime().addShutdownHook(new Thread() {
+		@Override
+		public void run() {
+		    try {
+			server.close();
+		    } catch (IOException e) {
+			// 終了するため無視する
+		    }
+		}
+	    });
+	server.start();
+	System.err.println("listening on " + server.getLocalAddress() + " (" + snapshot.size() + " keys)");
+	server.join();
+    }
+}
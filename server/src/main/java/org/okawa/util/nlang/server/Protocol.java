@@ -0,0 +1,65 @@
+package org.okawa.util.nlang.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+
+/**
+ * 検索サーバーの通信規約
+ * 要求・応答とも「種別 (1バイト)、ペイロード長 (4バイト)、ペイロード」のフレームで表す。
+ * 整数はビッグエンディアン、文字列はUTF-8で表す。クライアントは応答を待たずに要求を続けて
+ * 送ってよく (パイプライン)、サーバーは受け取った順に応答する。
+ *
+ * 要求の種別とペイロード:
+ * <ul>
+ * <li>MEMBERSHIP: キー → OK (ID 4バイト) または NOT_FOUND</li>
+ * <li>PREFIX: 問い合わせ文字列 → OK (先頭から一致したキー毎に、バイト数 4バイトとID 4バイト)</li>
+ * <li>TRANSLATION: ID 4バイト → OK (訳語) または NOT_FOUND</li>
+ * </ul>
+ * 不正な要求にはBAD_REQUEST (理由の文字列) を返す。ペイロード長が上限を超える場合は
+ * 以降のフレームの区切りが分からないため、BAD_REQUESTを返して接続を閉じる。
+ */
+public final class Protocol {
+    /** 要求: キーのID */
+    public static final byte MEMBERSHIP = 1;
+    /** 要求: 共通接頭辞検索 */
+    public static final byte PREFIX = 2;
+    /** 要求: IDに対応する訳語 */
+    public static final byte TRANSLATION = 3;
+
+    /** 応答: 成功 */
+    public static final byte OK = 0;
+    /** 応答: キーまたはIDが登録されていない */
+    public static final byte NOT_FOUND = 1;
+    /** 応答: 不正な要求 */
+    public static final byte BAD_REQUEST = 2;
+
+    /** フレームのヘッダ長 (種別 1バイト、ペイロード長 4バイト) */
+    public static final int HEADER_SIZE = 5;
+    /** 要求のペイロード長の上限の既定値 */
+    public static final int DEFAULT_MAX_PAYLOAD_SIZE = 1 << 16;
+
+    /** Unixドメインソケットのアドレスの接頭辞 */
+    private static final String UNIX_PREFIX = "unix:";
+
+    private Protocol() {
+    }
+
+    /**
+     * アドレスの文字列表現を解釈する
+     * "unix:パス"はUnixドメインソケット、"ホスト:ポート"はTCPのアドレスとする。
+     *
+     * @param address アドレスの文字列表現
+     * @return アドレス
+     */
+    public static SocketAddress parseAddress(String address) {
+	if (address.startsWith(Protocol.UNIX_PREFIX)) {
+	    return UnixDomainSocketAddress.of(address.substring(Protocol.UNIX_PREFIX.length()));
+	}
+	final int separator = address.lastIndexOf(':');
+	if (separator < 0) {
+	    throw new IllegalArgumentException("address must be unix:<path> or <host>:<port>: " + address);
+	}
+	return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    }
+}
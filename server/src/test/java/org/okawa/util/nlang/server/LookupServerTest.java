@@ -0,0 +1,245 @@
+package org.okawa.util.nlang.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.dict.DictionaryBuilder;
+import org.okawa.util.nlang.dict.DictionaryHolder;
+import org.okawa.util.nlang.dict.DictionarySnapshot;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 検索サーバーとクライアントの往復のテスト
+ * ループバックのTCPとUnixドメインソケットで、応答を待たずに送った要求のまとまりへの応答が
+ * 送った順に返り、辞書を直接検索した結果と一致することを確認する。
+ */
+public class LookupServerTest {
+    /** 一度に送る要求の数 */
+    private static final int DEPTH = 257;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** 検証するサーバー */
+    private LookupServer server;
+
+    @After
+    public void tearDown() throws IOException {
+	if (this.server != null) {
+	    this.server.close();
+	}
+    }
+
+    /**
+     * ランダムなキーの集合 (昇順)
+     */
+    private static List<String> randomKeys(int count, int maxLength, long seed) {
+	final List<String> keys = Fixtures.randomKeys(count, maxLength, seed);
+	Collections.sort(keys);
+	return keys;
+    }
+
+    /**
+     * キーに"接頭辞:キー"を訳語として登録した辞書
+     */
+    private static Dictionary dictionary(List<String> keys, String prefix) {
+	final DictionaryBuilder builder = new DictionaryBuilder();
+	for (String key : keys) {
+	    builder.add(key, prefix + ":" + key);
+	}
+	return builder.build();
+    }
+
+    /**
+     * 辞書を直接検索した共通接頭辞検索の結果 (一致したバイト数とID)
+     */
+    private static List<String> expectedPrefix(Dictionary dictionary, final String query) {
+	final List<String> matches = new ArrayList<String>();
+	dictionary.prefix(query, 0, new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    final int bytes = query.substring(0, offset).getBytes(StandardCharsets.UTF_8).length;
+		    matches.add(bytes + ":" + id);
+		}
+	    });
+	Collections.sort(matches);
+	return matches;
+    }
+
+    /**
+     * 種別の異なる要求を混ぜたまとまりを送り、応答を辞書と照合する
+     */
+    private static void assertPipelined(LookupClient client, Dictionary dictionary, List<String> keys, long seed) throws IOException {
+	final Random random = new Random(seed);
+	for (int batch = 0; batch < 8; batch++) {
+	    final String[] queries = new String[LookupServerTest.DEPTH];
+	    final int[] ids = new int[LookupServerTest.DEPTH];
+	    for (int i = 0; i < LookupServerTest.DEPTH; i++) {
+		queries[i] = random.nextBoolean()
+		    ? keys.get(random.nextInt(keys.size())) + Fixtures.random(random, random.nextInt(3))
+		    : Fixtures.random(random, 1 + random.nextInt(6));
+		ids[i] = random.nextInt(dictionary.getIdLimit() + 10) - 5;
+		switch (i % 3) {
+		case 0:
+		    client.sendMembership(queries[i]);
+		    break;
+		case 1:
+		    client.sendPrefix(queries[i]);
+		    break;
+		default:
+		    client.sendTranslation(ids[i]);
+		    break;
+		}
+	    }
+	    client.flush();
+	    for (int i = 0; i < LookupServerTest.DEPTH; i++) {
+		switch (i % 3) {
+		case 0:
+		    assertEquals(queries[i], dictionary.membership(queries[i]), client.receiveMembership());
+		    break;
+		case 1:
+		    final List<String> matches = new ArrayList<String>();
+		    final int count = client.receivePrefix(new TrieSearcher.Callback() {
+			    @Override
+			    public void apply(int begin, int offset, int id) {
+				matches.add(offset + ":" + id);
+			    }
+			});
+		    assertEquals(matches.size(), count);
+		    Collections.sort(matches);
+		    assertEquals(queries[i], LookupServerTest.expectedPrefix(dictionary, queries[i]), matches);
+		    break;
+		default:
+		    final String expected = ids[i] < 0 || ids[i] >= dictionary.getIdLimit() ? null : dictionary.getTranslation(ids[i]);
+		    assertEquals(String.valueOf(ids[i]), expected, client.receiveTranslation());
+		    break;
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testLoopbackPipeline() throws IOException {
+	final List<String> keys = LookupServerTest.randomKeys(3000, 6, 1L);
+	final Dictionary dictionary = LookupServerTest.dictionary(keys, "v");
+	this.server = new LookupServer(dictionary, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	this.server.start();
+	try (LookupClient client = new LookupClient(this.server.getLocalAddress())) {
+	    LookupServerTest.assertPipelined(client, dictionary, keys, 2L);
+	    // 一件ずつ待つ問い合わせも同じ接続で続けられる
+	    final int id = client.membership(keys.get(0));
+	    assertEquals(dictionary.membership(keys.get(0)), id);
+	    assertEquals(Fixtures.valueOf(keys.get(0)), client.getTranslation(id));
+	}
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+	final List<String> keys = LookupServerTest.randomKeys(2000, 6, 3L);
+	final Dictionary dictionary = LookupServerTest.dictionary(keys, "v");
+	this.server = new LookupServer(dictionary, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	this.server.start();
+	final Throwable[] errors = new Throwable[4];
+	final Thread[] threads = new Thread[errors.length];
+	for (int i = 0; i < threads.length; i++) {
+	    final int index = i;
+	    threads[i] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			try (LookupClient client = new LookupClient(LookupServerTest.this.server.getLocalAddress())) {
+			    LookupServerTest.assertPipelined(client, dictionary, keys, 10L + index);
+			} catch (Throwable e) {
+			    errors[index] = e;
+			}
+		    }
+		});
+	    threads[i].start();
+	}
+	for (int i = 0; i < threads.length; i++) {
+	    threads[i].join();
+	    if (errors[i] != null) {
+		throw new AssertionError("client " + i, errors[i]);
+	    }
+	}
+    }
+
+    @Test
+    public void testUnixDomainSocket() throws IOException {
+	final List<String> keys = LookupServerTest.randomKeys(1000, 5, 4L);
+	final Dictionary dictionary = LookupServerTest.dictionary(keys, "v");
+	final Path path = this.folder.getRoot().toPath().resolve("lookup.sock");
+	this.server = new LookupServer(new DictionaryHolder(dictionary.snapshot()), UnixDomainSocketAddress.of(path));
+	this.server.start();
+	try (LookupClient client = new LookupClient(this.server.getLocalAddress())) {
+	    LookupServerTest.assertPipelined(client, dictionary, keys, 5L);
+	}
+	this.server.close();
+	assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testSnapshotSwap() throws IOException {
+	final List<String> keys = LookupServerTest.randomKeys(500, 5, 6L);
+	final DictionaryHolder holder = new DictionaryHolder(LookupServerTest.dictionary(keys, "old").snapshot());
+	this.server = new LookupServer(holder, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	this.server.start();
+	try (LookupClient client = new LookupClient(this.server.getLocalAddress())) {
+	    final int id = client.membership(keys.get(0));
+	    assertEquals("old:" + keys.get(0), client.getTranslation(id));
+
+	    // 接続を切らずに次の要求から新しい辞書を検索する
+	    final DictionarySnapshot next = LookupServerTest.dictionary(keys.subList(1, keys.size()), "new").snapshot();
+	    holder.swap(next);
+	    assertEquals(-1, client.membership(keys.get(0)));
+	    final int swapped = client.membership(keys.get(1));
+	    assertEquals(next.membership(keys.get(1)), swapped);
+	    assertEquals("new:" + keys.get(1), client.getTranslation(swapped));
+	}
+    }
+
+    @Test
+    public void testOversizedPayload() throws IOException {
+	final Dictionary dictionary = LookupServerTest.dictionary(LookupServerTest.randomKeys(100, 4, 7L), "v");
+	this.server = new LookupServer(dictionary, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+	this.server.start();
+	try (LookupClient client = new LookupClient(this.server.getLocalAddress())) {
+	    assertEquals(dictionary.membership("abc"), client.membership("abc"));
+	    client.membership("あああああああああ");
+	    fail("payload over the limit must be rejected");
+	} catch (ProtocolException e) {
+	    // 期待通り
+	}
+    }
+
+    @Test
+    public void testTranslationOutOfRange() throws IOException {
+	final Dictionary dictionary = LookupServerTest.dictionary(LookupServerTest.randomKeys(100, 4, 8L), "v");
+	this.server = new LookupServer(dictionary, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	this.server.start();
+	try (LookupClient client = new LookupClient(this.server.getLocalAddress())) {
+	    assertNull(client.getTranslation(-1));
+	    assertNull(client.getTranslation(dictionary.getIdLimit()));
+	    assertEquals(dictionary.getTranslation(0), client.getTranslation(0));
+	}
+    }
+}
@@ -1,21 +1,56 @@
 package org.okawa.util.nlang.dict;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
-import org.okawa.util.nlang.trie.Trie;
+import org.okawa.util.nlang.metrics.Metrics;
+import org.okawa.util.nlang.metrics.MetricsListener;
+import org.okawa.util.nlang.trie.BatchSearch;
+import org.okawa.util.nlang.trie.NavigableTrieSearcher;
+import org.okawa.util.nlang.trie.PrefixMatches;
 import org.okawa.util.nlang.trie.TrieSearcher;
 import org.okawa.util.nlang.trie.impl.DoubleArray;
+import org.okawa.util.nlang.trie.impl.DoubleArrayBuffer;
+import org.okawa.util.nlang.trie.impl.DoubleArrayBufferSearcher;
 import org.okawa.util.nlang.trie.impl.DoubleArrayBuilder;
+import org.okawa.util.nlang.trie.impl.DoubleArrayEditor;
+import org.okawa.util.nlang.trie.impl.DoubleArrayScanner;
 import org.okawa.util.nlang.trie.impl.DoubleArraySearcher;
+import org.okawa.util.nlang.trie.impl.MappedArrays;
 
 /**
  * 辞書実装クラス
  * Trie実装(委譲)クラス
+ * insert/deleteによる更新と検索を複数のスレッドから同時に行うことはできない。
+ * 更新しながら他のスレッドから検索する場合は、snapshotで取り出した変更されない辞書を
+ * DictionaryHolderを介して公開する。
  */
-public class Dictionary implements Trie {
+public class Dictionary implements Lexicon {
+    /** 辞書ファイルのマジックナンバー ("TDIC") */
+    private static final int MAGIC = 0x54444943;
+    /** 辞書ファイルのバージョン */
+    private static final int VERSION = 1;
+    /** 辞書ファイルのヘッダのバイト数 */
+    private static final int HEADER_SIZE = 16;
+
     /** Trie検索クラスを辞書の索引として使用 */
-    private TrieSearcher index;
+    private NavigableTrieSearcher index;
+    /** 索引の実データ (書き出し用) */
+    private DoubleArrayBuffer storage;
     /** 各インデックスに紐づくデータ */
     private LexemeArray lexemes;
+    /** 更新用の索引 (初回の更新まではnull) */
+    private DoubleArrayEditor editor;
+    /** 更新用の翻訳データ (初回の更新まではnull) */
+    private LexemeArrayBuilder translations;
+    /** 全文走査用の状態遷移 (初回の走査まではnull、更新時に破棄) */
+    private volatile DoubleArrayScanner scanner;
+    /** 検索結果のキャッシュ (無効の場合はnull) */
+    private LookupCache cache;
 
     /**
      * 語彙素から辞書を生成する
@@ -24,14 +59,77 @@ public class Dictionary implements Trie {
      * @param sorted trueの場合、語彙素は整列されているものとしてデータを構築
      */
     public Dictionary(List<? extends Lexeme> lexemes, boolean sorted) {
+	this(lexemes, sorted, false);
+    }
+
+    /**
+     * 語彙素から辞書を生成する
+     * offHeapがtrueの場合、索引と翻訳データはヒープ外のバッファへ直接構築され、GCの走査
+     * 対象とならない。確保した領域は辞書が回収された時点で解放される。
+     *
+     * @param lexemes 語彙素配列
+     * @param sorted trueの場合、語彙素は整列されているものとしてデータを構築
+     * @param offHeap trueの場合、ヒープ外のバッファ上に辞書を構築
+     */
+    public Dictionary(List<? extends Lexeme> lexemes, boolean sorted, boolean offHeap) {
+	this(lexemes, sorted, offHeap, false);
+    }
+
+    /**
+     * 語彙素から辞書を生成する
+     * parallelがtrueの場合、索引は複数のコアで並列に構築される。IDは逐次構築と同一となる。
+     *
+     * @param lexemes 語彙素配列
+     * @param sorted trueの場合、語彙素は整列されているものとしてデータを構築
+     * @param offHeap trueの場合、ヒープ外のバッファ上に辞書を構築
+     * @param parallel trueの場合、索引を並列に構築
+     */
+    public Dictionary(List<? extends Lexeme> lexemes, boolean sorted, boolean offHeap, boolean parallel) {
+	this(lexemes, sorted, offHeap, parallel, false);
+    }
+
+    /**
+     * 語彙素から辞書を生成する
+     * remapがtrueの場合、キーワード中の出現頻度の高い文字から順に小さな文字コードを
+     * 割り当てて索引を構築する。漢字と仮名が混在する辞書のように文字が文字コード上で
+     * 散在する場合に、索引の配列が小さくなる。検索結果は変わらない。
+     *
+     * @param lexemes 語彙素配列
+     * @param sorted trueの場合、語彙素は整列されているものとしてデータを構築
+     * @param offHeap trueの場合、ヒープ外のバッファ上に辞書を構築
+     * @param parallel trueの場合、索引を並列に構築
+     * @param remap trueの場合、出現頻度順の文字コードで索引を構築
+     */
+    public Dictionary(List<? extends Lexeme> lexemes, boolean sorted, boolean offHeap, boolean parallel, boolean remap) {
 	// 元データとなる語彙素配列準備
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
 	LexemeArrayBuilder lexemeArrayBuilder = new LexemeArrayBuilder(lexemes);
-	// Double-Array生成
-	DoubleArray doubleArray = DoubleArrayBuilder.build(lexemeArrayBuilder.getTrieEntryList(), sorted, lexemeArrayBuilder);
-	// Lexeme-Array生成
-	this.lexemes = LexemeArrayBuilder.build(lexemeArrayBuilder);
-	// 索引生成
-	this.index = new DoubleArraySearcher(doubleArray);
+	long lexemesNanos = Metrics.ENABLED ? System.nanoTime() - start : 0L;
+	if (offHeap) {
+	    // Double-Array生成
+	    DoubleArrayBuffer doubleArray = DoubleArrayBuilder.buildDirect(lexemeArrayBuilder.getTrieEntryList(), sorted, parallel, remap, lexemeArrayBuilder);
+	    // Lexeme-Array生成
+	    final long lexemesStart = Metrics.ENABLED ? System.nanoTime() : 0L;
+	    this.lexemes = LexemeArrayBuilder.buildDirect(lexemeArrayBuilder);
+	    lexemesNanos += Metrics.ENABLED ? System.nanoTime() - lexemesStart : 0L;
+	    // 索引生成
+	    this.index = new DoubleArrayBufferSearcher(doubleArray);
+	    this.storage = doubleArray;
+	} else {
+	    // Double-Array生成
+	    DoubleArray doubleArray = DoubleArrayBuilder.build(lexemeArrayBuilder.getTrieEntryList(), sorted, parallel, remap, lexemeArrayBuilder);
+	    // Lexeme-Array生成
+	    final long lexemesStart = Metrics.ENABLED ? System.nanoTime() : 0L;
+	    this.lexemes = LexemeArrayBuilder.build(lexemeArrayBuilder);
+	    lexemesNanos += Metrics.ENABLED ? System.nanoTime() - lexemesStart : 0L;
+	    // 索引生成
+	    this.index = new DoubleArraySearcher(doubleArray);
+	    // 書き出し用にラップ
+	    this.storage = DoubleArrayBuffer.wrap(doubleArray);
+	}
+	if (Metrics.ENABLED) {
+	    Metrics.buildPhase(MetricsListener.Phase.LEXEMES, lexemesNanos);
+	}
     }
 
     /**
@@ -43,10 +141,191 @@ public class Dictionary implements Trie {
     public Dictionary(DoubleArray index, LexemeArray lexemes) {
 	// 索引登録
 	this.index = new DoubleArraySearcher(index);
+	// 書き出し用にラップ
+	this.storage = DoubleArrayBuffer.wrap(index);
+	// 翻訳後データ登録
+	this.lexemes = lexemes;
+    }
+
+    /**
+     * バッファ上のDouble-ArrayとLexeme-Arrayから辞書をインスタンス化
+     *
+     * @param index 索引となるTrie木
+     * @param lexemes 翻訳データ
+     */
+    public Dictionary(DoubleArrayBuffer index, LexemeArray lexemes) {
+	// 索引登録
+	this.index = new DoubleArrayBufferSearcher(index);
+	this.storage = index;
 	// 翻訳後データ登録
 	this.lexemes = lexemes;
     }
 
+    /**
+     * 辞書ファイルをメモリマップして読み込む
+     * 配列はヒープへコピーされず、マップしたファイルから直接検索を行う。
+     *
+     * @param path writeメソッドで書き出した辞書ファイル
+     * @return 読み込んだ辞書
+     */
+    public static Dictionary load(Path path) throws IOException {
+	FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+	try {
+	    ByteBuffer header = MappedArrays.readHeader(channel, 0, Dictionary.HEADER_SIZE, Dictionary.MAGIC);
+	    int version = header.getInt();
+	    if (version != Dictionary.VERSION) {
+		throw new IOException("unsupported dictionary version: " + version);
+	    }
+	    // マップした領域はチャネルを閉じた後も有効
+	    DoubleArrayBuffer doubleArray = DoubleArrayBuffer.map(channel, Dictionary.HEADER_SIZE);
+	    LexemeArray lexemes = LexemeArray.map(channel, Dictionary.HEADER_SIZE + doubleArray.byteSize());
+	    return new Dictionary(doubleArray, lexemes);
+	} finally {
+	    channel.close();
+	}
+    }
+
+    /**
+     * 辞書をバイナリ形式でファイルへ書き出す
+     *
+     * @param path 書き出し先
+     */
+    public void write(Path path) throws IOException {
+	if (this.editor == null) {
+	    Dictionary.write(path, this.storage, this.lexemes);
+	} else {
+	    Dictionary.write(path, this.editor.wrap(), LexemeArrayBuilder.build(this.translations));
+	}
+    }
+
+    /**
+     * 索引と翻訳データをバイナリ形式でファイルへ書き出す
+     *
+     * @param path 書き出し先
+     * @param storage 索引の実データ
+     * @param lexemes 翻訳データ
+     */
+    static void write(Path path, DoubleArrayBuffer storage, LexemeArray lexemes) throws IOException {
+	FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	try {
+	    ByteBuffer header = ByteBuffer.allocate(Dictionary.HEADER_SIZE).order(ByteOrder.nativeOrder());
+	    header.putInt(Dictionary.MAGIC);
+	    header.putInt(Dictionary.VERSION);
+	    header.putLong(0L);
+	    header.flip();
+	    MappedArrays.writeFully(channel, header);
+	    storage.write(channel);
+	    lexemes.write(channel);
+	} finally {
+	    channel.close();
+	}
+    }
+
+    /**
+     * 現在の内容を変更されないスナップショットとして取り出す
+     * 一度も更新していない場合は索引と翻訳データを共有し、更新済みの場合は使用中の範囲を
+     * 複製する。以降の更新はスナップショットに反映されない。
+     *
+     * @return 複数のスレッドから同時に検索できるスナップショット
+     */
+    public DictionarySnapshot snapshot() {
+	// キャッシュは同じ容量で空のものを新たに用意する
+	final LookupCache cache = this.cache == null ? null : new LookupCache(this.cache.capacity());
+	if (this.editor == null) {
+	    return new DictionarySnapshot(this.index, this.storage, this.lexemes, cache);
+	}
+	final DoubleArray doubleArray = this.editor.snapshot();
+	return new DictionarySnapshot(new DoubleArraySearcher(doubleArray),
+				      DoubleArrayBuffer.wrap(doubleArray),
+				      LexemeArrayBuilder.build(this.translations),
+				      cache);
+    }
+
+    /**
+     * 検索結果のキャッシュを設定する
+     * 有効にすると、membershipとtranslateの結果をキー毎に保持し、同じキーの検索では索引の
+     * 探索と訳語の復号を省く。キャッシュは容量を超えないよう追い出しを行い、insert/deleteで
+     * 更新したキーの結果は破棄する。検索を始める前に設定すること。
+     *
+     * @param capacity 保持する最大件数、0の場合はキャッシュを無効にする
+     */
+    public void setCacheCapacity(int capacity) {
+	this.cache = capacity == 0 ? null : new LookupCache(capacity);
+    }
+
+    /**
+     * 検索結果のキャッシュ (統計の参照用)
+     *
+     * @return キャッシュ、無効の場合はnull
+     */
+    public LookupCache getCache() {
+	return this.cache;
+    }
+
+    /**
+     * キーと訳語を登録する
+     * キーが既に登録されている場合は訳語を更新する。初回の更新時に索引と翻訳データを
+     * ヒープ上へ複製する (ヒープ外のバッファやファイルから読み込んだ辞書も同様)。
+     *
+     * @param key 登録するキー
+     * @param value 訳語
+     * @return キーのID
+     */
+    public int insert(String key, String value) {
+	return this.insert(key, value, 0);
+    }
+
+    /**
+     * キーと訳語をコストと共に登録する
+     * キーが既に登録されている場合は訳語とコストを更新する。
+     *
+     * @param key 登録するキー
+     * @param value 訳語
+     * @param cost コスト
+     * @return キーのID
+     */
+    public int insert(String key, String value, int cost) {
+	final int id = this.edit().insert(key);
+	this.scanner = null;
+	if (this.cache != null) {
+	    this.cache.invalidate(key);
+	}
+	if (id < this.translations.size()) {
+	    this.translations.set(id, value, cost);
+	} else {
+	    this.translations.add(value, cost);
+	}
+	return id;
+    }
+
+    /**
+     * キーを削除する
+     * 削除したキーのIDは再利用されない。
+     *
+     * @param key 削除するキー
+     * @return 削除したキーのID、登録されていない場合は-1
+     */
+    public int delete(String key) {
+	final int id = this.edit().delete(key);
+	this.scanner = null;
+	if (this.cache != null) {
+	    this.cache.invalidate(key);
+	}
+	return id;
+    }
+
+    /**
+     * 更新用の索引と翻訳データを準備する
+     */
+    private DoubleArrayEditor edit() {
+	if (this.editor == null) {
+	    this.editor = new DoubleArrayEditor(this.storage);
+	    this.translations = new LexemeArrayBuilder(this.lexemes);
+	    this.index = this.editor;
+	}
+	return this.editor;
+    }
+
     /**
      * キーが登録されているかの問い合わせ
      *
@@ -55,7 +334,73 @@ public class Dictionary implements Trie {
      */
     @Override
     public int membership(CharSequence key) {
-	return this.index.membership(key);
+	final LookupCache cache = this.cache;
+	if (cache == null) {
+	    return this.index.membership(key);
+	}
+	return this.lookup(cache, key).id;
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     * キーを文字列へ変換しないため、キャッシュは使用しない。
+     *
+     * @param utf8 検索対象となるバイト列 (位置とリミットは参照しない)
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(ByteBuffer utf8, int from, int to) {
+	return this.index.membership(utf8, from, to);
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     *
+     * @param utf8 検索対象となるバイト列
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(byte[] utf8, int from, int to) {
+	return this.membership(ByteBuffer.wrap(utf8), from, to);
+    }
+
+    /**
+     * キーに登録されている訳語を返す
+     * キャッシュが有効の場合は、復号した訳語もキャッシュする。
+     *
+     * @param key 検索対象となるキー
+     * @return 訳語、キーが登録されていない場合はnull
+     */
+    @Override
+    public String translate(CharSequence key) {
+	final LookupCache cache = this.cache;
+	if (cache == null) {
+	    final int id = this.index.membership(key);
+	    return id < 0 ? null : this.getTranslation(id);
+	}
+	final LookupCache.Entry entry = this.lookup(cache, key);
+	if (entry.id < 0) {
+	    return null;
+	}
+	String translation = entry.translation;
+	if (translation == null) {
+	    translation = this.getTranslation(entry.id);
+	    entry.translation = translation;
+	}
+	return translation;
+    }
+
+    /**
+     * キャッシュした検索結果を返す (ない場合は索引を検索して追加)
+     * ヒットした場合はキーを文字列へ変換しない。
+     */
+    private LookupCache.Entry lookup(LookupCache cache, CharSequence key) {
+	final LookupCache.Entry entry = cache.get(key);
+	return entry != null ? entry : cache.put(key, this.index.membership(key));
     }
 
     /**
@@ -73,13 +418,172 @@ public class Dictionary implements Trie {
 	this.index.eachCommonPrefix(query, begin, func);
     }
 
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     * コールバック関数にはバイト単位の位置 (開始位置としてfrom、一致したバイト数) を渡す。
+     *
+     * @param utf8 問い合わせ対象となるバイト列 (位置とリミットは参照しない)
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(ByteBuffer utf8, int from, int to, TrieSearcher.Callback func) {
+	this.index.eachCommonPrefix(utf8, from, to, func);
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     *
+     * @param utf8 問い合わせ対象となるバイト列
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(byte[] utf8, int from, int to, TrieSearcher.Callback func) {
+	this.prefix(ByteBuffer.wrap(utf8), from, to, func);
+    }
+
+    /**
+     * 一括でキーが登録されているかの問い合わせ
+     *
+     * @param keys 検索対象となるキー
+     * @param ids 結果の格納先 (キーが存在する場合はそのID、それ意外は-1)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    @Override
+    public void membership(CharSequence[] keys, int[] ids, boolean parallel) {
+	BatchSearch.membership(this.index, keys, ids, parallel);
+    }
+
+    /**
+     * 一括共通接頭辞検索
+     *
+     * @param queries 問い合わせ対象となるクエリ
+     * @param begin 問い合わせ時、各クエリ開始位置
+     * @param matches 結果の格納先 (クエリ番号順に追加される)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    @Override
+    public void prefix(CharSequence[] queries, int begin, PrefixMatches matches, boolean parallel) {
+	BatchSearch.eachCommonPrefix(this.index, queries, begin, matches, parallel);
+    }
+
+    /**
+     * 予測検索
+     * 接頭辞で始まるキーを辞書順に最大limit件列挙する。列挙中に更新した場合の結果は
+     * 保証しない。
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    @Override
+    public TrieSearcher.Cursor predictive(CharSequence prefix, int limit) {
+	return this.index.predictive(prefix, limit);
+    }
+
+    /**
+     * 近似検索
+     * クエリとの編集距離がmaxDistance以下のキー毎に (ID, 編集距離) でコールバック関数を
+     * 呼び出す。
+     *
+     * @param query 問い合わせ対象となるクエリ
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    @Override
+    public void approximate(CharSequence query, int maxDistance, TrieSearcher.DistanceCallback func) {
+	this.index.eachApproximate(query, maxDistance, func);
+    }
+
+    /**
+     * テキスト中に出現する全てのキーの検索
+     * 初回の呼び出し時に索引からAho-Corasick法の失敗遷移を構築し、以降はテキストの長さに
+     * 比例する時間で走査する。同じ位置で終わるキーは長いものから順に報告する。
+     *
+     * @param text 走査するテキスト
+     * @param func コールバック関数
+     */
+    @Override
+    public void scan(CharSequence text, TrieSearcher.Callback func) {
+	this.scanner().scan(text, func);
+    }
+
+    /**
+     * テキストの走査に使用するAho-Corasick法の状態遷移
+     * 初回の呼び出し時に失敗遷移を構築する。キーの登録・削除後は作り直すため、それ以前に
+     * 取得したものは更新前の内容を走査する。
+     * テキストを少しずつ読み込みながら走査する場合に使用する (DoubleArrayScanner#step参照)。
+     */
+    public DoubleArrayScanner scanner() {
+	DoubleArrayScanner scanner = this.scanner;
+	if (scanner == null) {
+	    synchronized (this) {
+		if (this.scanner == null) {
+		    this.scanner = new DoubleArrayScanner(this.editor == null ? this.storage : this.editor.wrap());
+		}
+		scanner = this.scanner;
+	    }
+	}
+	return scanner;
+    }
+
     /**
      * キーワード番号で登録されている訳語を返す
      *
      * @param id キーワード登録番号
      * @return 翻訳後の単語
      */
+    @Override
     public String getTranslation(int id) {
+	if (this.translations != null) {
+	    return this.translations.get(id);
+	}
 	return this.lexemes.get(id);
     }
+
+    /**
+     * キーワード番号で登録されているコストを返す
+     * WeightedLexeme以外の語彙素から構築した場合は0を返す。
+     *
+     * @param id キーワード登録番号
+     * @return コスト
+     */
+    @Override
+    public int getCost(int id) {
+	if (this.translations != null) {
+	    return this.translations.getCost(id);
+	}
+	return this.lexemes.getCost(id);
+    }
+
+    /**
+     * キーワード番号で登録されている訳語を追記する
+     * 訳語の文字列を生成しないため、追記先を再利用することで検索毎のオブジェクト生成を
+     * 避けられる。
+     *
+     * @param id キーワード登録番号
+     * @param dst 追記先
+     * @return 追記先
+     */
+    @Override
+    public StringBuilder getTranslation(int id, StringBuilder dst) {
+	if (this.translations != null) {
+	    return this.translations.get(id, dst);
+	}
+	return this.lexemes.get(id, dst);
+    }
+
+    /**
+     * 付与済みのIDの上限 (削除されたキーワードのIDも含む)
+     */
+    @Override
+    public int getIdLimit() {
+	if (this.translations != null) {
+	    return this.translations.size();
+	}
+	return this.lexemes.size();
+    }
 }
@@ -0,0 +1,139 @@
+package org.okawa.util.nlang.dict;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import org.okawa.util.nlang.trie.Trie;
+import org.okawa.util.nlang.trie.impl.DoubleArrayStreamBuilder;
+
+/**
+ * 整列済みの語彙素を一件ずつ受け取り辞書を構築するビルダー
+ * 語彙素のリストを保持せず、構築中の索引と訳語の配列のみを保持するため、入力全体を
+ * メモリ上に展開できない大きな辞書ソースから一度の走査で辞書を構築できる。
+ *
+ * キーは昇順 (String#compareToの順序) に追加されなければならない。同一のキーが続く場合
+ * は先頭の語彙素のみ登録する。
+ */
+public final class DictionaryBuilder {
+    /** キーと訳語の区切り文字 (テキスト入力時) */
+    private static final char SEPARATOR = '\t';
+
+    /** 索引のビルダー */
+    private final DoubleArrayStreamBuilder index = new DoubleArrayStreamBuilder();
+    /** 訳語のビルダー */
+    private final LexemeArrayBuilder lexemes = new LexemeArrayBuilder();
+    /** trueの場合、ヒープ外のバッファ上に辞書を構築 */
+    private final boolean offHeap;
+
+    /**
+     * ヒープ上に辞書を構築するビルダーをインスタンス化
+     */
+    public DictionaryBuilder() {
+	this(false);
+    }
+
+    /**
+     * ビルダーをインスタンス化
+     *
+     * @param offHeap trueの場合、ヒープ外のバッファ上に辞書を構築
+     */
+    public DictionaryBuilder(boolean offHeap) {
+	this.offHeap = offHeap;
+    }
+
+    /**
+     * キーと訳語を追加する
+     *
+     * @param key キー
+     * @param value 訳語
+     * @return 登録された場合true、直前と同一のキーの場合false
+     * @throws IllegalArgumentException キーが直前のキーより小さい場合
+     */
+    public boolean add(String key, String value) {
+	return this.add(key, value, 0);
+    }
+
+    /**
+     * キーと訳語をコストと共に追加する
+     *
+     * @param key キー
+     * @param value 訳語
+     * @param cost コスト
+     * @return 登録された場合true、直前と同一のキーの場合false
+     * @throws IllegalArgumentException キーが直前のキーより小さい場合
+     */
+    public boolean add(String key, String value, int cost) {
+	if (this.index.add(key) < 0) {
+	    return false;
+	}
+	this.lexemes.add(value, cost);
+	return true;
+    }
+
+    /**
+     * 語彙素を順に追加する
+     * WeightedLexemeの場合はコストも追加する。
+     *
+     * @param entries 整列済みの語彙素
+     */
+    public DictionaryBuilder addAll(Iterator<? extends Trie.Entry> entries) {
+	while (entries.hasNext()) {
+	    final Trie.Entry entry = entries.next();
+	    final int cost = entry instanceof WeightedLexeme ? ((WeightedLexeme) entry).getCost() : 0;
+	    this.add(entry.getKey(), entry.getValue(), cost);
+	}
+	return this;
+    }
+
+    /**
+     * タブ区切りテキスト (一行につき「キー TAB 訳語」) から語彙素を順に追加する
+     * タブを含まない行は訳語を空文字列とし、空行は読み飛ばす。Readerは閉じない。
+     *
+     * @param reader 整列済みの語彙素を含むテキスト
+     */
+    public DictionaryBuilder addAll(Reader reader) throws IOException {
+	final BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+	String line;
+	while ((line = lines.readLine()) != null) {
+	    if (line.isEmpty()) {
+		continue;
+	    }
+	    final int separator = line.indexOf(DictionaryBuilder.SEPARATOR);
+	    if (separator < 0) {
+		this.add(line, "");
+	    } else {
+		this.add(line.substring(0, separator), line.substring(separator + 1));
+	    }
+	}
+	return this;
+    }
+
+    /**
+     * UTF-8のタブ区切りテキストファイルから語彙素を順に追加する
+     *
+     * @param path 整列済みの語彙素を含むテキストファイル
+     */
+    public DictionaryBuilder addAll(Path path) throws IOException {
+	final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+	try {
+	    return this.addAll(reader);
+	} finally {
+	    reader.close();
+	}
+    }
+
+    /**
+     * 辞書を構築する
+     * 構築後は語彙素を追加できない。
+     */
+    public Dictionary build() {
+	if (this.offHeap) {
+	    return new Dictionary(this.index.buildDirect(), LexemeArrayBuilder.buildDirect(this.lexemes));
+	}
+	return new Dictionary(this.index.build(), LexemeArrayBuilder.build(this.lexemes));
+    }
+}
@@ -0,0 +1,98 @@
+package org.okawa.util.nlang.dict;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 検索中に差し替え可能な辞書の参照
+ * 検索側はgetで取り出したスナップショットを一回の処理の間使い続ける。取り出しはvolatile
+ * 読み込み一回のみでロックを取らず、差し替えは参照の置き換え一回で行うため、検索が停止
+ * したり、新旧の辞書が混在した状態が見えたりすることはない。
+ *
+ * 差し替え前のスナップショットは、それを取り出した検索が全て終わり参照されなくなった
+ * 時点でGCにより回収される (ヒープ外のバッファやマップしたファイルの領域も同様)。
+ * 明示的な解放は行わないため、検索側はスナップショットをフィールド等に保持し続けない
+ * こと。
+ */
+public final class DictionaryHolder {
+    /** 現在のスナップショット */
+    private final AtomicReference<DictionarySnapshot> current;
+
+    /**
+     * 初期のスナップショットを指定してインスタンス化
+     *
+     * @param initial 初期のスナップショット
+     */
+    public DictionaryHolder(DictionarySnapshot initial) {
+	if (initial == null) {
+	    throw new NullPointerException("initial");
+	}
+	this.current = new AtomicReference<DictionarySnapshot>(initial);
+    }
+
+    /**
+     * 現在のスナップショットを返す
+     */
+    public DictionarySnapshot get() {
+	return this.current.get();
+    }
+
+    /**
+     * スナップショットを差し替える
+     *
+     * @param next 新しいスナップショット
+     * @return 差し替え前のスナップショット
+     */
+    public DictionarySnapshot swap(DictionarySnapshot next) {
+	if (next == null) {
+	    throw new NullPointerException("next");
+	}
+	return this.current.getAndSet(next);
+    }
+
+    /**
+     * 現在のスナップショットがexpectedの場合のみ差し替える
+     * 同じスナップショットを元に複数のスレッドが再構築した場合に、後から終わった再構築で
+     * 先に差し替えた内容を上書きしないために使用する。
+     *
+     * @param expected 元としたスナップショット
+     * @param next 新しいスナップショット
+     * @return 差し替えた場合true
+     */
+    public boolean swap(DictionarySnapshot expected, DictionarySnapshot next) {
+	if (next == null) {
+	    throw new NullPointerException("next");
+	}
+	return this.current.compareAndSet(expected, next);
+    }
+
+    /**
+     * 呼び出したスレッドで新しいスナップショットを構築し、差し替える
+     * 構築中も検索は現在のスナップショットに対して行われる。構築に失敗した場合は差し替え
+     * ない。
+     *
+     * @param loader 新しいスナップショットの構築処理 (例: DictionarySnapshot.load)
+     * @return 差し替え前のスナップショット
+     */
+    public DictionarySnapshot reload(Callable<? extends DictionarySnapshot> loader) throws Exception {
+	return this.swap(loader.call());
+    }
+
+    /**
+     * 別のスレッドで新しいスナップショットを構築し、差し替える
+     *
+     * @param executor 構築を行うスレッド
+     * @param loader 新しいスナップショットの構築処理
+     * @return 差し替え前のスナップショット (構築に失敗した場合はその例外)
+     */
+    public Future<DictionarySnapshot> reloadAsync(ExecutorService executor, final Callable<? extends DictionarySnapshot> loader) {
+	return executor.submit(new Callable<DictionarySnapshot>() {
+		@Override
+		public DictionarySnapshot call() throws Exception {
+		    return DictionaryHolder.this.reload(loader);
+		}
+	    });
+    }
+}
@@ -0,0 +1,331 @@
+package org.okawa.util.nlang.dict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import org.okawa.util.nlang.trie.BatchSearch;
+import org.okawa.util.nlang.trie.NavigableTrieSearcher;
+import org.okawa.util.nlang.trie.PrefixMatches;
+import org.okawa.util.nlang.trie.TrieSearcher;
+import org.okawa.util.nlang.trie.impl.DoubleArrayBuffer;
+import org.okawa.util.nlang.trie.impl.DoubleArrayScanner;
+
+/**
+ * 変更されない辞書
+ * Dictionary.snapshotで生成する。索引と翻訳データは生成後に書き換えられず、全ての
+ * フィールドはfinal (全文走査用の状態遷移のみ初回の走査時に生成、キャッシュは内部で
+ * 排他制御) のため、同期なしに複数のスレッドから同時に検索できる。辞書の差し替えにはDictionaryHolderを使用する。
+ */
+public final class DictionarySnapshot implements Lexicon {
+    /** 索引 */
+    private final NavigableTrieSearcher index;
+    /** 索引の実データ (書き出し用) */
+    private final DoubleArrayBuffer storage;
+    /** 各インデックスに紐づくデータ */
+    private final LexemeArray lexemes;
+    /** 全文走査用の状態遷移 (初回の走査まではnull) */
+    private volatile DoubleArrayScanner scanner;
+    /** 検索結果のキャッシュ (無効の場合はnull) */
+    private final LookupCache cache;
+
+    /**
+     * 索引と翻訳データからインスタンス化
+     *
+     * @param index 索引
+     * @param storage 索引の実データ
+     * @param lexemes 翻訳データ
+     * @param cache 検索結果のキャッシュ (無効の場合はnull)
+     */
+    DictionarySnapshot(NavigableTrieSearcher index, DoubleArrayBuffer storage, LexemeArray lexemes, LookupCache cache) {
+	this.index = index;
+	this.storage = storage;
+	this.lexemes = lexemes;
+	this.cache = cache;
+    }
+
+    /**
+     * 検索結果のキャッシュを持つスナップショットを返す
+     * 索引と翻訳データは共有し、キャッシュは空の状態から始める。スナップショットは変更
+     * されないため、キャッシュした結果が古くなることはなく、DictionaryHolderで差し替えれば
+     * キャッシュも共に入れ替わる。
+     *
+     * @param capacity 保持する最大件数、0の場合はキャッシュを持たない
+     * @return 新しいスナップショット
+     */
+    public DictionarySnapshot withCache(int capacity) {
+	return new DictionarySnapshot(this.index, this.storage, this.lexemes, capacity == 0 ? null : new LookupCache(capacity));
+    }
+
+    /**
+     * 検索結果のキャッシュ (統計の参照用)
+     *
+     * @return キャッシュ、無効の場合はnull
+     */
+    public LookupCache getCache() {
+	return this.cache;
+    }
+
+    /**
+     * 辞書ファイルをメモリマップして読み込む
+     *
+     * @param path Dictionary.writeまたはwriteメソッドで書き出した辞書ファイル
+     * @return 読み込んだスナップショット
+     */
+    public static DictionarySnapshot load(Path path) throws IOException {
+	return Dictionary.load(path).snapshot();
+    }
+
+    /**
+     * 辞書をバイナリ形式でファイルへ書き出す
+     *
+     * @param path 書き出し先
+     */
+    public void write(Path path) throws IOException {
+	Dictionary.write(path, this.storage, this.lexemes);
+    }
+
+    /**
+     * 格納されているキーワード数
+     */
+    public int size() {
+	return this.storage.keySetSize;
+    }
+
+    /**
+     * 付与済みのIDの上限 (削除されたキーワードのIDも含む)
+     */
+    @Override
+    public int getIdLimit() {
+	return this.lexemes.size();
+    }
+
+    /**
+     * キーが登録されているかの問い合わせ
+     *
+     * @param key 検索対象となるキー
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(CharSequence key) {
+	final LookupCache cache = this.cache;
+	if (cache == null) {
+	    return this.index.membership(key);
+	}
+	return this.lookup(cache, key).id;
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     * キーを文字列へ変換しないため、キャッシュは使用しない。
+     *
+     * @param utf8 検索対象となるバイト列 (位置とリミットは参照しない)
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(ByteBuffer utf8, int from, int to) {
+	return this.index.membership(utf8, from, to);
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     *
+     * @param utf8 検索対象となるバイト列
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(byte[] utf8, int from, int to) {
+	return this.membership(ByteBuffer.wrap(utf8), from, to);
+    }
+
+    /**
+     * キーに登録されている訳語を返す
+     * キャッシュを持つ場合は、復号した訳語もキャッシュする。
+     *
+     * @param key 検索対象となるキー
+     * @return 訳語、キーが登録されていない場合はnull
+     */
+    @Override
+    public String translate(CharSequence key) {
+	final LookupCache cache = this.cache;
+	if (cache == null) {
+	    final int id = this.index.membership(key);
+	    return id < 0 ? null : this.lexemes.get(id);
+	}
+	final LookupCache.Entry entry = this.lookup(cache, key);
+	if (entry.id < 0) {
+	    return null;
+	}
+	String translation = entry.translation;
+	if (translation == null) {
+	    translation = this.lexemes.get(entry.id);
+	    entry.translation = translation;
+	}
+	return translation;
+    }
+
+    /**
+     * キャッシュした検索結果を返す (ない場合は索引を検索して追加)
+     * ヒットした場合はキーを文字列へ変換しない。
+     */
+    private LookupCache.Entry lookup(LookupCache cache, CharSequence key) {
+	final LookupCache.Entry entry = cache.get(key);
+	return entry != null ? entry : cache.put(key, this.index.membership(key));
+    }
+
+    /**
+     * 共通接頭辞検索
+     *
+     * @param query 問い合わせ対象となるクエリ
+     * @param begin 問い合わせ時、クエリ開始位置
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(CharSequence query, int begin, TrieSearcher.Callback func) {
+	this.index.eachCommonPrefix(query, begin, func);
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     * コールバック関数にはバイト単位の位置 (開始位置としてfrom、一致したバイト数) を渡す。
+     *
+     * @param utf8 問い合わせ対象となるバイト列 (位置とリミットは参照しない)
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(ByteBuffer utf8, int from, int to, TrieSearcher.Callback func) {
+	this.index.eachCommonPrefix(utf8, from, to, func);
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     *
+     * @param utf8 問い合わせ対象となるバイト列
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(byte[] utf8, int from, int to, TrieSearcher.Callback func) {
+	this.prefix(ByteBuffer.wrap(utf8), from, to, func);
+    }
+
+    /**
+     * 一括でキーが登録されているかの問い合わせ
+     *
+     * @param keys 検索対象となるキー
+     * @param ids 結果の格納先 (キーが存在する場合はそのID、それ意外は-1)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    @Override
+    public void membership(CharSequence[] keys, int[] ids, boolean parallel) {
+	BatchSearch.membership(this.index, keys, ids, parallel);
+    }
+
+    /**
+     * 一括共通接頭辞検索
+     *
+     * @param queries 問い合わせ対象となるクエリ
+     * @param begin 問い合わせ時、各クエリ開始位置
+     * @param matches 結果の格納先 (クエリ番号順に追加される)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    @Override
+    public void prefix(CharSequence[] queries, int begin, PrefixMatches matches, boolean parallel) {
+	BatchSearch.eachCommonPrefix(this.index, queries, begin, matches, parallel);
+    }
+
+    /**
+     * 予測検索
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    @Override
+    public TrieSearcher.Cursor predictive(CharSequence prefix, int limit) {
+	return this.index.predictive(prefix, limit);
+    }
+
+    /**
+     * 近似検索
+     *
+     * @param query 問い合わせ対象となるクエリ
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    @Override
+    public void approximate(CharSequence query, int maxDistance, TrieSearcher.DistanceCallback func) {
+	this.index.eachApproximate(query, maxDistance, func);
+    }
+
+    /**
+     * テキスト中に出現する全てのキーの検索
+     * 初回の呼び出し時に失敗遷移を構築する。同時に初回の走査を行ったスレッドのうち一つ
+     * だけが構築し、他のスレッドは構築を待つ。
+     *
+     * @param text 走査するテキスト
+     * @param func コールバック関数
+     */
+    @Override
+    public void scan(CharSequence text, TrieSearcher.Callback func) {
+	this.scanner().scan(text, func);
+    }
+
+    /**
+     * テキストの走査に使用するAho-Corasick法の状態遷移
+     * 初回の呼び出し時に失敗遷移を構築し、以降は同じものを返す。
+     * テキストを少しずつ読み込みながら走査する場合に使用する (DoubleArrayScanner#step参照)。
+     */
+    public DoubleArrayScanner scanner() {
+	DoubleArrayScanner scanner = this.scanner;
+	if (scanner == null) {
+	    synchronized (this) {
+		if (this.scanner == null) {
+		    this.scanner = new DoubleArrayScanner(this.storage);
+		}
+		scanner = this.scanner;
+	    }
+	}
+	return scanner;
+    }
+
+    /**
+     * キーワード番号で登録されている訳語を返す
+     *
+     * @param id キーワード登録番号
+     * @return 翻訳後の単語
+     */
+    @Override
+    public String getTranslation(int id) {
+	return this.lexemes.get(id);
+    }
+
+    /**
+     * キーワード番号で登録されているコストを返す
+     *
+     * @param id キーワード登録番号
+     * @return コスト
+     */
+    @Override
+    public int getCost(int id) {
+	return this.lexemes.getCost(id);
+    }
+
+    /**
+     * キーワード番号で登録されている訳語を追記する
+     *
+     * @param id キーワード登録番号
+     * @param dst 追記先
+     * @return 追記先
+     */
+    @Override
+    public StringBuilder getTranslation(int id, StringBuilder dst) {
+	return this.lexemes.get(id, dst);
+    }
+}
@@ -0,0 +1,311 @@
+package org.okawa.util.nlang.dict;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.okawa.util.nlang.trie.BatchSearch;
+import org.okawa.util.nlang.trie.PrefixMatches;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 基底の辞書に件数の少ない辞書 (Overlay) を重ね、一つの辞書として検索する
+ * 後に指定したOverlayほど優先され、上位の層に登録または削除されたキーは下位の層では
+ * 検索されない。基底の辞書は変更せず共有するため、Overlayを差し替えたLayeredDictionaryは
+ * Overlayの件数に比例する時間で作り直せる。
+ *
+ * IDは上位4ビットに層の番号 (基底が0、Overlayは指定順に1から) を持つ。基底の辞書のIDは
+ * そのまま使用できる。各層のIDは2^27未満でなければならない。
+ *
+ * 構築後は変更されないため、複数のスレッドから同時に検索できる。ただし各層は構築後に
+ * 更新しないこと (更新した場合は作り直す)。
+ */
+public final class LayeredDictionary implements Lexicon {
+    /** 各層 (0が基底) */
+    private final Lexicon[] layers;
+    /** 重ねた辞書の検索 */
+    private final LayeredSearcher index;
+
+    /**
+     * 基底の辞書とOverlayからインスタンス化
+     *
+     * @param base 基底の辞書
+     * @param overlays 重ねる辞書 (後に指定したものが優先)
+     */
+    public LayeredDictionary(Lexicon base, Overlay... overlays) {
+	this(base, Arrays.asList(overlays));
+    }
+
+    /**
+     * 基底の辞書とOverlayからインスタンス化
+     * 各Overlayのキーを下位の層で検索し、隠されるIDを求める。基底の辞書の大きさには
+     * 依存しない。
+     *
+     * @param base 基底の辞書
+     * @param overlays 重ねる辞書 (後に指定したものが優先)
+     * @throws IllegalArgumentException 層が多すぎる場合、またはIDが2^27以上の層がある場合
+     */
+    public LayeredDictionary(Lexicon base, List<Overlay> overlays) {
+	if (overlays.size() >= LayeredSearcher.MAX_LAYERS) {
+	    throw new IllegalArgumentException("too many overlays: " + overlays.size());
+	}
+	this.layers = new Lexicon[overlays.size() + 1];
+	this.layers[0] = base;
+	for (int i = 0; i < overlays.size(); i++) {
+	    this.layers[i + 1] = overlays.get(i).getEntries();
+	}
+	for (Lexicon layer : this.layers) {
+	    if (layer.getIdLimit() > LayeredSearcher.LOCAL_MASK + 1) {
+		throw new IllegalArgumentException("too many ids in a layer: " + layer.getIdLimit());
+	    }
+	}
+	// 上位の層から順に、それより上の層のキー (登録と削除) を下位の層で検索する
+	final int[][] hidden = new int[this.layers.length][];
+	final List<String> shadowing = new ArrayList<String>();
+	for (int layer = this.layers.length - 1; layer >= 0; layer--) {
+	    hidden[layer] = LayeredDictionary.find(this.layers[layer], shadowing);
+	    if (layer > 0) {
+		final Overlay overlay = overlays.get(layer - 1);
+		final TrieSearcher.Cursor cursor = overlay.getEntries().predictive("", Integer.MAX_VALUE);
+		while (cursor.next()) {
+		    shadowing.add(cursor.key().toString());
+		}
+		shadowing.addAll(Arrays.asList(overlay.getRemoved()));
+	    }
+	}
+	this.index = new LayeredSearcher(this.layers, hidden);
+    }
+
+    /**
+     * 層に登録されているキーのIDを昇順で返す
+     *
+     * @param layer 層
+     * @param keys 検索するキー
+     */
+    private static int[] find(Lexicon layer, List<String> keys) {
+	int[] ids = new int[keys.size()];
+	int size = 0;
+	for (String key : keys) {
+	    final int id = layer.membership(key);
+	    if (id >= 0) {
+		ids[size++] = id;
+	    }
+	}
+	ids = Arrays.copyOf(ids, size);
+	Arrays.sort(ids);
+	return ids;
+    }
+
+    /**
+     * IDが属する層の番号 (基底が0)
+     *
+     * @param id membership等が返したID
+     */
+    public static int layerOf(int id) {
+	return id >>> LayeredSearcher.LAYER_SHIFT;
+    }
+
+    /**
+     * IDの層内でのID
+     *
+     * @param id membership等が返したID
+     */
+    public static int localId(int id) {
+	return id & LayeredSearcher.LOCAL_MASK;
+    }
+
+    /**
+     * キーが登録されているかの問い合わせ
+     *
+     * @param key 検索対象となるキー
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(CharSequence key) {
+	return this.index.membership(key);
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     *
+     * @param utf8 検索対象となるバイト列 (位置とリミットは参照しない)
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(ByteBuffer utf8, int from, int to) {
+	return this.index.membership(utf8, from, to);
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     *
+     * @param utf8 検索対象となるバイト列
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    @Override
+    public int membership(byte[] utf8, int from, int to) {
+	return this.membership(ByteBuffer.wrap(utf8), from, to);
+    }
+
+    /**
+     * 共通接頭辞検索
+     * 各層の結果を一致した文字数の昇順に併合して報告する。
+     *
+     * @param query 問い合わせ対象となるクエリ
+     * @param begin 問い合わせ時、クエリ開始位置
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(CharSequence query, int begin, TrieSearcher.Callback func) {
+	this.index.eachCommonPrefix(query, begin, func);
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     * 各層の結果をバイト単位の位置の順に併合して報告する。
+     *
+     * @param utf8 問い合わせ対象となるバイト列 (位置とリミットは参照しない)
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(ByteBuffer utf8, int from, int to, TrieSearcher.Callback func) {
+	this.index.eachCommonPrefix(utf8, from, to, func);
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     *
+     * @param utf8 問い合わせ対象となるバイト列
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    @Override
+    public void prefix(byte[] utf8, int from, int to, TrieSearcher.Callback func) {
+	this.prefix(ByteBuffer.wrap(utf8), from, to, func);
+    }
+
+    /**
+     * 一括でキーが登録されているかの問い合わせ
+     *
+     * @param keys 検索対象となるキー
+     * @param ids 結果の格納先 (キーが存在する場合はそのID、それ意外は-1)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    @Override
+    public void membership(CharSequence[] keys, int[] ids, boolean parallel) {
+	BatchSearch.membership(this.index, keys, ids, parallel);
+    }
+
+    /**
+     * 一括共通接頭辞検索
+     *
+     * @param queries 問い合わせ対象となるクエリ
+     * @param begin 問い合わせ時、各クエリ開始位置
+     * @param matches 結果の格納先 (クエリ番号順に追加される)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    @Override
+    public void prefix(CharSequence[] queries, int begin, PrefixMatches matches, boolean parallel) {
+	BatchSearch.eachCommonPrefix(this.index, queries, begin, matches, parallel);
+    }
+
+    /**
+     * テキスト中に出現する全てのキーの検索
+     * 各層を走査し、単一の辞書と同じ順 (終了位置の昇順、同じ位置で終わるキーは長いもの
+     * から) に併合して報告する。
+     *
+     * @param text 走査するテキスト
+     * @param func コールバック関数
+     */
+    @Override
+    public void scan(CharSequence text, TrieSearcher.Callback func) {
+	this.index.scan(text, func);
+    }
+
+    /**
+     * 予測検索
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    @Override
+    public TrieSearcher.Cursor predictive(CharSequence prefix, int limit) {
+	return this.index.predictive(prefix, limit);
+    }
+
+    /**
+     * 近似検索
+     * 上位の層から順に報告する。
+     *
+     * @param query 問い合わせ対象となるクエリ
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    @Override
+    public void approximate(CharSequence query, int maxDistance, TrieSearcher.DistanceCallback func) {
+	this.index.eachApproximate(query, maxDistance, func);
+    }
+
+    /**
+     * キーに登録されている訳語を返す
+     *
+     * @param key 検索対象となるキー
+     * @return 訳語、キーが登録されていない場合はnull
+     */
+    @Override
+    public String translate(CharSequence key) {
+	final int id = this.index.membership(key);
+	return id < 0 ? null : this.getTranslation(id);
+    }
+
+    /**
+     * キーワード番号で登録されている訳語を返す
+     *
+     * @param id キーワード登録番号
+     * @return 翻訳後の単語
+     */
+    @Override
+    public String getTranslation(int id) {
+	return this.layers[LayeredDictionary.layerOf(id)].getTranslation(LayeredDictionary.localId(id));
+    }
+
+    /**
+     * キーワード番号で登録されている訳語を追記する
+     *
+     * @param id キーワード登録番号
+     * @param dst 追記先
+     * @return 追記先
+     */
+    @Override
+    public StringBuilder getTranslation(int id, StringBuilder dst) {
+	return this.layers[LayeredDictionary.layerOf(id)].getTranslation(LayeredDictionary.localId(id), dst);
+    }
+
+    /**
+     * キーワード番号で登録されているコストを返す
+     *
+     * @param id キーワード登録番号
+     * @return コスト
+     */
+    @Override
+    public int getCost(int id) {
+	return this.layers[LayeredDictionary.layerOf(id)].getCost(LayeredDictionary.localId(id));
+    }
+
+    /**
+     * 付与済みのIDの上限 (最上位の層のIDの上限)
+     */
+    @Override
+    public int getIdLimit() {
+	final int top = this.layers.length - 1;
+	return LayeredSearcher.id(top, this.layers[top].getIdLimit());
+    }
+}
@@ -0,0 +1,406 @@
+package org.okawa.util.nlang.dict;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.okawa.util.nlang.trie.NavigableTrieSearcher;
+import org.okawa.util.nlang.trie.PrefixMatches;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 重ねた辞書を一つの辞書として検索する
+ * 各層の検索結果から上位の層に隠されたキーを除き、IDに層の番号を付けて報告する。共通接頭辞
+ * 検索と全文走査では、件数の少ない上位の層の結果を先に集め、基底の層の結果と一致した位置の
+ * 順に併合するため、報告の順序は単一の辞書と同じになる。
+ */
+final class LayeredSearcher implements NavigableTrieSearcher {
+    /** IDのうち層の番号を格納するビット位置 */
+    static final int LAYER_SHIFT = 27;
+    /** IDのうち層内のIDを取り出すマスク */
+    static final int LOCAL_MASK = (1 << LayeredSearcher.LAYER_SHIFT) - 1;
+    /** 層の最大数 */
+    static final int MAX_LAYERS = 1 << (31 - LayeredSearcher.LAYER_SHIFT);
+
+    /** 各層 (0が基底、番号の大きいものが優先) */
+    private final Lexicon[] layers;
+    /** 各層で上位の層に隠されているID (昇順) */
+    private final int[][] hidden;
+
+    /**
+     * 各層と隠されているIDからインスタンス化
+     */
+    LayeredSearcher(Lexicon[] layers, int[][] hidden) {
+	this.layers = layers;
+	this.hidden = hidden;
+    }
+
+    /**
+     * 層の番号と層内のIDから一意なIDを作る
+     */
+    static int id(int layer, int local) {
+	return (layer << LayeredSearcher.LAYER_SHIFT) | local;
+    }
+
+    /**
+     * 層内のIDが上位の層に隠されていない場合true
+     */
+    private boolean isVisible(int layer, int local) {
+	final int[] hidden = this.hidden[layer];
+	return hidden.length == 0 || Arrays.binarySearch(hidden, local) < 0;
+    }
+
+    /**
+     * 重ねた層がなく、基底の層をそのまま検索できる場合true
+     */
+    private boolean isFlat() {
+	return this.layers.length == 1;
+    }
+
+    /**
+     * 一致したキーの並び順
+     * 終了位置の昇順、同じ位置で終わるものは長い順 (同じ開始位置では短い順と一致)。
+     */
+    private static long order(int begin, int offset) {
+	return ((long) (begin + offset) << 32) | (Integer.MAX_VALUE - offset);
+    }
+
+    /**
+     * 上位の層で一致したキー
+     * 層毎に並び順に報告されたものを、並び順を保って併合しながら蓄える。
+     */
+    private final class Pending implements TrieSearcher.Callback {
+	/** 開始位置 (最初に一致するまではnull) */
+	private int[] begins;
+	/** 一致した文字数 */
+	private int[] offsets;
+	/** ID (層の番号付き) */
+	private int[] ids;
+	/** 件数 */
+	private int size;
+	/** 収集中の層 */
+	private int layer;
+	/** 収集中の層の結果の開始位置 */
+	private int runStart;
+
+	/**
+	 * 層の結果の収集を始める
+	 */
+	void select(int layer) {
+	    this.layer = layer;
+	    this.runStart = this.size;
+	}
+
+	@Override
+	public void apply(int begin, int offset, int id) {
+	    if (!LayeredSearcher.this.isVisible(this.layer, id)) {
+		return;
+	    }
+	    if (this.begins == null) {
+		// 上位の層は一致しないことが多いため、最初に一致した時点で確保する
+		this.begins = new int[8];
+		this.offsets = new int[8];
+		this.ids = new int[8];
+	    } else if (this.size == this.begins.length) {
+		this.begins = Arrays.copyOf(this.begins, this.size * 2);
+		this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+		this.ids = Arrays.copyOf(this.ids, this.size * 2);
+	    }
+	    this.begins[this.size] = begin;
+	    this.offsets[this.size] = offset;
+	    this.ids[this.size] = LayeredSearcher.id(this.layer, id);
+	    this.size++;
+	}
+
+	/**
+	 * 収集した層の結果をそれまでの結果と併合する
+	 */
+	void merge() {
+	    final int middle = this.runStart;
+	    if (middle == 0 || middle == this.size) {
+		return;
+	    }
+	    final int[] begins = new int[this.begins.length];
+	    final int[] offsets = new int[this.offsets.length];
+	    final int[] ids = new int[this.ids.length];
+	    int i = 0, j = middle, k = 0;
+	    while (i < middle || j < this.size) {
+		final int from = j == this.size
+		    || (i < middle && LayeredSearcher.order(this.begins[i], this.offsets[i]) < LayeredSearcher.order(this.begins[j], this.offsets[j]))
+		    ? i++ : j++;
+		begins[k] = this.begins[from];
+		offsets[k] = this.offsets[from];
+		ids[k++] = this.ids[from];
+	    }
+	    this.begins = begins;
+	    this.offsets = offsets;
+	    this.ids = ids;
+	}
+
+	/** i番目の並び順 */
+	long order(int i) {
+	    return LayeredSearcher.order(this.begins[i], this.offsets[i]);
+	}
+
+	/** i番目を報告する */
+	void apply(int i, TrieSearcher.Callback func) {
+	    func.apply(this.begins[i], this.offsets[i], this.ids[i]);
+	}
+    }
+
+    /**
+     * 基底の層の結果を、上位の層の結果と並び順に併合して報告する
+     */
+    private final class Merger implements TrieSearcher.Callback {
+	/** 上位の層の結果 */
+	private final Pending pending;
+	/** 報告先 */
+	private final TrieSearcher.Callback func;
+	/** 次に報告する上位の層の結果 */
+	private int next;
+
+	Merger(Pending pending, TrieSearcher.Callback func) {
+	    this.pending = pending;
+	    this.func = func;
+	}
+
+	@Override
+	public void apply(int begin, int offset, int id) {
+	    if (!LayeredSearcher.this.isVisible(0, id)) {
+		return;
+	    }
+	    final long order = LayeredSearcher.order(begin, offset);
+	    while (this.next < this.pending.size && this.pending.order(this.next) < order) {
+		this.pending.apply(this.next++, this.func);
+	    }
+	    this.func.apply(begin, offset, id);
+	}
+
+	/**
+	 * 残りの上位の層の結果を報告する
+	 */
+	void flush() {
+	    while (this.next < this.pending.size) {
+		this.pending.apply(this.next++, this.func);
+	    }
+	}
+    }
+
+    @Override
+    public int membership(CharSequence key) {
+	// 最初に見つかった層のみが有効 (隠されている場合は上位の層で削除されている)
+	for (int layer = this.layers.length - 1; layer >= 0; layer--) {
+	    final int id = this.layers[layer].membership(key);
+	    if (id >= 0) {
+		return this.isVisible(layer, id) ? LayeredSearcher.id(layer, id) : -1;
+	    }
+	}
+	return -1;
+    }
+
+    @Override
+    public void eachCommonPrefix(CharSequence query, int begin, TrieSearcher.Callback func) {
+	if (this.isFlat()) {
+	    this.layers[0].prefix(query, begin, func);
+	    return;
+	}
+	final Pending pending = new Pending();
+	for (int layer = this.layers.length - 1; layer > 0; layer--) {
+	    pending.select(layer);
+	    this.layers[layer].prefix(query, begin, pending);
+	    pending.merge();
+	}
+	final Merger merger = new Merger(pending, func);
+	this.layers[0].prefix(query, begin, merger);
+	merger.flush();
+    }
+
+    @Override
+    public int membership(ByteBuffer utf8, int from, int to) {
+	for (int layer = this.layers.length - 1; layer >= 0; layer--) {
+	    final int id = this.layers[layer].membership(utf8, from, to);
+	    if (id >= 0) {
+		return this.isVisible(layer, id) ? LayeredSearcher.id(layer, id) : -1;
+	    }
+	}
+	return -1;
+    }
+
+    @Override
+    public void eachCommonPrefix(ByteBuffer utf8, int from, int to, TrieSearcher.Callback func) {
+	if (this.isFlat()) {
+	    this.layers[0].prefix(utf8, from, to, func);
+	    return;
+	}
+	// 一致した位置はバイト単位だが、並び順は文字単位の場合と同じ
+	final Pending pending = new Pending();
+	for (int layer = this.layers.length - 1; layer > 0; layer--) {
+	    pending.select(layer);
+	    this.layers[layer].prefix(utf8, from, to, pending);
+	    pending.merge();
+	}
+	final Merger merger = new Merger(pending, func);
+	this.layers[0].prefix(utf8, from, to, merger);
+	merger.flush();
+    }
+
+    /**
+     * テキスト中に出現する全てのキーの検索
+     *
+     * @param text 走査するテキスト
+     * @param func コールバック関数
+     */
+    void scan(CharSequence text, TrieSearcher.Callback func) {
+	if (this.isFlat()) {
+	    this.layers[0].scan(text, func);
+	    return;
+	}
+	final Pending pending = new Pending();
+	for (int layer = this.layers.length - 1; layer > 0; layer--) {
+	    pending.select(layer);
+	    this.layers[layer].scan(text, pending);
+	    pending.merge();
+	}
+	final Merger merger = new Merger(pending, func);
+	this.layers[0].scan(text, merger);
+	merger.flush();
+    }
+
+    @Override
+    public void membership(CharSequence[] keys, int from, int to, int[] ids) {
+	for (int i = from; i < to; i++) {
+	    ids[i] = this.membership(keys[i]);
+	}
+    }
+
+    @Override
+    public void eachCommonPrefix(CharSequence[] queries, int from, int to, int begin, PrefixMatches matches) {
+	for (int i = from; i < to; i++) {
+	    matches.select(i);
+	    this.eachCommonPrefix(queries[i], begin, matches);
+	}
+    }
+
+    /**
+     * 予測検索
+     * 各層のカーソルを辞書順に併合する。
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    @Override
+    public TrieSearcher.Cursor predictive(CharSequence prefix, int limit) {
+	if (this.isFlat()) {
+	    return this.layers[0].predictive(prefix, limit);
+	}
+	final TrieSearcher.Cursor[] cursors = new TrieSearcher.Cursor[this.layers.length];
+	for (int layer = 0; layer < this.layers.length; layer++) {
+	    // 隠されたキーを読み飛ばすため、各層からは件数を制限せずに取り出す
+	    cursors[layer] = this.layers[layer].predictive(prefix, Integer.MAX_VALUE);
+	}
+	return new MergedCursor(cursors, limit);
+    }
+
+    /**
+     * 文字コード順に比較する
+     */
+    private static int compare(CharSequence a, CharSequence b) {
+	final int length = Math.min(a.length(), b.length());
+	for (int i = 0; i < length; i++) {
+	    if (a.charAt(i) != b.charAt(i)) {
+		return a.charAt(i) - b.charAt(i);
+	    }
+	}
+	return a.length() - b.length();
+    }
+
+    /**
+     * 各層のカーソルの併合
+     * 各層から隠されていないキーを一件ずつ先読みし、辞書順で最小のものを取り出す。
+     */
+    private final class MergedCursor implements TrieSearcher.Cursor {
+	/** 各層のカーソル */
+	private final TrieSearcher.Cursor[] cursors;
+	/** 各層のカーソルが先読みしたキーを持つ場合true */
+	private final boolean[] ready;
+	/** 残りの取り出し件数 */
+	private int remaining;
+	/** 直前に取り出した層 (未取り出しの場合は-1) */
+	private int current = -1;
+
+	MergedCursor(TrieSearcher.Cursor[] cursors, int limit) {
+	    this.cursors = cursors;
+	    this.ready = new boolean[cursors.length];
+	    this.remaining = limit;
+	    for (int layer = 0; layer < cursors.length; layer++) {
+		this.advance(layer);
+	    }
+	}
+
+	/**
+	 * 層のカーソルを隠されていない次のキーまで進める
+	 */
+	private void advance(int layer) {
+	    final TrieSearcher.Cursor cursor = this.cursors[layer];
+	    boolean ready;
+	    while ((ready = cursor.next()) && !LayeredSearcher.this.isVisible(layer, cursor.id())) {
+		// 上位の層に隠されたキーを読み飛ばす
+	    }
+	    this.ready[layer] = ready;
+	}
+
+	@Override
+	public boolean next() {
+	    if (this.current >= 0) {
+		this.advance(this.current);
+		this.current = -1;
+	    }
+	    if (this.remaining <= 0) {
+		return false;
+	    }
+	    for (int layer = 0; layer < this.cursors.length; layer++) {
+		if (this.ready[layer]
+		    && (this.current < 0 || LayeredSearcher.compare(this.cursors[layer].key(), this.cursors[this.current].key()) < 0)) {
+		    this.current = layer;
+		}
+	    }
+	    if (this.current < 0) {
+		return false;
+	    }
+	    this.remaining--;
+	    return true;
+	}
+
+	@Override
+	public CharSequence key() {
+	    return this.cursors[this.current].key();
+	}
+
+	@Override
+	public int id() {
+	    return LayeredSearcher.id(this.current, this.cursors[this.current].id());
+	}
+    }
+
+    /**
+     * 近似検索
+     * 上位の層から順に報告する。
+     *
+     * @param query 問い合わせる文字列
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    @Override
+    public void eachApproximate(CharSequence query, int maxDistance, final TrieSearcher.DistanceCallback func) {
+	for (int layer = this.layers.length - 1; layer >= 0; layer--) {
+	    final int l = layer;
+	    this.layers[layer].approximate(query, maxDistance, new TrieSearcher.DistanceCallback() {
+		    @Override
+		    public void apply(int id, int distance) {
+			if (LayeredSearcher.this.isVisible(l, id)) {
+			    func.apply(LayeredSearcher.id(l, id), distance);
+			}
+		    }
+		});
+	}
+    }
+}
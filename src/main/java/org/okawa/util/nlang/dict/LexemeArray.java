@@ -1,40 +1,312 @@
 package org.okawa.util.nlang.dict;
 
-import java.util.List;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import org.okawa.util.nlang.trie.impl.DynamicIntArray;
+import org.okawa.util.nlang.trie.impl.MappedArrays;
 
 /**
  * 辞書データクラス
  * キーIDに対して翻訳語をシーケンシャルに格納 (省メモリ)
+ * 各配列はヒープ上の配列をラップしたもの、またはファイルからメモリマップしたものを扱う。
+ *
+ * DATA配列の各訳語はバイト数 (7ビット毎の可変長整数) に続けてCESU-8で格納する。CESU-8は
+ * サロゲートペアを一文字ずつ3バイトで符号化するため、復号結果は元の文字列と一致する。
+ * 同一の訳語は一つの領域を共有し、各IDの開始位置はDATA配列の長さに応じたビット幅で
+ * long配列に詰めて格納する。コストは全ての語彙素のコストが0の場合は格納しない。
  */
 final class LexemeArray {
-    /** DATA配列 開始位置配列 */
-    private final List<Integer> begins;
-    /** DATA配列 データ長 */
-    private final List<Integer> lengths;
+    /** マジックナンバー ("LEXA") */
+    private static final int MAGIC = 0x4C455841;
+    /** フォーマットのバージョン */
+    private static final int VERSION = 2;
+    /** ヘッダのバイト数 */
+    private static final int HEADER_SIZE = 24;
+
+    /** 格納されている訳語数 */
+    private final int count;
+    /** 開始位置一つ当たりのビット数 */
+    private final int bits;
+    /** DATA配列 開始位置配列 (ビット単位で連結) */
+    private final LongBuffer offsets;
     /** DATA配列 */
-    private final String data;
+    private final ByteBuffer data;
+    /** 各IDのコスト (全て0の場合は空) */
+    private final IntBuffer costs;
 
     /**
      * ビルダーからインスタンス化
      */
     public LexemeArray(LexemeArrayBuilder builder) {
+	this.count = builder.size();
+	this.bits = LexemeArray.bitsFor(builder.getDataSize());
 	// DATA配列開始位置セット
-	this.begins = builder.getBegins();
-	// DATA長配列セット
-	this.lengths = builder.getLengths();
+	this.offsets = LongBuffer.wrap(LexemeArray.pack(builder.getOffsets(), this.bits)).asReadOnlyBuffer();
 	// 実データ配列セット
-	this.data = builder.getData();
+	this.data = ByteBuffer.wrap(builder.getData(), 0, builder.getDataSize()).slice().asReadOnlyBuffer();
+	// コスト配列セット
+	this.costs = IntBuffer.wrap(LexemeArray.costs(builder)).asReadOnlyBuffer();
+    }
+
+    /**
+     * 各配列からインスタンス化
+     */
+    private LexemeArray(int count, int bits, LongBuffer offsets, ByteBuffer data, IntBuffer costs) {
+	this.count = count;
+	this.bits = bits;
+	this.offsets = offsets;
+	this.data = data;
+	this.costs = costs;
+    }
+
+    /**
+     * ビルダーからヒープ外のバッファ上にインスタンス化
+     *
+     * @param builder 構築済みのビルダー
+     */
+    public static LexemeArray allocateDirect(LexemeArrayBuilder builder) {
+	final int bits = LexemeArray.bitsFor(builder.getDataSize());
+	final long[] packed = LexemeArray.pack(builder.getOffsets(), bits);
+	final LongBuffer offsets = MappedArrays.allocateLongs(packed.length);
+	offsets.put(packed).clear();
+	final ByteBuffer data = MappedArrays.allocateBytes(builder.getDataSize());
+	data.put(builder.getData(), 0, builder.getDataSize()).clear();
+	final int[] weights = LexemeArray.costs(builder);
+	final IntBuffer costs = MappedArrays.allocateInts(weights.length);
+	costs.put(weights).clear();
+	return new LexemeArray(builder.size(), bits, offsets.asReadOnlyBuffer(), data.asReadOnlyBuffer(), costs.asReadOnlyBuffer());
+    }
+
+    /**
+     * ビルダーのコストを訳語数の配列として返す (全て0の場合は空の配列)
+     */
+    private static int[] costs(LexemeArrayBuilder builder) {
+	return builder.getCosts().size() > 0 ? builder.getCosts().toArray(builder.size()) : new int[0];
+    }
+
+    /**
+     * 開始位置の格納に必要なビット数
+     *
+     * @param dataSize DATA配列のバイト数
+     */
+    private static int bitsFor(int dataSize) {
+	return Math.max(1, 32 - Integer.numberOfLeadingZeros(dataSize));
+    }
+
+    /**
+     * 開始位置をビット単位で連結したlong配列に詰める
+     *
+     * @param array 開始位置配列
+     * @param bits 開始位置一つ当たりのビット数
+     */
+    private static long[] pack(DynamicIntArray array, int bits) {
+	final long[] packed = new long[(int) (((long) array.size() * bits + 63) >>> 6)];
+	for (int id = 0; id < array.size(); id++) {
+	    final long bit = (long) id * bits;
+	    final int word = (int) (bit >>> 6);
+	    final int shift = (int) (bit & 63);
+	    final long value = array.get(id) & 0xFFFFFFFFL;
+	    packed[word] |= value << shift;
+	    if (shift + bits > 64) {
+		packed[word + 1] |= value >>> (64 - shift);
+	    }
+	}
+	return packed;
+    }
+
+    /**
+     * IDで指定される訳語の開始位置
+     */
+    private int offset(int id) {
+	final long bit = (long) id * this.bits;
+	final int word = (int) (bit >>> 6);
+	final int shift = (int) (bit & 63);
+	long value = this.offsets.get(word) >>> shift;
+	if (shift + this.bits > 64) {
+	    value |= this.offsets.get(word + 1) << (64 - shift);
+	}
+	return (int) (value & ((1L << this.bits) - 1));
     }
 
     /**
      * IDで指定される番地のデータを返す
      */
     public String get(int id) {
-	// データ開始位置
-	int begin = begins.get(id);
-	// データ長
-	int length = lengths.get(id);
-	// データを返す
-	return data.substring(begin, begin + length);
+	return this.get(id, new StringBuilder()).toString();
+    }
+
+    /**
+     * IDで指定される番地のデータを追記する
+     * 文字列を生成しないため、追記先の容量が十分であればオブジェクトを生成しない。
+     *
+     * @param id キーのID
+     * @param dst 追記先
+     * @return 追記先
+     */
+    public StringBuilder get(int id, StringBuilder dst) {
+	if (id < 0 || id >= this.count) {
+	    throw new IndexOutOfBoundsException("id: " + id);
+	}
+	return LexemeArray.decode(this.data, this.offset(id), dst);
+    }
+
+    /**
+     * 指定位置に格納された訳語 (データ長とCESU-8のバイト列) を復号して追記する
+     *
+     * @param data DATA配列
+     * @param position 訳語の開始位置
+     * @param dst 追記先
+     * @return 追記先
+     */
+    static StringBuilder decode(ByteBuffer data, int position, StringBuilder dst) {
+	int length = 0;
+	for (int shift = 0; ; shift += 7) {
+	    final byte b = data.get(position++);
+	    length |= (b & 0x7F) << shift;
+	    if (b >= 0) {
+		break;
+	    }
+	}
+	// 文字数はバイト数を超えない
+	dst.ensureCapacity(dst.length() + length);
+	for (final int end = position + length; position < end; ) {
+	    final int b = data.get(position++) & 0xFF;
+	    if (b < 0x80) {
+		dst.append((char) b);
+	    } else if (b < 0xE0) {
+		dst.append((char) (((b & 0x1F) << 6) | (data.get(position++) & 0x3F)));
+	    } else {
+		dst.append((char) (((b & 0x0F) << 12)
+				   | ((data.get(position++) & 0x3F) << 6)
+				   | (data.get(position++) & 0x3F)));
+	    }
+	}
+	return dst;
+    }
+
+    /**
+     * 訳語をCESU-8で符号化した際のバイト数 (データ長を除く)
+     *
+     * @param value 訳語
+     */
+    static int encodedLength(CharSequence value) {
+	int length = 0;
+	for (int i = 0; i < value.length(); i++) {
+	    final char c = value.charAt(i);
+	    length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+	}
+	return length;
+    }
+
+    /**
+     * 訳語をデータ長に続けてCESU-8で符号化する
+     *
+     * @param value 訳語
+     * @param length encodedLengthで求めたバイト数
+     * @param dst 格納先 (データ長の5バイトを含め十分な容量があること)
+     * @param position 格納位置
+     * @return 格納した末尾の次の位置
+     */
+    static int encode(CharSequence value, int length, byte[] dst, int position) {
+	for (int rest = length; ; rest >>>= 7) {
+	    if (rest < 0x80) {
+		dst[position++] = (byte) rest;
+		break;
+	    }
+	    dst[position++] = (byte) (rest | 0x80);
+	}
+	for (int i = 0; i < value.length(); i++) {
+	    final char c = value.charAt(i);
+	    if (c < 0x80) {
+		dst[position++] = (byte) c;
+	    } else if (c < 0x800) {
+		dst[position++] = (byte) (0xC0 | (c >> 6));
+		dst[position++] = (byte) (0x80 | (c & 0x3F));
+	    } else {
+		dst[position++] = (byte) (0xE0 | (c >> 12));
+		dst[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+		dst[position++] = (byte) (0x80 | (c & 0x3F));
+	    }
+	}
+	return position;
+    }
+
+    /**
+     * IDで指定される番地のコストを返す
+     */
+    public int getCost(int id) {
+	if (id < 0 || id >= this.count) {
+	    throw new IndexOutOfBoundsException("id: " + id);
+	}
+	return id < this.costs.limit() ? this.costs.get(id) : 0;
+    }
+
+    /** 格納されている訳語数 */
+    public int size() {
+	return this.count;
+    }
+
+    /**
+     * 書き出した際のバイト数
+     */
+    public long byteSize() {
+	return LexemeArray.HEADER_SIZE
+	    + MappedArrays.longsSize(this.offsets.limit())
+	    + MappedArrays.bytesSize(this.data.limit())
+	    + MappedArrays.intsSize(this.costs.limit());
+    }
+
+    /**
+     * チャネルの現在位置へネイティブのバイトオーダーで書き出す
+     *
+     * @param channel 書き出し先
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+	final ByteOrder order = ByteOrder.nativeOrder();
+	final ByteBuffer header = ByteBuffer.allocate(LexemeArray.HEADER_SIZE).order(order);
+	header.putInt(LexemeArray.MAGIC);
+	header.putInt(LexemeArray.VERSION);
+	header.putInt(this.count);
+	header.putInt(this.bits);
+	header.putInt(this.data.limit());
+	header.putInt(this.costs.limit());
+	header.flip();
+	MappedArrays.writeFully(channel, header);
+	MappedArrays.writeLongs(channel, this.offsets, order);
+	MappedArrays.writeBytes(channel, this.data);
+	MappedArrays.writeInts(channel, this.costs, order);
+    }
+
+    /**
+     * ファイルの指定位置からメモリマップする (ヒープへはコピーしない)
+     *
+     * @param channel 読み込み元
+     * @param position 書き出された位置
+     */
+    public static LexemeArray map(FileChannel channel, long position) throws IOException {
+	final ByteBuffer header = MappedArrays.readHeader(channel, position, LexemeArray.HEADER_SIZE, LexemeArray.MAGIC);
+	final int version = header.getInt();
+	if (version != LexemeArray.VERSION) {
+	    throw new IOException("unsupported lexeme-array version: " + version);
+	}
+	final ByteOrder order = header.order();
+	final int count = header.getInt();
+	final int bits = header.getInt();
+	final int dataLength = header.getInt();
+	final int costCount = header.getInt();
+	final int words = (int) (((long) count * bits + 63) >>> 6);
+
+	long offset = position + LexemeArray.HEADER_SIZE;
+	final LongBuffer offsets = MappedArrays.mapLongs(channel, offset, words, order);
+	offset += MappedArrays.longsSize(words);
+	final ByteBuffer data = MappedArrays.mapBytes(channel, offset, dataLength);
+	offset += MappedArrays.bytesSize(dataLength);
+	final IntBuffer costs = MappedArrays.mapInts(channel, offset, costCount, order);
+	return new LexemeArray(count, bits, offsets, data, costs);
     }
 }
@@ -1,26 +1,57 @@
 package org.okawa.util.nlang.dict;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.okawa.util.nlang.trie.Trie;
 import org.okawa.util.nlang.trie.TrieBuilder;
+import org.okawa.util.nlang.trie.impl.DynamicIntArray;
 
 /**
  * Lexicon-Arrayビルダー
+ * 訳語はLexemeArrayの符号化 (データ長 + CESU-8) でDATA配列へ追加し、同一の訳語は一つの
+ * 領域を共有する。同一判定に使用する表は登録数に上限を設け (構築時のメモリ使用量を
+ * 抑えるため)、上限に達した後は最も長く参照されていない訳語を表から取り除く。先頭付近
+ * の訳語が表を占有し続けず、入力の後半で頻出する訳語も共有される。
+ * 語彙素がWeightedLexemeの場合はコストも格納する。
  */
 final class LexemeArrayBuilder implements TrieBuilder.Callback {
+    /** DATA配列の初期容量 */
+    private static final int INIT_CAPACITY = 1024;
+    /** 同一判定の表に登録する訳語数の上限 */
+    static final int INTERN_LIMIT = 1 << 16;
+    /** DATA配列の最大長 (VMが確保できる配列長の上限) */
+    static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
     /** 元データとなる語彙素配列 */
     private final List<? extends Lexeme> lexemes;
     /** DATA配列 開始位置配列 */
-    private final ArrayList<Integer> begins = new ArrayList<Integer>();
-    /** DATA配列 データ長 */
-    private final ArrayList<Integer> lengths = new ArrayList<Integer>();
-    /** TAIL配列 */
-    private final StringBuffer data = new StringBuffer();
+    private final DynamicIntArray offsets = new DynamicIntArray(0);
+    /** 各IDのコスト (0以外のコストが設定された最大のIDまで) */
+    private final DynamicIntArray costs = new DynamicIntArray(0);
+    /** 追加済みの訳語とその開始位置 (参照順、上限を超えた場合は最も古いものを取り除く) */
+    private final Map<String, Integer> interned = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+		return this.size() > LexemeArrayBuilder.INTERN_LIMIT;
+	    }
+	};
+    /** DATA配列 */
+    private byte[] data = new byte[LexemeArrayBuilder.INIT_CAPACITY];
+    /** 復号用のDATA配列のビュー */
+    private ByteBuffer view = ByteBuffer.wrap(this.data);
+    /** DATA配列の使用中のバイト数 */
+    private int dataSize = 0;
+    /** 次のIDに対応する語彙素のインデックス */
+    private int cursor = 0;
 
 
     /**
-     * 語彙素配列からインスタンス化[
+     * 語彙素配列からインスタンス化
      *
      * @param lexemes 辞書を作る際に必要となる語彙素
      */
@@ -29,34 +60,189 @@ final class LexemeArrayBuilder implements TrieBuilder.Callback {
     }
 
     /**
-     * ビルダーからTrieをインスタンス化
+     * 語彙素配列を持たずにインスタンス化
+     * 訳語はaddメソッドでID順に追加する。
+     */
+    public LexemeArrayBuilder() {
+	this.lexemes = null;
+    }
+
+    /**
+     * 構築済みのLexeme-Arrayの訳語を複製してインスタンス化
+     * 訳語はaddメソッドで追加、setメソッドで更新する。
      *
-     * @param keys キーワード一覧
-     * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     * @param array 複製元
+     */
+    public LexemeArrayBuilder(LexemeArray array) {
+	this();
+	for (int id = 0; id < array.size(); id++) {
+	    this.add(array.get(id), array.getCost(id));
+	}
+    }
+
+    /**
+     * ビルダーからヒープ上にLexeme-Arrayをインスタンス化
+     *
+     * @param builder 構築済みのビルダー
      */
     public static LexemeArray build(LexemeArrayBuilder builder) {
 	return new LexemeArray(builder);
     }
 
+    /**
+     * ビルダーからヒープ外のバッファ上にLexeme-Arrayをインスタンス化
+     *
+     * @param builder 構築済みのビルダー
+     */
+    public static LexemeArray buildDirect(LexemeArrayBuilder builder) {
+	return LexemeArray.allocateDirect(builder);
+    }
+
     /**
      * Trieビルダーがキーワードの終端に達する度に呼び出される処理
      *
-     * @param 付与されるキーのID
+     * @param id 付与されるキーのID
      */
     @Override
     public void apply(int id) {
 	// 処理対象となる語彙素の取得
-	Lexeme lexeme = this.lexemes.get(id);
-	if (lexeme != null) {
-	    String value = lexeme.getValue();
-	    // データ開始位置を更新
-	    //this.begins.add(id);
-	    this.begins.add(data.length());
-	    // データ終了位置を更新
-	    this.lengths.add(value.length());
-	    // 実データ登録
-	    this.data.append(value);
+	// IDは整列済みの語彙素のうち重複を除いたものに昇順で振られるため、同一のキーを持つ
+	// 後続の語彙素は読み飛ばす (先頭の語彙素のみ登録される)
+	Lexeme lexeme = this.lexemes.get(this.cursor++);
+	while (this.cursor < this.lexemes.size()
+	       && lexeme != null
+	       && this.lexemes.get(this.cursor).getKey().equals(lexeme.getKey())) {
+	    this.cursor++;
+	}
+	if (lexeme instanceof WeightedLexeme) {
+	    this.add(lexeme.getValue(), ((WeightedLexeme) lexeme).getCost());
+	} else if (lexeme != null) {
+	    this.add(lexeme.getValue());
+	}
+    }
+
+    /**
+     * 次のIDの訳語を追加する
+     *
+     * @param value 訳語
+     */
+    public void add(String value) {
+	this.add(value, 0);
+    }
+
+    /**
+     * 次のIDの訳語とコストを追加する
+     *
+     * @param value 訳語
+     * @param cost コスト
+     */
+    public void add(String value, int cost) {
+	this.set(this.offsets.size(), value, cost);
+    }
+
+    /**
+     * 訳語を更新する (以前の訳語の領域は回収しない)
+     *
+     * @param id 更新するID
+     * @param value 訳語
+     */
+    public void set(int id, String value) {
+	this.set(id, value, 0);
+    }
+
+    /**
+     * 訳語とコストを更新する (以前の訳語の領域は回収しない)
+     *
+     * @param id 更新するID
+     * @param value 訳語
+     * @param cost コスト
+     */
+    public void set(int id, String value, int cost) {
+	this.offsets.set(id, this.intern(value));
+	// 0のコストは配列を伸張せずに既定値で表す
+	if (cost != 0 || id < this.costs.size()) {
+	    this.costs.set(id, cost);
+	}
+    }
+
+    /**
+     * 訳語をDATA配列へ追加する (追加済みの訳語の場合はその領域を共有)
+     *
+     * @param value 訳語
+     * @return 訳語の開始位置
+     */
+    private int intern(String value) {
+	final Integer offset = this.interned.get(value);
+	if (offset != null) {
+	    return offset.intValue();
+	}
+	final int begin = this.dataSize;
+	final int length = LexemeArray.encodedLength(value);
+	this.ensureCapacity((long) begin + 5 + length);
+	this.dataSize = LexemeArray.encode(value, length, this.data, begin);
+	this.interned.put(value, begin);
+	return begin;
+    }
+
+    /**
+     * 指定されたバイト数が収まるまでDATA配列を伸張する
+     *
+     * @param size 必要なバイト数
+     */
+    private void ensureCapacity(long size) {
+	if (size > this.data.length) {
+	    this.data = Arrays.copyOf(this.data, LexemeArrayBuilder.grow(this.data.length, size));
+	    this.view = ByteBuffer.wrap(this.data);
+	}
+    }
+
+    /**
+     * 伸張後のDATA配列長を求める
+     * 倍に伸張し、配列長の上限を超える場合は上限で止める。
+     *
+     * @param length 現在の配列長
+     * @param size 必要なバイト数
+     * @return 伸張後の配列長
+     * @throws IllegalStateException 必要なバイト数が配列長の上限を超える場合
+     */
+    static int grow(int length, long size) {
+	if (size > LexemeArrayBuilder.MAX_CAPACITY) {
+	    throw new IllegalStateException("lexeme data exceeds " + LexemeArrayBuilder.MAX_CAPACITY + " bytes: " + size);
 	}
+	return (int) Math.min(Math.max(size, length * 2L), LexemeArrayBuilder.MAX_CAPACITY);
+    }
+
+    /**
+     * IDで指定される訳語を返す
+     */
+    public String get(int id) {
+	return this.get(id, new StringBuilder()).toString();
+    }
+
+    /**
+     * IDで指定される訳語を追記する
+     *
+     * @param id キーのID
+     * @param dst 追記先
+     * @return 追記先
+     */
+    public StringBuilder get(int id, StringBuilder dst) {
+	if (id < 0 || id >= this.offsets.size()) {
+	    throw new IndexOutOfBoundsException("id: " + id);
+	}
+	return LexemeArray.decode(this.view, this.offsets.get(id), dst);
+    }
+
+    /**
+     * IDで指定されるコストを返す
+     */
+    public int getCost(int id) {
+	return this.costs.get(id);
+    }
+
+    /** 登録されている訳語数 */
+    public int size() {
+	return this.offsets.size();
     }
 
     /** Trie木構築時にTrie木のEntryとして語彙素の配列を返す */
@@ -65,17 +251,22 @@ final class LexemeArrayBuilder implements TrieBuilder.Callback {
     }
 
     /** LexiconArray構築時に使用 */
-    public List<Integer> getBegins() {
-	return this.begins;
+    public DynamicIntArray getOffsets() {
+	return this.offsets;
     }
 
-    /** LexiconArray構築時に使用 */
-    public List<Integer> getLengths() {
-	return this.lengths;
+    /** LexiconArray構築時に使用 (コストが全て0の場合は空) */
+    public DynamicIntArray getCosts() {
+	return this.costs;
+    }
+
+    /** LexiconArray構築時に使用 (先頭からgetDataSizeまでが有効) */
+    public byte[] getData() {
+	return this.data;
     }
 
     /** LexiconArray構築時に使用 */
-    public String getData() {
-	return data.toString();
+    public int getDataSize() {
+	return this.dataSize;
     }
 }
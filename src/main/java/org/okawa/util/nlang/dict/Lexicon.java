@@ -0,0 +1,48 @@
+package org.okawa.util.nlang.dict;
+
+import org.okawa.util.nlang.trie.NavigableTrie;
+
+/**
+ * 訳語を引くことのできるTrie
+ * Dictionary、DictionarySnapshot、LayeredDictionaryが実装する。IDは各実装のmembership等が
+ * 返したものを指定する。
+ */
+public interface Lexicon extends NavigableTrie {
+    /**
+     * キーに登録されている訳語を返す
+     *
+     * @param key 検索対象となるキー
+     * @return 訳語、キーが登録されていない場合はnull
+     */
+    public String translate(CharSequence key);
+
+    /**
+     * キーワード番号で登録されている訳語を返す
+     *
+     * @param id キーワード登録番号
+     * @return 翻訳後の単語
+     */
+    public String getTranslation(int id);
+
+    /**
+     * キーワード番号で登録されている訳語を追記する
+     *
+     * @param id キーワード登録番号
+     * @param dst 追記先
+     * @return 追記先
+     */
+    public StringBuilder getTranslation(int id, StringBuilder dst);
+
+    /**
+     * キーワード番号で登録されているコストを返す
+     *
+     * @param id キーワード登録番号
+     * @return コスト
+     */
+    public int getCost(int id);
+
+    /**
+     * 付与済みのIDの上限 (削除されたキーワードのIDも含む)
+     */
+    public int getIdLimit();
+}
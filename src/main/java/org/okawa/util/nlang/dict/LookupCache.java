@@ -0,0 +1,535 @@
+package org.okawa.util.nlang.dict;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 検索結果のキャッシュ
+ * キー毎にIDと復号済みの訳語を保持し、索引の探索と訳語の復号を省く。登録されていない
+ * キーも-1として保持する。
+ *
+ * 容量は固定で、Segmented LRUをCLOCK (参照ビットによる再挿入) で近似して追い出す。
+ * キャッシュされたキーは試用領域へ入り、追い出しの順番が来るまでに再度参照されていれば
+ * 保護領域 (容量の8割) へ昇格する。保護領域から溢れたものは、参照されていれば保護領域の
+ * 末尾へ、参照されていなければ試用領域へ戻る。
+ *
+ * 追加の可否はTinyLFUと同様に頻度の概算で判定する。ミスしたキーの回数を4ビットの
+ * Count-Min Sketchで数え、最近のミスが2回目以降のキーのみを追加する。一度しか検索されない
+ * キーは追加の処理も追い出しも行わないため、頻出するキーを追い出すことはない。カウンタは
+ * 容量と同じ回数のミスごとに半減させ、古い頻度を忘れる。
+ *
+ * キーのハッシュ値でセグメントに分割し、セグメント毎に固定長のハッシュ表と追い出しの順序
+ * を持つ。ヒット時はハッシュ表の参照と参照ビットの設定のみでロックを取らず、キーは
+ * CharSequenceのままハッシュ値を求めて比較するため文字列を生成しない。文字列への複製は
+ * 追加時にのみ行い、ミス時の追加でのみセグメント毎に排他制御する。ハッシュ表の連結リストは
+ * 変更せず、取り除く際は前方の要素を複製して付け替えるため、参照中のスレッドにも一貫した
+ * リストが見える。
+ */
+public final class LookupCache {
+    /** 保護領域の割合 (百分率) */
+    private static final int PROTECTED_PERCENT = 80;
+    /** コア当たりのセグメント数 */
+    private static final int SEGMENTS_PER_CORE = 4;
+    /** セグメント当たりの最小件数 */
+    private static final int MIN_SEGMENT_CAPACITY = 8;
+    /** 追加するミスの回数 */
+    private static final int ADMIT_FREQUENCY = 2;
+    /** カウンタを半減させる間隔 (容量に対する倍率) */
+    private static final int SAMPLE_RATIO = 1;
+
+    /**
+     * ミスしたキーの頻度の概算 (4ビットカウンタのCount-Min Sketch)
+     * long一つに16個のカウンタを詰め、キー毎に4つのカウンタを使用する。4つのカウンタは
+     * 同じ64バイトのブロック (long 8個) に置き、一回のメモリアクセスで済むようにする。
+     * 複数のスレッドから排他制御せずに更新するため加算が失われることがあるが、追加の判定
+     * への影響は小さい。
+     */
+    private static final class Sketch {
+	/** ハッシュ値の拡散に使用する定数 (黄金比) */
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+	/** 各カウンタの最上位ビット以外のマスク (半減用) */
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	/** カウンタ */
+	private final long[] table;
+	/** ブロック番号のマスク */
+	private final int blockMask;
+	/** 半減させる間隔 */
+	private final int sampleSize;
+	/** 前回の半減以降の加算回数 */
+	private int additions;
+
+	Sketch(int capacity) {
+	    // 容量一件当たりlong一つ (カウンタ16個)、最低1ブロック
+	    final int length = Math.max(8, Integer.highestOneBit(Math.max(2, capacity) - 1) << 1);
+	    this.table = new long[length];
+	    this.blockMask = (length >>> 3) - 1;
+	    this.sampleSize = Math.max(capacity, 1) * LookupCache.SAMPLE_RATIO;
+	}
+
+	/**
+	 * キーの回数を加算する
+	 *
+	 * @param keyHash キーのハッシュ値
+	 * @return 加算後の回数の概算
+	 */
+	int increment(int keyHash) {
+	    final long hash = keyHash * Sketch.GOLDEN;
+	    // 上位32ビットでブロックを、下位32ビットの各バイトでブロック内のカウンタを選ぶ
+	    final int block = ((int) (hash >>> 32) & this.blockMask) << 3;
+	    final int h = (int) hash;
+	    int frequency = Integer.MAX_VALUE;
+	    for (int i = 0; i < 4; i++) {
+		final int bits = h >>> (i << 3);
+		final int index = block + (bits & 7);
+		final int shift = ((bits >>> 3) & 0xF) << 2;
+		final long word = this.table[index];
+		int count = (int) (word >>> shift) & 0xF;
+		if (count < 0xF) {
+		    this.table[index] = word + (1L << shift);
+		    count++;
+		}
+		frequency = Math.min(frequency, count);
+	    }
+	    if (++this.additions >= this.sampleSize) {
+		this.reset();
+	    }
+	    return frequency;
+	}
+
+	/**
+	 * 全てのカウンタを半減させる
+	 */
+	private void reset() {
+	    this.additions = 0;
+	    for (int i = 0; i < this.table.length; i++) {
+		this.table[i] = (this.table[i] >>> 1) & Sketch.RESET_MASK;
+	    }
+	}
+    }
+
+    /**
+     * キャッシュした検索結果
+     */
+    static final class Entry {
+	/** キー (キャッシュへ追加しなかった場合はnull) */
+	final String key;
+	/** キーのハッシュ値 */
+	final int hash;
+	/** キーのID (登録されていない場合は-1) */
+	final int id;
+	/** 訳語 (初回の復号まではnull) */
+	volatile String translation;
+	/** 前回の追い出し判定以降に参照された場合true */
+	volatile boolean referenced;
+	/** 破棄された場合true (セグメントの操作時のみ参照) */
+	boolean removed;
+
+	Entry(String key, int hash, int id) {
+	    this.key = key;
+	    this.hash = hash;
+	    this.id = id;
+	}
+
+	/**
+	 * キーが一致する場合true
+	 *
+	 * @param key 比較するキー
+	 * @param hash 比較するキーのハッシュ値
+	 */
+	boolean matches(CharSequence key, int hash) {
+	    if (this.hash != hash || this.key.length() != key.length()) {
+		return false;
+	    }
+	    if (key instanceof String) {
+		return this.key.equals(key);
+	    }
+	    for (int i = 0; i < key.length(); i++) {
+		if (this.key.charAt(i) != key.charAt(i)) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+    }
+
+    /**
+     * ハッシュ表の連結リストの要素 (変更しない)
+     */
+    private static final class Node {
+	final Entry entry;
+	final Node next;
+
+	Node(Entry entry, Node next) {
+	    this.entry = entry;
+	    this.next = next;
+	}
+    }
+
+    /**
+     * ハッシュ表と追い出しの順序を保持するセグメント
+     * 容量は固定のため、ハッシュ表は伸張しない。
+     */
+    private static final class Segment {
+	/** ハッシュ表 (各要素は連結リストの先頭) */
+	private final AtomicReferenceArray<Node> table;
+	/** ハッシュ表の番号を取り出すシフト数 */
+	private final int tableShift;
+	/** 試用領域 (追加順) */
+	private final ArrayDeque<Entry> probation = new ArrayDeque<Entry>();
+	/** 保護領域 (昇格順) */
+	private final ArrayDeque<Entry> protect = new ArrayDeque<Entry>();
+	/** 容量 */
+	private final int capacity;
+	/** 保護領域の容量 */
+	private final int protectCapacity;
+	/** ハッシュ表に保持している件数 */
+	private volatile int count;
+
+	Segment(int capacity) {
+	    this.capacity = capacity;
+	    this.protectCapacity = capacity * LookupCache.PROTECTED_PERCENT / 100;
+	    // 負荷率0.75以下となる2の冪
+	    final int length = Integer.highestOneBit(Math.max(1, capacity * 4 / 3) * 2 - 1);
+	    this.table = new AtomicReferenceArray<Node>(length);
+	    this.tableShift = 32 - Integer.numberOfTrailingZeros(length);
+	}
+
+	/**
+	 * ハッシュ値に対応するハッシュ表の番号
+	 * セグメントの選択には下位ビットを使用するため、乗算で拡散した上位ビットを使用する。
+	 */
+	private int indexOf(int hash) {
+	    return this.tableShift == 32 ? 0 : (hash * 0x9E3779B9) >>> this.tableShift;
+	}
+
+	/**
+	 * 検索結果を取り出す (ロックを取らない)
+	 *
+	 * @param key キー
+	 * @param hash キーのハッシュ値
+	 * @return キャッシュした検索結果、ない場合はnull
+	 */
+	Entry get(CharSequence key, int hash) {
+	    for (Node node = this.table.get(this.indexOf(hash)); node != null; node = node.next) {
+		if (node.entry.matches(key, hash)) {
+		    return node.entry;
+		}
+	    }
+	    return null;
+	}
+
+	/**
+	 * 検索結果を試用領域へ追加し、容量を超えた分を追い出す
+	 * 他のスレッドが同じキーを先に追加していた場合はそれを返す。
+	 *
+	 * @param key キー (追加する場合のみ文字列へ複製する)
+	 * @param hash キーのハッシュ値
+	 * @param id キーのID
+	 * @param evictions 追い出した件数の加算先
+	 * @return 検索結果
+	 */
+	synchronized Entry add(CharSequence key, int hash, int id, LongAdder evictions) {
+	    final Entry existing = this.get(key, hash);
+	    if (existing != null) {
+		return existing;
+	    }
+	    final Entry entry = new Entry(key.toString(), hash, id);
+	    final int index = this.indexOf(hash);
+	    this.table.set(index, new Node(entry, this.table.get(index)));
+	    this.count++;
+	    this.probation.addLast(entry);
+	    int evicted = 0;
+	    while (this.probation.size() + this.protect.size() > this.capacity) {
+		final Entry victim = this.probation.pollFirst();
+		if (victim == null) {
+		    // 全て保護領域にある場合は一件を試用領域へ戻す
+		    this.demote();
+		} else if (victim.removed) {
+		    // 破棄済み
+		} else if (victim.referenced) {
+		    victim.referenced = false;
+		    this.protect.addLast(victim);
+		    while (this.protect.size() > this.protectCapacity) {
+			this.demote();
+		    }
+		} else {
+		    victim.removed = true;
+		    this.unlink(victim);
+		    evicted++;
+		}
+	    }
+	    if (evicted > 0) {
+		evictions.add(evicted);
+	    }
+	    return entry;
+	}
+
+	/**
+	 * 保護領域の先頭を、参照されていれば末尾へ、参照されていなければ試用領域へ移す
+	 */
+	private void demote() {
+	    final Entry entry = this.protect.pollFirst();
+	    if (entry.removed) {
+		return;
+	    }
+	    if (entry.referenced) {
+		entry.referenced = false;
+		this.protect.addLast(entry);
+	    } else {
+		this.probation.addLast(entry);
+	    }
+	}
+
+	/**
+	 * 検索結果をハッシュ表から取り除く
+	 * 取り除く要素より前方の要素を複製し、後方のリストへ付け替える。
+	 */
+	private void unlink(Entry entry) {
+	    final int index = this.indexOf(entry.hash);
+	    final Node head = this.table.get(index);
+	    Node node = head;
+	    while (node != null && node.entry != entry) {
+		node = node.next;
+	    }
+	    if (node == null) {
+		return;
+	    }
+	    Node chain = node.next;
+	    for (Node n = head; n != node; n = n.next) {
+		chain = new Node(n.entry, chain);
+	    }
+	    this.table.set(index, chain);
+	    this.count--;
+	}
+
+	/**
+	 * キーの検索結果を破棄する (領域からは追い出しの順番が来た時点で取り除く)
+	 *
+	 * @param key キー
+	 * @param hash キーのハッシュ値
+	 */
+	synchronized void remove(CharSequence key, int hash) {
+	    final Entry entry = this.get(key, hash);
+	    if (entry != null) {
+		entry.removed = true;
+		this.unlink(entry);
+	    }
+	}
+
+	synchronized void clear() {
+	    for (int i = 0; i < this.table.length(); i++) {
+		this.table.set(i, null);
+	    }
+	    this.probation.clear();
+	    this.protect.clear();
+	    this.count = 0;
+	}
+
+	/** ハッシュ表に保持している件数 */
+	int size() {
+	    return this.count;
+	}
+
+	/** 容量 */
+	int capacity() {
+	    return this.capacity;
+	}
+    }
+
+    /** ミスしたキーの頻度 */
+    private final Sketch sketch;
+    /** セグメント */
+    private final Segment[] segments;
+    /** セグメント番号のマスク */
+    private final int mask;
+    /** 容量 */
+    private final int capacity;
+    /** ヒット数 */
+    private final LongAdder hits = new LongAdder();
+    /** ミス数 */
+    private final LongAdder misses = new LongAdder();
+    /** 追い出した件数 */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 容量を指定してインスタンス化
+     *
+     * @param capacity 保持する最大件数
+     */
+    public LookupCache(int capacity) {
+	if (capacity <= 0) {
+	    throw new IllegalArgumentException("capacity must be positive: " + capacity);
+	}
+	// コア数に応じたセグメント数 (2の冪)
+	int segments = 1;
+	while (segments < Runtime.getRuntime().availableProcessors() * LookupCache.SEGMENTS_PER_CORE
+	       && segments * 2 * LookupCache.MIN_SEGMENT_CAPACITY <= capacity) {
+	    segments *= 2;
+	}
+	this.segments = new Segment[segments];
+	for (int i = 0; i < segments; i++) {
+	    this.segments[i] = new Segment(capacity / segments + (i < capacity % segments ? 1 : 0));
+	}
+	this.mask = segments - 1;
+	this.capacity = capacity;
+	this.sketch = new Sketch(capacity);
+    }
+
+    /**
+     * キーのハッシュ値 (String.hashCodeと同じ値を文字列を生成せずに求める)
+     *
+     * @param key キー
+     */
+    static int hash(CharSequence key) {
+	if (key instanceof String) {
+	    return key.hashCode();
+	}
+	int h = 0;
+	for (int i = 0; i < key.length(); i++) {
+	    h = 31 * h + key.charAt(i);
+	}
+	return h;
+    }
+
+    /**
+     * ハッシュ値が属するセグメント
+     */
+    private Segment segment(int hash) {
+	return this.segments[(hash ^ (hash >>> 16)) & this.mask];
+    }
+
+    /**
+     * 検索結果を取り出す
+     * キーを文字列へ変換せずに比較するため、オブジェクトを生成しない。
+     *
+     * @param key キー
+     * @return キャッシュした検索結果、ない場合はnull
+     */
+    Entry get(CharSequence key) {
+	final int hash = LookupCache.hash(key);
+	final Entry entry = this.segment(hash).get(key, hash);
+	if (entry != null) {
+	    if (!entry.referenced) {
+		entry.referenced = true;
+	    }
+	    this.hits.increment();
+	} else {
+	    this.misses.increment();
+	}
+	return entry;
+    }
+
+    /**
+     * 検索結果を追加する
+     * 最近のミスの回数が少ないキーは追加せず、検索結果のみを返す。他のスレッドが同じキーを
+     * 先に追加していた場合はそれを返す。キーは追加する場合のみ文字列へ複製する。
+     *
+     * @param key キー
+     * @param id キーのID (登録されていない場合は-1)
+     * @return 検索結果
+     */
+    Entry put(CharSequence key, int id) {
+	final int hash = LookupCache.hash(key);
+	if (this.sketch.increment(hash) < LookupCache.ADMIT_FREQUENCY) {
+	    return new Entry(null, hash, id);
+	}
+	return this.segment(hash).add(key, hash, id, this.evictions);
+    }
+
+    /**
+     * キーの検索結果を破棄する
+     *
+     * @param key キー
+     */
+    void invalidate(CharSequence key) {
+	final int hash = LookupCache.hash(key);
+	this.segment(hash).remove(key, hash);
+    }
+
+    /**
+     * 全ての検索結果を破棄する (統計は保持する)
+     */
+    public void clear() {
+	for (Segment segment : this.segments) {
+	    segment.clear();
+	}
+    }
+
+    /** セグメント数 */
+    int segmentCount() {
+	return this.segments.length;
+    }
+
+    /**
+     * キーが属するセグメントの番号
+     *
+     * @param key キー
+     */
+    int segmentOf(CharSequence key) {
+	final int hash = LookupCache.hash(key);
+	return (hash ^ (hash >>> 16)) & this.mask;
+    }
+
+    /**
+     * セグメントが保持している件数
+     *
+     * @param segment セグメントの番号
+     */
+    int segmentSize(int segment) {
+	return this.segments[segment].size();
+    }
+
+    /**
+     * セグメントの容量
+     *
+     * @param segment セグメントの番号
+     */
+    int segmentCapacity(int segment) {
+	return this.segments[segment].capacity();
+    }
+
+    /** 保持する最大件数 */
+    public int capacity() {
+	return this.capacity;
+    }
+
+    /** 保持している件数 */
+    public int size() {
+	int size = 0;
+	for (Segment segment : this.segments) {
+	    size += segment.size();
+	}
+	return size;
+    }
+
+    /** ヒット数 */
+    public long getHitCount() {
+	return this.hits.sum();
+    }
+
+    /** ミス数 */
+    public long getMissCount() {
+	return this.misses.sum();
+    }
+
+    /** 追い出した件数 */
+    public long getEvictionCount() {
+	return this.evictions.sum();
+    }
+
+    /** ヒット率 (検索していない場合は0) */
+    public double getHitRatio() {
+	final long hits = this.hits.sum();
+	final long total = hits + this.misses.sum();
+	return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+	return "LookupCache[capacity=" + this.capacity + ", size=" + this.size()
+	    + ", hits=" + this.getHitCount() + ", misses=" + this.getMissCount()
+	    + ", evictions=" + this.getEvictionCount() + "]";
+    }
+}
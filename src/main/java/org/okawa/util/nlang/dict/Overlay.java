@@ -0,0 +1,47 @@
+package org.okawa.util.nlang.dict;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * LayeredDictionaryで下位の辞書に重ねる辞書
+ * 登録されているキーと削除したキー (墓標) を持つ。どちらも下位の辞書の同じキーを隠し、
+ * 削除したキーは登録されていないものとして扱われる。構築後は変更されないため、更新する
+ * 場合はOverlayBuilderで作り直す。
+ */
+public final class Overlay {
+    /** 登録されているキーと訳語 */
+    private final Lexicon entries;
+    /** 削除したキー */
+    private final String[] removed;
+
+    /**
+     * 登録されているキーのみを持つ辞書としてインスタンス化
+     *
+     * @param entries 登録されているキーと訳語 (以降は更新しないこと)
+     */
+    public Overlay(Lexicon entries) {
+	this(entries, Collections.<String>emptyList());
+    }
+
+    /**
+     * 登録されているキーと削除したキーからインスタンス化
+     *
+     * @param entries 登録されているキーと訳語 (以降は更新しないこと)
+     * @param removed 削除したキー
+     */
+    public Overlay(Lexicon entries, Collection<String> removed) {
+	this.entries = entries;
+	this.removed = removed.toArray(new String[removed.size()]);
+    }
+
+    /** 登録されているキーと訳語 */
+    Lexicon getEntries() {
+	return this.entries;
+    }
+
+    /** 削除したキー */
+    String[] getRemoved() {
+	return this.removed;
+    }
+}
@@ -0,0 +1,79 @@
+package org.okawa.util.nlang.dict;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Overlayを構築する
+ * キーの登録と削除を任意の順に受け付け、同じキーに対しては最後の操作を有効とする。
+ * 件数の少ない辞書 (利用者辞書等) を想定し、全てのキーをヒープ上に保持する。
+ */
+public final class OverlayBuilder {
+    /** 登録するキーと訳語、コスト */
+    private final TreeMap<String, WeightedEntry> entries = new TreeMap<String, WeightedEntry>();
+    /** 削除するキー */
+    private final TreeSet<String> removed = new TreeSet<String>();
+
+    /**
+     * 訳語とコスト
+     */
+    private static final class WeightedEntry {
+	final String value;
+	final int cost;
+
+	WeightedEntry(String value, int cost) {
+	    this.value = value;
+	    this.cost = cost;
+	}
+    }
+
+    /**
+     * キーと訳語を登録する
+     *
+     * @param key キー
+     * @param value 訳語
+     * @return このビルダー
+     */
+    public OverlayBuilder put(String key, String value) {
+	return this.put(key, value, 0);
+    }
+
+    /**
+     * キーと訳語をコストと共に登録する
+     *
+     * @param key キー
+     * @param value 訳語
+     * @param cost コスト
+     * @return このビルダー
+     */
+    public OverlayBuilder put(String key, String value, int cost) {
+	this.removed.remove(key);
+	this.entries.put(key, new WeightedEntry(value, cost));
+	return this;
+    }
+
+    /**
+     * キーを削除する
+     * 下位の辞書に登録されている同じキーも検索されなくなる。
+     *
+     * @param key キー
+     * @return このビルダー
+     */
+    public OverlayBuilder remove(String key) {
+	this.entries.remove(key);
+	this.removed.add(key);
+	return this;
+    }
+
+    /**
+     * Overlayを構築する
+     */
+    public Overlay build() {
+	final DictionaryBuilder builder = new DictionaryBuilder();
+	for (Map.Entry<String, WeightedEntry> entry : this.entries.entrySet()) {
+	    builder.add(entry.getKey(), entry.getValue().value, entry.getValue().cost);
+	}
+	return new Overlay(builder.build().snapshot(), this.removed);
+    }
+}
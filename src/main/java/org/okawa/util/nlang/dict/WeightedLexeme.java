@@ -0,0 +1,11 @@
+package org.okawa.util.nlang.dict;
+
+/**
+ * コスト付き辞書語彙クラス
+ * 語彙素毎のコストを訳語と共に辞書へ格納する。コストは格子を用いた形態素解析などで
+ * 経路の選択に使用し、値が小さいほど優先される。コストを持たない語彙素のコストは0とする。
+ */
+public interface WeightedLexeme extends Lexeme {
+    /** コストの取得 */
+    public int getCost();
+}
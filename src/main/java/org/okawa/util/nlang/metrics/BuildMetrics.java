@@ -0,0 +1,108 @@
+package org.okawa.util.nlang.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 構築の計測値を集計するリスナー
+ */
+final class BuildMetrics implements MetricsListener, BuildMetricsMXBean {
+    /** ナノ秒からミリ秒への変換 */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** 索引の構築回数 */
+    private final AtomicLong builds = new AtomicLong();
+    /** 構築全体に要した時間の累計 (ナノ秒) */
+    private final AtomicLong total = new AtomicLong();
+    /** 工程毎の時間の累計 (ナノ秒、Phaseの順) */
+    private final AtomicLongArray phases = new AtomicLongArray(MetricsListener.Phase.values().length);
+    /** 最後に構築した索引のキーワード数 */
+    private volatile int lastKeySetSize;
+    /** 最後に構築した索引のBASE/CHECK配列長 */
+    private volatile int lastArrayLength;
+    /** 最後に構築した索引の使用されている番地の数 */
+    private volatile int lastUsedNodes;
+
+    @Override
+    public void onLookup(MetricsListener.Lookup type, int transitions, int tailComparisons, int matches, long nanos) {
+    }
+
+    @Override
+    public void onBuildPhase(MetricsListener.Phase phase, long nanos) {
+	this.phases.addAndGet(phase.ordinal(), nanos);
+    }
+
+    @Override
+    public void onBuild(int keySetSize, int arrayLength, int usedNodes, long nanos) {
+	this.builds.incrementAndGet();
+	this.total.addAndGet(nanos);
+	this.lastKeySetSize = keySetSize;
+	this.lastArrayLength = arrayLength;
+	this.lastUsedNodes = usedNodes;
+    }
+
+    @Override
+    public long getBuilds() {
+	return this.builds.get();
+    }
+
+    @Override
+    public double getTotalMillis() {
+	return this.total.get() / BuildMetrics.NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getSortMillis() {
+	return this.millis(MetricsListener.Phase.SORT);
+    }
+
+    @Override
+    public double getAllocationMillis() {
+	return this.millis(MetricsListener.Phase.ALLOCATION);
+    }
+
+    @Override
+    public double getTailMillis() {
+	return this.millis(MetricsListener.Phase.TAIL);
+    }
+
+    @Override
+    public double getMergeMillis() {
+	return this.millis(MetricsListener.Phase.MERGE);
+    }
+
+    @Override
+    public double getLexemesMillis() {
+	return this.millis(MetricsListener.Phase.LEXEMES);
+    }
+
+    @Override
+    public int getLastKeySetSize() {
+	return this.lastKeySetSize;
+    }
+
+    @Override
+    public int getLastArrayLength() {
+	return this.lastArrayLength;
+    }
+
+    @Override
+    public double getLastFillRatio() {
+	final int length = this.lastArrayLength;
+	return length == 0 ? 0 : (double) this.lastUsedNodes / length;
+    }
+
+    @Override
+    public void reset() {
+	this.builds.set(0);
+	this.total.set(0);
+	for (int i = 0; i < this.phases.length(); i++) {
+	    this.phases.set(i, 0);
+	}
+    }
+
+    /** 工程の時間の累計 (ミリ秒) */
+    private double millis(MetricsListener.Phase phase) {
+	return this.phases.get(phase.ordinal()) / BuildMetrics.NANOS_PER_MILLI;
+    }
+}
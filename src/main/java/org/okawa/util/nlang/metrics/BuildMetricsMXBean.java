@@ -0,0 +1,41 @@
+package org.okawa.util.nlang.metrics;
+
+/**
+ * 構築の計測値を公開するMXBean
+ * 工程毎の時間は起動時または最後にresetを呼び出した時点からの累計、配列の値は最後に
+ * 構築した索引のもの。
+ */
+public interface BuildMetricsMXBean {
+    /** 索引の構築回数 */
+    public long getBuilds();
+
+    /** 構築全体に要した時間の累計 (ミリ秒) */
+    public double getTotalMillis();
+
+    /** キーワードの整列に要した時間の累計 (ミリ秒) */
+    public double getSortMillis();
+
+    /** BASE値の探索とノードの配置に要した時間の累計 (ミリ秒) */
+    public double getAllocationMillis();
+
+    /** TAIL配列への格納に要した時間の累計 (ミリ秒) */
+    public double getTailMillis();
+
+    /** 並列構築時の再配置に要した時間の累計 (ミリ秒) */
+    public double getMergeMillis();
+
+    /** 訳語の配列の構築に要した時間の累計 (ミリ秒) */
+    public double getLexemesMillis();
+
+    /** 最後に構築した索引のキーワード数 */
+    public int getLastKeySetSize();
+
+    /** 最後に構築した索引のBASE/CHECK配列長 */
+    public int getLastArrayLength();
+
+    /** 最後に構築した索引の充填率 (使用されている番地の割合) */
+    public double getLastFillRatio();
+
+    /** 計測値を全て0に戻す */
+    public void reset();
+}
@@ -0,0 +1,159 @@
+package org.okawa.util.nlang.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一種類の検索の計測値を集計するリスナー
+ * 検索時間は2のべき乗毎の区間に分けて数えるため、保持する値の数は一定である。
+ */
+final class LookupMetrics implements MetricsListener, LookupMetricsMXBean {
+    /** 検索時間の分布の区間数 (longのビット数 + 1) */
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    /** 集計する検索の種類 */
+    private final MetricsListener.Lookup type;
+    /** 検索回数 */
+    private final AtomicLong lookups = new AtomicLong();
+    /** キーが見つかった検索の回数 */
+    private final AtomicLong hits = new AtomicLong();
+    /** 遷移数の合計 */
+    private final AtomicLong transitions = new AtomicLong();
+    /** TAIL配列の接尾辞との照合回数の合計 */
+    private final AtomicLong tailComparisons = new AtomicLong();
+    /** 見つかったキーの数の合計 */
+    private final AtomicLong matches = new AtomicLong();
+    /** 検索時間の分布 */
+    private final AtomicLongArray latencies = new AtomicLongArray(LookupMetrics.BUCKETS);
+
+    /**
+     * 集計する検索の種類を指定してインスタンス化
+     *
+     * @param type 集計する検索の種類
+     */
+    LookupMetrics(MetricsListener.Lookup type) {
+	this.type = type;
+    }
+
+    @Override
+    public void onLookup(MetricsListener.Lookup type, int transitions, int tailComparisons, int matches, long nanos) {
+	if (type != this.type) {
+	    return;
+	}
+	this.lookups.incrementAndGet();
+	if (matches > 0) {
+	    this.hits.incrementAndGet();
+	}
+	this.transitions.addAndGet(transitions);
+	this.tailComparisons.addAndGet(tailComparisons);
+	this.matches.addAndGet(matches);
+	this.latencies.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+    }
+
+    @Override
+    public void onBuildPhase(MetricsListener.Phase phase, long nanos) {
+    }
+
+    @Override
+    public void onBuild(int keySetSize, int arrayLength, int usedNodes, long nanos) {
+    }
+
+    @Override
+    public long getLookups() {
+	return this.lookups.get();
+    }
+
+    @Override
+    public long getHits() {
+	return this.hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+	return this.lookups.get() - this.hits.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+	return LookupMetrics.ratio(this.hits.get(), this.lookups.get());
+    }
+
+    @Override
+    public double getTransitionsPerLookup() {
+	return LookupMetrics.ratio(this.transitions.get(), this.lookups.get());
+    }
+
+    @Override
+    public double getTailComparisonsPerLookup() {
+	return LookupMetrics.ratio(this.tailComparisons.get(), this.lookups.get());
+    }
+
+    @Override
+    public double getMatchesPerLookup() {
+	return LookupMetrics.ratio(this.matches.get(), this.lookups.get());
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+	final long[] histogram = new long[LookupMetrics.BUCKETS];
+	for (int i = 0; i < histogram.length; i++) {
+	    histogram[i] = this.latencies.get(i);
+	}
+	return histogram;
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+	return this.percentile(0.5);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+	return this.percentile(0.99);
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+	return this.percentile(0.999);
+    }
+
+    @Override
+    public void reset() {
+	this.lookups.set(0);
+	this.hits.set(0);
+	this.transitions.set(0);
+	this.tailComparisons.set(0);
+	this.matches.set(0);
+	for (int i = 0; i < LookupMetrics.BUCKETS; i++) {
+	    this.latencies.set(i, 0);
+	}
+    }
+
+    /**
+     * 検索時間の分布から百分位数を求める
+     *
+     * @param quantile 求める位置 (0から1)
+     * @return 該当する区間の上限 (ナノ秒、検索が無い場合は0)
+     */
+    private long percentile(double quantile) {
+	final long[] histogram = this.getLatencyHistogram();
+	long total = 0;
+	for (long count : histogram) {
+	    total += count;
+	}
+	final long rank = (long) Math.ceil(total * quantile);
+	long count = 0;
+	for (int i = 0; i < histogram.length; i++) {
+	    count += histogram[i];
+	    if (count >= rank && count > 0) {
+		return i == 0 ? 0 : i >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+	    }
+	}
+	return 0;
+    }
+
+    /** 0除算を避けた比 */
+    private static double ratio(long numerator, long denominator) {
+	return denominator == 0 ? 0 : (double) numerator / denominator;
+    }
+}
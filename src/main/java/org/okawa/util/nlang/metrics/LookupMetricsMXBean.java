@@ -0,0 +1,46 @@
+package org.okawa.util.nlang.metrics;
+
+/**
+ * 検索の計測値を公開するMXBean
+ * 値は起動時または最後にresetを呼び出した時点からの累計。
+ */
+public interface LookupMetricsMXBean {
+    /** 検索回数 */
+    public long getLookups();
+
+    /** キーが見つかった検索の回数 */
+    public long getHits();
+
+    /** キーが見つからなかった検索の回数 */
+    public long getMisses();
+
+    /** キーが見つかった検索の割合 */
+    public double getHitRatio();
+
+    /** 一検索当たりのBASE/CHECK配列上の遷移数 */
+    public double getTransitionsPerLookup();
+
+    /** 一検索当たりのTAIL配列の接尾辞との照合回数 */
+    public double getTailComparisonsPerLookup();
+
+    /** 一検索当たりの見つかったキーの数 */
+    public double getMatchesPerLookup();
+
+    /**
+     * 検索時間の分布
+     * i番目の要素は検索時間が [2^(i-1), 2^i) ナノ秒の検索の回数 (0番目は0ナノ秒)。
+     */
+    public long[] getLatencyHistogram();
+
+    /** 検索時間の中央値 (分布の区間の上限、ナノ秒) */
+    public long getLatencyP50Nanos();
+
+    /** 検索時間の99パーセンタイル (分布の区間の上限、ナノ秒) */
+    public long getLatencyP99Nanos();
+
+    /** 検索時間の99.9パーセンタイル (分布の区間の上限、ナノ秒) */
+    public long getLatencyP999Nanos();
+
+    /** 計測値を全て0に戻す */
+    public void reset();
+}
@@ -0,0 +1,129 @@
+package org.okawa.util.nlang.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 検索と構築の計測
+ * システムプロパティ org.okawa.util.nlang.metrics=true を指定して起動した場合のみ有効と
+ * なる。計測箇所は全てENABLEDによる分岐の内側にあり、ENABLEDはstatic finalのため、
+ * 無効の場合はJITコンパイル時に計測処理ごと取り除かれる。
+ *
+ * 有効の場合、以下のMXBeanをプラットフォームのMBeanServerへ登録する。
+ * <pre>
+ * org.okawa.util.nlang:type=Lookup,name=membership  membershipの計測値
+ * org.okawa.util.nlang:type=Lookup,name=prefix      共通接頭辞検索の計測値
+ * org.okawa.util.nlang:type=Build                   構築の計測値
+ * </pre>
+ */
+public final class Metrics {
+    /** 計測を有効にするシステムプロパティ */
+    public static final String PROPERTY = "org.okawa.util.nlang.metrics";
+    /** 計測が有効な場合true */
+    public static final boolean ENABLED = Boolean.getBoolean(Metrics.PROPERTY);
+    /** MXBeanのドメイン */
+    private static final String DOMAIN = "org.okawa.util.nlang";
+
+    /** 登録されているリスナー */
+    private static final List<MetricsListener> LISTENERS = new CopyOnWriteArrayList<MetricsListener>();
+
+    static {
+	if (Metrics.ENABLED) {
+	    Metrics.register(new LookupMetrics(MetricsListener.Lookup.MEMBERSHIP), "type=Lookup,name=membership");
+	    Metrics.register(new LookupMetrics(MetricsListener.Lookup.PREFIX), "type=Lookup,name=prefix");
+	    Metrics.register(new BuildMetrics(), "type=Build");
+	    for (MetricsListener listener : ServiceLoader.load(MetricsListener.class)) {
+		Metrics.LISTENERS.add(listener);
+	    }
+	}
+    }
+
+    /** インスタンス化不可 */
+    private Metrics() {
+    }
+
+    /**
+     * 組み込みの計測値をリスナーとして登録し、MXBeanとして公開する
+     * MXBeanの登録に失敗した場合もリスナーとしては登録する。
+     *
+     * @param metrics 計測値
+     * @param properties ObjectNameのキープロパティ
+     */
+    private static void register(MetricsListener metrics, String properties) {
+	Metrics.LISTENERS.add(metrics);
+	try {
+	    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    final ObjectName name = new ObjectName(Metrics.DOMAIN + ":" + properties);
+	    if (!server.isRegistered(name)) {
+		server.registerMBean(metrics, name);
+	    }
+	} catch (JMException e) {
+	    // JMXが使用できない環境でもリスナーは動作させる
+	}
+    }
+
+    /**
+     * リスナーを登録する
+     * 計測が無効の場合は呼び出されない。
+     *
+     * @param listener 登録するリスナー
+     */
+    public static void addListener(MetricsListener listener) {
+	Metrics.LISTENERS.add(listener);
+    }
+
+    /**
+     * リスナーの登録を解除する
+     *
+     * @param listener 解除するリスナー
+     */
+    public static void removeListener(MetricsListener listener) {
+	Metrics.LISTENERS.remove(listener);
+    }
+
+    /**
+     * 検索の計測値を通知する
+     *
+     * @param type 検索の種類
+     * @param transitions BASE/CHECK配列上で辿った遷移の数
+     * @param tailComparisons TAIL配列の接尾辞と照合した回数
+     * @param matches 見つかったキーの数
+     * @param nanos 検索に要した時間 (ナノ秒)
+     */
+    public static void lookup(MetricsListener.Lookup type, int transitions, int tailComparisons, int matches, long nanos) {
+	for (MetricsListener listener : Metrics.LISTENERS) {
+	    listener.onLookup(type, transitions, tailComparisons, matches, nanos);
+	}
+    }
+
+    /**
+     * 構築の工程の計測値を通知する
+     *
+     * @param phase 構築の工程
+     * @param nanos 工程に要した時間 (ナノ秒)
+     */
+    public static void buildPhase(MetricsListener.Phase phase, long nanos) {
+	for (MetricsListener listener : Metrics.LISTENERS) {
+	    listener.onBuildPhase(phase, nanos);
+	}
+    }
+
+    /**
+     * 索引の構築の計測値を通知する
+     *
+     * @param keySetSize 格納されているキーワード数
+     * @param arrayLength BASE/CHECK配列長
+     * @param usedNodes 使用されている番地の数
+     * @param nanos 構築全体に要した時間 (ナノ秒)
+     */
+    public static void build(int keySetSize, int arrayLength, int usedNodes, long nanos) {
+	for (MetricsListener listener : Metrics.LISTENERS) {
+	    listener.onBuild(keySetSize, arrayLength, usedNodes, nanos);
+	}
+    }
+}
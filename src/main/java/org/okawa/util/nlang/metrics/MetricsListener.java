@@ -0,0 +1,67 @@
+package org.okawa.util.nlang.metrics;
+
+/**
+ * 検索と構築の計測値を受け取るインターフェース
+ * Metrics.ENABLEDがtrueの場合のみ呼び出される。META-INF/services に実装クラスを記述する
+ * とMetricsの初期化時に登録され、Metrics.addListenerで明示的に登録することもできる。
+ * 検索を行うスレッドから同期的に呼び出されるため、実装はスレッドセーフかつ軽量でなければ
+ * ならない。
+ */
+public interface MetricsListener {
+    /**
+     * 検索の種類
+     */
+    public static enum Lookup {
+	/** キーが登録されているかの問い合わせ */
+	MEMBERSHIP,
+	/** 共通接頭辞検索 */
+	PREFIX
+    }
+
+    /**
+     * 構築の工程
+     */
+    public static enum Phase {
+	/** キーワードの整列 */
+	SORT,
+	/** BASE値の探索 (xCheck) とノードの配置 */
+	ALLOCATION,
+	/** TAIL配列への接尾辞の格納 */
+	TAIL,
+	/** 並列構築時のアリーナの再配置 */
+	MERGE,
+	/** 訳語の配列の構築 */
+	LEXEMES
+    }
+
+    /**
+     * 検索毎に呼び出される処理
+     *
+     * @param type 検索の種類
+     * @param transitions BASE/CHECK配列上で辿った遷移の数
+     * @param tailComparisons TAIL配列の接尾辞と照合した回数
+     * @param matches 見つかったキーの数
+     * @param nanos 検索に要した時間 (ナノ秒)
+     */
+    public void onLookup(Lookup type, int transitions, int tailComparisons, int matches, long nanos);
+
+    /**
+     * 構築の工程毎に呼び出される処理
+     * 再帰的に繰り返される工程は累計時間で一度だけ呼び出す。並列構築時は各スレッドの合計
+     * となるため、経過時間を超えることがある。
+     *
+     * @param phase 構築の工程
+     * @param nanos 工程に要した時間 (ナノ秒)
+     */
+    public void onBuildPhase(Phase phase, long nanos);
+
+    /**
+     * 索引の構築毎に呼び出される処理
+     *
+     * @param keySetSize 格納されているキーワード数
+     * @param arrayLength BASE/CHECK配列長
+     * @param usedNodes 使用されている番地の数 (arrayLength に対する割合が充填率)
+     * @param nanos 構築全体に要した時間 (ナノ秒)
+     */
+    public void onBuild(int keySetSize, int arrayLength, int usedNodes, long nanos);
+}
@@ -0,0 +1,161 @@
+package org.okawa.util.nlang.tokenizer;
+
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.trie.Trie;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * コスト最小法 (Viterbiアルゴリズム) による単語分割
+ * 各位置から始まる辞書の単語と一文字の未知語を枝とする格子を作り、単語のコストの和が
+ * 最小となる経路で分割する。経路上で連続する未知語は一つの未知語としてまとめる。
+ *
+ * 格子はバッファ毎に作り、それより前から始まる単語が跨がない位置 (全ての経路が通過する
+ * 位置) までの最小経路を確定させる。バッファ内にそのような位置が無い場合に限り、分割
+ * 範囲の上限で経路を打ち切るため、全体の最小経路とは一致しないことがある。
+ */
+public final class LatticeTokenizer extends Tokenizer {
+    /** 未知語一文字当たりのコストの既定値 */
+    public static final int DEFAULT_UNKNOWN_COST = 10000;
+
+    /**
+     * 単語のコストを返すインターフェース
+     */
+    public static interface Costs {
+	/**
+	 * 単語のコスト (小さいほど優先される)
+	 *
+	 * @param id 単語のID
+	 */
+	public int cost(int id);
+    }
+
+    /** 単語のコスト */
+    private final Costs costs;
+    /** 未知語一文字当たりのコスト */
+    private final int unknownCost;
+    /** 各位置までの最小コスト */
+    private final long[] best;
+    /** 各位置で終わる最小経路の単語の開始位置 */
+    private final int[] prev;
+    /** 各位置で終わる最小経路の単語のID */
+    private final int[] ids;
+    /** 最小経路上の単語の終了位置 (逆順) */
+    private final int[] path;
+    /** 格子に追加した単語の終了位置の最大値 */
+    private int maxEnd;
+    /** 格子に単語を追加するコールバック関数 */
+    private final TrieSearcher.Callback relax = new TrieSearcher.Callback() {
+	    @Override
+	    public void apply(int begin, int offset, int id) {
+		if (offset > 0) {
+		    final LatticeTokenizer self = LatticeTokenizer.this;
+		    self.relax(begin, offset, id, self.best[begin] + self.costs.cost(id));
+		}
+	    }
+	};
+
+    /**
+     * 辞書に格納されたコストを使用してインスタンス化
+     *
+     * @param dictionary 検索に使用する辞書
+     */
+    public LatticeTokenizer(final Dictionary dictionary) {
+	this(dictionary, new Costs() {
+		@Override
+		public int cost(int id) {
+		    return dictionary.getCost(id);
+		}
+	    }, LatticeTokenizer.DEFAULT_UNKNOWN_COST, Tokenizer.DEFAULT_MAX_TOKEN_LENGTH);
+    }
+
+    /**
+     * 辞書と単語のコストを指定してインスタンス化
+     *
+     * @param trie 検索に使用するTrie
+     * @param costs 単語のコスト
+     * @param unknownCost 未知語一文字当たりのコスト
+     * @param maxTokenLength 単語の最大文字数
+     */
+    public LatticeTokenizer(Trie trie, Costs costs, int unknownCost, int maxTokenLength) {
+	super(trie, maxTokenLength);
+	this.costs = costs;
+	this.unknownCost = unknownCost;
+	this.best = new long[this.bufferSize() + 1];
+	this.prev = new int[this.bufferSize() + 1];
+	this.ids = new int[this.bufferSize() + 1];
+	this.path = new int[this.bufferSize() + 1];
+    }
+
+    /**
+     * 単語を格子に追加し、終了位置までの最小コストを更新する
+     *
+     * @param begin 単語の開始位置
+     * @param length 単語の文字数
+     * @param id 単語のID
+     * @param cost 単語を経由した終了位置までのコスト
+     */
+    private void relax(int begin, int length, int id, long cost) {
+	final int end = begin + length;
+	if (cost < this.best[end]) {
+	    this.best[end] = cost;
+	    this.prev[end] = begin;
+	    this.ids[end] = id;
+	}
+	this.maxEnd = Math.max(this.maxEnd, end);
+    }
+
+    /**
+     * バッファの先頭から単語に分割する
+     * 最小経路の末尾が未知語の場合は、未知語の先頭から次回に分割する。
+     */
+    @Override
+    protected int split(int filled, int limit, boolean eof, TokenSink sink) {
+	this.best[0] = 0;
+	for (int i = 1; i <= filled; i++) {
+	    this.best[i] = Long.MAX_VALUE;
+	}
+	this.maxEnd = 0;
+	// 全ての経路が通過する位置
+	int cut = -1;
+	for (int i = 0; i < limit; i++) {
+	    if (i > 0 && this.maxEnd <= i) {
+		cut = i;
+	    }
+	    // 辞書の単語を先に追加し、同じコストの未知語より優先する
+	    this.lookup(i, filled, this.relax);
+	    this.relax(i, 1, TokenSink.UNKNOWN, this.best[i] + this.unknownCost);
+	}
+	if (eof || cut < 0 || this.maxEnd <= limit) {
+	    cut = limit;
+	}
+
+	// 最小経路を逆に辿り、先頭から順に渡す
+	int n = 0;
+	for (int end = cut; end > 0; end = this.prev[end]) {
+	    this.path[n++] = end;
+	}
+	int unknown = -1;
+	while (n > 0) {
+	    final int end = this.path[--n];
+	    final int begin = this.prev[end];
+	    if (this.ids[end] == TokenSink.UNKNOWN) {
+		if (unknown < 0) {
+		    unknown = begin;
+		}
+		continue;
+	    }
+	    if (unknown >= 0) {
+		this.emit(unknown, begin - unknown, TokenSink.UNKNOWN, sink);
+		unknown = -1;
+	    }
+	    this.emit(begin, end - begin, this.ids[end], sink);
+	}
+	if (unknown >= 0) {
+	    if (!eof && unknown > 0) {
+		return unknown;
+	    }
+	    this.emit(unknown, cut - unknown, TokenSink.UNKNOWN, sink);
+	}
+	return cut;
+    }
+}
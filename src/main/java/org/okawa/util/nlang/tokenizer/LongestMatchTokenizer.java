@@ -0,0 +1,80 @@
+package org.okawa.util.nlang.tokenizer;
+
+import org.okawa.util.nlang.trie.Trie;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 最長一致法による単語分割
+ * 先頭から順に、その位置から始まる辞書の単語のうち最も長いものを切り出す。辞書の単語が
+ * 始まらない位置が続く範囲は一つの未知語としてまとめる。
+ */
+public final class LongestMatchTokenizer extends Tokenizer {
+    /** 現在の位置から始まる最長の単語の文字数 (存在しない場合は0) */
+    private int matchLength;
+    /** 現在の位置から始まる最長の単語のID */
+    private int matchId;
+    /** 最長の単語を記録するコールバック関数 (共通接頭辞検索は短い順に呼び出す) */
+    private final TrieSearcher.Callback longest = new TrieSearcher.Callback() {
+	    @Override
+	    public void apply(int begin, int offset, int id) {
+		if (offset > 0) {
+		    LongestMatchTokenizer.this.matchLength = offset;
+		    LongestMatchTokenizer.this.matchId = id;
+		}
+	    }
+	};
+
+    /**
+     * 辞書からインスタンス化
+     *
+     * @param trie 検索に使用するTrie
+     */
+    public LongestMatchTokenizer(Trie trie) {
+	this(trie, Tokenizer.DEFAULT_MAX_TOKEN_LENGTH);
+    }
+
+    /**
+     * 辞書と単語の最大文字数を指定してインスタンス化
+     *
+     * @param trie 検索に使用するTrie
+     * @param maxTokenLength 単語の最大文字数
+     */
+    public LongestMatchTokenizer(Trie trie, int maxTokenLength) {
+	super(trie, maxTokenLength);
+    }
+
+    /**
+     * バッファの先頭から単語に分割する
+     * 未知語の途中で分割範囲の上限に達した場合は、未知語の先頭から次回に分割する。
+     */
+    @Override
+    protected int split(int filled, int limit, boolean eof, TokenSink sink) {
+	// 未知語の開始位置
+	int unknown = -1;
+	int i = 0;
+	while (i < limit) {
+	    this.matchLength = 0;
+	    this.lookup(i, filled, this.longest);
+	    if (this.matchLength == 0) {
+		if (unknown < 0) {
+		    unknown = i;
+		}
+		i++;
+		continue;
+	    }
+	    if (unknown >= 0) {
+		this.emit(unknown, i - unknown, TokenSink.UNKNOWN, sink);
+		unknown = -1;
+	    }
+	    this.emit(i, this.matchLength, this.matchId, sink);
+	    i += this.matchLength;
+	}
+	if (unknown >= 0) {
+	    if (!eof && unknown > 0) {
+		return unknown;
+	    }
+	    this.emit(unknown, i - unknown, TokenSink.UNKNOWN, sink);
+	}
+	return i;
+    }
+}
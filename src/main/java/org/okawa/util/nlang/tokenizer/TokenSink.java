@@ -0,0 +1,22 @@
+package org.okawa.util.nlang.tokenizer;
+
+/**
+ * 分割した単語を受け取るインターフェース
+ * 単語の文字列は生成せず、入力を読み込んだバッファ上の範囲として渡す。バッファの内容は
+ * 呼び出し中のみ有効であり、保持する場合は複製しなければならない。
+ */
+public interface TokenSink {
+    /** 辞書に登録されていない単語のID */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * 単語毎に呼び出される処理
+     *
+     * @param buffer 入力を読み込んだバッファ
+     * @param begin バッファ上の単語の開始位置
+     * @param length 単語の文字数
+     * @param position 入力全体における単語の開始位置
+     * @param id 単語のID (辞書に登録されていない場合はUNKNOWN)
+     */
+    public void apply(char[] buffer, int begin, int length, long position, int id);
+}
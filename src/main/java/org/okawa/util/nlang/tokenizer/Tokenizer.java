@@ -0,0 +1,141 @@
+package org.okawa.util.nlang.tokenizer;
+
+import java.io.IOException;
+import java.io.Reader;
+import org.okawa.util.nlang.trie.Trie;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 辞書を用いた単語分割の基底クラス
+ * 入力を一定の大きさのバッファへ順に読み込み、読み込んだ範囲毎に分割する。使用するメモリ
+ * はバッファの大きさのみに依存するため、入力の大きさに関わらず一定である。
+ *
+ * 単語は最大でmaxTokenLength文字までとし、それより長いキーは辞書に登録されていても
+ * 照合しない。各位置の照合はその位置からmaxTokenLength文字先までが読み込まれてから行う
+ * ため、分割結果は入力の区切られ方に依存しない。ただし、単語はバッファ上の範囲として
+ * 渡すため、バッファに収まらない長さの未知語は複数に分けて渡す。
+ * 分割中の状態を保持するため、一つのインスタンスを複数のスレッドから同時に使用する
+ * ことはできない。
+ */
+public abstract class Tokenizer {
+    /** 単語の最大文字数の既定値 */
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 256;
+    /** バッファの大きさの最小値 */
+    private static final int MIN_BUFFER_SIZE = 1 << 13;
+
+    /** 検索に使用するTrie */
+    private final Trie trie;
+    /** 単語の最大文字数 */
+    private final int maxTokenLength;
+    /** 入力を読み込むバッファ */
+    private final WindowedReader input;
+
+    /**
+     * 辞書と単語の最大文字数を指定してインスタンス化
+     *
+     * @param trie 検索に使用するTrie
+     * @param maxTokenLength 単語の最大文字数
+     */
+    protected Tokenizer(Trie trie, int maxTokenLength) {
+	if (maxTokenLength <= 0) {
+	    throw new IllegalArgumentException("maxTokenLength must be positive: " + maxTokenLength);
+	}
+	this.trie = trie;
+	this.maxTokenLength = maxTokenLength;
+	this.input = new WindowedReader(Math.max(Tokenizer.MIN_BUFFER_SIZE, maxTokenLength * 4));
+    }
+
+    /**
+     * 入力を読み込みながら単語に分割する
+     * Readerは閉じない。
+     *
+     * @param reader 入力
+     * @param sink 分割した単語の受け取り先
+     */
+    public void tokenize(Reader reader, TokenSink sink) throws IOException {
+	this.input.reset(reader);
+	try {
+	    this.tokenize(sink);
+	} finally {
+	    this.input.reset();
+	}
+    }
+
+    /**
+     * 文字列を単語に分割する
+     *
+     * @param text 入力
+     * @param sink 分割した単語の受け取り先
+     */
+    public void tokenize(CharSequence text, TokenSink sink) {
+	this.input.reset(text);
+	try {
+	    this.tokenize(sink);
+	} catch (IOException e) {
+	    // 文字列からの読み込みでは発生しない
+	    throw new AssertionError(e);
+	} finally {
+	    this.input.reset();
+	}
+    }
+
+    /**
+     * 読み込みと分割を入力の終端まで繰り返す
+     *
+     * @param sink 分割した単語の受け取り先
+     */
+    private void tokenize(TokenSink sink) throws IOException {
+	while (true) {
+	    this.input.fill();
+	    final int filled = this.input.filled();
+	    final boolean eof = this.input.isEof();
+	    // 終端以外では単語の最大文字数分の先読みが可能な位置までを分割する
+	    final int consumed = this.split(filled, eof ? filled : filled - this.maxTokenLength, eof, sink);
+	    if (eof) {
+		return;
+	    }
+	    this.input.compact(consumed);
+	}
+    }
+
+    /**
+     * バッファの先頭から単語に分割する
+     * limitより前から始まる単語を分割し、分割済みの位置を返す。入力の終端以外では少なく
+     * とも一文字は分割しなければならない。
+     *
+     * @param filled 読み込んだ文字数
+     * @param limit 単語の開始位置の上限 (この位置は含まない)
+     * @param eof 入力の終端に達している場合true (limitはfilledと等しい)
+     * @param sink 分割した単語の受け取り先
+     * @return 分割済みの位置
+     */
+    protected abstract int split(int filled, int limit, boolean eof, TokenSink sink);
+
+    /** バッファの大きさ (一度に分割する最大の文字数) */
+    protected int bufferSize() {
+	return this.input.capacity();
+    }
+
+    /**
+     * バッファ上の位置から始まる辞書の単語を短い順に列挙する
+     *
+     * @param position 開始位置
+     * @param filled 読み込んだ文字数
+     * @param func コールバック関数 (開始位置, 文字数, ID)
+     */
+    protected void lookup(int position, int filled, TrieSearcher.Callback func) {
+	this.trie.prefix(this.input.window((int) Math.min(filled, (long) position + this.maxTokenLength)), position, func);
+    }
+
+    /**
+     * 単語を受け取り先へ渡す
+     *
+     * @param begin バッファ上の単語の開始位置
+     * @param length 単語の文字数
+     * @param id 単語のID
+     * @param sink 受け取り先
+     */
+    protected void emit(int begin, int length, int id, TokenSink sink) {
+	sink.apply(this.input.array(), begin, length, this.input.offset() + begin, id);
+    }
+}
@@ -0,0 +1,181 @@
+package org.okawa.util.nlang.tokenizer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 入力を一定の大きさのバッファへ順に読み込むリーダー
+ * 処理済みの範囲をバッファの先頭から取り除き、空いた領域へ続きを読み込む。入力はReader
+ * または文字列とし、文字列の場合もバッファへ複製しながら同じように読み込む。
+ *
+ * 自身はバッファの先頭から照合範囲の終端までを表すCharSequenceであり、検索毎にオブジェクト
+ * を生成しないよう、終端を書き換えて再利用する (window)。
+ * TokenizerとMatchPublisherが入力の読み込みに使用する。
+ */
+public final class WindowedReader implements CharSequence {
+    /** 入力を読み込むバッファ */
+    private final char[] buffer;
+    /** 入力 (文字列から読み込む場合はnull) */
+    private Reader reader;
+    /** 入力の文字列 (Readerから読み込む場合はnull) */
+    private CharSequence text;
+    /** 文字列から読み込んだ文字数 */
+    private int read;
+    /** 読み込んだ文字数 */
+    private int filled;
+    /** バッファの先頭の入力全体における位置 */
+    private long offset;
+    /** 入力の終端に達した場合true */
+    private boolean eof;
+    /** 照合範囲の終端 */
+    private int end;
+
+    /**
+     * バッファの大きさを指定してインスタンス化
+     *
+     * @param capacity バッファの大きさ
+     */
+    public WindowedReader(int capacity) {
+	if (capacity <= 0) {
+	    throw new IllegalArgumentException("capacity must be positive: " + capacity);
+	}
+	this.buffer = new char[capacity];
+    }
+
+    /**
+     * Readerから読み込むよう初期化する
+     * Readerは閉じない。
+     *
+     * @param reader 入力
+     */
+    public void reset(Reader reader) {
+	this.reset();
+	this.reader = reader;
+    }
+
+    /**
+     * 文字列から読み込むよう初期化する
+     *
+     * @param text 入力
+     */
+    public void reset(CharSequence text) {
+	this.reset();
+	this.text = text;
+    }
+
+    /**
+     * 入力を手放し、読み込んでいない状態に戻す
+     */
+    public void reset() {
+	this.reader = null;
+	this.text = null;
+	this.read = 0;
+	this.filled = 0;
+	this.offset = 0;
+	this.eof = false;
+	this.end = 0;
+    }
+
+    /**
+     * 空いた領域へ一度だけ読み込む
+     * Readerから読み込む場合、途中で読み込みを止められるよう呼び出し毎にreadを一回のみ行う。
+     *
+     * @return 続けて読み込める場合true、バッファが一杯になったか入力の終端に達した場合false
+     */
+    public boolean read() throws IOException {
+	if (this.eof || this.filled == this.buffer.length) {
+	    return false;
+	}
+	if (this.text != null) {
+	    final int n = Math.min(this.buffer.length - this.filled, this.text.length() - this.read);
+	    for (int i = 0; i < n; i++) {
+		this.buffer[this.filled++] = this.text.charAt(this.read++);
+	    }
+	    this.eof = this.read == this.text.length();
+	} else {
+	    final int n = this.reader.read(this.buffer, this.filled, this.buffer.length - this.filled);
+	    if (n < 0) {
+		this.eof = true;
+	    } else {
+		this.filled += n;
+	    }
+	}
+	return !this.eof && this.filled < this.buffer.length;
+    }
+
+    /**
+     * バッファが一杯になるか、入力の終端に達するまで読み込む
+     */
+    public void fill() throws IOException {
+	while (this.read()) {
+	    // 一杯になるまで読み込む
+	}
+    }
+
+    /**
+     * 処理済みの範囲をバッファから取り除く
+     *
+     * @param consumed 処理済みの位置
+     */
+    public void compact(int consumed) {
+	System.arraycopy(this.buffer, consumed, this.buffer, 0, this.filled - consumed);
+	this.offset += consumed;
+	this.filled -= consumed;
+    }
+
+    /**
+     * 照合範囲の終端を設定する
+     *
+     * @param end 照合範囲の終端 (読み込んだ文字数以下)
+     * @return バッファの先頭からendまでを表すこのインスタンス
+     */
+    public CharSequence window(int end) {
+	this.end = end;
+	return this;
+    }
+
+    /** 入力を読み込むバッファ */
+    public char[] array() {
+	return this.buffer;
+    }
+
+    /** バッファの大きさ */
+    public int capacity() {
+	return this.buffer.length;
+    }
+
+    /** 読み込んだ文字数 */
+    public int filled() {
+	return this.filled;
+    }
+
+    /** バッファの先頭の入力全体における位置 */
+    public long offset() {
+	return this.offset;
+    }
+
+    /** 入力の終端に達した場合true */
+    public boolean isEof() {
+	return this.eof;
+    }
+
+    @Override
+    public int length() {
+	return this.end;
+    }
+
+    @Override
+    public char charAt(int index) {
+	return this.buffer[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+	return new String(this.buffer, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+	return new String(this.buffer, 0, this.end);
+    }
+}
@@ -0,0 +1,145 @@
+package org.okawa.util.nlang.trie;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 一括検索ユーティリティ
+ * 並列モードではクエリ配列を分割し、Fork/Joinで複数のコアから同時に検索する。
+ * Trie検索クラスは検索中に状態を持たないため、同一インスタンスを共有して良い。
+ */
+public final class BatchSearch {
+    /** 一タスクあたりのクエリ数 (これ以下の一括検索は並列化しない) */
+    private static final int THRESHOLD = 1024;
+
+    /** インスタンス化不可 */
+    private BatchSearch() {
+    }
+
+    /**
+     * 並列に検索するか (単一コアの環境や小さな一括検索では分割しない)
+     *
+     * @param parallel 並列モードが指定されているか
+     * @param length クエリ数
+     */
+    private static boolean isParallel(boolean parallel, int length) {
+	return parallel && length > BatchSearch.THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * 一括でキーが登録されているか問い合わせる
+     *
+     * @param searcher 検索に使用するTrie
+     * @param keys 対象とするキー
+     * @param ids 結果の格納先 (キーが存在する場合はそのID、それ以外は-1)
+     * @param parallel trueの場合は並列に検索
+     */
+    public static void membership(TrieSearcher searcher, CharSequence[] keys, int[] ids, boolean parallel) {
+	if (ids.length < keys.length) {
+	    throw new IllegalArgumentException("ids is shorter than keys: " + ids.length + " < " + keys.length);
+	}
+	if (BatchSearch.isParallel(parallel, keys.length)) {
+	    ForkJoinPool.commonPool().invoke(new MembershipTask(searcher, keys, ids, 0, keys.length));
+	} else {
+	    searcher.membership(keys, 0, keys.length, ids);
+	}
+    }
+
+    /**
+     * 一括共通接頭辞検索
+     * 結果はクエリ番号順、同一クエリ内では一致した文字数の昇順に追加される
+     *
+     * @param searcher 検索に使用するTrie
+     * @param queries 問い合わせる文字列
+     * @param begin 検索開始位置
+     * @param matches 結果の格納先 (末尾へ追加される)
+     * @param parallel trueの場合は並列に検索
+     */
+    public static void eachCommonPrefix(TrieSearcher searcher, CharSequence[] queries, int begin, PrefixMatches matches, boolean parallel) {
+	if (BatchSearch.isParallel(parallel, queries.length)) {
+	    PrefixTask task = new PrefixTask(searcher, queries, begin, 0, queries.length);
+	    ForkJoinPool.commonPool().invoke(task);
+	    task.collect(matches);
+	} else {
+	    searcher.eachCommonPrefix(queries, 0, queries.length, begin, matches);
+	}
+    }
+
+    /**
+     * 一括問い合わせタスク
+     */
+    private static final class MembershipTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final TrieSearcher searcher;
+	private final CharSequence[] keys;
+	private final int[] ids;
+	private final int from;
+	private final int to;
+
+	MembershipTask(TrieSearcher searcher, CharSequence[] keys, int[] ids, int from, int to) {
+	    this.searcher = searcher;
+	    this.keys = keys;
+	    this.ids = ids;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+	    if (this.to - this.from <= BatchSearch.THRESHOLD) {
+		this.searcher.membership(this.keys, this.from, this.to, this.ids);
+		return;
+	    }
+	    final int middle = (this.from + this.to) >>> 1;
+	    RecursiveAction.invokeAll(new MembershipTask(this.searcher, this.keys, this.ids, this.from, middle),
+				      new MembershipTask(this.searcher, this.keys, this.ids, middle, this.to));
+	}
+    }
+
+    /**
+     * 一括共通接頭辞検索タスク
+     * 分割したタスク毎に結果を保持し、最後にクエリ番号順に連結する
+     */
+    private static final class PrefixTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final TrieSearcher searcher;
+	private final CharSequence[] queries;
+	private final int begin;
+	private final int from;
+	private final int to;
+	private PrefixMatches matches;
+	private PrefixTask left;
+	private PrefixTask right;
+
+	PrefixTask(TrieSearcher searcher, CharSequence[] queries, int begin, int from, int to) {
+	    this.searcher = searcher;
+	    this.queries = queries;
+	    this.begin = begin;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+	    if (this.to - this.from <= BatchSearch.THRESHOLD) {
+		this.matches = new PrefixMatches();
+		this.searcher.eachCommonPrefix(this.queries, this.from, this.to, this.begin, this.matches);
+		return;
+	    }
+	    final int middle = (this.from + this.to) >>> 1;
+	    this.left = new PrefixTask(this.searcher, this.queries, this.begin, this.from, middle);
+	    this.right = new PrefixTask(this.searcher, this.queries, this.begin, middle, this.to);
+	    RecursiveAction.invokeAll(this.left, this.right);
+	}
+
+	/** 結果をクエリ番号順に連結 */
+	void collect(PrefixMatches out) {
+	    if (this.matches != null) {
+		out.addAll(this.matches);
+	    } else {
+		this.left.collect(out);
+		this.right.collect(out);
+	    }
+	}
+    }
+}
@@ -0,0 +1,76 @@
+package org.okawa.util.nlang.trie;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8のバイト列を復号した文字列
+ * TrieおよびTrieSearcherのバイト列を受け取るメソッドの既定の実装で使用する。復号は不正な
+ * バイト列の手前までとし、文字単位の位置からバイト単位の位置を求められるようにする。
+ * 文字列を生成するため、その場で復号する各実装のメソッドより遅い。
+ */
+final class DecodedUtf8 {
+    /** 復号した文字列 */
+    private final String text;
+    /** 先頭から各文字数までのバイト数 (サロゲートペアの途中は-1) */
+    private final int[] lengths;
+    /** 終了位置まで不正なバイト列無しに復号できた場合true */
+    private final boolean complete;
+
+    private DecodedUtf8(String text, boolean complete) {
+	this.text = text;
+	this.complete = complete;
+	this.lengths = new int[text.length() + 1];
+	int length = 0;
+	for (int i = 0; i < text.length(); i++) {
+	    final char c = text.charAt(i);
+	    if (Character.isHighSurrogate(c)) {
+		// 復号した結果のため、上位サロゲートの次は必ず下位サロゲート
+		this.lengths[++i] = -1;
+		length += 4;
+	    } else {
+		length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+	    }
+	    this.lengths[i + 1] = length;
+	}
+    }
+
+    /**
+     * fromからtoまでのバイト列を不正なバイト列の手前まで復号する
+     *
+     * @param utf8 対象とするバイト列 (位置とリミットは参照しない)
+     * @param from 開始位置
+     * @param to 終了位置 (この位置は含まない)
+     */
+    static DecodedUtf8 decode(ByteBuffer utf8, int from, int to) {
+	final ByteBuffer in = utf8.duplicate();
+	in.limit(in.capacity()).position(from);
+	in.limit(to);
+	final CharBuffer out = CharBuffer.allocate(to - from);
+	final CoderResult result = StandardCharsets.UTF_8.newDecoder().decode(in, out, true);
+	out.flip();
+	return new DecodedUtf8(out.toString(), !result.isError());
+    }
+
+    /** 復号した文字列 */
+    String text() {
+	return this.text;
+    }
+
+    /** 終了位置まで不正なバイト列無しに復号できた場合true */
+    boolean isComplete() {
+	return this.complete;
+    }
+
+    /**
+     * 先頭から指定した文字数までのバイト数
+     *
+     * @param chars 文字数
+     * @return バイト数、サロゲートペアの途中の場合は-1
+     */
+    int byteLength(int chars) {
+	return this.lengths[chars];
+    }
+}
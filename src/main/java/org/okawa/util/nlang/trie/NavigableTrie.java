@@ -0,0 +1,30 @@
+package org.okawa.util.nlang.trie;
+
+/**
+ * キーを辿って列挙できるTrieインターフェース
+ * 予測検索と近似検索はキーを復元する必要があるため、対応する実装のみがこのインターフェース
+ * を実装する。
+ */
+public interface NavigableTrie extends Trie {
+    /**
+     * 予測検索
+     * 接頭辞で始まるキーを辞書順に最大limit件列挙する。キーは取り出す毎に復元するため、
+     * 取り出した件数分の処理のみを行う。
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    public TrieSearcher.Cursor predictive(CharSequence prefix, int limit);
+
+    /**
+     * 近似検索
+     * クエリとの編集距離がmaxDistance以下のキー毎に (ID, 編集距離) でコールバック関数を
+     * 呼び出す。
+     *
+     * @param query 問い合わせ対象となるクエリ
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    public void approximate(CharSequence query, int maxDistance, TrieSearcher.DistanceCallback func);
+}
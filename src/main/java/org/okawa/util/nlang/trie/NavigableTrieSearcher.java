@@ -0,0 +1,29 @@
+package org.okawa.util.nlang.trie;
+
+/**
+ * キーを辿って列挙できるTrie検索インターフェース
+ * 予測検索と近似検索はキーを復元する必要があるため、対応する実装のみがこのインターフェース
+ * を実装する。
+ */
+public interface NavigableTrieSearcher extends TrieSearcher {
+    /**
+     * 予測検索
+     * 接頭辞で始まるキーを辞書順 (文字コードの昇順) に最大limit件列挙する。
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    public Cursor predictive(CharSequence prefix, int limit);
+
+    /**
+     * 近似検索
+     * クエリとの編集距離 (挿入・削除・置換を各1とする) がmaxDistance以下のキーを辞書順に
+     * 列挙し、キー毎に (ID, 編集距離) でコールバック関数を呼び出す。
+     *
+     * @param query 問い合わせる文字列
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    public void eachApproximate(CharSequence query, int maxDistance, DistanceCallback func);
+}
@@ -0,0 +1,110 @@
+package org.okawa.util.nlang.trie;
+
+import java.util.Arrays;
+
+/**
+ * 一括共通接頭辞検索の結果を格納するバッファ
+ * (クエリ番号, 検索開始位置, 一致した文字数, ID) の組をプリミティブ配列に格納するため、
+ * 一致毎のオブジェクト生成は発生しない。clearを呼び出すことで再利用可能。
+ */
+public final class PrefixMatches implements TrieSearcher.Callback {
+    /** 一組あたりの要素数 */
+    private static final int STRIDE = 4;
+    /** 初期容量 (組数) */
+    private static final int INIT_CAPACITY = 64;
+    /** 実データ */
+    private int[] tuples = new int[PrefixMatches.INIT_CAPACITY * PrefixMatches.STRIDE];
+    /** 格納されている組数 */
+    private int size = 0;
+    /** コールバック時に付与するクエリ番号 */
+    private int queryIndex = 0;
+
+    /**
+     * 格納されている組数
+     */
+    public int size() {
+	return this.size;
+    }
+
+    /**
+     * 格納されている組を全て破棄する (容量は保持する)
+     */
+    public void clear() {
+	this.size = 0;
+    }
+
+    /**
+     * 以降のコールバックで付与するクエリ番号をセット
+     *
+     * @param queryIndex クエリ番号
+     */
+    public void select(int queryIndex) {
+	this.queryIndex = queryIndex;
+    }
+
+    /**
+     * 共通接頭辞検索のコールバックとして一致を追加する
+     *
+     * @param begin 入力テキストの検索開始位置
+     * @param offset 一致した文字数
+     * @param id 一致した文字列のID
+     */
+    @Override
+    public void apply(int begin, int offset, int id) {
+	this.add(this.queryIndex, begin, offset, id);
+    }
+
+    /**
+     * 一致を追加する
+     *
+     * @param queryIndex クエリ番号
+     * @param begin 入力テキストの検索開始位置
+     * @param offset 一致した文字数
+     * @param id 一致した文字列のID
+     */
+    public void add(int queryIndex, int begin, int offset, int id) {
+	final int i = this.size * PrefixMatches.STRIDE;
+	if (i == this.tuples.length) {
+	    this.tuples = Arrays.copyOf(this.tuples, this.tuples.length * 2);
+	}
+	this.tuples[i] = queryIndex;
+	this.tuples[i + 1] = begin;
+	this.tuples[i + 2] = offset;
+	this.tuples[i + 3] = id;
+	this.size++;
+    }
+
+    /**
+     * 他のバッファに格納されている組を全て末尾へ追加する
+     *
+     * @param matches 追加する組を格納したバッファ
+     */
+    public void addAll(PrefixMatches matches) {
+	final int length = (this.size + matches.size) * PrefixMatches.STRIDE;
+	if (length > this.tuples.length) {
+	    this.tuples = Arrays.copyOf(this.tuples, Math.max(length, this.tuples.length * 2));
+	}
+	System.arraycopy(matches.tuples, 0, this.tuples, this.size * PrefixMatches.STRIDE, matches.size * PrefixMatches.STRIDE);
+	this.size += matches.size;
+    }
+
+    /** i番目の組のクエリ番号 */
+    public int getQueryIndex(int i) {
+	return this.tuples[i * PrefixMatches.STRIDE];
+    }
+
+    /** i番目の組の検索開始位置 */
+    public int getBegin(int i) {
+	return this.tuples[i * PrefixMatches.STRIDE + 1];
+    }
+
+    /** i番目の組の一致した文字数 */
+    public int getOffset(int i) {
+	return this.tuples[i * PrefixMatches.STRIDE + 2];
+    }
+
+    /** i番目の組のID */
+    public int getId(int i) {
+	return this.tuples[i * PrefixMatches.STRIDE + 3];
+    }
+}
@@ -1,5 +1,7 @@
 package org.okawa.util.nlang.trie;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import org.okawa.util.nlang.trie.impl.DoubleArraySearcher;
 
 /**
@@ -7,6 +9,8 @@ import org.okawa.util.nlang.trie.impl.DoubleArraySearcher;
  * 本実装ではTrie木の実装としてDouble-Arrayを採用する。
  * また本案件ではDictionaryクラスでこのインターフェースを実装し、内部のDouble-Array関連クラス
  * に委譲する形で実装する。
+ * 実装が必須なのはmembershipとprefixのみで、バイト列、一括および走査の検索は既定では
+ * これらを呼び出して求める。予測検索と近似検索はNavigableTrieを参照。
  */
 public interface Trie {
     /**
@@ -38,4 +42,129 @@ public interface Trie {
      * @param func コールバック関数
      */
     public void prefix(CharSequence query, int begin, DoubleArraySearcher.Callback func);
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     * バイト列を文字列へ変換せず、その場で復号しながら検索する。
+     *
+     * @param utf8 検索対象となるバイト列 (位置とリミットは参照しない)
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    public default int membership(ByteBuffer utf8, int from, int to) {
+	// 既定の実装は文字列へ復号してから検索する
+	final DecodedUtf8 decoded = DecodedUtf8.decode(utf8, from, to);
+	return decoded.isComplete() ? this.membership(decoded.text()) : -1;
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているかの問い合わせ
+     *
+     * @param utf8 検索対象となるバイト列
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外の場合は-1
+     */
+    public default int membership(byte[] utf8, int from, int to) {
+	return this.membership(ByteBuffer.wrap(utf8), from, to);
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     * バイト列を文字列へ変換せず、その場で復号しながら検索する。コールバック関数には
+     * バイト単位の位置 (開始位置としてfrom、一致したバイト数) を渡す。
+     *
+     * @param utf8 問い合わせ対象となるバイト列 (位置とリミットは参照しない)
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    public default void prefix(ByteBuffer utf8, final int from, int to, final TrieSearcher.Callback func) {
+	// 既定の実装は不正なバイト列の手前まで復号し、文字単位の位置をバイト単位に戻す
+	final DecodedUtf8 decoded = DecodedUtf8.decode(utf8, from, to);
+	this.prefix(decoded.text(), 0, new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    final int length = decoded.byteLength(offset);
+		    if (length >= 0) {
+			func.apply(from, length, id);
+		    }
+		}
+	    });
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     *
+     * @param utf8 問い合わせ対象となるバイト列
+     * @param from 問い合わせ時、バイト列の開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    public default void prefix(byte[] utf8, int from, int to, TrieSearcher.Callback func) {
+	this.prefix(ByteBuffer.wrap(utf8), from, to, func);
+    }
+
+    /**
+     * 一括でキーが登録されているかの問い合わせ
+     * 既定の実装はparallelを無視して一件ずつ検索する。
+     *
+     * @param keys 検索対象となるキー
+     * @param ids 結果の格納先 (キーが存在する場合はそのID、それ意外は-1)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    public default void membership(CharSequence[] keys, int[] ids, boolean parallel) {
+	if (ids.length < keys.length) {
+	    throw new IllegalArgumentException("ids is shorter than keys: " + ids.length + " < " + keys.length);
+	}
+	for (int i = 0; i < keys.length; i++) {
+	    ids[i] = this.membership(keys[i]);
+	}
+    }
+
+    /**
+     * 一括共通接頭辞検索
+     * 既定の実装はparallelを無視して一件ずつ検索する。
+     *
+     * @param queries 問い合わせ対象となるクエリ
+     * @param begin 問い合わせ時、各クエリ開始位置
+     * @param matches 結果の格納先 (クエリ番号順に追加される)
+     * @param parallel trueの場合は複数のコアで並列に検索
+     */
+    public default void prefix(CharSequence[] queries, int begin, PrefixMatches matches, boolean parallel) {
+	for (int i = 0; i < queries.length; i++) {
+	    matches.select(i);
+	    this.prefix(queries[i], begin, matches);
+	}
+    }
+
+    /**
+     * テキスト中に出現する全てのキーの検索
+     * テキストを一度だけ走査し、一致したキー毎に (開始位置, 一致した文字数, ID) でコール
+     * バック関数を呼び出す。終了位置の昇順に、同じ位置で終わるキーは長いものから順に報告する。
+     * 既定の実装は各位置から共通接頭辞検索を行い、一致を並べ替えてから報告する。
+     *
+     * @param text 走査するテキスト
+     * @param func コールバック関数
+     */
+    public default void scan(CharSequence text, TrieSearcher.Callback func) {
+	final PrefixMatches matches = new PrefixMatches();
+	for (int begin = 0; begin < text.length(); begin++) {
+	    this.prefix(text, begin, matches);
+	}
+	// 終了位置の昇順、同じ終了位置では開始位置の昇順 (長い順)
+	final long[] order = new long[matches.size()];
+	int count = 0;
+	for (int i = 0; i < matches.size(); i++) {
+	    if (matches.getOffset(i) > 0) {
+		order[count++] = ((long) (matches.getBegin(i) + matches.getOffset(i)) << 32) | i;
+	    }
+	}
+	Arrays.sort(order, 0, count);
+	for (int k = 0; k < count; k++) {
+	    final int i = (int) order[k];
+	    func.apply(matches.getBegin(i), matches.getOffset(i), matches.getId(i));
+	}
+    }
 }
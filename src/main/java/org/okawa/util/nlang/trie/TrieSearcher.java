@@ -1,7 +1,11 @@
 package org.okawa.util.nlang.trie;
 
+import java.nio.ByteBuffer;
+
 /**
  * Trie検索インターフェース
+ * 実装が必須なのはmembershipとeachCommonPrefixのみで、バイト列および一括の検索は既定では
+ * これらを一件ずつ呼び出す。予測検索と近似検索はNavigableTrieSearcherを参照。
  */
 public interface TrieSearcher {
     /**
@@ -18,6 +22,39 @@ public interface TrieSearcher {
 	public void apply(int begin, int offset, int id);
     }
 
+    /**
+     * 近似検索でキーが見つかった場合に呼び出されるメソッド
+     */
+    public static interface DistanceCallback {
+	/**
+	 * 実際に呼び出される処理
+	 *
+	 * @param id 見つかったキーのID
+	 * @param distance クエリとキーの編集距離
+	 */
+	public void apply(int id, int distance);
+    }
+
+    /**
+     * 予測検索の結果を一件ずつ取り出すカーソル
+     * キーは取り出す毎に復元するため、取り出した件数に比例する処理のみを行う。検索対象の
+     * Trieを更新した後は使用できない。
+     */
+    public static interface Cursor {
+	/**
+	 * 次のキーへ進む
+	 *
+	 * @return キーが存在する場合true
+	 */
+	public boolean next();
+
+	/** 現在のキー (次にnextを呼び出すまで有効) */
+	public CharSequence key();
+
+	/** 現在のキーのID */
+	public int id();
+    }
+
     /**
      * キーが登録されているか
      *
@@ -34,4 +71,74 @@ public interface TrieSearcher {
      * @param func コールバック関数
      */
     public void eachCommonPrefix(CharSequence query, int begin, Callback func);
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているか
+     * バイト列を文字列へ変換せずに検索する。
+     *
+     * @param utf8 対象とするバイト列 (位置とリミットは参照しない)
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外は-1
+     */
+    public default int membership(ByteBuffer utf8, int from, int to) {
+	// 既定の実装は文字列へ復号してから検索する
+	final DecodedUtf8 decoded = DecodedUtf8.decode(utf8, from, to);
+	return decoded.isComplete() ? this.membership(decoded.text()) : -1;
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     * バイト列を文字列へ変換せずに検索し、コールバック関数にはバイト単位の位置を渡す。
+     *
+     * @param utf8 問い合わせるバイト列 (位置とリミットは参照しない)
+     * @param from 検索開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    public default void eachCommonPrefix(ByteBuffer utf8, final int from, int to, final Callback func) {
+	// 既定の実装は不正なバイト列の手前まで復号し、文字単位の位置をバイト単位に戻す
+	final DecodedUtf8 decoded = DecodedUtf8.decode(utf8, from, to);
+	this.eachCommonPrefix(decoded.text(), 0, new Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    final int length = decoded.byteLength(offset);
+		    if (length >= 0) {
+			func.apply(from, length, id);
+		    }
+		}
+	    });
+    }
+
+    /**
+     * 一括でキーが登録されているか問い合わせる
+     * keys[from]からkeys[to - 1]までの結果をids[from]からids[to - 1]へ格納する
+     *
+     * @param keys 対象とするキー
+     * @param from 処理するキーの開始インデックス
+     * @param to 処理するキーの終了インデックス (このインデックスは含まない)
+     * @param ids 結果の格納先 (キーが存在する場合はそのID、それ意外は-1)
+     */
+    public default void membership(CharSequence[] keys, int from, int to, int[] ids) {
+	for (int i = from; i < to; i++) {
+	    ids[i] = this.membership(keys[i]);
+	}
+    }
+
+    /**
+     * 一括共通接頭辞検索
+     * queries[from]からqueries[to - 1]までの結果をクエリ番号と共にmatchesへ追加する
+     *
+     * @param queries 問い合わせる文字列
+     * @param from 処理するクエリの開始インデックス
+     * @param to 処理するクエリの終了インデックス (このインデックスは含まない)
+     * @param begin 各クエリの検索開始位置
+     * @param matches 結果の格納先
+     */
+    public default void eachCommonPrefix(CharSequence[] queries, int from, int to, int begin, PrefixMatches matches) {
+	for (int i = from; i < to; i++) {
+	    matches.select(i);
+	    this.eachCommonPrefix(queries[i], begin, matches);
+	}
+    }
 }
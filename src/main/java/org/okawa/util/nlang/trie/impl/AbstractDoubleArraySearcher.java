@@ -0,0 +1,506 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.ByteBuffer;
+import org.okawa.util.nlang.metrics.Metrics;
+import org.okawa.util.nlang.metrics.MetricsListener;
+import org.okawa.util.nlang.trie.NavigableTrieSearcher;
+import org.okawa.util.nlang.trie.PrefixMatches;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * Double-Arrayを辿る検索の共通部分
+ * 各検索はここで一度だけ実装し、サブクラスは配列の読み出しのみを実装する。
+ * 実装はヒープ上の配列とバッファ上の配列の二種類のみのため、JITは読み出しの呼び出しを
+ * インライン展開でき、配列を直接読む場合と同程度の速度で辿れる。
+ */
+abstract class AbstractDoubleArraySearcher implements NavigableTrieSearcher {
+    /** 格納されているキーワード数 */
+    final int keySetSize;
+    /** 文字とエッジの文字コードの対応表 */
+    final CodeMap codeMap;
+
+    /** エッジとして使用されている文字コード (初回の予測検索まではnull) */
+    private volatile char[] alphabet;
+
+    /**
+     * キーワード数と対応表を引数にインスタンス化
+     */
+    AbstractDoubleArraySearcher(int keySetSize, CodeMap codeMap) {
+	this.keySetSize = keySetSize;
+	this.codeMap = codeMap;
+    }
+
+    /**
+     * BASE/CHECK配列長
+     */
+    abstract int arraySize();
+
+    /**
+     * BASE配列の要素
+     *
+     * @param index 番地
+     */
+    abstract int base(int index);
+
+    /**
+     * CHECK配列の要素
+     *
+     * @param index 番地
+     */
+    abstract char check(int index);
+
+    /**
+     * TAIL配列 接尾辞開始位置
+     *
+     * @param id 接尾辞のID
+     */
+    abstract int suffixBegin(int id);
+
+    /**
+     * TAIL配列 接尾辞長
+     *
+     * @param id 接尾辞のID
+     */
+    abstract int suffixLength(int id);
+
+    /**
+     * TAIL配列の文字
+     *
+     * @param index TAIL配列上の位置
+     */
+    abstract char tail(int index);
+
+    /**
+     * 予測検索と近似検索で辿るバッファ
+     */
+    abstract DoubleArrayBuffer buffer();
+
+    /**
+     * 格納されているキーワード数
+     */
+    public int size() {
+	return this.keySetSize;
+    }
+
+    /**
+     * TAIL配列に登録されている接尾辞とキーの部分文字列を比較する
+     * 部分文字列を生成せずにその場で比較する
+     *
+     * @param key 対象とするキー
+     * @param from キーの比較開始位置
+     * @param suffixBegin 接尾辞開始インデックス
+     * @param length 比較する文字数
+     */
+    private boolean regionMatches(CharSequence key, int from, int suffixBegin, int length) {
+	for (int i = 0; i < length; i++) {
+	    if (key.charAt(from + i) != this.tail(suffixBegin + i)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * TAIL配列と接尾辞のマッチングを取る
+     *
+     * @param key 対象とするキー
+     * @param from 未処理部分の開始位置
+     * @param node ノード番地
+     */
+    private boolean matchTail(CharSequence key, int from, int node) {
+	// node番地は負値となっているものと想定
+	final int id = Constants.DABase.ID(node);
+	// TAIL 終了オフセット
+	final int offset = this.suffixLength(id);
+	// 未処理部分と接尾辞が完全に一致するか
+	return key.length() - from == offset && this.regionMatches(key, from, this.suffixBegin(id), offset);
+    }
+
+    /**
+     * 引数で与えられるキーがTAIL配列の要素を接頭辞として持っている場合にコールバック関数を実行する
+     *
+     * @param key 対象となるキー
+     * @param from 未処理部分の開始位置
+     * @param node 現在処理中のノード番地
+     * @param begin 現在処理中のクエリ開始位置
+     * @param offset 現在処理中のノードまでに一致した文字数
+     * @param func コールバック関数
+     * @return コールバック関数を実行した場合true
+     */
+    private boolean applyIfKeyIncludesSuffix(CharSequence key, int from, int node, int begin, int offset, Callback func) {
+	// 番地からインデックスへ変換
+	final int id = Constants.DABase.ID(node);
+	// 接尾辞長
+	final int suffixOffset = this.suffixLength(id);
+	// 未処理部分が接尾辞を接頭辞として含むか
+	if (key.length() - from >= suffixOffset && this.regionMatches(key, from, this.suffixBegin(id), suffixOffset)) {
+	    func.apply(begin, offset + suffixOffset, id);
+	    return true;
+	}
+	return false;
+    }
+
+    /**
+     * キーが登録されているか
+     * 検索中にオブジェクトを生成しない
+     *
+     * @param key 対象とするキー
+     * @return キーが存在する場合はそのID、それ意外は-1
+     */
+    @Override
+    public int membership(CharSequence key) {
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	final int size = this.arraySize();
+	final CodeMap codeMap = this.codeMap;
+	final int length = key.length();
+	// 根ノードをセット
+	int node = this.base(0);
+	int id = -1;
+	// 計測用 (計測が無効の場合は取り除かれる)
+	int transitions = 0;
+	int tailComparisons = 0;
+	// 各エッジに対して検証 (キーの終端では終端文字を読み込んだものとする)
+	for (int i = 0; ; i++) {
+	    final char code = i < length ? codeMap.code(key.charAt(i)) : Constants.DACheck.TERM_CODE;
+	    // 子ノード
+	    final int index = node + code;
+	    // 下記条件が接続条件 (範囲外は未使用ノードと同じ扱い)
+	    if (index >= size || this.check(index) != code) {
+		break;
+	    }
+	    transitions++;
+	    // 格納されている番地オフセット
+	    node = this.base(index);
+	    if (node >= 0) { // nodeオフセットが非負の場合は終端ではない
+		continue;
+	    } else if (node != Constants.DABase.INIT_VALUE) { // 接尾辞が登録されている場合
+		tailComparisons++;
+		if (this.matchTail(key, Math.min(i + 1, length), node)) {
+		    id = Constants.DABase.ID(node);
+		}
+	    }
+	    // それ以外の場合はヒットしていない
+	    break;
+	}
+	if (Metrics.ENABLED) {
+	    Metrics.lookup(MetricsListener.Lookup.MEMBERSHIP, transitions, tailComparisons, id < 0 ? 0 : 1, System.nanoTime() - start);
+	}
+	return id;
+    }
+
+    /**
+     * 共通接頭辞検索
+     * 検索中にオブジェクトを生成しない
+     *
+     * @param query 問い合わせる文字列
+     * @param begin 検索開始位置
+     * @param func コールバック関数
+     */
+    @Override
+    public void eachCommonPrefix(CharSequence query, int begin, Callback func) {
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	final int size = this.arraySize();
+	final CodeMap codeMap = this.codeMap;
+	final int length = query.length();
+	// 根ノードをセット
+	int node = this.base(0);
+	// 計測用 (計測が無効の場合は取り除かれる)
+	int transitions = 0;
+	int tailComparisons = 0;
+	int matches = 0;
+
+	for (int i = begin; ; i++) {
+	    // マッチのとれた終端
+	    final int offset = i - begin;
+	    // 現在のノードに終端ノードがぶらさがっているか
+	    final int terminalIndex = node + Constants.DACheck.TERM_CODE;
+	    if (terminalIndex < size && this.check(terminalIndex) == Constants.DACheck.TERM_CODE) {
+		func.apply(begin, offset, Constants.DABase.ID(this.base(terminalIndex)));
+		matches++;
+	    }
+	    // クエリの終端に達した
+	    final char code = i < length ? codeMap.code(query.charAt(i)) : Constants.DACheck.TERM_CODE;
+	    if (code == Constants.DACheck.TERM_CODE) {
+		break;
+	    }
+	    final int index = node + code;
+	    // 接続条件が充たされない場合は終了
+	    if (index >= size || this.check(index) != code) {
+		break;
+	    }
+	    transitions++;
+	    node = this.base(index);
+	    if (node >= 0) { // node番地が非負の場合は終端ではない
+		continue;
+	    } else if (node != Constants.DABase.INIT_VALUE) { // 番兵ノードであり、TAILに接尾辞が登録されている
+		// 現在のノードに付随する接尾辞を接頭辞として含んでいるか検証
+		tailComparisons++;
+		if (this.applyIfKeyIncludesSuffix(query, i + 1, node, begin, offset + 1, func)) {
+		    matches++;
+		}
+	    }
+	    break;
+	}
+	if (Metrics.ENABLED) {
+	    Metrics.lookup(MetricsListener.Lookup.PREFIX, transitions, tailComparisons, matches, System.nanoTime() - start);
+	}
+    }
+
+    /**
+     * UTF-8のバイト列とTAIL配列に登録されている接尾辞を比較する
+     * バイト列をその場で復号し、文字列を生成しない
+     *
+     * @param utf8 対象とするバイト列
+     * @param pos 未処理部分の開始位置
+     * @param to バイト列の終了位置
+     * @param low 未処理の下位サロゲート (ない場合は0)
+     * @param node ノード番地
+     * @return 接尾辞と一致した部分の終了位置、一致しない場合は-1
+     */
+    private int matchTail(ByteBuffer utf8, int pos, int to, char low, int node) {
+	// node番地は負値となっているものと想定
+	final int id = Constants.DABase.ID(node);
+	int i = this.suffixBegin(id);
+	final int end = i + this.suffixLength(id);
+	// 直前の遷移がサロゲートペアの上位の場合、接尾辞は下位から始まる
+	if (low != 0 && (i == end || this.tail(i++) != low)) {
+	    return -1;
+	}
+	while (i < end) {
+	    final int unit = Utf8.decode(utf8, pos, to);
+	    if (unit < 0) {
+		return -1;
+	    }
+	    final int cp = Utf8.codePoint(unit);
+	    if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+		if (this.tail(i++) != cp) {
+		    return -1;
+		}
+	    } else if (end - i < 2 || this.tail(i++) != Character.highSurrogate(cp) || this.tail(i++) != Character.lowSurrogate(cp)) {
+		return -1;
+	    }
+	    pos += Utf8.length(unit);
+	}
+	return pos;
+    }
+
+    /**
+     * UTF-8のバイト列がキーとして登録されているか
+     * 文字列へ変換せずに一文字ずつ復号しながら辿り、検索中にオブジェクトを生成しない。
+     * 補助文字はUTF-16の2文字として辿る。不正なバイト列は一致しないものとする。
+     *
+     * @param utf8 対象とするバイト列 (位置とリミットは参照しない)
+     * @param from キーの開始位置
+     * @param to キーの終了位置 (この位置は含まない)
+     * @return キーが存在する場合はそのID、それ意外は-1
+     */
+    @Override
+    public int membership(ByteBuffer utf8, int from, int to) {
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	final int size = this.arraySize();
+	final CodeMap codeMap = this.codeMap;
+	// 根ノードをセット
+	int node = this.base(0);
+	int id = -1;
+	// 計測用 (計測が無効の場合は取り除かれる)
+	int transitions = 0;
+	int tailComparisons = 0;
+	// 次に復号する位置と未処理の下位サロゲート
+	int pos = from;
+	char low = 0;
+	// 各エッジに対して検証 (キーの終端では終端文字を読み込んだものとする)
+	for (;;) {
+	    final char code;
+	    if (low != 0) {
+		code = codeMap.code(low);
+		low = 0;
+	    } else if (pos < to) {
+		final int unit = Utf8.decode(utf8, pos, to);
+		if (unit < 0) {
+		    break;
+		}
+		pos += Utf8.length(unit);
+		final int cp = Utf8.codePoint(unit);
+		if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+		    code = codeMap.code((char) cp);
+		} else {
+		    code = codeMap.code(Character.highSurrogate(cp));
+		    low = Character.lowSurrogate(cp);
+		}
+	    } else {
+		code = Constants.DACheck.TERM_CODE;
+	    }
+	    // 子ノード
+	    final int index = node + code;
+	    // 下記条件が接続条件 (範囲外は未使用ノードと同じ扱い)
+	    if (index >= size || this.check(index) != code) {
+		break;
+	    }
+	    transitions++;
+	    // 格納されている番地オフセット
+	    node = this.base(index);
+	    if (node >= 0) { // nodeオフセットが非負の場合は終端ではない
+		continue;
+	    } else if (node != Constants.DABase.INIT_VALUE) { // 接尾辞が登録されている場合
+		tailComparisons++;
+		if (this.matchTail(utf8, pos, to, low, node) == to) {
+		    id = Constants.DABase.ID(node);
+		}
+	    }
+	    // それ以外の場合はヒットしていない
+	    break;
+	}
+	if (Metrics.ENABLED) {
+	    Metrics.lookup(MetricsListener.Lookup.MEMBERSHIP, transitions, tailComparisons, id < 0 ? 0 : 1, System.nanoTime() - start);
+	}
+	return id;
+    }
+
+    /**
+     * UTF-8のバイト列に対する共通接頭辞検索
+     * 文字列へ変換せずに一文字ずつ復号しながら辿り、検索中にオブジェクトを生成しない。
+     * コールバック関数にはバイト単位の位置 (開始位置としてfrom、一致したバイト数) を渡す。
+     *
+     * @param utf8 問い合わせるバイト列 (位置とリミットは参照しない)
+     * @param from 検索開始位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    @Override
+    public void eachCommonPrefix(ByteBuffer utf8, int from, int to, Callback func) {
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	final int size = this.arraySize();
+	final CodeMap codeMap = this.codeMap;
+	// 根ノードをセット
+	int node = this.base(0);
+	// 計測用 (計測が無効の場合は取り除かれる)
+	int transitions = 0;
+	int tailComparisons = 0;
+	int matches = 0;
+	// 次に復号する位置と未処理の下位サロゲート
+	int pos = from;
+	char low = 0;
+
+	for (;;) {
+	    final char code;
+	    if (low != 0) {
+		code = codeMap.code(low);
+		low = 0;
+	    } else {
+		// 現在のノードに終端ノードがぶらさがっているか (サロゲートペアの途中では調べない)
+		final int terminalIndex = node + Constants.DACheck.TERM_CODE;
+		if (terminalIndex < size && this.check(terminalIndex) == Constants.DACheck.TERM_CODE) {
+		    func.apply(from, pos - from, Constants.DABase.ID(this.base(terminalIndex)));
+		    matches++;
+		}
+		// 終端に達したか不正なバイト列の場合は終了
+		final int unit = Utf8.decode(utf8, pos, to);
+		if (unit < 0) {
+		    break;
+		}
+		pos += Utf8.length(unit);
+		final int cp = Utf8.codePoint(unit);
+		if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+		    code = codeMap.code((char) cp);
+		} else {
+		    code = codeMap.code(Character.highSurrogate(cp));
+		    low = Character.lowSurrogate(cp);
+		}
+		if (code == Constants.DACheck.TERM_CODE) {
+		    break;
+		}
+	    }
+	    final int index = node + code;
+	    // 接続条件が充たされない場合は終了
+	    if (index >= size || this.check(index) != code) {
+		break;
+	    }
+	    transitions++;
+	    node = this.base(index);
+	    if (node >= 0) { // node番地が非負の場合は終端ではない
+		continue;
+	    } else if (node != Constants.DABase.INIT_VALUE) { // 番兵ノードであり、TAILに接尾辞が登録されている
+		// 未処理部分が接尾辞を接頭辞として含んでいるか検証
+		tailComparisons++;
+		final int end = this.matchTail(utf8, pos, to, low, node);
+		if (end >= 0) {
+		    func.apply(from, end - from, Constants.DABase.ID(node));
+		    matches++;
+		}
+	    }
+	    break;
+	}
+	if (Metrics.ENABLED) {
+	    Metrics.lookup(MetricsListener.Lookup.PREFIX, transitions, tailComparisons, matches, System.nanoTime() - start);
+	}
+    }
+
+    /**
+     * 一括でキーが登録されているか問い合わせる
+     *
+     * @param keys 対象とするキー
+     * @param from 処理するキーの開始インデックス
+     * @param to 処理するキーの終了インデックス (このインデックスは含まない)
+     * @param ids 結果の格納先
+     */
+    @Override
+    public void membership(CharSequence[] keys, int from, int to, int[] ids) {
+	for (int i = from; i < to; i++) {
+	    ids[i] = this.membership(keys[i]);
+	}
+    }
+
+    /**
+     * 一括共通接頭辞検索
+     *
+     * @param queries 問い合わせる文字列
+     * @param from 処理するクエリの開始インデックス
+     * @param to 処理するクエリの終了インデックス (このインデックスは含まない)
+     * @param begin 各クエリの検索開始位置
+     * @param matches 結果の格納先
+     */
+    @Override
+    public void eachCommonPrefix(CharSequence[] queries, int from, int to, int begin, PrefixMatches matches) {
+	for (int i = from; i < to; i++) {
+	    matches.select(i);
+	    this.eachCommonPrefix(queries[i], begin, matches);
+	}
+    }
+
+    /**
+     * エッジとして使用されている文字コード
+     * 初回の呼び出し時にCHECK配列から収集し、対応する文字の昇順に並べる。
+     */
+    private char[] alphabet() {
+	char[] alphabet = this.alphabet;
+	if (alphabet == null) {
+	    alphabet = this.codeMap.sortByChar(PredictiveCursor.alphabet(this.buffer().check));
+	    this.alphabet = alphabet;
+	}
+	return alphabet;
+    }
+
+    /**
+     * 予測検索
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    @Override
+    public TrieSearcher.Cursor predictive(CharSequence prefix, int limit) {
+	return new PredictiveCursor(this.buffer(), this.alphabet(), prefix, limit);
+    }
+
+    /**
+     * 近似検索
+     *
+     * @param query 問い合わせる文字列
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    @Override
+    public void eachApproximate(CharSequence query, int maxDistance, TrieSearcher.DistanceCallback func) {
+	new LevenshteinWalker(this.buffer(), this.alphabet(), query, maxDistance, func).walk();
+    }
+}
@@ -0,0 +1,188 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * 文字とエッジの文字コードの対応表
+ * キーワード中の出現頻度が高い文字から順に、小さな文字コード (未使用ノードの文字コードの
+ * 次から) を割り当てる。漢字と仮名が混在する場合のように使用される文字が文字コード上で
+ * 散在していても、子ノードの文字コードが狭い範囲に集まるため、BASE/CHECK配列が密になる。
+ * 終端文字の文字コードは変わらず、TAIL配列の接尾辞は元の文字のまま格納する。
+ *
+ * IDENTITYは文字をそのまま文字コードとする (対応表を持たない)。インスタンスは変更され
+ * ない。
+ */
+public final class CodeMap {
+    /** 文字をそのまま文字コードとする対応表 */
+    public static final CodeMap IDENTITY = new CodeMap(null);
+
+    /** 文字コード毎の文字 (IDENTITYの場合はnull) */
+    private final char[] chars;
+    /** 文字毎の文字コード (対応表にない文字はLIMIT_CODE、IDENTITYの場合はnull) */
+    private final char[] codes;
+
+    /**
+     * 文字コード毎の文字からインスタンス化
+     *
+     * @param chars 文字コード毎の文字 (先頭は終端文字と未使用ノードの文字コード)
+     */
+    private CodeMap(char[] chars) {
+	this.chars = chars;
+	this.codes = chars == null ? null : CodeMap.invert(chars);
+    }
+
+    /**
+     * 文字毎の文字コードを求める
+     */
+    private static char[] invert(char[] chars) {
+	int max = Constants.DACheck.TERM_CODE;
+	for (int code = Constants.DACheck.EMPTY_CODE + 1; code < chars.length; code++) {
+	    max = Math.max(max, chars[code]);
+	}
+	final char[] codes = new char[max + 1];
+	Arrays.fill(codes, Constants.DACheck.LIMIT_CODE);
+	codes[Constants.DACheck.TERM_CODE] = Constants.DACheck.TERM_CODE;
+	for (int code = Constants.DACheck.EMPTY_CODE + 1; code < chars.length; code++) {
+	    codes[chars[code]] = (char) code;
+	}
+	return codes;
+    }
+
+    /**
+     * キーワード一覧での出現頻度から対応表を作る
+     * 出現回数の降順 (同じ回数の場合は文字の昇順) に文字コードを割り当てる。
+     *
+     * @param keys キーワード一覧
+     * @return 対応表、文字の種類が文字コードの範囲を超える場合はIDENTITY
+     */
+    static CodeMap build(String[] keys) {
+	final int[] counts = new int[Constants.DACheck.LIMIT_CODE + 1];
+	for (String key : keys) {
+	    for (int i = 0; i < key.length(); i++) {
+		counts[key.charAt(i)]++;
+	    }
+	}
+	// 終端文字は対応表に含めない
+	counts[Constants.DACheck.TERM_CODE] = 0;
+	// 出現回数と文字を一つの値に詰めて整列する
+	long[] ranks = new long[counts.length];
+	int size = 0;
+	for (int c = 0; c < counts.length; c++) {
+	    if (counts[c] > 0) {
+		ranks[size++] = ((long) (Integer.MAX_VALUE - counts[c]) << 16) | c;
+	    }
+	}
+	if (size + Constants.DACheck.EMPTY_CODE + 1 > Constants.DACheck.LIMIT_CODE) {
+	    return CodeMap.IDENTITY;
+	}
+	ranks = Arrays.copyOf(ranks, size);
+	Arrays.sort(ranks);
+	final char[] chars = new char[size + Constants.DACheck.EMPTY_CODE + 1];
+	chars[Constants.DACheck.TERM_CODE] = Constants.DACheck.TERM_CODE;
+	chars[Constants.DACheck.EMPTY_CODE] = Constants.DACheck.EMPTY_CODE;
+	for (int i = 0; i < size; i++) {
+	    chars[Constants.DACheck.EMPTY_CODE + 1 + i] = (char) ranks[i];
+	}
+	return new CodeMap(chars);
+    }
+
+    /**
+     * 書き出した対応表から復元する
+     *
+     * @param chars 文字コード毎の文字 (空の場合はIDENTITY)
+     */
+    static CodeMap of(CharBuffer chars) {
+	if (chars.limit() == 0) {
+	    return CodeMap.IDENTITY;
+	}
+	final char[] array = new char[chars.limit()];
+	chars.duplicate().get(array);
+	return new CodeMap(array);
+    }
+
+    /**
+     * 文字を追加した対応表を返す (更新時に使用)
+     * IDENTITYおよび既に対応表にある文字の場合は自身を返す。
+     *
+     * @param c 追加する文字
+     * @throws IllegalStateException 文字コードの範囲を超える場合
+     */
+    CodeMap extend(char c) {
+	if (this.chars == null || c == Constants.DACheck.TERM_CODE || this.code(c) != Constants.DACheck.LIMIT_CODE) {
+	    return this;
+	}
+	if (this.chars.length >= Constants.DACheck.LIMIT_CODE) {
+	    throw new IllegalStateException("too many characters");
+	}
+	final char[] chars = Arrays.copyOf(this.chars, this.chars.length + 1);
+	chars[this.chars.length] = c;
+	return new CodeMap(chars);
+    }
+
+    /**
+     * 文字をそのまま文字コードとする場合true
+     */
+    public boolean isIdentity() {
+	return this.chars == null;
+    }
+
+    /**
+     * 対応表の大きさ (書き出す文字数、IDENTITYの場合は0)
+     */
+    public int size() {
+	return this.chars == null ? 0 : this.chars.length;
+    }
+
+    /**
+     * 文字に対応する文字コード
+     *
+     * @param c 文字
+     * @return 文字コード、対応表にない文字はLIMIT_CODE (どのエッジとも一致しない)
+     */
+    public char code(char c) {
+	final char[] codes = this.codes;
+	if (codes == null) {
+	    return c;
+	}
+	return c < codes.length ? codes[c] : Constants.DACheck.LIMIT_CODE;
+    }
+
+    /**
+     * 文字コードに対応する文字
+     *
+     * @param code エッジの文字コード
+     */
+    public char charOf(char code) {
+	return this.chars == null ? code : this.chars[code];
+    }
+
+    /**
+     * 書き出し用に対応表をラップする
+     */
+    CharBuffer wrap() {
+	return this.chars == null ? CharBuffer.allocate(0) : CharBuffer.wrap(this.chars).asReadOnlyBuffer();
+    }
+
+    /**
+     * 文字コード一覧を対応する文字の昇順に並べ替える
+     * 文字コードの昇順に並んでいるものとし、IDENTITYの場合はそのまま返す。
+     *
+     * @param codes 文字コード一覧 (昇順)
+     * @return 文字の昇順に並べた文字コード一覧
+     */
+    char[] sortByChar(char[] codes) {
+	if (this.chars == null) {
+	    return codes;
+	}
+	final char[] chars = new char[codes.length];
+	for (int i = 0; i < codes.length; i++) {
+	    chars[i] = this.charOf(codes[i]);
+	}
+	Arrays.sort(chars);
+	for (int i = 0; i < chars.length; i++) {
+	    chars[i] = this.code(chars[i]);
+	}
+	return chars;
+    }
+}
@@ -1,24 +1,26 @@
 package org.okawa.util.nlang.trie.impl;
 
-import java.util.List;
-
-
 /**
  * Trie木実装 Double-Array
+ * 構築後は変更されない。全てのフィールドはfinalで、各配列もインスタンス化以降は書き換え
+ * ないため、同期なしに複数のスレッドへ公開して検索できる。更新はDoubleArrayEditorが
+ * 複製した配列に対して行う。
  */
 public final class DoubleArray {
     /** 格納されているキーワード数 */
-    public int keySetSize;
-    /** BASE配列 */
-    public final DynamicArrayList<Integer> base;
-    /** CHECK配列 */
-    public final DynamicArrayList<Character> check;
-    /** TAIL配列 各接尾辞開始位置 */
-    public final List<Integer> begins;
+    public final int keySetSize;
+    /** BASE配列 (CHECK配列と同じ長さ) */
+    public final int[] base;
+    /** CHECK配列 (BASE配列と同じ長さ) */
+    public final char[] check;
+    /** TAIL配列 各接尾辞開始位置 (共通の末尾を持つ接尾辞は同じ領域を指す) */
+    public final int[] begins;
     /** TAIL配列 各接尾辞長 */
-    public final List<Integer> lengths;
+    public final int[] lengths;
     /** TAIL配列 */
-    public StringBuilder tail;
+    public final String tail;
+    /** 文字とエッジの文字コードの対応表 */
+    public final CodeMap codeMap;
 
     /**
      * ビルダーからインスタンス化
@@ -35,6 +37,21 @@ public final class DoubleArray {
 	// TAIL配列データ長格納配列をセット
 	this.lengths = builder.getLengths();
 	// TAIL配列実データをセット
-	this.tail = builder.getTail();
+	this.tail = builder.getTail().toString();
+	// 文字コードの対応表をセット
+	this.codeMap = builder.getCodeMap();
+    }
+
+    /**
+     * 各配列からインスタンス化
+     */
+    DoubleArray(int keySetSize, int[] base, char[] check, int[] begins, int[] lengths, CharSequence tail, CodeMap codeMap) {
+	this.keySetSize = keySetSize;
+	this.base = base;
+	this.check = check;
+	this.begins = begins;
+	this.lengths = lengths;
+	this.tail = tail.toString();
+	this.codeMap = codeMap;
     }
 }
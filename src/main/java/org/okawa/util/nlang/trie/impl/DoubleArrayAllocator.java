@@ -1,52 +1,175 @@
 package org.okawa.util.nlang.trie.impl;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.List;
 
 /**
  * Double-Array構築のためのアロケータ。
+ * 未使用の番地をint配列上の双方向リストで管理し、使用済みの番地を読み飛ばしながら
+ * 割当可能な番地を探索する。
  */
 final class DoubleArrayAllocator {
+    /** 仮想メモリの初期サイズ */
+    private static final int INIT_SIZE = 1024;
+    /** 仮想メモリの伸張率 */
+    private static final int ALLOC_RATIO = 2;
+    /** 未使用番地を候補から外すまでの割当失敗回数 */
+    private static final int MAX_TRIALS = 8;
+    /** 探索開始位置を進める閾値 (探索した範囲の使用済み番地の割合) */
+    private static final double DENSITY_THRESHOLD = 0.95;
+    /** 仮想メモリ管理 未使用番地の前の未使用番地 (先頭の場合は-1) */
+    private int[] prev;
+    /** 仮想メモリ管理 未使用番地の次の未使用番地 (末尾の場合は仮想メモリのサイズ) */
+    private int[] next;
+    /** 仮想メモリのサイズ */
+    private int size;
+    /** 未使用番地のリストの末尾 (存在しない場合は-1) */
+    private int last;
+    /** 探索開始位置 (これより前の領域はほぼ使用済みと見なして読み飛ばす) */
+    private int head;
+    /** 仮想メモリ管理 使用フラグ (1ビット/番地) */
+    private long[] used;
+    /** 仮想メモリ管理 未使用番地の割当失敗回数 */
+    private byte[] trials;
+    /** 使用済みのBASE値 */
+    private final BitSet bases = new BitSet();
+
     /**
-     * ノード番号管理用
+     * 根ノードの番地 (0) を使用済みとしてインスタンス化
      */
-    private static class LinkedNode {
-	// 弟ノード
-	public int prev;
-	// 兄ノード
-	public int next;
-	// コンストラクタ
-	public LinkedNode(int prev, int next) {
-	    this.prev = prev;
-	    this.next = next;
-	}
+    public DoubleArrayAllocator() {
+	this.prev = new int[0];
+	this.next = new int[0];
+	this.used = new long[0];
+	this.trials = new byte[0];
+	this.size = 0;
+	this.last = -1;
+	this.resize(DoubleArrayAllocator.INIT_SIZE);
+	this.head = 0;
+	this.assign(0);
     }
 
-    /** 仮想メモリの伸張率 */
-    private static final int ALLOC_RATIO = 2;
-    /**  番兵ノード番号 */
-    private static final int SENTINEL = 0;
-    /** 仮想メモリ管理 番地管理 */
-    private ArrayList<LinkedNode> linkedNodes = new ArrayList<LinkedNode>();
-    /** 仮想メモリ管理 使用フラグ */
-    private BitSet bitSet = new BitSet();
+    /**
+     * 構築済みのDouble-Arrayの使用状況を復元してインスタンス化
+     * CHECK配列が空でない番地を使用済みとし、それらの番地と根ノードのBASE値を使用済みの
+     * BASE値とする。
+     *
+     * @param base BASE配列
+     * @param check CHECK配列
+     * @param length 使用中の配列長
+     */
+    public DoubleArrayAllocator(int[] base, char[] check, int length) {
+	this();
+	this.ensure(length - 1);
+	if (base[0] >= 0) {
+	    this.bases.set(base[0]);
+	}
+	for (int node = 1; node < length; node++) {
+	    if (check[node] != Constants.DACheck.EMPTY_CODE) {
+		this.assign(node);
+		if (base[node] >= 0) {
+		    this.bases.set(base[node]);
+		}
+	    }
+	}
+    }
 
     /**
      * 使用する番地一覧の拡張
+     * 追加した番地は未使用番地のリストの末尾へ連結する。
      *
      * @param hint 確保する領域を明示する場合のヒント
      */
     private void resize(int hint) {
-	final int newSize = Math.max(hint, this.linkedNodes.size() * DoubleArrayAllocator.ALLOC_RATIO);
-	if (this.linkedNodes.size() == 0) {
-	    this.linkedNodes.add(new DoubleArrayAllocator.LinkedNode(-1, 1));
+	final int oldSize = this.size;
+	final int newSize = Math.max(hint, oldSize * DoubleArrayAllocator.ALLOC_RATIO);
+	this.prev = Arrays.copyOf(this.prev, newSize);
+	this.next = Arrays.copyOf(this.next, newSize);
+	this.used = Arrays.copyOf(this.used, (newSize + 63) >>> 6);
+	this.trials = Arrays.copyOf(this.trials, newSize);
+	for (int i = oldSize; i < newSize; i++) {
+	    this.prev[i] = i - 1;
+	    this.next[i] = i + 1;
+	}
+	this.prev[oldSize] = this.last;
+	if (this.last >= 0) {
+	    this.next[this.last] = oldSize;
+	}
+	this.last = newSize - 1;
+	this.size = newSize;
+    }
+
+    /**
+     * 番地が仮想メモリに収まるまで伸張する
+     *
+     * @param node 番地
+     */
+    private void ensure(int node) {
+	while (node >= this.size) {
+	    this.resize(node + 1);
+	}
+    }
+
+    /**
+     * 指定した番地以降で最初の未使用番地
+     *
+     * @param node 探索を開始する番地
+     */
+    private int firstFree(int node) {
+	this.ensure(node);
+	// 全ての番地が使用済みのワードを読み飛ばす
+	int word = node >>> 6;
+	long free = ~this.used[word] & (-1L << node);
+	while (free == 0) {
+	    if (++word == this.used.length) {
+		this.resize(0);
+	    }
+	    free = ~this.used[word];
+	}
+	final int result = (word << 6) + Long.numberOfTrailingZeros(free);
+	this.ensure(result);
+	return result;
+    }
+
+    /**
+     * 指定した番地以前で最後の未使用番地 (存在しない場合は-1)
+     *
+     * @param node 探索を開始する番地
+     */
+    private int lastFree(int node) {
+	if (node < 0) {
+	    return -1;
 	}
-	this.linkedNodes.get(this.linkedNodes.size() - 1).next = this.linkedNodes.size();
-	for (int i = this.linkedNodes.size(); i < newSize; i++) {
-	    this.linkedNodes.add(new DoubleArrayAllocator.LinkedNode(i - 1, i + 1));
+	int word = node >>> 6;
+	long free = ~this.used[word] & (-1L >>> (63 - (node & 63)));
+	while (free == 0) {
+	    if (--word < 0) {
+		return -1;
+	    }
+	    free = ~this.used[word];
 	}
-	this.linkedNodes.get(newSize - 1).next = DoubleArrayAllocator.SENTINEL;
+	return (word << 6) + 63 - Long.numberOfLeadingZeros(free);
+    }
+
+    /**
+     * 番地が使用済みの場合true (仮想メモリの範囲外は未使用)
+     *
+     * @param node 番地
+     */
+    private boolean isUsed(int node) {
+	return (node >>> 6) < this.used.length && (this.used[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+     * 次の未使用番地
+     *
+     * @param node 未使用番地
+     */
+    private int nextFree(int node) {
+	if (this.next[node] >= this.size) {
+	    this.resize(0);
+	}
+	return this.next[node];
     }
 
     /**
@@ -55,14 +178,102 @@ final class DoubleArrayAllocator {
      * @param node 使用する番地
      */
     private void assign(int node) {
-	while (node >= this.linkedNodes.size() - 1) {
-	    this.resize(0);
+	this.ensure(node);
+	// 双方向リストから該当する番地を抜き出す
+	final int p = this.prev[node];
+	final int n = this.next[node];
+	if (p >= 0) {
+	    this.next[p] = n;
+	}
+	if (n < this.size) {
+	    this.prev[n] = p;
+	} else {
+	    this.last = p;
+	}
+	if (node == this.head) {
+	    this.head = n;
+	}
+	this.used[node >>> 6] |= 1L << node;
+    }
+
+    /**
+     * 使用済みの番地を解放し、未使用番地のリストへ戻す
+     * 解放した番地は以降の割当で再利用される。
+     *
+     * @param node 解放する番地
+     */
+    public void free(int node) {
+	if (node == 0 || !this.isUsed(node)) {
+	    return;
+	}
+	this.used[node >>> 6] &= ~(1L << node);
+	this.trials[node] = 0;
+	// 前後の未使用番地の間に連結する
+	final int p = this.lastFree(node - 1);
+	final int n = Math.min(this.firstFreeWithin(node + 1), this.size);
+	this.prev[node] = p;
+	this.next[node] = n;
+	if (p >= 0) {
+	    this.next[p] = node;
+	}
+	if (n < this.size) {
+	    this.prev[n] = node;
+	} else {
+	    this.last = node;
+	}
+	if (node < this.head) {
+	    this.head = node;
+	}
+    }
+
+    /**
+     * 指定した番地以降で最初の未使用番地 (仮想メモリは伸張しない)
+     *
+     * @param node 探索を開始する番地
+     * @return 未使用番地、存在しない場合は仮想メモリのサイズ以上の値
+     */
+    private int firstFreeWithin(int node) {
+	int word = node >>> 6;
+	if (word >= this.used.length) {
+	    return this.size;
+	}
+	long free = ~this.used[word] & (-1L << node);
+	while (free == 0) {
+	    if (++word == this.used.length) {
+		return this.size;
+	    }
+	    free = ~this.used[word];
+	}
+	return (word << 6) + Long.numberOfTrailingZeros(free);
+    }
+
+    /**
+     * 使用済みのBASE値を解放する
+     *
+     * @param base 解放するBASE値
+     */
+    public void releaseBase(int base) {
+	this.bases.clear(base);
+    }
+
+    /**
+     * 番地が未使用の場合true
+     *
+     * @param node 番地
+     */
+    public boolean isFree(int node) {
+	return !this.isUsed(node);
+    }
+
+    /**
+     * 番地を予約する (以降の割当では使用されない)
+     *
+     * @param node 予約する番地
+     */
+    public void reserve(int node) {
+	if (!this.isUsed(node)) {
+	    this.assign(node);
 	}
-	// 双方向リストから該当する番地を抜き出す。
-	// nextが番兵の場合は使用済みノードと見なす。
-	this.linkedNodes.get(this.linkedNodes.get(node).prev).next = this.linkedNodes.get(node).next;
-	this.linkedNodes.get(this.linkedNodes.get(node).next).prev = this.linkedNodes.get(node).prev;
-	this.linkedNodes.get(node).next = DoubleArrayAllocator.SENTINEL;
     }
 
     /**
@@ -71,11 +282,9 @@ final class DoubleArrayAllocator {
      * @param codes 文字コード一覧
      * @param candidate 番地候補
      */
-    private boolean isAssignable(List<Character> codes, int candidate) {
-	for (Character c : codes) {
-	    // 番兵がnextとなる場合は使用済み
-	    if (candidate + c < this.linkedNodes.size()
-		&& this.linkedNodes.get(candidate + c).next == DoubleArrayAllocator.SENTINEL) {
+    private boolean isAssignable(char[] codes, int candidate) {
+	for (int i = 1; i < codes.length; i++) {
+	    if (this.isUsed(candidate + codes[i])) {
 		return false;
 	    }
 	}
@@ -84,27 +293,39 @@ final class DoubleArrayAllocator {
 
     /**
      * 割当可能なBASEノード番地を返す (AOE論文参照)
+     * 先頭の文字コードに対応する番地を未使用番地のリストから探索するため、使用済みの番地は
+     * 調べない。割当に繰り返し失敗した未使用番地は候補から外し (使用済みとして扱う)、また
+     * 探索した範囲がほぼ使用済みであった場合は、次回以降その範囲を読み飛ばす。
      *
-     * @param codes 文字コード一覧
+     * @param codes 文字コード一覧 (重複なし、順序は問わない)
      * @return 割当可能な番地
      */
-    public int xCheck(List<Character> codes) {
-	// 本アロケータは最低でもLIMIT_CODE以上の初期メモリ領域を要する
-	if (this.linkedNodes.size() < Constants.DACheck.LIMIT_CODE) {
-	    this.resize(Constants.DACheck.LIMIT_CODE * 2);
-	}
-	// 初期値として文字コードの終端を使用
-	for (int curr = this.linkedNodes.get(Constants.DACheck.LIMIT_CODE).next; ; curr = this.linkedNodes.get(curr).next) {
-	    final int candidate = curr - codes.get(0);
-	    if (this.bitSet.get(candidate) == false && this.isAssignable(codes, candidate)) {
+    public int xCheck(char[] codes) {
+	final int first = codes[0];
+	// BASE値は正となる必要があるため、先頭の文字コードより後ろから探索
+	final int begin = this.firstFree(Math.max(this.head, first + 1));
+	int failures = 0;
+	for (int curr = begin; ; failures++) {
+	    final int candidate = curr - first;
+	    if (!this.bases.get(candidate) && this.isAssignable(codes, candidate)) {
+		// 探索した範囲がほぼ使用済みであれば、次回は見つかった番地から探索する
+		final int span = curr - begin + 1;
+		if (span - failures - 1 >= span * DoubleArrayAllocator.DENSITY_THRESHOLD) {
+		    this.head = curr;
+		}
 		// この番地を使用済みとしてマーク
-		this.bitSet.flip(candidate);
+		this.bases.set(candidate);
 		// エッジの先となる番地を全てリンクから外す
-		for (Character c : codes) {
+		for (char c : codes) {
 		    this.assign(candidate + c);
 		}
 		return candidate;
 	    }
+	    final int free = this.nextFree(curr);
+	    if (++this.trials[curr] >= DoubleArrayAllocator.MAX_TRIALS) {
+		this.assign(curr);
+	    }
+	    curr = free;
 	}
     }
 }
@@ -0,0 +1,190 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * バッファ上に配置されたDouble-Array
+ * ヒープ上のDouble-Arrayをラップしたもの、またはファイルからメモリマップしたものを扱う。
+ *
+ * ファイル上のレイアウト (各配列は8バイト境界に揃える)
+ * <pre>
+ * int  MAGIC
+ * int  VERSION
+ * int  格納されているキーワード数
+ * int  BASE/CHECK配列長
+ * int  TAIL接尾辞数
+ * int  TAIL配列長
+ * int  文字コードの対応表の長さ (対応表を持たない場合は0)
+ * int  予約
+ * int[]  BASE配列
+ * char[] CHECK配列
+ * int[]  TAIL配列 各接尾辞開始位置
+ * int[]  TAIL配列 各接尾辞長
+ * char[] TAIL配列
+ * char[] 文字コードの対応表 (文字コード毎の文字)
+ * </pre>
+ * 対応表を持たない場合はバージョン1として書き出すため、以前のバージョンでも読み込める。
+ */
+public final class DoubleArrayBuffer {
+    /** マジックナンバー ("DART") */
+    private static final int MAGIC = 0x44415254;
+    /** フォーマットのバージョン (文字コードの対応表を持たない場合) */
+    private static final int VERSION = 1;
+    /** フォーマットのバージョン (文字コードの対応表を持つ場合) */
+    private static final int VERSION_CODE_MAP = 2;
+    /** ヘッダのバイト数 */
+    private static final int HEADER_SIZE = 32;
+
+    /** 格納されているキーワード数 */
+    public final int keySetSize;
+    /** BASE配列 (CHECK配列と同じ長さ) */
+    public final IntBuffer base;
+    /** CHECK配列 (BASE配列と同じ長さ) */
+    public final CharBuffer check;
+    /** TAIL配列 各接尾辞開始位置 (共通の末尾を持つ接尾辞は同じ領域を指す) */
+    public final IntBuffer begins;
+    /** TAIL配列 各接尾辞長 */
+    public final IntBuffer lengths;
+    /** TAIL配列 */
+    public final CharBuffer tail;
+    /** 文字とエッジの文字コードの対応表 */
+    public final CodeMap codeMap;
+
+    /**
+     * 各配列からインスタンス化
+     */
+    DoubleArrayBuffer(int keySetSize, IntBuffer base, CharBuffer check, IntBuffer begins, IntBuffer lengths, CharBuffer tail, CodeMap codeMap) {
+	this.keySetSize = keySetSize;
+	this.base = base;
+	this.check = check;
+	this.begins = begins;
+	this.lengths = lengths;
+	this.tail = tail;
+	this.codeMap = codeMap;
+    }
+
+    /**
+     * 構築中の各配列をヒープ外のバッファへ書き出してインスタンス化
+     * ヒープ上の配列を経由しないため、構築時の配列以外の複製は発生しない。
+     *
+     * @param keySetSize 格納されているキーワード数
+     * @param length BASE/CHECK配列長
+     */
+    static DoubleArrayBuffer allocateDirect(int keySetSize, int length,
+					    DynamicIntArray base, DynamicCharArray check,
+					    DynamicIntArray begins, DynamicIntArray lengths, CharSequence tail, CodeMap codeMap) {
+	final IntBuffer baseBuffer = MappedArrays.allocateInts(length);
+	base.copyTo(baseBuffer, length);
+	final CharBuffer checkBuffer = MappedArrays.allocateChars(length);
+	check.copyTo(checkBuffer, length);
+	final IntBuffer beginsBuffer = MappedArrays.allocateInts(begins.size());
+	begins.copyTo(beginsBuffer, begins.size());
+	final IntBuffer lengthsBuffer = MappedArrays.allocateInts(lengths.size());
+	lengths.copyTo(lengthsBuffer, lengths.size());
+	return new DoubleArrayBuffer(keySetSize,
+				     baseBuffer.asReadOnlyBuffer(),
+				     checkBuffer.asReadOnlyBuffer(),
+				     beginsBuffer.asReadOnlyBuffer(),
+				     lengthsBuffer.asReadOnlyBuffer(),
+				     MappedArrays.allocateChars(tail),
+				     codeMap);
+    }
+
+    /**
+     * ヒープ上のDouble-Arrayを (コピーせずに) ラップする
+     *
+     * @param doubleArray ラップするDouble-Array
+     */
+    public static DoubleArrayBuffer wrap(DoubleArray doubleArray) {
+	return new DoubleArrayBuffer(doubleArray.keySetSize,
+				     IntBuffer.wrap(doubleArray.base).asReadOnlyBuffer(),
+				     CharBuffer.wrap(doubleArray.check).asReadOnlyBuffer(),
+				     IntBuffer.wrap(doubleArray.begins).asReadOnlyBuffer(),
+				     IntBuffer.wrap(doubleArray.lengths).asReadOnlyBuffer(),
+				     CharBuffer.wrap(doubleArray.tail),
+				     doubleArray.codeMap);
+    }
+
+    /**
+     * 書き出した際のバイト数
+     */
+    public long byteSize() {
+	return DoubleArrayBuffer.HEADER_SIZE
+	    + MappedArrays.intsSize(this.base.limit())
+	    + MappedArrays.charsSize(this.check.limit())
+	    + MappedArrays.intsSize(this.begins.limit())
+	    + MappedArrays.intsSize(this.lengths.limit())
+	    + MappedArrays.charsSize(this.tail.limit())
+	    + (this.codeMap.isIdentity() ? 0 : MappedArrays.charsSize(this.codeMap.size()));
+    }
+
+    /**
+     * チャネルの現在位置へネイティブのバイトオーダーで書き出す
+     *
+     * @param channel 書き出し先
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+	final ByteOrder order = ByteOrder.nativeOrder();
+	final ByteBuffer header = ByteBuffer.allocate(DoubleArrayBuffer.HEADER_SIZE).order(order);
+	header.putInt(DoubleArrayBuffer.MAGIC);
+	header.putInt(this.codeMap.isIdentity() ? DoubleArrayBuffer.VERSION : DoubleArrayBuffer.VERSION_CODE_MAP);
+	header.putInt(this.keySetSize);
+	header.putInt(this.base.limit());
+	header.putInt(this.begins.limit());
+	header.putInt(this.tail.limit());
+	header.putInt(this.codeMap.size());
+	header.putInt(0);
+	header.flip();
+	MappedArrays.writeFully(channel, header);
+	MappedArrays.writeInts(channel, this.base, order);
+	MappedArrays.writeChars(channel, this.check, order);
+	MappedArrays.writeInts(channel, this.begins, order);
+	MappedArrays.writeInts(channel, this.lengths, order);
+	MappedArrays.writeChars(channel, this.tail, order);
+	if (!this.codeMap.isIdentity()) {
+	    MappedArrays.writeChars(channel, this.codeMap.wrap(), order);
+	}
+    }
+
+    /**
+     * ファイルの指定位置からメモリマップする (ヒープへはコピーしない)
+     *
+     * @param channel 読み込み元
+     * @param position 書き出された位置
+     */
+    public static DoubleArrayBuffer map(FileChannel channel, long position) throws IOException {
+	final ByteBuffer header = MappedArrays.readHeader(channel, position, DoubleArrayBuffer.HEADER_SIZE, DoubleArrayBuffer.MAGIC);
+	final int version = header.getInt();
+	if (version != DoubleArrayBuffer.VERSION && version != DoubleArrayBuffer.VERSION_CODE_MAP) {
+	    throw new IOException("unsupported double-array version: " + version);
+	}
+	final ByteOrder order = header.order();
+	final int keySetSize = header.getInt();
+	final int arrayLength = header.getInt();
+	final int suffixCount = header.getInt();
+	final int tailLength = header.getInt();
+	final int codeMapLength = version == DoubleArrayBuffer.VERSION_CODE_MAP ? header.getInt() : 0;
+
+	long offset = position + DoubleArrayBuffer.HEADER_SIZE;
+	final IntBuffer base = MappedArrays.mapInts(channel, offset, arrayLength, order);
+	offset += MappedArrays.intsSize(arrayLength);
+	final CharBuffer check = MappedArrays.mapChars(channel, offset, arrayLength, order);
+	offset += MappedArrays.charsSize(arrayLength);
+	final IntBuffer begins = MappedArrays.mapInts(channel, offset, suffixCount, order);
+	offset += MappedArrays.intsSize(suffixCount);
+	final IntBuffer lengths = MappedArrays.mapInts(channel, offset, suffixCount, order);
+	offset += MappedArrays.intsSize(suffixCount);
+	final CharBuffer tail = MappedArrays.mapChars(channel, offset, tailLength, order);
+	offset += MappedArrays.charsSize(tailLength);
+	// 対応表は小さいためヒープへ読み込む
+	final CodeMap codeMap = codeMapLength == 0
+	    ? CodeMap.IDENTITY : CodeMap.of(MappedArrays.mapChars(channel, offset, codeMapLength, order));
+	return new DoubleArrayBuffer(keySetSize, base, check, begins, lengths, tail, codeMap);
+    }
+}
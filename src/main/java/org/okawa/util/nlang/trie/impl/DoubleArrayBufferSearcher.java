@@ -0,0 +1,56 @@
+package org.okawa.util.nlang.trie.impl;
+
+/**
+ * バッファ上のTrieからキーワードを検索
+ * メモリマップしたファイルから直接検索するため、配列をヒープへコピーしない。
+ * 検索の処理はAbstractDoubleArraySearcherが持ち、ここではバッファを読み出す。
+ */
+public final class DoubleArrayBufferSearcher extends AbstractDoubleArraySearcher {
+    /** Double-Array実データ */
+    private final DoubleArrayBuffer doubleArray;
+
+    /**
+     * DoubleArrayBufferを引数にインスタンス化
+     *
+     * @param doubleArray セットするDouble-Array
+     */
+    public DoubleArrayBufferSearcher(DoubleArrayBuffer doubleArray) {
+	super(doubleArray.keySetSize, doubleArray.codeMap);
+	this.doubleArray = doubleArray;
+    }
+
+    @Override
+    int arraySize() {
+	return this.doubleArray.check.limit();
+    }
+
+    @Override
+    int base(int index) {
+	return this.doubleArray.base.get(index);
+    }
+
+    @Override
+    char check(int index) {
+	return this.doubleArray.check.get(index);
+    }
+
+    @Override
+    int suffixBegin(int id) {
+	return this.doubleArray.begins.get(id);
+    }
+
+    @Override
+    int suffixLength(int id) {
+	return this.doubleArray.lengths.get(id);
+    }
+
+    @Override
+    char tail(int index) {
+	return this.doubleArray.tail.get(index);
+    }
+
+    @Override
+    DoubleArrayBuffer buffer() {
+	return this.doubleArray;
+    }
+}
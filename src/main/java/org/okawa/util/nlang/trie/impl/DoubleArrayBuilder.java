@@ -1,7 +1,15 @@
 package org.okawa.util.nlang.trie.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import org.okawa.util.nlang.metrics.Metrics;
+import org.okawa.util.nlang.metrics.MetricsListener;
 import org.okawa.util.nlang.trie.Trie;
 import org.okawa.util.nlang.trie.TrieBuilder;
 
@@ -9,39 +17,104 @@ import org.okawa.util.nlang.trie.TrieBuilder;
  * Double-Arrayビルダー
  */
 public final class DoubleArrayBuilder implements TrieBuilder {
-    /** キーワード一覧 */
-    private final List<StringStream> keys;
+    /** 並列構築時、一つのアリーナが受け持つ最大エッジ数 (仮の根ノード番地として1からこの値までを使用) */
+    private static final int MAX_ARENA_EDGES = 1024;
+    /** 並列構築時、一つのアリーナが受け持つ最小キーワード数 */
+    private static final int MIN_ARENA_KEYS = 4096;
+    /** 並列構築時、コア数あたりのアリーナ数 */
+    private static final int ARENAS_PER_CORE = 4;
+    /** 並列構築時にアリーナ内で使用するコールバック関数 (ID確定後に改めて呼び出す) */
+    private static final Callback NOOP = new Callback() {
+	    @Override
+	    public void apply(int id) {
+	    }
+	};
+
+    /** キーワード一覧 (整列済み、重複なし) */
+    private final String[] keys;
+    /** 文字とエッジの文字コードの対応表 */
+    private final CodeMap codeMap;
     /** BASE配列 */
-    private final DynamicArrayList<Integer> base = new DynamicArrayList<Integer>();
+    private final DynamicIntArray base = new DynamicIntArray(Constants.DABase.INIT_VALUE);
     /** CHECK配列 */
-    private final DynamicArrayList<Character> check = new DynamicArrayList<Character>();
+    private final DynamicCharArray check = new DynamicCharArray(Constants.DACheck.EMPTY_CODE);
     /** TAIL配列 接尾辞開始位置配列 */
-    private final ArrayList<Integer> begins = new ArrayList<Integer>();
+    private final DynamicIntArray begins = new DynamicIntArray(0);
     /** TAIL配列 接尾辞長 */
-    private final ArrayList<Integer> lengths = new ArrayList<Integer>();
+    private final DynamicIntArray lengths = new DynamicIntArray(0);
     /** TAIL配列 */
     private final StringBuilder tail = new StringBuilder();
+    /** BASE値の探索に要した時間の累計 (計測が有効な場合のみ) */
+    private long allocationNanos;
+    /** TAIL配列への格納に要した時間の累計 (計測が有効な場合のみ) */
+    private long tailNanos;
 
     /**
      * キーワード一覧からビルダーをインスタンス化
+     * sortedがfalseの場合はキーワード一覧を基数ソートで整列し、引数の一覧自体も整列後の
+     * 順序に並べ替える。重複するキーワードは先頭のもののみを使用する。
      *
      * @param keys キーワード一覧
      * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     * @param parallel trueの場合は並列に整列
+     * @param remap trueの場合は出現頻度順に文字コードを割り当て直す
+     * @throws IllegalArgumentException sortedがtrueでキーワードが整列されていない場合
      */
-    private DoubleArrayBuilder(List<? extends Trie.Entry> keys, boolean sorted) {
-	this.keys = new ArrayList<StringStream>(keys.size());
-	// ソート & ユニーク
-	// 本来であればRaddixSort使用したい
+    private DoubleArrayBuilder(List<? extends Trie.Entry> keys, boolean sorted, boolean parallel, boolean remap) {
+	String[] keyStrings = new String[keys.size()];
+	int i = 0;
+	for (Trie.Entry key : keys) {
+	    keyStrings[i++] = key.getKey();
+	}
 	if (!sorted) {
-	    java.util.Collections.sort(keys);
+	    final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	    DoubleArrayBuilder.reorder(keys, RadixSort.sort(keyStrings, parallel));
+	    if (Metrics.ENABLED) {
+		Metrics.buildPhase(MetricsListener.Phase.SORT, System.nanoTime() - start);
+	    }
 	}
-	String prev = null;
-	String keyString = null;
-	for (Trie.Entry key : keys) {
-	    keyString = key.getKey();
-	    if (!keyString.equals(prev)) {
-		this.keys.add(new StringStream(prev = keyString));
+	// 整列順に走査しながら重複を取り除く
+	int size = 0;
+	for (String key : keyStrings) {
+	    if (size > 0) {
+		final int cmp = key.compareTo(keyStrings[size - 1]);
+		if (cmp == 0) {
+		    continue;
+		} else if (cmp < 0) {
+		    throw new IllegalArgumentException("keys are not sorted: " + keyStrings[size - 1] + " > " + key);
+		}
 	    }
+	    keyStrings[size++] = key;
+	}
+	this.keys = size == keyStrings.length ? keyStrings : Arrays.copyOf(keyStrings, size);
+	this.codeMap = remap ? CodeMap.build(this.keys) : CodeMap.IDENTITY;
+    }
+
+    /**
+     * 並列構築時のアリーナとしてインスタンス化
+     *
+     * @param keys 整列済みのキーワード一覧 (他のアリーナと共有)
+     * @param codeMap 文字とエッジの文字コードの対応表
+     */
+    private DoubleArrayBuilder(String[] keys, CodeMap codeMap) {
+	this.keys = keys;
+	this.codeMap = codeMap;
+    }
+
+    /**
+     * 一覧を整列後の順序に並べ替える
+     * (コールバック関数はIDの順に整列済みの一覧を参照する)
+     *
+     * @param list 並べ替える一覧
+     * @param order 整列後の各位置に置かれる要素の元のインデックス
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void reorder(List<T> list, int[] order) {
+	final Object[] elements = list.toArray();
+	final ListIterator<T> iterator = list.listIterator();
+	for (int index : order) {
+	    iterator.next();
+	    iterator.set((T) elements[index]);
 	}
     }
 
@@ -52,12 +125,124 @@ public final class DoubleArrayBuilder implements TrieBuilder {
      * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
      */
     public static DoubleArray build(List<? extends Trie.Entry> keys, boolean sorted, Callback func) {
-	DoubleArrayBuilder builder = new DoubleArrayBuilder(keys, sorted);
-	// 0 : begin
-	// builder.keys.size() : end
-	// 0 : rootIndex
-	builder.build(new DoubleArrayAllocator(), 0, builder.keys.size(), 0, func);
-	return new DoubleArray(builder);
+	return DoubleArrayBuilder.build(keys, sorted, false, func);
+    }
+
+    /**
+     * ビルダーからTrieをインスタンス化
+     * parallelがtrueの場合、根ノードから伸びるエッジ毎の部分木を複数のアリーナで並列に
+     * 構築した後、最終的な配列へ再配置する。IDとコールバック関数の呼び出し順は逐次構築と
+     * 同一となる。
+     *
+     * @param keys キーワード一覧
+     * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     * @param parallel trueの場合は並列に構築
+     */
+    public static DoubleArray build(List<? extends Trie.Entry> keys, boolean sorted, boolean parallel, Callback func) {
+	return DoubleArrayBuilder.build(keys, sorted, parallel, false, func);
+    }
+
+    /**
+     * ビルダーからTrieをインスタンス化
+     * remapがtrueの場合、キーワード中の出現頻度が高い文字から順に小さな文字コードを割り当て
+     * 直してから構築する (CodeMap参照)。使用される文字が文字コード上で散在する場合に
+     * BASE/CHECK配列が小さくなる。
+     *
+     * @param keys キーワード一覧
+     * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     * @param parallel trueの場合は並列に構築
+     * @param remap trueの場合は出現頻度順に文字コードを割り当て直す
+     */
+    public static DoubleArray build(List<? extends Trie.Entry> keys, boolean sorted, boolean parallel, boolean remap, Callback func) {
+	return new DoubleArray(DoubleArrayBuilder.construct(keys, sorted, parallel, remap, func));
+    }
+
+    /**
+     * ビルダーからヒープ外のバッファ上にTrieをインスタンス化
+     * 構築した配列はヒープ上の配列を経由せずに直接ヒープ外のバッファへ書き出される。
+     *
+     * @param keys キーワード一覧
+     * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     */
+    public static DoubleArrayBuffer buildDirect(List<? extends Trie.Entry> keys, boolean sorted, Callback func) {
+	return DoubleArrayBuilder.buildDirect(keys, sorted, false, func);
+    }
+
+    /**
+     * ビルダーからヒープ外のバッファ上にTrieをインスタンス化
+     *
+     * @param keys キーワード一覧
+     * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     * @param parallel trueの場合は並列に構築
+     */
+    public static DoubleArrayBuffer buildDirect(List<? extends Trie.Entry> keys, boolean sorted, boolean parallel, Callback func) {
+	return DoubleArrayBuilder.buildDirect(keys, sorted, parallel, false, func);
+    }
+
+    /**
+     * ビルダーからヒープ外のバッファ上にTrieをインスタンス化
+     *
+     * @param keys キーワード一覧
+     * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     * @param parallel trueの場合は並列に構築
+     * @param remap trueの場合は出現頻度順に文字コードを割り当て直す
+     */
+    public static DoubleArrayBuffer buildDirect(List<? extends Trie.Entry> keys, boolean sorted, boolean parallel, boolean remap, Callback func) {
+	DoubleArrayBuilder builder = DoubleArrayBuilder.construct(keys, sorted, parallel, remap, func);
+	return DoubleArrayBuffer.allocateDirect(builder.getKeySetSize(), builder.getArrayLength(),
+						builder.base, builder.check, builder.begins, builder.lengths, builder.tail, builder.codeMap);
+    }
+
+    /**
+     * キーワード一覧から各配列を構築する
+     *
+     * @param keys キーワード一覧
+     * @param sorted trueの場合はソートされたキーワードを使用するものとして処理
+     * @param parallel trueの場合は並列に構築
+     * @param remap trueの場合は出現頻度順に文字コードを割り当て直す
+     */
+    private static DoubleArrayBuilder construct(List<? extends Trie.Entry> keys, boolean sorted, boolean parallel, boolean remap, Callback func) {
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	DoubleArrayBuilder builder = new DoubleArrayBuilder(keys, sorted, parallel, remap);
+	if (builder.keys.length == 0) {
+	    // 空のTrieでは根ノードから全ての遷移が失敗するようにしておく
+	    builder.base.set(0, 0);
+	} else if (parallel) {
+	    builder.buildParallel(func);
+	} else {
+	    // 0 : begin
+	    // builder.keys.length : end
+	    // 0 : depth
+	    // 0 : rootIndex
+	    builder.build(new DoubleArrayAllocator(), 0, builder.keys.length, 0, 0, func);
+	}
+	// 共通の末尾を持つ接尾辞をまとめてTAIL配列を詰める
+	final long tailStart = Metrics.ENABLED ? System.nanoTime() : 0L;
+	TailCompactor.compact(builder.begins, builder.lengths, builder.tail);
+	if (Metrics.ENABLED) {
+	    builder.tailNanos += System.nanoTime() - tailStart;
+	    builder.report(System.nanoTime() - start);
+	}
+	return builder;
+    }
+
+    /**
+     * 構築の計測値を通知する
+     *
+     * @param nanos 構築全体に要した時間
+     */
+    private void report(long nanos) {
+	Metrics.buildPhase(MetricsListener.Phase.ALLOCATION, this.allocationNanos);
+	Metrics.buildPhase(MetricsListener.Phase.TAIL, this.tailNanos);
+	final int length = this.getArrayLength();
+	// 根ノードは常に使用されている
+	int used = 1;
+	for (int node = 1; node < this.check.size(); node++) {
+	    if (this.check.get(node) != Constants.DACheck.EMPTY_CODE) {
+		used++;
+	    }
+	}
+	Metrics.build(this.keys.length, length, used, nanos);
     }
 
     /**
@@ -66,37 +251,237 @@ public final class DoubleArrayBuilder implements TrieBuilder {
      * @param allocator 使用する仮想メモリアロケータ
      * @param begin 使用キーワード開始インデックス
      * @param end 使用キーワード終了インデックス
+     * @param depth 根ノードの深さ (処理中の文字の位置)
      * @param 根ノードに割り振られた番地
      */
-    private void build(DoubleArrayAllocator allocator, int begin, int end, int rootIndex, Callback func) {
+    private void build(DoubleArrayAllocator allocator, int begin, int end, int depth, int rootIndex, Callback func) {
 	// 残るは接尾辞のみ
 	// endとbeginの差が1の場合は共通の接頭辞を持つキーが存在しない、すなわちTAIL配列に格納
-	if (end - begin == 1) {
-	    this.insertTail(keys.get(begin), rootIndex, func);
+	// (根ノードのBASEは常に番地を指す必要があるため除く)
+	if (end - begin == 1 && rootIndex != 0) {
+	    final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	    this.insertTail(this.keys[begin], depth, rootIndex, func);
+	    if (Metrics.ENABLED) {
+		this.tailNanos += System.nanoTime() - start;
+	    }
 	    return;
 	}
 
 	// 各接頭文字に対する終了位置
-	final List<Integer> ends = new ArrayList<Integer>();
-	// 文字コードリスト
-	final List<Character> codes = new ArrayList<Character>();
+	final DynamicIntArray ends = new DynamicIntArray(0);
+	// 根ノードから伸びるエッジ(文字)を収集
+	final char[] codes = this.collectEdges(begin, end, depth, ends);
+
+	// 根ノードから派生するノードに対して再帰的に構築
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	final int xNode = allocator.xCheck(codes);
+	if (Metrics.ENABLED) {
+	    this.allocationNanos += System.nanoTime() - start;
+	}
+	for (int i = 0; i < codes.length; i++) {
+	    this.build(allocator, ends.get(i), ends.get(i + 1), depth + 1, this.setNode(codes[i], rootIndex, xNode), func);
+	}
+    }
+
+    /**
+     * 各キーワードから一文字読み込み、根ノードから伸びるエッジ(文字)を収集
+     * キーワードの終端は終端記号として読み込む。
+     *
+     * @param begin 使用キーワード開始インデックス
+     * @param end 使用キーワード終了インデックス
+     * @param depth 読み込む文字の位置
+     * @param ends 各接頭文字に対する終了位置の格納先 (先頭は開始位置)
+     * @return 文字コード一覧 (キーワードの整列順、対応表を持たない場合は昇順)
+     */
+    private char[] collectEdges(int begin, int end, int depth, DynamicIntArray ends) {
+	final DynamicCharArray codes = new DynamicCharArray(Constants.DACheck.EMPTY_CODE);
 	// 前回処理した文字コード
 	char prev = Constants.DACheck.EMPTY_CODE;
-
-	// 根ノードから伸びるエッジ(文字)を収集
 	for (int i = begin; i < end; i++) {
-	    char curr = keys.get(i).read();
+	    final String key = this.keys[i];
+	    char curr = depth < key.length() ? this.codeMap.code(key.charAt(depth)) : Constants.DACheck.TERM_CODE;
 	    if (prev != curr) {
 		codes.add(prev = curr);
 		ends.add(i);
 	    }
 	}
 	ends.add(end);
+	return codes.toArray(codes.size());
+    }
 
-	// 根ノードから派生するノードに対して再帰的に構築
-	final int xNode = allocator.xCheck(codes);
-	for (int i = 0; i< codes.size(); i++) {
-	    this.build(allocator, ends.get(i), ends.get(i + 1), this.setNode(codes.get(i), rootIndex, xNode), func);
+    /**
+     * 並列構築実処理
+     * 根ノードのみを最終的な配列上に配置し、根ノードから伸びるエッジを連続する範囲毎に
+     * アリーナへ分割する。各アリーナは独立したアロケータで部分木を並列に構築し、構築後に
+     * 使用している番地の範囲を平行移動して最終的な配列の末尾へ順に再配置する。
+     * CHECK配列は文字コードを保持するため、平行移動後もBASE値が一意であれば遷移は保たれる。
+     *
+     * @param func キー登録時のコールバック関数
+     */
+    private void buildParallel(Callback func) {
+	final DynamicIntArray edgeEnds = new DynamicIntArray(0);
+	final char[] codes = this.collectEdges(0, this.keys.length, 0, edgeEnds);
+	final int[] ends = edgeEnds.toArray();
+	// 根ノードの配置
+	final int xNode = new DoubleArrayAllocator().xCheck(codes);
+	for (int i = 0; i < codes.length; i++) {
+	    this.setNode(codes[i], 0, xNode);
+	}
+
+	// エッジを連続する範囲毎にアリーナへ分割
+	final int arenaKeys = Math.max(DoubleArrayBuilder.MIN_ARENA_KEYS,
+				       this.keys.length / (ForkJoinPool.getCommonPoolParallelism() * DoubleArrayBuilder.ARENAS_PER_CORE));
+	final List<Arena> arenas = new ArrayList<Arena>();
+	for (int from = 0, to = 1; to <= codes.length; to++) {
+	    if (to == codes.length
+		|| to - from == DoubleArrayBuilder.MAX_ARENA_EDGES
+		|| ends[to] - ends[from] >= arenaKeys) {
+		arenas.add(new Arena(this.keys, this.codeMap, ends, from, to));
+		from = to;
+	    }
+	}
+	ForkJoinTask.invokeAll(arenas);
+
+	// 分割した順に再配置 (スレッドの実行順序に依らず結果は決定的)
+	final long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+	final BitSet bases = new BitSet();
+	bases.set(xNode);
+	int arrayEnd = this.getArrayLength();
+	for (Arena arena : arenas) {
+	    arrayEnd = this.merge(arena, codes, xNode, bases, arrayEnd);
+	}
+	if (Metrics.ENABLED) {
+	    // 各アリーナの工程毎の時間を合算
+	    for (Arena arena : arenas) {
+		this.allocationNanos += arena.built.allocationNanos;
+		this.tailNanos += arena.built.tailNanos;
+	    }
+	    Metrics.buildPhase(MetricsListener.Phase.MERGE, System.nanoTime() - start);
+	}
+	// IDはキーワードの整列順に割り振られているため、ID順にコールバック関数を実行
+	for (int id = 0; id < this.keys.length; id++) {
+	    func.apply(id);
+	}
+    }
+
+    /**
+     * アリーナで構築した部分木を最終的な配列へ再配置
+     *
+     * @param arena 構築済みのアリーナ
+     * @param codes 根ノードから伸びるエッジ
+     * @param xNode 根ノードのBASE値
+     * @param bases 使用済みのBASE値
+     * @param arrayEnd 最終的な配列で使用中の番地の終端
+     * @return 再配置後の使用中の番地の終端
+     */
+    private int merge(Arena arena, char[] codes, int xNode, BitSet bases, int arrayEnd) {
+	final DoubleArrayBuilder built = arena.built;
+	// アリーナ内で使用されている番地の範囲と、その範囲に含まれるBASE値を収集
+	int low = -1;
+	int high = -1;
+	final DynamicIntArray internals = new DynamicIntArray(0);
+	for (int i = 1; i <= arena.to - arena.from; i++) {
+	    if (built.base.get(i) >= 0) {
+		internals.add(built.base.get(i));
+	    }
+	}
+	// 仮の番地はCHECK配列が空のため、範囲には含まれない
+	for (int node = 1; node < built.check.size(); node++) {
+	    if (built.check.get(node) != Constants.DACheck.EMPTY_CODE) {
+		if (low < 0) {
+		    low = node;
+		}
+		high = node;
+		if (built.base.get(node) >= 0) {
+		    internals.add(built.base.get(node));
+		}
+	    }
+	}
+	// 末尾に配置し、BASE値が既存のものと衝突する間は一つずつずらす
+	int shift = low < 0 ? 0 : arrayEnd - low;
+	for (int i = 0; i < internals.size(); ) {
+	    if (bases.get(internals.get(i) + shift)) {
+		shift++;
+		i = 0;
+	    } else {
+		i++;
+	    }
+	}
+	for (int i = 0; i < internals.size(); i++) {
+	    bases.set(internals.get(i) + shift);
+	}
+
+	// 番地とIDを平行移動して書き込む
+	final int idOffset = this.begins.size();
+	for (int node = low; low >= 0 && node <= high; node++) {
+	    if (built.check.get(node) != Constants.DACheck.EMPTY_CODE) {
+		this.check.set(node + shift, built.check.get(node));
+		this.base.set(node + shift, DoubleArrayBuilder.relocate(built.base.get(node), shift, idOffset));
+	    }
+	}
+	for (int i = arena.from; i < arena.to; i++) {
+	    this.base.set(xNode + codes[i], DoubleArrayBuilder.relocate(built.base.get(i - arena.from + 1), shift, idOffset));
+	}
+	// TAIL配列を連結
+	final int tailOffset = this.tail.length();
+	for (int id = 0; id < built.begins.size(); id++) {
+	    this.begins.add(built.begins.get(id) + tailOffset);
+	    this.lengths.add(built.lengths.get(id));
+	}
+	this.tail.append(built.tail);
+	return low < 0 ? arrayEnd : high + shift + 1;
+    }
+
+    /**
+     * BASE値を平行移動する
+     *
+     * @param value アリーナ上のBASE値
+     * @param shift 番地の移動量
+     * @param idOffset IDの移動量
+     */
+    private static int relocate(int value, int shift, int idOffset) {
+	return value >= 0 ? value + shift : Constants.DABase.ID(Constants.DABase.ID(value) + idOffset);
+    }
+
+    /**
+     * 並列構築時のアリーナ
+     * 根ノードから伸びるエッジのうち連続する範囲の部分木を、独立したアロケータで構築する。
+     * 部分木の根は仮の番地 (1から始まる連番) に置かれる。
+     */
+    private static final class Arena extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	/** 整列済みのキーワード一覧 */
+	private final String[] keys;
+	/** 文字とエッジの文字コードの対応表 */
+	private final CodeMap codeMap;
+	/** 各接頭文字に対する終了位置 */
+	private final int[] ends;
+	/** 受け持つエッジの開始インデックス */
+	private final int from;
+	/** 受け持つエッジの終了インデックス (このインデックスは含まない) */
+	private final int to;
+	/** 構築結果 */
+	private DoubleArrayBuilder built;
+
+	Arena(String[] keys, CodeMap codeMap, int[] ends, int from, int to) {
+	    this.keys = keys;
+	    this.codeMap = codeMap;
+	    this.ends = ends;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+	    final DoubleArrayAllocator allocator = new DoubleArrayAllocator();
+	    // 仮の番地は部分木の番地として使用させない
+	    for (int i = 1; i <= this.to - this.from; i++) {
+		allocator.reserve(i);
+	    }
+	    this.built = new DoubleArrayBuilder(this.keys, this.codeMap);
+	    for (int i = this.from; i < this.to; i++) {
+		this.built.build(allocator, this.ends[i], this.ends[i + 1], 1, i - this.from + 1, DoubleArrayBuilder.NOOP);
+	    }
 	}
     }
 
@@ -112,9 +497,9 @@ public final class DoubleArrayBuilder implements TrieBuilder {
 	// アサインされた文字コードに対応した子ノード
 	final int childNode = xNode + code;
 	// 親ノードにはxCheckで付与される番地を振る
-	this.base.set(parentIndex, xNode, Constants.DABase.INIT_VALUE);
+	this.base.set(parentIndex, xNode);
 	// 子ノードとの接続情報をセット
-	this.check.set(childNode, code, Constants.DACheck.EMPTY_CODE);
+	this.check.set(childNode, code);
 	// 子ノードを返り値とする
 	return childNode;
     }
@@ -123,52 +508,63 @@ public final class DoubleArrayBuilder implements TrieBuilder {
      * TAIL配列に接尾辞を格納
      *
      * @param key 格納する接尾辞を持つキーワード
+     * @param depth 接尾辞の開始位置 (終端記号を読み込み済みの場合はキーワード長を超える)
      * @param nodeIndex 付随するノードインデックス
      * @param func キー登録時のコールバック関数
      */
-    private void insertTail(StringStream key, int nodeIndex, Callback func) {
-	String suffix = key.rest(-1);
+    private void insertTail(String key, int depth, int nodeIndex, Callback func) {
+	final int suffixBegin = Math.min(depth, key.length());
 	// 0-startのインデックスなので、以下のようなIDの割り振りはAllocationに相当することに注意
 	int id = Constants.DABase.ID(this.begins.size());
 	// 処理時のBASE配列のサイズをIDとして使用
-	this.base.set(nodeIndex, id, Constants.DABase.INIT_VALUE);
+	this.base.set(nodeIndex, id);
 	// TAILオフセット (開始位置)
 	this.begins.add(this.tail.length());
 	// TAILオフセット (終了位置)
-	this.lengths.add(suffix.length());
+	this.lengths.add(key.length() - suffixBegin);
 	// TAIL配列
-	this.tail.append(suffix);
+	this.tail.append(key, suffixBegin, key.length());
 	// コールバック関数実行
 	func.apply(Constants.DABase.ID(id));
     }
 
     /** DoubleArray構築時に使用 */
     public int getKeySetSize() {
-	return this.keys.size();
+	return this.keys.length;
+    }
+
+    /** BASE配列とCHECK配列の長さ (根ノード分として最低でも1) */
+    private int getArrayLength() {
+	return Math.max(1, Math.max(this.base.size(), this.check.size()));
     }
 
     /** DoubleArray構築時に使用 */
-    public DynamicArrayList<Integer> getBase() {
-	return this.base;
+    public int[] getBase() {
+	return this.base.toArray(this.getArrayLength());
     }
 
     /** DoubleArray構築時に使用 */
-    public DynamicArrayList<Character> getCheck() {
-	return this.check;
+    public char[] getCheck() {
+	return this.check.toArray(this.getArrayLength());
     }
 
     /** DoubleArray構築時に使用 */
-    public List<Integer> getBegins() {
-	return this.begins;
+    public int[] getBegins() {
+	return this.begins.toArray();
     }
 
     /** DoubleArray構築時に使用 */
-    public List<Integer> getLengths() {
-	return this.lengths;
+    public int[] getLengths() {
+	return this.lengths.toArray();
     }
 
     /** DoubleArray構築時に使用 */
     public StringBuilder getTail() {
 	return this.tail;
     }
+
+    /** DoubleArray構築時に使用 */
+    public CodeMap getCodeMap() {
+	return this.codeMap;
+    }
 }
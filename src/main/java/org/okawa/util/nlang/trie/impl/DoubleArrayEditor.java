@@ -0,0 +1,493 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.okawa.util.nlang.trie.NavigableTrieSearcher;
+import org.okawa.util.nlang.trie.PrefixMatches;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 構築済みのDouble-Arrayに対してキーワードの追加と削除を行う
+ * 元のDouble-Arrayは変更せず、複製した配列を更新する。検索は更新後の配列に対して行う。
+ *
+ * CHECK配列は親ノードではなく文字コードを保持するため、ノードの再配置では子ノードの番地
+ * のみを移動すればよく、孫ノードの番地は変わらない。
+ * 更新と検索を複数のスレッドから同時に行うことはできない。
+ */
+public final class DoubleArrayEditor implements NavigableTrieSearcher {
+    /** 配列の伸張率 */
+    private static final int ALLOC_RATIO = 2;
+
+    /** 仮想メモリアロケータ */
+    private final DoubleArrayAllocator allocator;
+    /** 格納されているキーワード数 */
+    private int keySetSize;
+    /** 更新中のBASE配列 (使用中の長さ以上の容量を持つ) */
+    private int[] base;
+    /** 更新中のCHECK配列 (BASE配列と同じ容量) */
+    private char[] check;
+    /** 更新中のTAIL配列 各接尾辞開始位置 (使用中の接尾辞数以上の容量を持つ) */
+    private int[] begins;
+    /** 更新中のTAIL配列 各接尾辞長 (各接尾辞開始位置と同じ容量) */
+    private int[] lengths;
+    /** 更新中のTAIL配列 (接尾辞同士が領域を共有するため、格納済みの文字は書き換えない) */
+    private final StringBuilder tail;
+    /** 更新中の配列に対する検索 */
+    private DoubleArraySearcher searcher;
+    /** BASE/CHECK配列の使用中の長さ */
+    private int length;
+    /** TAIL配列の使用中の接尾辞数 (次に付与するID) */
+    private int tailSize;
+    /** エッジとして使用されている文字コード (昇順、子ノードの列挙に使用) */
+    private char[] alphabet;
+    /** 文字とエッジの文字コードの対応表 (新しい文字の追加時に置き換える) */
+    private CodeMap codeMap;
+
+    /**
+     * ヒープ上のDouble-Arrayを複製してインスタンス化
+     *
+     * @param source 元となるDouble-Array
+     */
+    public DoubleArrayEditor(DoubleArray source) {
+	this(source.keySetSize,
+	     IntBuffer.wrap(source.base), CharBuffer.wrap(source.check),
+	     IntBuffer.wrap(source.begins), IntBuffer.wrap(source.lengths), source.tail, source.codeMap);
+    }
+
+    /**
+     * バッファ上のDouble-Arrayをヒープ上へ複製してインスタンス化
+     *
+     * @param source 元となるDouble-Array
+     */
+    public DoubleArrayEditor(DoubleArrayBuffer source) {
+	this(source.keySetSize, source.base, source.check, source.begins, source.lengths, source.tail, source.codeMap);
+    }
+
+    /**
+     * 各配列を複製してインスタンス化
+     */
+    private DoubleArrayEditor(int keySetSize, IntBuffer base, CharBuffer check, IntBuffer begins, IntBuffer lengths, CharSequence tail, CodeMap codeMap) {
+	this.length = base.limit();
+	this.tailSize = begins.limit();
+	final int[] baseArray = new int[this.length];
+	base.duplicate().get(baseArray);
+	final char[] checkArray = new char[this.length];
+	check.duplicate().get(checkArray);
+	final int[] beginsArray = new int[this.tailSize];
+	begins.duplicate().get(beginsArray);
+	final int[] lengthsArray = new int[this.tailSize];
+	lengths.duplicate().get(lengthsArray);
+	this.allocator = new DoubleArrayAllocator(baseArray, checkArray, this.length);
+	this.alphabet = PredictiveCursor.alphabet(CharBuffer.wrap(checkArray));
+	this.keySetSize = keySetSize;
+	this.base = baseArray;
+	this.check = checkArray;
+	this.begins = beginsArray;
+	this.lengths = lengthsArray;
+	this.tail = new StringBuilder(tail);
+	this.codeMap = codeMap;
+	this.resetSearcher();
+    }
+
+    /**
+     * 配列を伸張した際、または対応表を置き換えた際に検索を作り直す
+     */
+    private void resetSearcher() {
+	this.searcher = new DoubleArraySearcher(this.keySetSize, this.base, this.check, this.begins, this.lengths, this.tail, this.codeMap);
+    }
+
+    /**
+     * 追加するエッジの文字コード
+     * 対応表にない文字は対応表の末尾に追加する (IDENTITYの場合は文字そのもの)。
+     *
+     * @param c エッジの文字
+     */
+    private char codeOf(char c) {
+	final CodeMap codeMap = this.codeMap.extend(c);
+	if (codeMap != this.codeMap) {
+	    this.codeMap = codeMap;
+	    this.resetSearcher();
+	}
+	return codeMap.code(c);
+    }
+
+    /**
+     * BASE/CHECK配列を指定した長さまで使用できるよう伸張する
+     *
+     * @param newLength 必要な配列長
+     */
+    private void ensureLength(int newLength) {
+	if (newLength > this.base.length) {
+	    final int capacity = Math.max(newLength, this.base.length * DoubleArrayEditor.ALLOC_RATIO);
+	    final int[] base = Arrays.copyOf(this.base, capacity);
+	    Arrays.fill(base, this.base.length, capacity, Constants.DABase.INIT_VALUE);
+	    final char[] check = Arrays.copyOf(this.check, capacity);
+	    Arrays.fill(check, this.check.length, capacity, Constants.DACheck.EMPTY_CODE);
+	    this.base = base;
+	    this.check = check;
+	    this.resetSearcher();
+	}
+	this.length = Math.max(this.length, newLength);
+    }
+
+    /**
+     * TAIL配列に接尾辞を追加する
+     *
+     * @param key 接尾辞を持つキーワード
+     * @param from 接尾辞の開始位置
+     * @return 付与したID
+     */
+    private int appendTail(CharSequence key, int from) {
+	if (this.tailSize == this.begins.length) {
+	    final int capacity = Math.max(1, this.begins.length * DoubleArrayEditor.ALLOC_RATIO);
+	    this.begins = Arrays.copyOf(this.begins, capacity);
+	    this.lengths = Arrays.copyOf(this.lengths, capacity);
+	    this.resetSearcher();
+	}
+	final int id = this.tailSize++;
+	this.begins[id] = this.tail.length();
+	this.lengths[id] = key.length() - from;
+	this.tail.append(key, from, key.length());
+	this.keySetSize++;
+	return id;
+    }
+
+    /**
+     * キーワードを追加する
+     *
+     * @param key 追加するキーワード
+     * @return 付与したID、既に登録されている場合はそのID
+     */
+    public int insert(CharSequence key) {
+	int node = 0;
+	for (int i = 0; ; i++) {
+	    final int xNode = this.base[node];
+	    if (node != 0 && xNode < 0) {
+		// TAIL配列に格納された接尾辞と比較し、異なれば分割
+		return this.splitTail(key, Math.min(i, key.length()), node);
+	    }
+	    final char code = i < key.length() ? this.codeOf(key.charAt(i)) : Constants.DACheck.TERM_CODE;
+	    final int child = xNode + code;
+	    if (child < this.length && this.check[child] == code) {
+		node = child;
+		continue;
+	    }
+	    // 遷移先が存在しないため子ノードを追加
+	    final int id = this.appendTail(key, Math.min(i + 1, key.length()));
+	    this.setLeaf(this.addChild(node, code), code, id);
+	    return id;
+	}
+    }
+
+    /**
+     * キーワードを削除する
+     * 削除したキーワードの接尾辞が占めていたTAIL配列の領域は再構築まで回収されない。
+     *
+     * @param key 削除するキーワード
+     * @return 削除したキーワードのID、登録されていない場合は-1
+     */
+    public int delete(CharSequence key) {
+	// 根ノードからの経路
+	final int[] path = new int[key.length() + 2];
+	int depth = 0;
+	int node = 0;
+	int id = -1;
+	for (int i = 0; ; i++) {
+	    final int xNode = this.base[node];
+	    if (node != 0 && xNode < 0) {
+		id = Constants.DABase.ID(xNode);
+		if (!this.tailEquals(key, Math.min(i, key.length()), id)) {
+		    return -1;
+		}
+		break;
+	    }
+	    final char code = i < key.length() ? this.codeMap.code(key.charAt(i)) : Constants.DACheck.TERM_CODE;
+	    final int child = xNode + code;
+	    if (child >= this.length || this.check[child] != code) {
+		return -1;
+	    }
+	    path[++depth] = node = child;
+	}
+	this.clearNode(path[depth]);
+	this.lengths[id] = 0;
+	this.keySetSize--;
+	// 子ノードがなくなったノードを葉から順に取り除く (根ノードは残す)
+	while (--depth > 0 && !this.hasChildren(this.base[path[depth]])) {
+	    this.allocator.releaseBase(this.base[path[depth]]);
+	    this.clearNode(path[depth]);
+	}
+	return id;
+    }
+
+    /**
+     * TAIL配列に格納された接尾辞とキーワードの未処理部分を比較し、異なる場合は共通接頭辞を
+     * 内部ノードとして展開した上で両者を葉として配置する
+     *
+     * @param key 追加するキーワード
+     * @param from キーワードの未処理部分の開始位置
+     * @param node 接尾辞を持つ葉ノードの番地
+     * @return 付与したID、既に登録されている場合はそのID
+     */
+    private int splitTail(CharSequence key, int from, int node) {
+	final int existing = Constants.DABase.ID(this.base[node]);
+	if (this.tailEquals(key, from, existing)) {
+	    return existing;
+	}
+	final StringBuilder tail = this.tail;
+	final int suffixBegin = this.begins[existing];
+	final int suffixLength = this.lengths[existing];
+	final int restLength = key.length() - from;
+	// 共通接頭辞長
+	int shared = 0;
+	while (shared < suffixLength && shared < restLength
+	       && tail.charAt(suffixBegin + shared) == key.charAt(from + shared)) {
+	    shared++;
+	}
+	// 共通接頭辞を一文字ずつ内部ノードとして展開
+	int curr = node;
+	for (int i = 0; i < shared; i++) {
+	    final char code = this.codeOf(tail.charAt(suffixBegin + i));
+	    final int xNode = this.allocator.xCheck(new char[] { code });
+	    this.ensureLength(xNode + code + 1);
+	    this.base[curr] = xNode;
+	    this.addCode(code);
+	    this.check[xNode + code] = code;
+	    curr = xNode + code;
+	}
+	// 分岐するノードに既存の接尾辞と追加するキーワードを配置
+	final char existingCode = shared < suffixLength ? this.codeOf(tail.charAt(suffixBegin + shared)) : Constants.DACheck.TERM_CODE;
+	final char addedCode = shared < restLength ? this.codeOf(key.charAt(from + shared)) : Constants.DACheck.TERM_CODE;
+	final char[] codes = existingCode < addedCode ? new char[] { existingCode, addedCode } : new char[] { addedCode, existingCode };
+	final int xNode = this.allocator.xCheck(codes);
+	this.ensureLength(xNode + codes[1] + 1);
+	this.base[curr] = xNode;
+	// 既存の接尾辞は分岐した文字の後ろまで切り詰める (IDは変わらない)
+	final int consumed = Math.min(shared + 1, suffixLength);
+	this.begins[existing] += consumed;
+	this.lengths[existing] -= consumed;
+	this.setLeaf(xNode + existingCode, existingCode, existing);
+	final int id = this.appendTail(key, from + Math.min(shared + 1, restLength));
+	this.setLeaf(xNode + addedCode, addedCode, id);
+	return id;
+    }
+
+    /**
+     * ノードに子ノードを追加する
+     * 追加先の番地が使用済みの場合は、ノードのBASE値を割り当て直して既存の子ノードを移動する。
+     *
+     * @param node 親ノードの番地
+     * @param code 追加する子ノードの文字コード
+     * @return 追加した子ノードの番地
+     */
+    private int addChild(int node, char code) {
+	final int xNode = this.base[node];
+	final int child = xNode + code;
+	if (this.allocator.isFree(child)) {
+	    this.allocator.reserve(child);
+	    this.ensureLength(child + 1);
+	    return child;
+	}
+	// 既存の子ノードの文字コードに追加する文字コードを加える (昇順)
+	final DynamicCharArray edges = new DynamicCharArray(Constants.DACheck.EMPTY_CODE);
+	boolean added = false;
+	for (char c : this.alphabet) {
+	    if (!added && code < c) {
+		edges.add(code);
+		added = true;
+	    }
+	    if (this.isChild(xNode, c)) {
+		edges.add(c);
+	    }
+	}
+	if (!added) {
+	    edges.add(code);
+	}
+	final char[] codes = edges.toArray(edges.size());
+	final int newBase = this.allocator.xCheck(codes);
+	this.ensureLength(newBase + codes[codes.length - 1] + 1);
+	// 子ノードを移動 (孫ノードの番地はBASE値に依存しないため変更不要)
+	for (char c : codes) {
+	    if (c != code) {
+		this.base[newBase + c] = this.base[xNode + c];
+		this.check[newBase + c] = c;
+		this.clearNode(xNode + c);
+	    }
+	}
+	this.allocator.releaseBase(xNode);
+	this.base[node] = newBase;
+	return newBase + code;
+    }
+
+    /**
+     * BASE値がxNodeのノードが文字コードcの子ノードを持つ場合true
+     * BASE値は一意であるため、CHECK配列の文字コードが一致すれば子ノードである。
+     */
+    private boolean isChild(int xNode, int c) {
+	final int child = xNode + c;
+	return c != Constants.DACheck.EMPTY_CODE
+	    && child < this.length
+	    && this.check[child] == c;
+    }
+
+    /**
+     * BASE値がxNodeのノードが子ノードを持つ場合true
+     */
+    private boolean hasChildren(int xNode) {
+	for (char c : this.alphabet) {
+	    if (this.isChild(xNode, c)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * エッジとして使用する文字コードを登録する
+     */
+    private void addCode(char code) {
+	final int index = Arrays.binarySearch(this.alphabet, code);
+	if (index < 0) {
+	    final int insertion = -index - 1;
+	    final char[] alphabet = new char[this.alphabet.length + 1];
+	    System.arraycopy(this.alphabet, 0, alphabet, 0, insertion);
+	    alphabet[insertion] = code;
+	    System.arraycopy(this.alphabet, insertion, alphabet, insertion + 1, this.alphabet.length - insertion);
+	    this.alphabet = alphabet;
+	}
+    }
+
+    /**
+     * 葉ノードをセット
+     */
+    private void setLeaf(int node, char code, int id) {
+	this.addCode(code);
+	this.check[node] = code;
+	this.base[node] = Constants.DABase.ID(id);
+    }
+
+    /**
+     * ノードを空にして番地を解放する
+     */
+    private void clearNode(int node) {
+	this.base[node] = Constants.DABase.INIT_VALUE;
+	this.check[node] = Constants.DACheck.EMPTY_CODE;
+	this.allocator.free(node);
+    }
+
+    /**
+     * TAIL配列に格納された接尾辞とキーワードの未処理部分が一致する場合true
+     */
+    private boolean tailEquals(CharSequence key, int from, int id) {
+	final int suffixBegin = this.begins[id];
+	final int suffixLength = this.lengths[id];
+	if (key.length() - from != suffixLength) {
+	    return false;
+	}
+	for (int i = 0; i < suffixLength; i++) {
+	    if (this.tail.charAt(suffixBegin + i) != key.charAt(from + i)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * 格納されているキーワード数
+     */
+    public int size() {
+	return this.keySetSize;
+    }
+
+    /**
+     * 付与済みのIDの上限 (削除されたキーワードのIDも含む)
+     */
+    public int getIdLimit() {
+	return this.tailSize;
+    }
+
+    /**
+     * 使用中の範囲の配列をラップする (書き出し用、コピーしない)
+     * 以降の更新は反映されないことがあるため、書き出しが終わるまで更新しないこと。
+     */
+    public DoubleArrayBuffer wrap() {
+	return new DoubleArrayBuffer(this.keySetSize,
+				     IntBuffer.wrap(this.base, 0, this.length).slice().asReadOnlyBuffer(),
+				     CharBuffer.wrap(this.check, 0, this.length).slice().asReadOnlyBuffer(),
+				     IntBuffer.wrap(this.begins, 0, this.tailSize).slice().asReadOnlyBuffer(),
+				     IntBuffer.wrap(this.lengths, 0, this.tailSize).slice().asReadOnlyBuffer(),
+				     CharBuffer.wrap(this.tail),
+				     this.codeMap);
+    }
+
+    /**
+     * 使用中の範囲の配列を複製し、変更されないDouble-Arrayを生成する
+     * 生成したDouble-Arrayは以降の更新の影響を受けないため、他のスレッドへ公開できる。
+     */
+    public DoubleArray snapshot() {
+	return new DoubleArray(this.keySetSize,
+			       Arrays.copyOf(this.base, this.length),
+			       Arrays.copyOf(this.check, this.length),
+			       Arrays.copyOf(this.begins, this.tailSize),
+			       Arrays.copyOf(this.lengths, this.tailSize),
+			       this.tail,
+			       this.codeMap);
+    }
+
+    @Override
+    public int membership(CharSequence key) {
+	return this.searcher.membership(key);
+    }
+
+    @Override
+    public void eachCommonPrefix(CharSequence query, int begin, TrieSearcher.Callback func) {
+	this.searcher.eachCommonPrefix(query, begin, func);
+    }
+
+    @Override
+    public int membership(ByteBuffer utf8, int from, int to) {
+	return this.searcher.membership(utf8, from, to);
+    }
+
+    @Override
+    public void eachCommonPrefix(ByteBuffer utf8, int from, int to, TrieSearcher.Callback func) {
+	this.searcher.eachCommonPrefix(utf8, from, to, func);
+    }
+
+    @Override
+    public void membership(CharSequence[] keys, int from, int to, int[] ids) {
+	this.searcher.membership(keys, from, to, ids);
+    }
+
+    @Override
+    public void eachCommonPrefix(CharSequence[] queries, int from, int to, int begin, PrefixMatches matches) {
+	this.searcher.eachCommonPrefix(queries, from, to, begin, matches);
+    }
+
+    /**
+     * 予測検索
+     * 更新中の配列を直接辿るため、列挙中に更新しないこと。
+     *
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     * @return 列挙するカーソル
+     */
+    @Override
+    public TrieSearcher.Cursor predictive(CharSequence prefix, int limit) {
+	return new PredictiveCursor(this.wrap(), this.codeMap.sortByChar(this.alphabet), prefix, limit);
+    }
+
+    /**
+     * 近似検索
+     * 更新中の配列を直接辿るため、検索中に更新しないこと。
+     *
+     * @param query 問い合わせる文字列
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    @Override
+    public void eachApproximate(CharSequence query, int maxDistance, TrieSearcher.DistanceCallback func) {
+	new LevenshteinWalker(this.wrap(), this.codeMap.sortByChar(this.alphabet), query, maxDistance, func).walk();
+    }
+}
@@ -0,0 +1,409 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * Double-Arrayを状態遷移に用いたAho-Corasick法による複数パターン照合
+ * テキストを先頭から一度走査するだけで、テキスト中に出現する全てのキーワードを報告する。
+ *
+ * 状態番号はBASE/CHECK配列の番地をそのまま使用し、TAIL配列に格納された接尾辞は一文字毎
+ * に状態を割り当てる (BASE/CHECK配列長 + 接尾辞長の累積和 + 接尾辞中の位置)。遷移は
+ * Double-Arrayと接尾辞の文字で行い、失敗遷移と出力遷移のみを状態毎に保持する。
+ * 文字の対応表を持つDouble-Arrayでは、BASE/CHECK配列上の遷移は対応表の文字コードで、
+ * 接尾辞上の遷移は元の文字で行う。
+ * BASE/CHECK配列とTAIL配列はDouble-Arrayのものを複製せずに参照するため、ヒープ外や
+ * メモリマップしたDouble-Arrayはそのままの格納位置で走査する。ヒープ上に確保するのは
+ * 状態毎の失敗遷移・出力・出力遷移と、接尾辞の状態の遷移文字 (各int 3つと接尾辞の文字数
+ * 分のchar) のみである。構築後にDouble-Arrayが更新された場合は作り直す必要がある。
+ *
+ * 構築後は変更されないため、複数のスレッドから同時に使用できる。テキストを一度に渡せない
+ * 場合は、stepで一文字ずつ状態を進め、outputとnextOutputで出力を列挙する。状態はint一つ
+ * のみのため、走査は任意の文字の間で中断・再開できる。
+ */
+public final class DoubleArrayScanner {
+    /** 走査開始時の状態 */
+    public static final int START = 0;
+    /** 遷移先・出力が存在しないことを表す値 */
+    public static final int NONE = -1;
+    /** 根ノードの状態番号 */
+    private static final int ROOT = DoubleArrayScanner.START;
+
+    /** BASE配列 (Double-Arrayのバッファを共有) */
+    private final IntBuffer base;
+    /** CHECK配列 (Double-Arrayのバッファを共有) */
+    private final CharBuffer check;
+    /** BASE/CHECK配列長 (接尾辞の状態番号の開始位置) */
+    private final int size;
+    /** 各キーワードの接尾辞の状態番号の開始位置 (BASE/CHECK配列長からの相対位置) */
+    private final int[] suffixStates;
+    /** 接尾辞の各状態に遷移する文字 */
+    private final char[] suffixCodes;
+    /** 文字とエッジの文字コードの対応表 */
+    private final CodeMap codeMap;
+    /** 各キーワードの長さ */
+    private final int[] keyLengths;
+    /** 失敗遷移 */
+    private final int[] failure;
+    /** 状態で終端するキーワードのID (存在しない場合は-1) */
+    private final int[] outputs;
+    /** 自身から失敗遷移を辿って最初にキーワードが終端する状態 (存在しない場合は-1) */
+    private final int[] outputLinks;
+
+    /**
+     * Double-Arrayから失敗遷移と出力遷移を構築してインスタンス化
+     *
+     * @param doubleArray 構築済みのDouble-Array
+     */
+    public DoubleArrayScanner(DoubleArray doubleArray) {
+	this(DoubleArrayBuffer.wrap(doubleArray));
+    }
+
+    /**
+     * バッファ上のDouble-Arrayから失敗遷移と出力遷移を構築してインスタンス化
+     *
+     * @param doubleArray 構築済みのDouble-Array
+     */
+    public DoubleArrayScanner(DoubleArrayBuffer doubleArray) {
+	this.base = doubleArray.base;
+	this.check = doubleArray.check;
+	this.size = this.check.limit();
+	this.codeMap = doubleArray.codeMap;
+
+	// 接尾辞の状態番号を接尾辞長の累積和で割り当てる
+	final int keySetSize = doubleArray.lengths.limit();
+	this.suffixStates = new int[keySetSize];
+	int suffixSize = 0;
+	for (int id = 0; id < keySetSize; id++) {
+	    this.suffixStates[id] = suffixSize;
+	    suffixSize += doubleArray.lengths.get(id);
+	}
+	this.suffixCodes = new char[suffixSize];
+	for (int id = 0; id < keySetSize; id++) {
+	    final int begin = doubleArray.begins.get(id);
+	    for (int k = 0; k < doubleArray.lengths.get(id); k++) {
+		this.suffixCodes[this.suffixStates[id] + k] = doubleArray.tail.get(begin + k);
+	    }
+	}
+
+	final int stateSize = this.size + suffixSize;
+	this.keyLengths = new int[keySetSize];
+	this.failure = new int[stateSize];
+	this.outputs = new int[stateSize];
+	this.outputLinks = new int[stateSize];
+	Arrays.fill(this.outputs, DoubleArrayScanner.NONE);
+	Arrays.fill(this.outputLinks, DoubleArrayScanner.NONE);
+	if (keySetSize > 0) {
+	    this.link(this.children());
+	}
+    }
+
+    /**
+     * BASE/CHECK配列上の各ノードの子ノードを列挙する
+     * CHECK配列は文字コードを保持しBASE値は重複しないため、子ノードの番地から文字コードを
+     * 引いた値をBASE値に持つノードが親ノードとなる。
+     *
+     * @return 親ノード毎の子ノード番地 (先頭size + 1要素が各親ノードの開始位置)
+     */
+    private int[] children() {
+	// BASE値から番地への逆引き
+	final int[] owners = new int[this.size];
+	Arrays.fill(owners, DoubleArrayScanner.NONE);
+	for (int node = 0; node < this.size; node++) {
+	    if (this.isInternal(node)) {
+		owners[this.base.get(node)] = node;
+	    }
+	}
+	// 親ノード毎に子ノードを数え上げ、開始位置を求める
+	final int[] parents = new int[this.size];
+	final int[] starts = new int[this.size + 1];
+	for (int node = 1; node < this.size; node++) {
+	    final char code = this.check.get(node);
+	    parents[node] = code > Constants.DACheck.EMPTY_CODE ? owners[node - code] : DoubleArrayScanner.NONE;
+	    if (parents[node] != DoubleArrayScanner.NONE) {
+		starts[parents[node] + 1]++;
+	    }
+	}
+	for (int node = 0; node < this.size; node++) {
+	    starts[node + 1] += starts[node];
+	}
+	final int[] edges = new int[this.size + 1 + starts[this.size]];
+	final int[] positions = Arrays.copyOf(starts, this.size);
+	for (int node = 1; node < this.size; node++) {
+	    if (parents[node] != DoubleArrayScanner.NONE) {
+		edges[this.size + 1 + positions[parents[node]]++] = node;
+	    }
+	}
+	System.arraycopy(starts, 0, edges, 0, this.size + 1);
+	return edges;
+    }
+
+    /**
+     * 失敗遷移と出力遷移を幅優先で構築する
+     * 各状態の失敗遷移先はその状態より浅いため、幅優先に処理すれば参照時には確定している。
+     *
+     * @param edges childrenメソッドで列挙した子ノード
+     */
+    private void link(int[] edges) {
+	final int[] queue = new int[this.failure.length];
+	final int[] depths = new int[this.failure.length];
+	int head = 0;
+	int tail = 0;
+	// 空のキーワードは報告しないため、根ノードには出力を設定しない
+	this.failure[DoubleArrayScanner.ROOT] = DoubleArrayScanner.ROOT;
+	queue[tail++] = DoubleArrayScanner.ROOT;
+	while (head < tail) {
+	    final int state = queue[head++];
+	    final int depth = depths[state];
+	    if (state < this.size && this.base.get(state) >= 0) {
+		// 内部ノード: BASE/CHECK配列上の子ノード
+		for (int i = edges[state]; i < edges[state + 1]; i++) {
+		    final int child = edges[this.size + 1 + i];
+		    this.linkChild(state, child, this.codeMap.charOf(this.check.get(child)), this.check.get(child), depth + 1);
+		    depths[child] = depth + 1;
+		    queue[tail++] = child;
+		}
+	    } else if (this.outputs[state] == DoubleArrayScanner.NONE) {
+		// 接尾辞を持つ葉ノードまたは接尾辞の途中: 次の一文字の状態
+		final int child = state < this.size
+		    ? this.size + this.suffixStates[Constants.DABase.ID(this.base.get(state))]
+		    : state + 1;
+		final char c = this.suffixCodes[child - this.size];
+		this.linkChild(state, child, c, this.codeMap.code(c), depth + 1);
+		depths[child] = depth + 1;
+		queue[tail++] = child;
+	    }
+	}
+    }
+
+    /**
+     * 子状態の失敗遷移・出力・出力遷移を設定する
+     *
+     * @param parent 親状態 (失敗遷移は設定済み)
+     * @param child 子状態
+     * @param c 親状態から子状態への遷移文字
+     * @param code 遷移文字の文字コード
+     * @param depth 子状態の深さ
+     */
+    private void linkChild(int parent, int child, char c, char code, int depth) {
+	int fallback = DoubleArrayScanner.ROOT;
+	if (parent != DoubleArrayScanner.ROOT) {
+	    int state = this.failure[parent];
+	    int next;
+	    while ((next = this.next(state, c, code)) == DoubleArrayScanner.NONE && state != DoubleArrayScanner.ROOT) {
+		state = this.failure[state];
+	    }
+	    if (next != DoubleArrayScanner.NONE) {
+		fallback = next;
+	    }
+	}
+	this.failure[child] = fallback;
+	this.setOutput(child, depth);
+	this.outputLinks[child] = this.outputs[child] != DoubleArrayScanner.NONE ? child : this.outputLinks[fallback];
+    }
+
+    /**
+     * 状態で終端するキーワードを設定する
+     *
+     * @param state 状態
+     * @param depth 状態の深さ (キーワードの長さ)
+     */
+    private void setOutput(int state, int depth) {
+	int id = DoubleArrayScanner.NONE;
+	if (state >= this.size) {
+	    // 接尾辞の末尾
+	    if (this.suffixNext(state) == DoubleArrayScanner.NONE) {
+		id = this.suffixOwner(state);
+	    }
+	} else if (this.base.get(state) >= 0) {
+	    // 終端文字の子ノードを持つ内部ノード
+	    final int terminal = this.base.get(state) + Constants.DACheck.TERM_CODE;
+	    if (terminal < this.size && this.check.get(terminal) == Constants.DACheck.TERM_CODE) {
+		id = Constants.DABase.ID(this.base.get(terminal));
+	    }
+	} else {
+	    // 接尾辞を持たない葉ノード
+	    final int leaf = Constants.DABase.ID(this.base.get(state));
+	    if (this.suffixLength(leaf) == 0) {
+		id = leaf;
+	    }
+	}
+	if (id != DoubleArrayScanner.NONE) {
+	    this.outputs[state] = id;
+	    this.keyLengths[id] = depth;
+	}
+    }
+
+    /**
+     * 接尾辞の状態の次の状態 (接尾辞の末尾の場合は-1)
+     *
+     * @param state 接尾辞の状態
+     */
+    private int suffixNext(int state) {
+	final int next = state + 1 - this.size;
+	final int id = this.suffixOwner(state);
+	return next < this.suffixStates[id] + this.suffixLength(id) ? state + 1 : DoubleArrayScanner.NONE;
+    }
+
+    /**
+     * 接尾辞の状態が属するキーワードのID
+     *
+     * @param state 接尾辞の状態
+     */
+    private int suffixOwner(int state) {
+	// 接尾辞長0のキーワードは開始位置が重複するため、同じ開始位置の最後のIDを求める
+	int lo = 0;
+	int hi = this.suffixStates.length;
+	final int offset = state - this.size;
+	while (hi - lo > 1) {
+	    final int mid = (lo + hi) >>> 1;
+	    if (this.suffixStates[mid] <= offset) {
+		lo = mid;
+	    } else {
+		hi = mid;
+	    }
+	}
+	return lo;
+    }
+
+    /**
+     * キーワードの接尾辞長
+     *
+     * @param id キーワードのID
+     */
+    private int suffixLength(int id) {
+	final int end = id + 1 < this.suffixStates.length ? this.suffixStates[id + 1] : this.suffixCodes.length;
+	return end - this.suffixStates[id];
+    }
+
+    /**
+     * 番地が子ノードを持つノードか (根ノードを含む)
+     *
+     * @param node 番地
+     */
+    private boolean isInternal(int node) {
+	return (node == DoubleArrayScanner.ROOT || this.check.get(node) > Constants.DACheck.EMPTY_CODE)
+	    && this.base.get(node) >= 0;
+    }
+
+    /**
+     * 状態遷移 (失敗遷移は辿らない)
+     *
+     * @param state 現在の状態
+     * @param c 入力文字 (接尾辞上の遷移に使用)
+     * @param code 入力文字の文字コード (BASE/CHECK配列上の遷移に使用)
+     * @return 遷移先の状態、遷移できない場合は-1
+     */
+    private int next(int state, char c, char code) {
+	if (state < this.size) {
+	    final int node = this.base.get(state);
+	    if (node >= 0) {
+		// 終端文字と未使用ノードの文字コードは入力に現れても遷移しない
+		final int index = node + code;
+		return code > Constants.DACheck.EMPTY_CODE && index < this.size && this.check.get(index) == code
+		    ? index : DoubleArrayScanner.NONE;
+	    }
+	    // 葉ノードから接尾辞の先頭へ
+	    final int id = Constants.DABase.ID(node);
+	    final int first = this.suffixStates[id];
+	    return this.suffixLength(id) > 0 && this.suffixCodes[first] == c ? this.size + first : DoubleArrayScanner.NONE;
+	}
+	// 接尾辞の途中から次の一文字へ
+	final int next = state + 1;
+	return this.outputs[state] == DoubleArrayScanner.NONE && this.suffixCodes[next - this.size] == c
+	    ? next : DoubleArrayScanner.NONE;
+    }
+
+    /**
+     * テキスト中に出現する全てのキーワードを報告する
+     * テキストを一度だけ走査し、検索中にオブジェクトを生成しない。コールバック関数には
+     * 共通接頭辞検索と同様に (開始位置, 一致した文字数, ID) を渡す。同じ位置で終わる
+     * キーワードは長いものから順に、終了位置の昇順に報告する。
+     *
+     * @param text 走査するテキスト
+     * @param func コールバック関数
+     */
+    public void scan(CharSequence text, TrieSearcher.Callback func) {
+	this.scan(text, 0, text.length(), func);
+    }
+
+    /**
+     * テキストの指定範囲に出現する全てのキーワードを報告する
+     *
+     * @param text 走査するテキスト
+     * @param begin 走査開始位置
+     * @param end 走査終了位置 (この位置は含まない)
+     * @param func コールバック関数
+     */
+    public void scan(CharSequence text, int begin, int end, TrieSearcher.Callback func) {
+	if (this.keyLengths.length == 0) {
+	    return;
+	}
+	int state = DoubleArrayScanner.START;
+	for (int i = begin; i < end; i++) {
+	    state = this.step(state, text.charAt(i));
+	    // 現在の状態と、失敗遷移で到達する状態で終端するキーワードを報告
+	    for (int output = this.output(state); output != DoubleArrayScanner.NONE; output = this.nextOutput(output)) {
+		final int id = this.outputs[output];
+		func.apply(i + 1 - this.keyLengths[id], this.keyLengths[id], id);
+	    }
+	}
+    }
+
+    /**
+     * 一文字読み進めた状態を返す
+     * 遷移できない間は失敗遷移を辿る。状態はSTARTから始め、返された状態を次の文字に渡す。
+     *
+     * @param state 現在の状態
+     * @param c 入力文字
+     * @return 遷移後の状態
+     */
+    public int step(int state, char c) {
+	final char code = this.codeMap.code(c);
+	int next;
+	while ((next = this.next(state, c, code)) == DoubleArrayScanner.NONE && state != DoubleArrayScanner.ROOT) {
+	    state = this.failure[state];
+	}
+	return next != DoubleArrayScanner.NONE ? next : DoubleArrayScanner.ROOT;
+    }
+
+    /**
+     * 状態で終端するキーワードのうち最も長いものの出力
+     *
+     * @param state stepが返した状態
+     * @return 出力、存在しない場合はNONE
+     */
+    public int output(int state) {
+	return this.outputLinks[state];
+    }
+
+    /**
+     * 同じ位置で終端する、次に長いキーワードの出力
+     *
+     * @param output outputまたはnextOutputが返した出力
+     * @return 出力、存在しない場合はNONE
+     */
+    public int nextOutput(int output) {
+	return this.outputLinks[this.failure[output]];
+    }
+
+    /**
+     * 出力のキーワードのID
+     *
+     * @param output outputまたはnextOutputが返した出力
+     */
+    public int outputId(int output) {
+	return this.outputs[output];
+    }
+
+    /**
+     * 出力のキーワードの長さ (キーワードは最後に渡した文字で終わる)
+     *
+     * @param output outputまたはnextOutputが返した出力
+     */
+    public int outputLength(int output) {
+	return this.keyLengths[this.outputs[output]];
+    }
+}
@@ -0,0 +1,189 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.okawa.util.nlang.trie.TrieBuilder;
+
+/**
+ * 整列済みのキーワードを一件ずつ受け取りDouble-Arrayを構築するビルダー
+ * キーワード一覧を保持せず、構築中の各配列と直前のキーワードのみを保持する。
+ *
+ * CHECK配列は親ノードではなく文字コードを保持するため、ノードのBASE値は自身の番地に
+ * 依存しない。そのため、後続のキーワードによってそれ以上子ノードが増えないことが確定し
+ * たノードから順に (葉から根に向かって) 配置する。直前のキーワードの経路上にあり配置が
+ * 確定していないノードについてのみ、子ノードの文字コードとBASE値を深さ毎に保持する。
+ * IDとTAIL配列の内容はDoubleArrayBuilderで同じキーワード一覧から構築した場合と同一となる。
+ */
+public final class DoubleArrayStreamBuilder implements TrieBuilder {
+    /** 仮想メモリアロケータ */
+    private final DoubleArrayAllocator allocator = new DoubleArrayAllocator();
+    /** BASE配列 */
+    private final DynamicIntArray base = new DynamicIntArray(Constants.DABase.INIT_VALUE);
+    /** CHECK配列 */
+    private final DynamicCharArray check = new DynamicCharArray(Constants.DACheck.EMPTY_CODE);
+    /** TAIL配列 接尾辞開始位置配列 */
+    private final DynamicIntArray begins = new DynamicIntArray(0);
+    /** TAIL配列 接尾辞長 */
+    private final DynamicIntArray lengths = new DynamicIntArray(0);
+    /** TAIL配列 */
+    private final StringBuilder tail = new StringBuilder();
+    /** 配置が確定していないノードの子ノードの文字コード (深さ毎) */
+    private final List<DynamicCharArray> codes = new ArrayList<DynamicCharArray>();
+    /** 配置が確定していないノードの子ノードのBASE値 (深さ毎) */
+    private final List<DynamicIntArray> values = new ArrayList<DynamicIntArray>();
+    /** 直前に追加されたキーワード */
+    private String prev = null;
+    /** 直前に追加されたキーワードとその一つ前のキーワードの共通接頭辞長 */
+    private int prevShared = 0;
+    /** 追加されたキーワード数 */
+    private int keySetSize = 0;
+    /** 構築済みの場合true */
+    private boolean built = false;
+
+    /**
+     * キーワードを追加する
+     * キーワードは昇順 (String#compareToの順序) に追加されなければならない。直前と同一の
+     * キーワードは登録されない。
+     *
+     * @param key 追加するキーワード
+     * @return 付与されたID、直前と同一のキーワードの場合は-1
+     * @throws IllegalArgumentException キーワードが直前のキーワードより小さい場合
+     * @throws IllegalStateException 構築済みの場合
+     */
+    public int add(CharSequence key) {
+	if (this.built) {
+	    throw new IllegalStateException("double-array is already built");
+	}
+	final String curr = key.toString();
+	int shared = 0;
+	if (this.prev != null) {
+	    final int length = Math.min(this.prev.length(), curr.length());
+	    while (shared < length && this.prev.charAt(shared) == curr.charAt(shared)) {
+		shared++;
+	    }
+	    if (shared == curr.length()) {
+		if (shared == this.prev.length()) {
+		    return -1;
+		}
+		throw new IllegalArgumentException("keys are not sorted: " + this.prev + " > " + curr);
+	    } else if (shared < this.prev.length() && this.prev.charAt(shared) > curr.charAt(shared)) {
+		throw new IllegalArgumentException("keys are not sorted: " + this.prev + " > " + curr);
+	    }
+	    this.flush(shared);
+	}
+	this.prev = curr;
+	this.prevShared = shared;
+	return this.keySetSize++;
+    }
+
+    /**
+     * ヒープ上にDouble-Arrayを構築する
+     * 構築後はキーワードを追加できない。
+     */
+    public DoubleArray build() {
+	this.finish();
+	final int length = this.getArrayLength();
+	return new DoubleArray(this.keySetSize,
+			       this.base.toArray(length),
+			       this.check.toArray(length),
+			       this.begins.toArray(),
+			       this.lengths.toArray(),
+			       this.tail,
+			       CodeMap.IDENTITY);
+    }
+
+    /**
+     * ヒープ外のバッファ上にDouble-Arrayを構築する
+     * 構築後はキーワードを追加できない。
+     */
+    public DoubleArrayBuffer buildDirect() {
+	this.finish();
+	return DoubleArrayBuffer.allocateDirect(this.keySetSize, this.getArrayLength(),
+						this.base, this.check, this.begins, this.lengths, this.tail, CodeMap.IDENTITY);
+    }
+
+    /**
+     * 残りのノードを全て配置する
+     */
+    private void finish() {
+	if (this.built) {
+	    throw new IllegalStateException("double-array is already built");
+	}
+	this.built = true;
+	if (this.prev == null) {
+	    // 空のTrieでは根ノードから全ての遷移が失敗するようにしておく
+	    this.base.set(0, 0);
+	    return;
+	}
+	this.flush(0);
+	this.base.set(0, this.place(0));
+	// 共通の末尾を持つ接尾辞をまとめてTAIL配列を詰める
+	TailCompactor.compact(this.begins, this.lengths, this.tail);
+    }
+
+    /**
+     * 直前のキーワードをTAIL配列に格納し、次のキーワードと共通接頭辞を持たない範囲の
+     * ノードを葉から順に配置する
+     *
+     * @param shared 直前のキーワードと次のキーワードの共通接頭辞長
+     */
+    private void flush(int shared) {
+	// 前後のキーワードと共通接頭辞を持たない位置からTAIL配列に格納
+	final int leaf = Math.max(this.prevShared, shared);
+	final char code = leaf < this.prev.length() ? this.prev.charAt(leaf) : Constants.DACheck.TERM_CODE;
+	final int suffixBegin = Math.min(leaf + 1, this.prev.length());
+	this.begins.add(this.tail.length());
+	this.lengths.add(this.prev.length() - suffixBegin);
+	this.tail.append(this.prev, suffixBegin, this.prev.length());
+	this.addEdge(leaf, code, Constants.DABase.ID(this.keySetSize - 1));
+	// 次のキーワードの経路から外れたノードは子ノードが確定
+	for (int depth = leaf; depth > shared; depth--) {
+	    this.addEdge(depth - 1, this.prev.charAt(depth - 1), this.place(depth));
+	}
+    }
+
+    /**
+     * 配置が確定していないノードに子ノードを追加
+     *
+     * @param depth ノードの深さ
+     * @param code 子ノードの文字コード
+     * @param value 子ノードのBASE値
+     */
+    private void addEdge(int depth, char code, int value) {
+	while (this.codes.size() <= depth) {
+	    this.codes.add(new DynamicCharArray(Constants.DACheck.EMPTY_CODE));
+	    this.values.add(new DynamicIntArray(Constants.DABase.INIT_VALUE));
+	}
+	this.codes.get(depth).add(code);
+	this.values.get(depth).add(value);
+    }
+
+    /**
+     * 子ノードが確定したノードを配置
+     *
+     * @param depth ノードの深さ
+     * @return ノードのBASE値
+     */
+    private int place(int depth) {
+	final DynamicCharArray edges = this.codes.get(depth);
+	final DynamicIntArray children = this.values.get(depth);
+	final int xNode = this.allocator.xCheck(edges.toArray(edges.size()));
+	for (int i = 0; i < edges.size(); i++) {
+	    this.check.set(xNode + edges.get(i), edges.get(i));
+	    this.base.set(xNode + edges.get(i), children.get(i));
+	}
+	edges.clear();
+	children.clear();
+	return xNode;
+    }
+
+    /** 追加されたキーワード数 */
+    public int getKeySetSize() {
+	return this.keySetSize;
+    }
+
+    /** BASE配列とCHECK配列の長さ (根ノード分として最低でも1) */
+    private int getArrayLength() {
+	return Math.max(1, Math.max(this.base.size(), this.check.size()));
+    }
+}
@@ -0,0 +1,121 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * 範囲外のアクセスに対して自動的に拡張されるchar配列。
+ * ボクシングを伴わないため、要素毎のオブジェクト生成が発生しない。
+ */
+final class DynamicCharArray {
+    /** 初期容量 */
+    private static final int INIT_CAPACITY = 16;
+    /** 要素のデフォルト値 */
+    private final char defaultValue;
+    /** 実データ */
+    private char[] elements;
+    /** 使用中の要素数 (書き込まれた最大インデックス + 1) */
+    private int size;
+
+    /**
+     * デフォルト値を指定してインスタンス化
+     *
+     * @param defaultValue 要素のデフォルト値
+     */
+    public DynamicCharArray(char defaultValue) {
+	this.defaultValue = defaultValue;
+	this.elements = new char[DynamicCharArray.INIT_CAPACITY];
+	Arrays.fill(this.elements, defaultValue);
+	this.size = 0;
+    }
+
+    /**
+     * 指定されたインデックスが収まるまで配列を伸張する
+     *
+     * @param index 配列のインデックス
+     */
+    private void ensureCapacity(int index) {
+	if (index >= this.elements.length) {
+	    final int oldLength = this.elements.length;
+	    this.elements = Arrays.copyOf(this.elements, Math.max(index + 1, oldLength * 2));
+	    Arrays.fill(this.elements, oldLength, this.elements.length, this.defaultValue);
+	}
+    }
+
+    /**
+     * 範囲外アクセスの場合はデフォルト値を返す。
+     *
+     * @param index 配列のインデックス
+     */
+    public char get(int index) {
+	return index < this.size ? this.elements[index] : this.defaultValue;
+    }
+
+    /**
+     * 範囲外アクセスがあった場合は自動的に配列が拡張され、対象の要素以外にはデフォル
+     * ト値がセットされる。
+     *
+     * @param index 配列のインデックス
+     * @param element 格納する要素
+     * @return インデックスの位置に前回格納されていた値
+     */
+    public char set(int index, char element) {
+	this.ensureCapacity(index);
+	final char prev = this.elements[index];
+	this.elements[index] = element;
+	if (index >= this.size) {
+	    this.size = index + 1;
+	}
+	return prev;
+    }
+
+    /**
+     * 末尾に要素を追加する
+     *
+     * @param element 格納する要素
+     */
+    public void add(char element) {
+	this.set(this.size, element);
+    }
+
+    /** 使用中の要素数 */
+    public int size() {
+	return this.size;
+    }
+
+    /**
+     * 全ての要素を取り除く (確保済みの領域は再利用する)
+     */
+    public void clear() {
+	Arrays.fill(this.elements, 0, this.size, this.defaultValue);
+	this.size = 0;
+    }
+
+    /**
+     * 長さを指定してバッファへ書き出す (不足分はデフォルト値で埋める)
+     *
+     * @param dst 書き出し先 (先頭から書き込み、limitをlengthに合わせる)
+     * @param length 書き出す要素数
+     */
+    public void copyTo(CharBuffer dst, int length) {
+	dst.clear();
+	dst.put(this.elements, 0, Math.min(length, this.elements.length));
+	while (dst.position() < length) {
+	    dst.put(this.defaultValue);
+	}
+	dst.flip();
+    }
+
+    /**
+     * 長さを指定して配列として返す (不足分はデフォルト値で埋める)
+     *
+     * @param length 返す配列の長さ
+     */
+    public char[] toArray(int length) {
+	final char[] array = Arrays.copyOf(this.elements, length);
+	if (length > this.elements.length) {
+	    Arrays.fill(array, this.elements.length, length, this.defaultValue);
+	}
+	return array;
+    }
+}
@@ -0,0 +1,128 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * 範囲外のアクセスに対して自動的に拡張されるint配列。
+ * ボクシングを伴わないため、要素毎のオブジェクト生成が発生しない。
+ */
+public final class DynamicIntArray {
+    /** 初期容量 */
+    private static final int INIT_CAPACITY = 16;
+    /** 要素のデフォルト値 */
+    private final int defaultValue;
+    /** 実データ */
+    private int[] elements;
+    /** 使用中の要素数 (書き込まれた最大インデックス + 1) */
+    private int size;
+
+    /**
+     * デフォルト値を指定してインスタンス化
+     *
+     * @param defaultValue 要素のデフォルト値
+     */
+    public DynamicIntArray(int defaultValue) {
+	this.defaultValue = defaultValue;
+	this.elements = new int[DynamicIntArray.INIT_CAPACITY];
+	Arrays.fill(this.elements, defaultValue);
+	this.size = 0;
+    }
+
+    /**
+     * 指定されたインデックスが収まるまで配列を伸張する
+     *
+     * @param index 配列のインデックス
+     */
+    private void ensureCapacity(int index) {
+	if (index >= this.elements.length) {
+	    final int oldLength = this.elements.length;
+	    this.elements = Arrays.copyOf(this.elements, Math.max(index + 1, oldLength * 2));
+	    Arrays.fill(this.elements, oldLength, this.elements.length, this.defaultValue);
+	}
+    }
+
+    /**
+     * 範囲外アクセスの場合はデフォルト値を返す。
+     *
+     * @param index 配列のインデックス
+     */
+    public int get(int index) {
+	return index < this.size ? this.elements[index] : this.defaultValue;
+    }
+
+    /**
+     * 範囲外アクセスがあった場合は自動的に配列が拡張され、対象の要素以外にはデフォル
+     * ト値がセットされる。
+     *
+     * @param index 配列のインデックス
+     * @param element 格納する要素
+     * @return インデックスの位置に前回格納されていた値
+     */
+    public int set(int index, int element) {
+	this.ensureCapacity(index);
+	final int prev = this.elements[index];
+	this.elements[index] = element;
+	if (index >= this.size) {
+	    this.size = index + 1;
+	}
+	return prev;
+    }
+
+    /**
+     * 末尾に要素を追加する
+     *
+     * @param element 格納する要素
+     */
+    public void add(int element) {
+	this.set(this.size, element);
+    }
+
+    /** 使用中の要素数 */
+    public int size() {
+	return this.size;
+    }
+
+    /**
+     * 全ての要素を取り除く (確保済みの領域は再利用する)
+     */
+    public void clear() {
+	Arrays.fill(this.elements, 0, this.size, this.defaultValue);
+	this.size = 0;
+    }
+
+    /**
+     * 使用中の要素を切り詰めた配列として返す
+     */
+    public int[] toArray() {
+	return this.toArray(this.size);
+    }
+
+    /**
+     * 長さを指定してバッファへ書き出す (不足分はデフォルト値で埋める)
+     *
+     * @param dst 書き出し先 (先頭から書き込み、limitをlengthに合わせる)
+     * @param length 書き出す要素数
+     */
+    public void copyTo(IntBuffer dst, int length) {
+	dst.clear();
+	dst.put(this.elements, 0, Math.min(length, this.elements.length));
+	while (dst.position() < length) {
+	    dst.put(this.defaultValue);
+	}
+	dst.flip();
+    }
+
+    /**
+     * 長さを指定して配列として返す (不足分はデフォルト値で埋める)
+     *
+     * @param length 返す配列の長さ
+     */
+    public int[] toArray(int length) {
+	final int[] array = Arrays.copyOf(this.elements, length);
+	if (length > this.elements.length) {
+	    Arrays.fill(array, this.elements.length, length, this.defaultValue);
+	}
+	return array;
+    }
+}
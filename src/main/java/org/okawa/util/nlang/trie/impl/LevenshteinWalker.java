@@ -0,0 +1,217 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.util.Arrays;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * Double-Arrayの近似検索 (編集距離による検索)
+ * 根ノードから深さ優先で辿りながら、クエリとの編集距離の動的計画法の表を一行ずつ計算する
+ * (Levenshteinオートマトンの状態を行として保持する)。行の最小値が許容する距離を超えた
+ * 時点でその部分木を打ち切るため、処理量は辿ったノード数に比例する。TAIL配列に格納
+ * された接尾辞も一文字ずつ同様に計算する。
+ * 行の最小値が許容する距離に達した後は一致する文字による遷移しか残らないため、子ノード
+ * はエッジとして使用されている全ての文字コードではなく、クエリ中の該当する文字のみで
+ * 調べる。
+ */
+final class LevenshteinWalker {
+    /** 経路の初期容量 */
+    private static final int INIT_DEPTH = 16;
+
+    /** Double-Array実データ */
+    private final DoubleArrayBuffer doubleArray;
+    /** エッジとして使用されている文字コード (対応する文字の昇順) */
+    private final char[] alphabet;
+    /** BASE/CHECK配列長 */
+    private final int size;
+    /** クエリ */
+    private final CharSequence query;
+    /** 一行の要素数 (クエリの文字数 + 1) */
+    private final int width;
+    /** 許容する編集距離 */
+    private final int maxDistance;
+    /** 各深さの行 (深さ * width から width 個) */
+    private int[] rows;
+    /** 各深さで調べる文字 (行と同じ配置) */
+    private char[] codes;
+    /** コールバック関数 */
+    private final TrieSearcher.DistanceCallback func;
+
+    /**
+     * 検索条件を指定してインスタンス化
+     *
+     * @param doubleArray 検索対象のDouble-Array
+     * @param alphabet エッジとして使用されている文字コード (対応する文字の昇順)
+     * @param query クエリ
+     * @param maxDistance 許容する編集距離
+     * @param func コールバック関数
+     */
+    LevenshteinWalker(DoubleArrayBuffer doubleArray, char[] alphabet, CharSequence query, int maxDistance, TrieSearcher.DistanceCallback func) {
+	this.doubleArray = doubleArray;
+	this.alphabet = alphabet;
+	this.size = doubleArray.check.limit();
+	this.query = query;
+	this.width = query.length() + 1;
+	this.maxDistance = maxDistance;
+	this.rows = new int[this.width * LevenshteinWalker.INIT_DEPTH];
+	this.codes = new char[this.rows.length];
+	this.func = func;
+    }
+
+    /**
+     * 根ノードから探索する
+     */
+    void walk() {
+	if (this.maxDistance < 0) {
+	    return;
+	}
+	// 空文字列との距離はクエリの文字数
+	for (int j = 0; j < this.width; j++) {
+	    this.rows[j] = Math.min(j, this.maxDistance + 1);
+	}
+	this.walk(this.doubleArray.base.get(0), 0, this.maxDistance == 0);
+    }
+
+    /**
+     * ノードの子ノードを文字の昇順に辿る
+     *
+     * @param xNode ノードのBASE値
+     * @param depth ノードの深さ (根ノードからの文字数)
+     * @param exact 行の最小値が許容する距離に達している場合true
+     */
+    private void walk(int xNode, int depth, boolean exact) {
+	if (exact) {
+	    final int offset = depth * this.width;
+	    final int count = this.collectCodes(depth);
+	    for (int i = 0; i < count; i++) {
+		final char c = this.codes[offset + i];
+		this.visit(xNode, depth, this.doubleArray.codeMap.code(c), c);
+	    }
+	    return;
+	}
+	for (char code : this.alphabet) {
+	    this.visit(xNode, depth, code, this.doubleArray.codeMap.charOf(code));
+	}
+    }
+
+    /**
+     * 一致する文字による遷移のみで距離が許容範囲に留まる文字を収集する
+     * 終端文字と、行の値が許容する距離と等しい位置の次のクエリの文字を昇順に格納する。
+     *
+     * @param depth 行の深さ
+     * @return 収集した文字の数
+     */
+    private int collectCodes(int depth) {
+	final int offset = depth * this.width;
+	final char[] codes = this.codes;
+	codes[offset] = Constants.DACheck.TERM_CODE;
+	int count = 1;
+	for (int j = 0; j < this.width - 1; j++) {
+	    final char code = this.query.charAt(j);
+	    if (this.rows[offset + j] != this.maxDistance || code <= Constants.DACheck.EMPTY_CODE) {
+		continue;
+	    }
+	    // 挿入ソート (重複は除く)
+	    int i = offset + count;
+	    while (i > offset && codes[i - 1] > code) {
+		i--;
+	    }
+	    if (codes[i - 1] != code) {
+		System.arraycopy(codes, i, codes, i + 1, offset + count - i);
+		codes[i] = code;
+		count++;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * 子ノードが存在する場合に辿る
+     *
+     * @param xNode 親ノードのBASE値
+     * @param depth 親ノードの深さ
+     * @param code 子ノードの文字コード
+     * @param c 文字コードに対応する文字
+     */
+    private void visit(int xNode, int depth, char code, char c) {
+	final int child = xNode + code;
+	if (child >= this.size || this.doubleArray.check.get(child) != code) {
+	    return;
+	}
+	final int node = this.doubleArray.base.get(child);
+	if (code == Constants.DACheck.TERM_CODE) {
+	    // 終端ノードの接尾辞は空
+	    if (node != Constants.DABase.INIT_VALUE) {
+		this.applyIfNear(Constants.DABase.ID(node), depth);
+	    }
+	    return;
+	}
+	final int min = this.step(depth, c);
+	if (min > this.maxDistance) {
+	    return;
+	}
+	if (node >= 0) {
+	    this.walk(node, depth + 1, min == this.maxDistance);
+	} else if (node != Constants.DABase.INIT_VALUE) {
+	    this.walkSuffix(Constants.DABase.ID(node), depth + 1);
+	}
+    }
+
+    /**
+     * TAIL配列に格納された接尾辞を辿る
+     *
+     * @param id キーワードのID
+     * @param depth 接尾辞の直前までの文字数
+     */
+    private void walkSuffix(int id, int depth) {
+	final int begin = this.doubleArray.begins.get(id);
+	final int length = this.doubleArray.lengths.get(id);
+	for (int i = 0; i < length; i++) {
+	    if (this.step(depth + i, this.doubleArray.tail.get(begin + i)) > this.maxDistance) {
+		return;
+	    }
+	}
+	this.applyIfNear(id, depth + length);
+    }
+
+    /**
+     * キーとクエリの編集距離が許容範囲内の場合にコールバック関数を実行する
+     *
+     * @param id キーワードのID
+     * @param depth キーの文字数
+     */
+    private void applyIfNear(int id, int depth) {
+	final int distance = this.rows[depth * this.width + this.width - 1];
+	if (distance <= this.maxDistance) {
+	    this.func.apply(id, distance);
+	}
+    }
+
+    /**
+     * 一文字読み進めた次の行を計算する
+     * 各要素は許容する距離 + 1 で打ち切る。
+     *
+     * @param depth 現在の行の深さ
+     * @param code 読み進める文字
+     * @return 次の行の最小値 (許容する距離を超える場合は打ち切る)
+     */
+    private int step(int depth, char code) {
+	final int prev = depth * this.width;
+	final int next = prev + this.width;
+	if (next + this.width > this.rows.length) {
+	    this.rows = Arrays.copyOf(this.rows, Math.max(next + this.width, this.rows.length * 2));
+	    this.codes = Arrays.copyOf(this.codes, this.rows.length);
+	}
+	final int[] rows = this.rows;
+	final int limit = this.maxDistance + 1;
+	int min = rows[next] = Math.min(depth + 1, limit);
+	for (int j = 1; j < this.width; j++) {
+	    final int replace = rows[prev + j - 1] + (this.query.charAt(j - 1) == code ? 0 : 1);
+	    final int delete = rows[prev + j] + 1;
+	    final int insert = rows[next + j - 1] + 1;
+	    final int cell = Math.min(Math.min(replace, delete), Math.min(insert, limit));
+	    rows[next + j] = cell;
+	    min = Math.min(min, cell);
+	}
+	return min;
+    }
+}
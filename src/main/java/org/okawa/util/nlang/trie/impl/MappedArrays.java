@@ -0,0 +1,305 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 配列のバイナリ書き出し・メモリマップ読み込み・ヒープ外確保用ユーティリティ
+ * 各配列は8バイト境界に揃えて書き出され、読み込み時はヒープへコピーせずにマップした
+ * バッファをそのまま返す。配列毎に個別にマップするため、ファイル全体は2GBを超えても良い。
+ */
+public final class MappedArrays {
+    /** 書き出し時に使用する一時バッファのサイズ */
+    private static final int CHUNK_SIZE = 1 << 16;
+    /** 配列の境界 */
+    private static final int ALIGNMENT = 8;
+
+    /** インスタンス化不可 */
+    private MappedArrays() {
+    }
+
+    /**
+     * 配列の境界まで切り上げたバイト数を返す
+     *
+     * @param size バイト数
+     */
+    public static long align(long size) {
+	return (size + MappedArrays.ALIGNMENT - 1) & ~(long) (MappedArrays.ALIGNMENT - 1);
+    }
+
+    /**
+     * int配列をバイト数に換算 (境界込み)
+     *
+     * @param count 要素数
+     */
+    public static long intsSize(int count) {
+	return MappedArrays.align((long) count * 4);
+    }
+
+    /**
+     * char配列をバイト数に換算 (境界込み)
+     *
+     * @param count 要素数
+     */
+    public static long charsSize(int count) {
+	return MappedArrays.align((long) count * 2);
+    }
+
+    /**
+     * long配列をバイト数に換算 (境界込み)
+     *
+     * @param count 要素数
+     */
+    public static long longsSize(int count) {
+	return (long) count * 8;
+    }
+
+    /**
+     * byte配列をバイト数に換算 (境界込み)
+     *
+     * @param count 要素数
+     */
+    public static long bytesSize(int count) {
+	return MappedArrays.align(count);
+    }
+
+    /**
+     * バッファの内容を全てチャネルへ書き出す
+     *
+     * @param channel 書き出し先
+     * @param buffer 書き出すバッファ
+     */
+    public static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+    }
+
+    /**
+     * 境界までの詰め物を書き出す
+     *
+     * @param channel 書き出し先
+     * @param size 書き出したバイト数
+     */
+    private static void pad(WritableByteChannel channel, long size) throws IOException {
+	final int padding = (int) (MappedArrays.align(size) - size);
+	if (padding > 0) {
+	    MappedArrays.writeFully(channel, ByteBuffer.allocate(padding));
+	}
+    }
+
+    /**
+     * int配列を書き出す (先頭からlimitまで)
+     *
+     * @param channel 書き出し先
+     * @param src 書き出す配列
+     * @param order バイトオーダー
+     */
+    public static void writeInts(WritableByteChannel channel, IntBuffer src, ByteOrder order) throws IOException {
+	final ByteBuffer chunk = ByteBuffer.allocate(MappedArrays.CHUNK_SIZE).order(order);
+	final IntBuffer view = chunk.asIntBuffer();
+	final IntBuffer in = src.duplicate();
+	final int length = in.limit();
+	for (int i = 0; i < length; i += view.capacity()) {
+	    final int n = Math.min(view.capacity(), length - i);
+	    in.limit(i + n).position(i);
+	    view.clear();
+	    view.put(in);
+	    chunk.clear().limit(n * 4);
+	    MappedArrays.writeFully(channel, chunk);
+	}
+	MappedArrays.pad(channel, (long) length * 4);
+    }
+
+    /**
+     * char配列を書き出す (先頭からlimitまで)
+     *
+     * @param channel 書き出し先
+     * @param src 書き出す配列
+     * @param order バイトオーダー
+     */
+    public static void writeChars(WritableByteChannel channel, CharBuffer src, ByteOrder order) throws IOException {
+	final ByteBuffer chunk = ByteBuffer.allocate(MappedArrays.CHUNK_SIZE).order(order);
+	final CharBuffer view = chunk.asCharBuffer();
+	final CharBuffer in = src.duplicate();
+	final int length = in.limit();
+	for (int i = 0; i < length; i += view.capacity()) {
+	    final int n = Math.min(view.capacity(), length - i);
+	    in.limit(i + n).position(i);
+	    view.clear();
+	    view.put(in);
+	    chunk.clear().limit(n * 2);
+	    MappedArrays.writeFully(channel, chunk);
+	}
+	MappedArrays.pad(channel, (long) length * 2);
+    }
+
+    /**
+     * long配列を書き出す (先頭からlimitまで)
+     *
+     * @param channel 書き出し先
+     * @param src 書き出す配列
+     * @param order バイトオーダー
+     */
+    public static void writeLongs(WritableByteChannel channel, LongBuffer src, ByteOrder order) throws IOException {
+	final ByteBuffer chunk = ByteBuffer.allocate(MappedArrays.CHUNK_SIZE).order(order);
+	final LongBuffer view = chunk.asLongBuffer();
+	final LongBuffer in = src.duplicate();
+	final int length = in.limit();
+	for (int i = 0; i < length; i += view.capacity()) {
+	    final int n = Math.min(view.capacity(), length - i);
+	    in.limit(i + n).position(i);
+	    view.clear();
+	    view.put(in);
+	    chunk.clear().limit(n * 8);
+	    MappedArrays.writeFully(channel, chunk);
+	}
+    }
+
+    /**
+     * byte配列を書き出す (先頭からlimitまで)
+     *
+     * @param channel 書き出し先
+     * @param src 書き出す配列
+     */
+    public static void writeBytes(WritableByteChannel channel, ByteBuffer src) throws IOException {
+	final ByteBuffer in = src.duplicate();
+	in.position(0);
+	MappedArrays.writeFully(channel, in);
+	MappedArrays.pad(channel, src.limit());
+    }
+
+    /**
+     * ヘッダを読み込む
+     * 先頭のマジックナンバーからバイトオーダーを判定し、返すバッファのオーダーとして設定する
+     *
+     * @param channel 読み込み元
+     * @param position ヘッダの開始位置
+     * @param size ヘッダのバイト数
+     * @param magic マジックナンバー
+     * @return マジックナンバー直後に位置づけられたバッファ
+     */
+    public static ByteBuffer readHeader(FileChannel channel, long position, int size, int magic) throws IOException {
+	final ByteBuffer header = ByteBuffer.allocate(size);
+	while (header.hasRemaining()) {
+	    if (channel.read(header, position + header.position()) < 0) {
+		throw new IOException("unexpected end of file at " + position);
+	    }
+	}
+	header.flip();
+	if (header.order(ByteOrder.BIG_ENDIAN).getInt(0) != magic) {
+	    header.order(ByteOrder.LITTLE_ENDIAN);
+	    if (header.getInt(0) != magic) {
+		throw new IOException("bad magic number at " + position);
+	    }
+	}
+	header.position(4);
+	return header;
+    }
+
+    /**
+     * ヒープ外にネイティブのバイトオーダーでint配列を確保する
+     * 確保した領域はGCの走査対象とならず、バッファが回収された時点で解放される。
+     *
+     * @param count 要素数
+     */
+    public static IntBuffer allocateInts(int count) {
+	return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * ヒープ外にネイティブのバイトオーダーでchar配列を確保する
+     * 確保した領域はGCの走査対象とならず、バッファが回収された時点で解放される。
+     *
+     * @param count 要素数
+     */
+    public static CharBuffer allocateChars(int count) {
+	return ByteBuffer.allocateDirect(count * 2).order(ByteOrder.nativeOrder()).asCharBuffer();
+    }
+
+    /**
+     * ヒープ外にネイティブのバイトオーダーでlong配列を確保する
+     * 確保した領域はGCの走査対象とならず、バッファが回収された時点で解放される。
+     *
+     * @param count 要素数
+     */
+    public static LongBuffer allocateLongs(int count) {
+	return ByteBuffer.allocateDirect(count * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    /**
+     * ヒープ外にbyte配列を確保する
+     * 確保した領域はGCの走査対象とならず、バッファが回収された時点で解放される。
+     *
+     * @param count 要素数
+     */
+    public static ByteBuffer allocateBytes(int count) {
+	return ByteBuffer.allocateDirect(count);
+    }
+
+    /**
+     * 文字列をヒープ外のchar配列へコピーする
+     *
+     * @param sequence コピー元
+     */
+    public static CharBuffer allocateChars(CharSequence sequence) {
+	final CharBuffer buffer = MappedArrays.allocateChars(sequence.length());
+	for (int i = 0; i < sequence.length(); i++) {
+	    buffer.put(i, sequence.charAt(i));
+	}
+	return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * int配列を読み込み専用でマップする
+     *
+     * @param channel 読み込み元
+     * @param position 配列の開始位置
+     * @param count 要素数
+     * @param order バイトオーダー
+     */
+    public static IntBuffer mapInts(FileChannel channel, long position, int count, ByteOrder order) throws IOException {
+	return channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 4).order(order).asIntBuffer();
+    }
+
+    /**
+     * long配列を読み込み専用でマップする
+     *
+     * @param channel 読み込み元
+     * @param position 配列の開始位置
+     * @param count 要素数
+     * @param order バイトオーダー
+     */
+    public static LongBuffer mapLongs(FileChannel channel, long position, int count, ByteOrder order) throws IOException {
+	return channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 8).order(order).asLongBuffer();
+    }
+
+    /**
+     * byte配列を読み込み専用でマップする
+     *
+     * @param channel 読み込み元
+     * @param position 配列の開始位置
+     * @param count 要素数
+     */
+    public static ByteBuffer mapBytes(FileChannel channel, long position, int count) throws IOException {
+	return channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+    }
+
+    /**
+     * char配列を読み込み専用でマップする
+     *
+     * @param channel 読み込み元
+     * @param position 配列の開始位置
+     * @param count 要素数
+     * @param order バイトオーダー
+     */
+    public static CharBuffer mapChars(FileChannel channel, long position, int count, ByteOrder order) throws IOException {
+	return channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 2).order(order).asCharBuffer();
+    }
+}
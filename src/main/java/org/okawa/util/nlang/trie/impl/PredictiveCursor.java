@@ -0,0 +1,231 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * Double-Arrayの予測検索 (前方一致検索) を行うカーソル
+ * 接頭辞に対応するノードから子ノードを文字コードの昇順に深さ優先で辿り、キーを辞書順に
+ * 列挙する。子ノードはエッジとして使用されている文字コードの一覧で列挙し、TAIL配列に
+ * 到達した時点で接尾辞を連結してキーを復元する。
+ * 探索の状態は辿っている経路のみを保持し、nextを呼び出す毎に次のキーまで探索を進める
+ * ため、処理量は取り出した件数に比例する。
+ */
+final class PredictiveCursor implements TrieSearcher.Cursor {
+    /** 経路の初期容量 */
+    private static final int INIT_DEPTH = 16;
+
+    /** Double-Array実データ */
+    private final DoubleArrayBuffer doubleArray;
+    /** エッジとして使用されている文字コード (対応する文字の昇順) */
+    private final char[] alphabet;
+    /** BASE/CHECK配列長 */
+    private final int size;
+    /** 経路上の各ノードのBASE値 */
+    private int[] bases = new int[PredictiveCursor.INIT_DEPTH];
+    /** 経路上の各ノードで次に調べる文字コードのインデックス */
+    private int[] positions = new int[PredictiveCursor.INIT_DEPTH];
+    /** 経路上の各ノードまでのキーの文字数 */
+    private int[] keyLengths = new int[PredictiveCursor.INIT_DEPTH];
+    /** 経路の深さ */
+    private int depth = 0;
+    /** 接頭辞がTAIL配列の接尾辞の途中で終わる場合、唯一のキーのID (それ以外は-1) */
+    private int pending = -1;
+    /** 唯一のキーの接尾辞を除いた文字数 */
+    private int pendingLength;
+    /** 残りの取り出し可能な件数 */
+    private int remaining;
+    /** 現在のキー */
+    private final StringBuilder key = new StringBuilder();
+    /** 現在のキーのID */
+    private int id = -1;
+
+    /**
+     * 接頭辞に対応するノードまで辿ってインスタンス化
+     *
+     * @param doubleArray 検索対象のDouble-Array
+     * @param alphabet エッジとして使用されている文字コード (対応する文字の昇順)
+     * @param prefix 接頭辞
+     * @param limit 取り出す最大件数
+     */
+    PredictiveCursor(DoubleArrayBuffer doubleArray, char[] alphabet, CharSequence prefix, int limit) {
+	this.doubleArray = doubleArray;
+	this.alphabet = alphabet;
+	this.size = doubleArray.check.limit();
+	this.remaining = limit;
+	this.key.append(prefix);
+
+	final IntBuffer base = doubleArray.base;
+	final CharBuffer check = doubleArray.check;
+	final int length = prefix.length();
+	int node = base.get(0);
+	for (int i = 0; i < length; i++) {
+	    final char code = doubleArray.codeMap.code(prefix.charAt(i));
+	    final int index = node + code;
+	    if (code == Constants.DACheck.TERM_CODE || index >= this.size || check.get(index) != code) {
+		return;
+	    }
+	    node = base.get(index);
+	    if (node < 0) {
+		// 接尾辞に到達した場合、接頭辞の残りが接尾辞の先頭と一致すれば一件のみ
+		if (node != Constants.DABase.INIT_VALUE && this.suffixStartsWith(Constants.DABase.ID(node), prefix, i + 1)) {
+		    this.pending = Constants.DABase.ID(node);
+		    this.pendingLength = i + 1;
+		}
+		return;
+	    }
+	}
+	this.push(node, length);
+    }
+
+    /**
+     * CHECK配列からエッジとして使用されている文字コードを収集する
+     *
+     * @param check CHECK配列
+     * @return 文字コード (昇順)
+     */
+    static char[] alphabet(CharBuffer check) {
+	final BitSet codes = new BitSet(Constants.DACheck.LIMIT_CODE + 1);
+	for (int node = 1, size = check.limit(); node < size; node++) {
+	    final char code = check.get(node);
+	    if (code != Constants.DACheck.EMPTY_CODE) {
+		codes.set(code);
+	    }
+	}
+	final char[] alphabet = new char[codes.cardinality()];
+	for (int c = codes.nextSetBit(0), i = 0; c >= 0; c = codes.nextSetBit(c + 1)) {
+	    alphabet[i++] = (char) c;
+	}
+	return alphabet;
+    }
+
+    /**
+     * 接尾辞が接頭辞の残りで始まるか
+     *
+     * @param id 接尾辞を持つキーワードのID
+     * @param prefix 接頭辞
+     * @param from 接頭辞の未処理部分の開始位置
+     */
+    private boolean suffixStartsWith(int id, CharSequence prefix, int from) {
+	final int rest = prefix.length() - from;
+	if (this.doubleArray.lengths.get(id) < rest) {
+	    return false;
+	}
+	final int begin = this.doubleArray.begins.get(id);
+	for (int i = 0; i < rest; i++) {
+	    if (this.doubleArray.tail.get(begin + i) != prefix.charAt(from + i)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * 経路にノードを追加する
+     *
+     * @param xNode ノードのBASE値
+     * @param keyLength ノードまでのキーの文字数
+     */
+    private void push(int xNode, int keyLength) {
+	if (this.depth == this.bases.length) {
+	    this.bases = Arrays.copyOf(this.bases, this.depth * 2);
+	    this.positions = Arrays.copyOf(this.positions, this.depth * 2);
+	    this.keyLengths = Arrays.copyOf(this.keyLengths, this.depth * 2);
+	}
+	this.bases[this.depth] = xNode;
+	this.positions[this.depth] = 0;
+	this.keyLengths[this.depth] = keyLength;
+	this.depth++;
+    }
+
+    /**
+     * 接尾辞を連結してキーを確定させる
+     *
+     * @param id キーワードのID
+     * @param from キーの接尾辞を除いた文字数
+     */
+    private void setKey(int id, int from) {
+	final int begin = this.doubleArray.begins.get(id);
+	final int length = this.doubleArray.lengths.get(id);
+	this.key.setLength(from);
+	for (int i = 0; i < length; i++) {
+	    this.key.append(this.doubleArray.tail.get(begin + i));
+	}
+	this.id = id;
+    }
+
+    @Override
+    public boolean next() {
+	if (this.remaining <= 0) {
+	    return this.clear();
+	}
+	if (this.pending >= 0) {
+	    // 接頭辞のうち接尾辞に含まれる部分は接尾辞から復元する
+	    this.setKey(this.pending, this.pendingLength);
+	    this.pending = -1;
+	    this.remaining--;
+	    return true;
+	}
+	final IntBuffer base = this.doubleArray.base;
+	final CharBuffer check = this.doubleArray.check;
+	while (this.depth > 0) {
+	    final int top = this.depth - 1;
+	    final int xNode = this.bases[top];
+	    int p = this.positions[top];
+	    // 次の子ノードを文字の昇順に探す
+	    while (p < this.alphabet.length) {
+		final char code = this.alphabet[p];
+		final int child = xNode + code;
+		if (child < this.size && check.get(child) == code) {
+		    break;
+		}
+		p++;
+	    }
+	    if (p == this.alphabet.length) {
+		this.depth--;
+		continue;
+	    }
+	    this.positions[top] = p + 1;
+	    final char code = this.alphabet[p];
+	    final int node = base.get(xNode + code);
+	    this.key.setLength(this.keyLengths[top]);
+	    if (code != Constants.DACheck.TERM_CODE) {
+		this.key.append(this.doubleArray.codeMap.charOf(code));
+	    }
+	    if (node >= 0) {
+		this.push(node, this.key.length());
+	    } else if (node != Constants.DABase.INIT_VALUE) {
+		this.setKey(Constants.DABase.ID(node), this.key.length());
+		this.remaining--;
+		return true;
+	    }
+	}
+	return this.clear();
+    }
+
+    /**
+     * 列挙を終了する
+     *
+     * @return 常にfalse
+     */
+    private boolean clear() {
+	this.remaining = 0;
+	this.depth = 0;
+	this.id = -1;
+	this.key.setLength(0);
+	return false;
+    }
+
+    @Override
+    public CharSequence key() {
+	return this.key;
+    }
+
+    @Override
+    public int id() {
+	return this.id;
+    }
+}
@@ -0,0 +1,237 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * キーワード一覧の整列 (MSD基数ソート)
+ * UTF-16の文字コード単位で先頭から振り分けるため、結果はString#compareToの順序と一致する。
+ * 文字列の終端は全ての文字より小さいものとして扱う。安定ソートであり、同一のキーワード
+ * は元の順序を保つ。
+ */
+final class RadixSort {
+    /** 挿入ソートに切り替える要素数 */
+    private static final int INSERTION_THRESHOLD = 32;
+    /** 文字コードの幅が要素数のこの倍数を超える場合はマージソートに切り替える */
+    private static final int SPARSE_RATIO = 8;
+    /** 並列に整列する最小要素数 */
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    /** 整列対象のキーワード */
+    private final String[] keys;
+    /** 整列対象のキーワードの元のインデックス */
+    private final int[] order;
+    /** 作業領域 (キーワード) */
+    private final String[] keysAux;
+    /** 作業領域 (インデックス) */
+    private final int[] orderAux;
+
+    /**
+     * 整列対象からインスタンス化
+     *
+     * @param keys 整列対象のキーワード
+     */
+    private RadixSort(String[] keys) {
+	this.keys = keys;
+	this.order = new int[keys.length];
+	for (int i = 0; i < keys.length; i++) {
+	    this.order[i] = i;
+	}
+	this.keysAux = new String[keys.length];
+	this.orderAux = new int[keys.length];
+    }
+
+    /**
+     * キーワード一覧をその場で整列する
+     *
+     * @param keys 整列対象のキーワード
+     * @param parallel trueの場合は振り分けた範囲毎に並列に整列
+     * @return 整列後の各位置に置かれたキーワードの元のインデックス
+     */
+    public static int[] sort(String[] keys, boolean parallel) {
+	final RadixSort sorter = new RadixSort(keys);
+	if (parallel && keys.length >= RadixSort.PARALLEL_THRESHOLD) {
+	    new Task(sorter, 0, keys.length, 0).invoke();
+	} else {
+	    sorter.sort(0, keys.length, 0, null);
+	}
+	return sorter.order;
+    }
+
+    /**
+     * 文字コードを振り分け用の値に変換 (終端は0)
+     *
+     * @param key キーワード
+     * @param depth 参照する位置
+     */
+    private static int code(String key, int depth) {
+	return depth < key.length() ? key.charAt(depth) + 1 : 0;
+    }
+
+    /**
+     * 整列実処理
+     * 範囲の全キーワードのdepth文字目で振り分け、各範囲を一文字先で再帰的に整列する。
+     *
+     * @param lo 整列範囲の開始インデックス
+     * @param hi 整列範囲の終了インデックス (このインデックスは含まない)
+     * @param depth 振り分けに使用する文字の位置
+     * @param tasks 並列に整列する場合、振り分けた範囲のタスクの格納先 (逐次の場合はnull)
+     */
+    private void sort(int lo, int hi, int depth, List<Task> tasks) {
+	while (hi - lo > RadixSort.INSERTION_THRESHOLD) {
+	    int min = Integer.MAX_VALUE;
+	    int max = Integer.MIN_VALUE;
+	    for (int i = lo; i < hi; i++) {
+		final int c = RadixSort.code(this.keys[i], depth);
+		min = Math.min(min, c);
+		max = Math.max(max, c);
+	    }
+	    if (min == max) {
+		if (min == 0) {
+		    // 全て同一のキーワード
+		    return;
+		}
+		depth++;
+		continue;
+	    }
+	    if (max - min > (hi - lo) * RadixSort.SPARSE_RATIO) {
+		// 疎な文字コードの振り分けは計数配列の走査が支配的となるため比較で整列
+		this.mergeSort(lo, hi, depth);
+		return;
+	    }
+
+	    // 計数ソート (安定)
+	    final int[] starts = new int[max - min + 2];
+	    for (int i = lo; i < hi; i++) {
+		starts[RadixSort.code(this.keys[i], depth) - min + 1]++;
+	    }
+	    starts[0] = lo;
+	    for (int c = 1; c < starts.length; c++) {
+		starts[c] += starts[c - 1];
+	    }
+	    final int[] positions = starts.clone();
+	    for (int i = lo; i < hi; i++) {
+		final int p = positions[RadixSort.code(this.keys[i], depth) - min]++;
+		this.keysAux[p] = this.keys[i];
+		this.orderAux[p] = this.order[i];
+	    }
+	    System.arraycopy(this.keysAux, lo, this.keys, lo, hi - lo);
+	    System.arraycopy(this.orderAux, lo, this.order, lo, hi - lo);
+
+	    // 終端で振り分けた範囲は全て同一のキーワードのため整列済み
+	    for (int c = min == 0 ? 1 : 0; c < starts.length - 1; c++) {
+		if (starts[c + 1] - starts[c] > 1) {
+		    if (tasks != null && starts[c + 1] - starts[c] >= RadixSort.PARALLEL_THRESHOLD) {
+			tasks.add(new Task(this, starts[c], starts[c + 1], depth + 1));
+		    } else {
+			this.sort(starts[c], starts[c + 1], depth + 1, null);
+		    }
+		}
+	    }
+	    return;
+	}
+	this.insertionSort(lo, hi, depth);
+    }
+
+    /**
+     * 挿入ソート (安定)
+     *
+     * @param lo 整列範囲の開始インデックス
+     * @param hi 整列範囲の終了インデックス (このインデックスは含まない)
+     * @param depth 比較を開始する文字の位置 (これより前は全て一致)
+     */
+    private void insertionSort(int lo, int hi, int depth) {
+	for (int i = lo + 1; i < hi; i++) {
+	    final String key = this.keys[i];
+	    final int index = this.order[i];
+	    int j = i;
+	    for (; j > lo && RadixSort.compare(this.keys[j - 1], key, depth) > 0; j--) {
+		this.keys[j] = this.keys[j - 1];
+		this.order[j] = this.order[j - 1];
+	    }
+	    this.keys[j] = key;
+	    this.order[j] = index;
+	}
+    }
+
+    /**
+     * マージソート (安定)
+     *
+     * @param lo 整列範囲の開始インデックス
+     * @param hi 整列範囲の終了インデックス (このインデックスは含まない)
+     * @param depth 比較を開始する文字の位置 (これより前は全て一致)
+     */
+    private void mergeSort(int lo, int hi, int depth) {
+	if (hi - lo <= RadixSort.INSERTION_THRESHOLD) {
+	    this.insertionSort(lo, hi, depth);
+	    return;
+	}
+	final int mid = (lo + hi) >>> 1;
+	this.mergeSort(lo, mid, depth);
+	this.mergeSort(mid, hi, depth);
+	if (RadixSort.compare(this.keys[mid - 1], this.keys[mid], depth) <= 0) {
+	    return;
+	}
+	System.arraycopy(this.keys, lo, this.keysAux, lo, hi - lo);
+	System.arraycopy(this.order, lo, this.orderAux, lo, hi - lo);
+	for (int i = lo, l = lo, r = mid; i < hi; i++) {
+	    if (r >= hi || (l < mid && RadixSort.compare(this.keysAux[l], this.keysAux[r], depth) <= 0)) {
+		this.keys[i] = this.keysAux[l];
+		this.order[i] = this.orderAux[l++];
+	    } else {
+		this.keys[i] = this.keysAux[r];
+		this.order[i] = this.orderAux[r++];
+	    }
+	}
+    }
+
+    /**
+     * 指定位置以降の文字列を比較
+     *
+     * @param a 左辺値
+     * @param b 右辺値
+     * @param depth 比較を開始する文字の位置
+     */
+    private static int compare(String a, String b, int depth) {
+	final int length = Math.min(a.length(), b.length());
+	for (int i = depth; i < length; i++) {
+	    final int diff = a.charAt(i) - b.charAt(i);
+	    if (diff != 0) {
+		return diff;
+	    }
+	}
+	return a.length() - b.length();
+    }
+
+    /**
+     * 振り分けた範囲を並列に整列するタスク
+     * 各タスクは互いに重ならない範囲の配列と作業領域のみを使用する。
+     */
+    private static final class Task extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	/** 整列処理 */
+	private final RadixSort sorter;
+	/** 整列範囲の開始インデックス */
+	private final int lo;
+	/** 整列範囲の終了インデックス (このインデックスは含まない) */
+	private final int hi;
+	/** 振り分けに使用する文字の位置 */
+	private final int depth;
+
+	Task(RadixSort sorter, int lo, int hi, int depth) {
+	    this.sorter = sorter;
+	    this.lo = lo;
+	    this.hi = hi;
+	    this.depth = depth;
+	}
+
+	@Override
+	protected void compute() {
+	    final List<Task> tasks = new ArrayList<Task>();
+	    this.sorter.sort(this.lo, this.hi, this.depth, tasks);
+	    ForkJoinTask.invokeAll(tasks);
+	}
+    }
+}
@@ -0,0 +1,186 @@
+package org.okawa.util.nlang.trie.impl;
+
+/**
+ * TAIL配列の接尾辞の共有
+ * 活用語尾のように共通の末尾を持つ接尾辞は多い。ある接尾辞が別の接尾辞の末尾と一致する
+ * 場合は、その接尾辞を格納せずに長い方の末尾を指すようにして、各文字列を一度だけ格納する。
+ *
+ * 接尾辞を逆順にした文字列で整列すると、他の接尾辞の末尾と一致する接尾辞は整列順で直後の
+ * 接尾辞の末尾と一致する。整列の逆順に走査し、直後の接尾辞の末尾と一致すればその位置を
+ * 開始位置とし、一致しなければ新たに格納する。接尾辞の開始位置と長さの意味は変わらない
+ * ため、検索側の処理は変わらない。
+ *
+ * 整列は作業用の文字列を作らず、ID配列上で行う (三分岐の基数クイックソート)。
+ */
+final class TailCompactor {
+    /** 挿入ソートに切り替える要素数 */
+    private static final int INSERTION_THRESHOLD = 16;
+
+    /** TAIL配列 各接尾辞開始位置 */
+    private final int[] begins;
+    /** TAIL配列 各接尾辞長 */
+    private final int[] lengths;
+    /** TAIL配列 */
+    private final char[] tail;
+
+    private TailCompactor(int[] begins, int[] lengths, char[] tail) {
+	this.begins = begins;
+	this.lengths = lengths;
+	this.tail = tail;
+    }
+
+    /**
+     * 接尾辞を共有してTAIL配列を詰める
+     * 各接尾辞の開始位置を書き換え、TAIL配列を詰めた内容で置き換える。
+     *
+     * @param begins TAIL配列 各接尾辞開始位置
+     * @param lengths TAIL配列 各接尾辞長
+     * @param tail TAIL配列
+     */
+    static void compact(DynamicIntArray begins, DynamicIntArray lengths, StringBuilder tail) {
+	final int size = begins.size();
+	if (size < 2) {
+	    return;
+	}
+	// 整列中は文字を配列から直接参照する
+	final char[] chars = new char[tail.length()];
+	tail.getChars(0, chars.length, chars, 0);
+	final TailCompactor compactor = new TailCompactor(begins.toArray(), lengths.toArray(), chars);
+	final int[] ids = new int[size];
+	for (int id = 0; id < size; id++) {
+	    ids[id] = id;
+	}
+	compactor.sort(ids, 0, size, 0);
+
+	// 整列の逆順に、直後の接尾辞の末尾と一致するものはその位置を指す
+	tail.setLength(0);
+	final int[] newBegins = new int[size];
+	for (int i = size - 1; i >= 0; i--) {
+	    final int id = ids[i];
+	    final int length = compactor.lengths[id];
+	    if (i + 1 < size && compactor.endsWith(ids[i + 1], id)) {
+		final int next = ids[i + 1];
+		newBegins[id] = newBegins[next] + compactor.lengths[next] - length;
+	    } else {
+		newBegins[id] = tail.length();
+		tail.append(chars, compactor.begins[id], length);
+	    }
+	}
+	for (int id = 0; id < size; id++) {
+	    begins.set(id, newBegins[id]);
+	}
+	tail.trimToSize();
+    }
+
+    /**
+     * 接尾辞の末尾からdepth文字目 (終端は-1)
+     *
+     * @param id 接尾辞のID
+     * @param depth 末尾からの位置
+     */
+    private int charAt(int id, int depth) {
+	final int length = this.lengths[id];
+	return depth < length ? this.tail[this.begins[id] + length - 1 - depth] : -1;
+    }
+
+    /**
+     * 接尾辞superの末尾がsuffixと一致する場合true
+     *
+     * @param superId 長い方の接尾辞のID
+     * @param suffixId 末尾と比較する接尾辞のID
+     */
+    private boolean endsWith(int superId, int suffixId) {
+	final int length = this.lengths[suffixId];
+	if (length > this.lengths[superId]) {
+	    return false;
+	}
+	for (int depth = 0; depth < length; depth++) {
+	    if (this.charAt(superId, depth) != this.charAt(suffixId, depth)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * 接尾辞を逆順にした文字列の昇順に整列する
+     * 範囲をdepth文字目で三分割し、一致する範囲は一文字先で整列する (ループで処理し、
+     * 再帰の深さが接尾辞長に比例しないようにする)。
+     *
+     * @param ids 整列対象のID
+     * @param lo 整列範囲の開始インデックス
+     * @param hi 整列範囲の終了インデックス (このインデックスは含まない)
+     * @param depth 比較に使用する末尾からの位置
+     */
+    private void sort(int[] ids, int lo, int hi, int depth) {
+	while (hi - lo > TailCompactor.INSERTION_THRESHOLD) {
+	    final int pivot = this.median(ids, lo, (lo + hi) >>> 1, hi - 1, depth);
+	    // [lo, lt) < pivot, [lt, gt) == pivot, [gt, hi) > pivot
+	    int lt = lo;
+	    int gt = hi;
+	    int i = lo;
+	    while (i < gt) {
+		final int c = this.charAt(ids[i], depth);
+		if (c < pivot) {
+		    TailCompactor.swap(ids, lt++, i++);
+		} else if (c > pivot) {
+		    TailCompactor.swap(ids, i, --gt);
+		} else {
+		    i++;
+		}
+	    }
+	    this.sort(ids, lo, lt, depth);
+	    this.sort(ids, gt, hi, depth);
+	    if (pivot < 0) {
+		// 終端で一致したものは同一の接尾辞
+		return;
+	    }
+	    lo = lt;
+	    hi = gt;
+	    depth++;
+	}
+	this.insertionSort(ids, lo, hi, depth);
+    }
+
+    /**
+     * 三つの位置の文字の中央値
+     */
+    private int median(int[] ids, int a, int b, int c, int depth) {
+	final int x = this.charAt(ids[a], depth);
+	final int y = this.charAt(ids[b], depth);
+	final int z = this.charAt(ids[c], depth);
+	return x < y ? (y < z ? y : Math.max(x, z)) : (x < z ? x : Math.max(y, z));
+    }
+
+    /**
+     * 挿入ソート (depth文字目以降で比較)
+     */
+    private void insertionSort(int[] ids, int lo, int hi, int depth) {
+	for (int i = lo + 1; i < hi; i++) {
+	    for (int j = i; j > lo && this.compare(ids[j - 1], ids[j], depth) > 0; j--) {
+		TailCompactor.swap(ids, j - 1, j);
+	    }
+	}
+    }
+
+    /**
+     * 逆順にした接尾辞をdepth文字目以降で比較
+     */
+    private int compare(int a, int b, int depth) {
+	for (;; depth++) {
+	    final int x = this.charAt(a, depth);
+	    final int y = this.charAt(b, depth);
+	    if (x != y) {
+		return x - y;
+	    } else if (x < 0) {
+		return 0;
+	    }
+	}
+    }
+
+    private static void swap(int[] ids, int i, int j) {
+	final int id = ids[i];
+	ids[i] = ids[j];
+	ids[j] = id;
+    }
+}
@@ -0,0 +1,81 @@
+package org.okawa.util.nlang.trie.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8のバイト列の復号
+ * バイト列を文字列へ変換せずに検索するため、一文字ずつその場で復号する。復号した結果は
+ * 符号位置とバイト長を一つのintに詰めて返し、検索中にオブジェクトを生成しない。
+ */
+final class Utf8 {
+    /** 符号位置を格納するビット数 */
+    private static final int LENGTH_SHIFT = 21;
+    /** 符号位置を取り出すマスク */
+    private static final int CODE_POINT_MASK = (1 << Utf8.LENGTH_SHIFT) - 1;
+
+    private Utf8() {
+    }
+
+    /**
+     * posの位置から一文字を復号する
+     * 不正なバイト列 (継続バイトの不足、冗長な表現、サロゲートの符号位置、U+10FFFFを超える
+     * 符号位置) およびtoを超える文字は復号しない。
+     *
+     * @param src 対象とするバイト列 (位置とリミットは参照しない)
+     * @param pos 復号する位置
+     * @param to バイト列の終了位置 (この位置は含まない)
+     * @return 符号位置とバイト長を詰めた値、復号できない場合は-1
+     */
+    static int decode(ByteBuffer src, int pos, int to) {
+	if (pos >= to) {
+	    return -1;
+	}
+	final int b0 = src.get(pos);
+	if (b0 >= 0) { // ASCII
+	    return (1 << Utf8.LENGTH_SHIFT) | b0;
+	}
+	final int length;
+	int cp;
+	int min;
+	if ((b0 & 0xE0) == 0xC0) {
+	    length = 2;
+	    cp = b0 & 0x1F;
+	    min = 0x80;
+	} else if ((b0 & 0xF0) == 0xE0) {
+	    length = 3;
+	    cp = b0 & 0x0F;
+	    min = 0x800;
+	} else if ((b0 & 0xF8) == 0xF0) {
+	    length = 4;
+	    cp = b0 & 0x07;
+	    min = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+	} else {
+	    return -1;
+	}
+	if (to - pos < length) {
+	    return -1;
+	}
+	for (int i = 1; i < length; i++) {
+	    final int b = src.get(pos + i);
+	    if ((b & 0xC0) != 0x80) {
+		return -1;
+	    }
+	    cp = (cp << 6) | (b & 0x3F);
+	}
+	if (cp < min || cp > Character.MAX_CODE_POINT
+	    || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+	    return -1;
+	}
+	return (length << Utf8.LENGTH_SHIFT) | cp;
+    }
+
+    /** 復号した値の符号位置 */
+    static int codePoint(int unit) {
+	return unit & Utf8.CODE_POINT_MASK;
+    }
+
+    /** 復号した値のバイト長 */
+    static int length(int unit) {
+	return unit >>> Utf8.LENGTH_SHIFT;
+    }
+}
@@ -0,0 +1,125 @@
+package org.okawa.util.nlang;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.okawa.util.nlang.dict.Lexeme;
+import org.okawa.util.nlang.trie.Trie;
+import org.okawa.util.nlang.trie.TrieBuilder;
+
+/**
+ * テスト用のキーと語彙素の生成
+ * ライブラリの各パッケージのテストと、テスト用のjarを通してサーバーなど他のモジュールのテストで共有する。
+ */
+public final class Fixtures {
+    /** キーに使用する文字 (UTF-8で1から4バイトになるASCII、ラテン文字、かな、漢字およびサロゲートペア) */
+    private static final String[] ALPHABET = { "a", "b", "c", "d", "é", "あ", "い", "う", "日", "本", "語", "𠮷" };
+
+    private Fixtures() {
+    }
+
+    /**
+     * テスト用の語彙素
+     */
+    public static final class Entry implements Lexeme {
+	private final String key;
+	private final String value;
+
+	public Entry(String key, String value) {
+	    this.key = key;
+	    this.value = value;
+	}
+
+	@Override
+	public String getKey() {
+	    return this.key;
+	}
+
+	@Override
+	public String getValue() {
+	    return this.value;
+	}
+
+	@Override
+	public int compareTo(Trie.Entry o) {
+	    return this.key.compareTo(o.getKey());
+	}
+    }
+
+    /**
+     * 重複しないランダムなキーを生成する (順序は未整列)
+     *
+     * @param count 件数
+     * @param maxLength キーの最大文字数 (サロゲートペアは一文字と数える)
+     * @param seed 乱数の種
+     */
+    public static List<String> randomKeys(int count, int maxLength, long seed) {
+	final Random random = new Random(seed);
+	final Set<String> keys = new LinkedHashSet<String>();
+	while (keys.size() < count) {
+	    keys.add(Fixtures.random(random, 1 + random.nextInt(maxLength)));
+	}
+	return new ArrayList<String>(keys);
+    }
+
+    /**
+     * ランダムな文字列を生成する
+     *
+     * @param random 乱数
+     * @param length 文字数 (サロゲートペアは一文字と数える)
+     */
+    public static String random(Random random, int length) {
+	final StringBuilder buffer = new StringBuilder();
+	for (int i = 0; i < length; i++) {
+	    buffer.append(Fixtures.ALPHABET[random.nextInt(Fixtures.ALPHABET.length)]);
+	}
+	return buffer.toString();
+    }
+
+    /**
+     * キーの訳語 (テストで期待する値)
+     */
+    public static String valueOf(String key) {
+	return "v:" + key;
+    }
+
+    /**
+     * キーを語彙素のリストにする (訳語はvalueOfで求めたもの)
+     */
+    public static List<Entry> entries(List<String> keys) {
+	final List<Entry> entries = new ArrayList<Entry>(keys.size());
+	for (String key : keys) {
+	    entries.add(new Entry(key, Fixtures.valueOf(key)));
+	}
+	return entries;
+    }
+
+    /**
+     * UTF-16の文字単位の編集距離 (近似検索と同じ定義)
+     */
+    public static int distance(String a, String b) {
+	final int[] prev = new int[b.length() + 1];
+	final int[] next = new int[b.length() + 1];
+	for (int j = 0; j <= b.length(); j++) {
+	    prev[j] = j;
+	}
+	for (int i = 1; i <= a.length(); i++) {
+	    next[0] = i;
+	    for (int j = 1; j <= b.length(); j++) {
+		final int replace = prev[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+		next[j] = Math.min(replace, Math.min(prev[j], next[j - 1]) + 1);
+	    }
+	    System.arraycopy(next, 0, prev, 0, next.length);
+	}
+	return prev[b.length()];
+    }
+
+    /** 何もしない登録時のコールバック */
+    public static final TrieBuilder.Callback IGNORE = new TrieBuilder.Callback() {
+	    @Override
+	    public void apply(int id) {
+	    }
+	};
+}
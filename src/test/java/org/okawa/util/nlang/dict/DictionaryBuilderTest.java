@@ -0,0 +1,143 @@
+package org.okawa.util.nlang.dict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.okawa.util.nlang.Fixtures;
+
+/**
+ * DictionaryBuilderのテスト
+ * 語彙素のリストから構築した辞書と同じIDと訳語を持つこと、重複するキー、整列されていない
+ * キー、構築後の追加、タブ区切りテキストの読み込みの扱いを確認する。
+ */
+public class DictionaryBuilderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 整列済みのランダムなキー
+     */
+    private static List<String> sortedKeys(int count, long seed) {
+	final List<String> keys = Fixtures.randomKeys(count, 6, seed);
+	Collections.sort(keys);
+	return keys;
+    }
+
+    /**
+     * 二つの辞書が同じキーに同じIDと訳語を持つことを確認する
+     */
+    private static void assertSameDictionary(Dictionary expected, Dictionary actual, List<String> keys) {
+	assertEquals(expected.getIdLimit(), actual.getIdLimit());
+	for (String key : keys) {
+	    final int id = expected.membership(key);
+	    assertEquals(key, id, actual.membership(key));
+	    assertEquals(key, expected.getTranslation(id), actual.getTranslation(id));
+	}
+    }
+
+    @Test
+    public void testMatchesDictionary() {
+	final List<String> keys = DictionaryBuilderTest.sortedKeys(3000, 31L);
+	final Dictionary expected = new Dictionary(Fixtures.entries(keys), true);
+	final DictionaryBuilder heap = new DictionaryBuilder().addAll(Fixtures.entries(keys).iterator());
+	DictionaryBuilderTest.assertSameDictionary(expected, heap.build(), keys);
+	final DictionaryBuilder direct = new DictionaryBuilder(true).addAll(Fixtures.entries(keys).iterator());
+	DictionaryBuilderTest.assertSameDictionary(expected, direct.build(), keys);
+    }
+
+    @Test
+    public void testDuplicateKeepsFirst() {
+	final DictionaryBuilder builder = new DictionaryBuilder();
+	assertTrue(builder.add("a", "first"));
+	assertFalse(builder.add("a", "second"));
+	assertTrue(builder.add("b", "b", 3));
+	assertFalse(builder.add("b", "c", 5));
+	final Dictionary dictionary = builder.build();
+	assertEquals(2, dictionary.getIdLimit());
+	assertEquals("first", dictionary.translate("a"));
+	assertEquals("b", dictionary.translate("b"));
+	assertEquals(3, dictionary.getCost(dictionary.membership("b")));
+    }
+
+    @Test
+    public void testUnsorted() {
+	final DictionaryBuilder builder = new DictionaryBuilder();
+	builder.add("b", "b");
+	try {
+	    builder.add("a", "a");
+	    fail("keys are not sorted");
+	} catch (IllegalArgumentException e) {
+	    // 期待通り
+	}
+	try {
+	    new DictionaryBuilder().addAll(new StringReader("日本\t1\nあ\t2\n"));
+	    fail("keys are not sorted");
+	} catch (IllegalArgumentException e) {
+	    // 期待通り
+	} catch (IOException e) {
+	    throw new AssertionError(e);
+	}
+    }
+
+    @Test
+    public void testAddAfterBuild() {
+	final DictionaryBuilder builder = new DictionaryBuilder();
+	builder.add("a", "a");
+	builder.build();
+	try {
+	    builder.add("b", "b");
+	    fail("add after build");
+	} catch (IllegalStateException e) {
+	    // 期待通り
+	}
+    }
+
+    @Test
+    public void testAddAllReader() throws IOException {
+	// 空行は読み飛ばし、タブを含まない行は訳語を空文字列とする、訳語中のタブはそのまま
+	final String text = "\na\tx\n\nb\nc\ty\tz\n日本\t\n日本語\tにほんご\n\n";
+	final Dictionary dictionary = new DictionaryBuilder().addAll(new StringReader(text)).build();
+	assertEquals(5, dictionary.getIdLimit());
+	assertEquals("x", dictionary.translate("a"));
+	assertEquals("", dictionary.translate("b"));
+	assertEquals("y\tz", dictionary.translate("c"));
+	assertEquals("", dictionary.translate("日本"));
+	assertEquals("にほんご", dictionary.translate("日本語"));
+	assertEquals(-1, dictionary.membership(""));
+	assertNull(dictionary.translate("c\ty"));
+    }
+
+    @Test
+    public void testAddAllPath() throws IOException {
+	final List<String> keys = DictionaryBuilderTest.sortedKeys(500, 32L);
+	final StringBuilder text = new StringBuilder();
+	for (int i = 0; i < keys.size(); i++) {
+	    text.append(keys.get(i));
+	    if (i % 7 != 0) {
+		text.append('\t').append(Fixtures.valueOf(keys.get(i)));
+	    }
+	    text.append(i % 11 == 0 ? "\n\n" : "\n");
+	}
+	final Path path = this.folder.newFile("dictionary.tsv").toPath();
+	Files.write(path, Arrays.asList(text.toString()), StandardCharsets.UTF_8);
+	final Dictionary dictionary = new DictionaryBuilder(true).addAll(path).build();
+	assertEquals(keys.size(), dictionary.getIdLimit());
+	for (int i = 0; i < keys.size(); i++) {
+	    assertEquals(keys.get(i), i % 7 == 0 ? "" : Fixtures.valueOf(keys.get(i)), dictionary.translate(keys.get(i)));
+	}
+    }
+}
@@ -0,0 +1,200 @@
+package org.okawa.util.nlang.dict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * DictionaryHolderによる差し替えとDictionarySnapshotの書き出しのテスト
+ * 検索中に差し替えを繰り返しても、一つのスナップショットからは一つの世代の辞書のみが
+ * 見え、世代が戻らないことを確認する。書き出したスナップショットは読み込み後も同じ検索
+ * 結果を返す。
+ */
+public class DictionaryHolderTest {
+    /** 差し替える世代数 */
+    private static final int GENERATIONS = 40;
+    /** 検索するスレッド数 */
+    private static final int READERS = 4;
+    /** 各世代に共通のキー */
+    private static final List<String> KEYS = Fixtures.randomKeys(500, 5, 71L);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 世代毎の辞書
+     * 共通のキーの訳語に世代を含め、世代を表すキー "#世代" を加える。
+     */
+    private static Dictionary generation(int generation) {
+	final List<Fixtures.Entry> entries = new ArrayList<Fixtures.Entry>();
+	for (String key : DictionaryHolderTest.KEYS) {
+	    entries.add(new Fixtures.Entry(key, generation + ":" + key));
+	}
+	entries.add(new Fixtures.Entry("#" + generation, String.valueOf(generation)));
+	return new Dictionary(entries, false);
+    }
+
+    /**
+     * スナップショットの世代を検索結果から求め、全てのキーが同じ世代であることを確認する
+     */
+    private static int verify(DictionarySnapshot snapshot) {
+	final String first = snapshot.translate(DictionaryHolderTest.KEYS.get(0));
+	final int generation = Integer.parseInt(first.substring(0, first.indexOf(':')));
+	for (int i = 0; i < DictionaryHolderTest.KEYS.size(); i += 7) {
+	    final String key = DictionaryHolderTest.KEYS.get(i);
+	    assertEquals(key, generation + ":" + key, snapshot.getTranslation(snapshot.membership(key)));
+	}
+	assertEquals(String.valueOf(generation), snapshot.translate("#" + generation));
+	assertEquals(-1, snapshot.membership("#" + (generation + 1)));
+	assertEquals(DictionaryHolderTest.KEYS.size() + 1, snapshot.size());
+	return generation;
+    }
+
+    @Test
+    public void testConcurrentSwap() throws Exception {
+	final DictionaryHolder holder = new DictionaryHolder(DictionaryHolderTest.generation(0).snapshot());
+	final AtomicBoolean done = new AtomicBoolean();
+	final Throwable[] errors = new Throwable[DictionaryHolderTest.READERS];
+	final Thread[] readers = new Thread[DictionaryHolderTest.READERS];
+	for (int i = 0; i < readers.length; i++) {
+	    final int index = i;
+	    readers[i] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    // 差し替えが終わるまでに少なくとも一度は検索する
+			    int last = 0;
+			    do {
+				final int generation = DictionaryHolderTest.verify(holder.get());
+				assertTrue(generation + " after " + last, generation >= last);
+				last = generation;
+			    } while (!done.get());
+			    assertEquals(DictionaryHolderTest.GENERATIONS, DictionaryHolderTest.verify(holder.get()));
+			} catch (Throwable e) {
+			    errors[index] = e;
+			}
+		    }
+		});
+	    readers[i].start();
+	}
+
+	// 直接の差し替えと、書き出したファイルを別スレッドで読み込む差し替えを交互に行う
+	final ExecutorService executor = Executors.newSingleThreadExecutor();
+	try {
+	    for (int generation = 1; generation <= DictionaryHolderTest.GENERATIONS; generation++) {
+		final DictionarySnapshot previous = holder.get();
+		if (generation % 2 == 0) {
+		    assertSame(previous, holder.swap(DictionaryHolderTest.generation(generation).snapshot()));
+		} else {
+		    final Path path = this.folder.newFile(generation + ".bin").toPath();
+		    DictionaryHolderTest.generation(generation).write(path);
+		    assertSame(previous, holder.reloadAsync(executor, new Callable<DictionarySnapshot>() {
+			    @Override
+			    public DictionarySnapshot call() throws IOException {
+				return DictionarySnapshot.load(path);
+			    }
+			}).get());
+		}
+		assertEquals(generation, DictionaryHolderTest.verify(holder.get()));
+	    }
+	} finally {
+	    executor.shutdown();
+	    done.set(true);
+	}
+	for (int i = 0; i < readers.length; i++) {
+	    readers[i].join();
+	    if (errors[i] != null) {
+		throw new AssertionError("reader " + i, errors[i]);
+	    }
+	}
+    }
+
+    @Test
+    public void testFailedReload() throws Exception {
+	final DictionarySnapshot initial = DictionaryHolderTest.generation(0).snapshot();
+	final DictionaryHolder holder = new DictionaryHolder(initial);
+	final ExecutorService executor = Executors.newSingleThreadExecutor();
+	try {
+	    holder.reloadAsync(executor, new Callable<DictionarySnapshot>() {
+		    @Override
+		    public DictionarySnapshot call() throws IOException {
+			throw new IOException("broken dictionary");
+		    }
+		}).get();
+	    fail("reload must fail");
+	} catch (ExecutionException e) {
+	    assertEquals("broken dictionary", e.getCause().getMessage());
+	} finally {
+	    executor.shutdown();
+	}
+	// 失敗した場合は差し替えない
+	assertSame(initial, holder.get());
+
+	// 元としたスナップショットが差し替えられていれば上書きしない
+	final DictionarySnapshot next = DictionaryHolderTest.generation(1).snapshot();
+	assertTrue(holder.swap(initial, next));
+	assertFalse(holder.swap(initial, DictionaryHolderTest.generation(2).snapshot()));
+	assertSame(next, holder.get());
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+	final List<String> keys = Fixtures.randomKeys(2000, 6, 72L);
+	final Dictionary dictionary = new Dictionary(Fixtures.entries(keys), false);
+	// 更新した辞書のスナップショットも書き出せる
+	dictionary.insert("追加した語", "added", 42);
+	dictionary.delete(keys.get(0));
+	final DictionarySnapshot expected = dictionary.snapshot();
+	final Path path = this.folder.newFile("snapshot.bin").toPath();
+	expected.write(path);
+	final DictionarySnapshot actual = DictionarySnapshot.load(path);
+
+	assertEquals(expected.size(), actual.size());
+	assertEquals(expected.getIdLimit(), actual.getIdLimit());
+	assertEquals(-1, actual.membership(keys.get(0)));
+	assertEquals("added", actual.translate("追加した語"));
+	assertEquals(42, actual.getCost(actual.membership("追加した語")));
+	for (String key : keys.subList(1, keys.size())) {
+	    final int id = expected.membership(key);
+	    assertEquals(key, id, actual.membership(key));
+	    assertEquals(key, Fixtures.valueOf(key), actual.getTranslation(id));
+	    assertEquals(key, DictionaryHolderTest.prefix(expected, key), DictionaryHolderTest.prefix(actual, key));
+	}
+	final TrieSearcher.Cursor expectedCursor = expected.predictive("", Integer.MAX_VALUE);
+	final TrieSearcher.Cursor actualCursor = actual.predictive("", Integer.MAX_VALUE);
+	while (expectedCursor.next()) {
+	    assertTrue(actualCursor.next());
+	    assertEquals(expectedCursor.key().toString(), actualCursor.key().toString());
+	    assertEquals(expectedCursor.id(), actualCursor.id());
+	}
+	assertFalse(actualCursor.next());
+    }
+
+    private static List<String> prefix(DictionarySnapshot snapshot, String query) {
+	final List<String> matches = new ArrayList<String>();
+	snapshot.prefix(query, 0, new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    matches.add(offset + ":" + id);
+		}
+	    });
+	return matches;
+    }
+}
@@ -0,0 +1,220 @@
+package org.okawa.util.nlang.dict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized.Parameters;
+import org.junit.runners.Parameterized;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 辞書の格納方式に依らず検索結果が同じであることのテスト
+ * ヒープ上、ヒープ外、ファイルからメモリマップした辞書と、それぞれ文字コードを再割り当て
+ * したものに対して同じ検証を行う。再割り当てした辞書は、構築時に無かった文字を含むキーを
+ * 追加してから書き出したものも含める。期待値はキーの集合から直接求める。
+ */
+@RunWith(Parameterized.class)
+public class DictionaryStorageTest {
+    /** 登録するキー */
+    private static final List<String> KEYS = Fixtures.randomKeys(3000, 6, 3L);
+    /** 登録されたキーの集合 */
+    private static final Set<String> KEY_SET = new HashSet<String>(DictionaryStorageTest.KEYS);
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> storages() {
+	return Arrays.asList(new Object[][] { { "heap" }, { "direct" }, { "mapped" },
+					      { "remapped" }, { "remapped-direct" }, { "remapped-mapped" }, { "remapped-edited" } });
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** 辞書の格納方式 */
+    private final String storage;
+    /** 検証する辞書 */
+    private Dictionary dictionary;
+
+    public DictionaryStorageTest(String storage) {
+	this.storage = storage;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+	final List<Fixtures.Entry> entries = Fixtures.entries(DictionaryStorageTest.KEYS);
+	if ("heap".equals(this.storage)) {
+	    this.dictionary = new Dictionary(entries, false);
+	} else if ("direct".equals(this.storage)) {
+	    this.dictionary = new Dictionary(entries, false, true);
+	} else if ("mapped".equals(this.storage)) {
+	    this.dictionary = this.reload(new Dictionary(entries, false));
+	} else if ("remapped".equals(this.storage)) {
+	    this.dictionary = new Dictionary(entries, false, false, false, true);
+	} else if ("remapped-direct".equals(this.storage)) {
+	    this.dictionary = new Dictionary(entries, false, true, false, true);
+	} else if ("remapped-mapped".equals(this.storage)) {
+	    // 文字コードの対応表も書き出して復元する
+	    this.dictionary = this.reload(new Dictionary(entries, false, false, false, true));
+	} else {
+	    // 構築時に無い文字を含むキーを追加し、対応表を拡張してから書き出す
+	    final List<String> built = new ArrayList<String>();
+	    final List<String> added = new ArrayList<String>();
+	    for (String key : DictionaryStorageTest.KEYS) {
+		(key.contains("語") || key.contains("𠮷") ? added : built).add(key);
+	    }
+	    final Dictionary edited = new Dictionary(Fixtures.entries(built), false, false, false, true);
+	    for (String key : added) {
+		edited.insert(key, Fixtures.valueOf(key));
+	    }
+	    this.dictionary = this.reload(edited);
+	}
+    }
+
+    /**
+     * 辞書をファイルに書き出し、メモリマップして読み込む
+     */
+    private Dictionary reload(Dictionary dictionary) throws IOException {
+	final Path path = this.folder.newFile("dictionary.bin").toPath();
+	dictionary.write(path);
+	return Dictionary.load(path);
+    }
+
+    @Test
+    public void testMembership() {
+	final Set<Integer> ids = new HashSet<Integer>();
+	for (String key : DictionaryStorageTest.KEYS) {
+	    final int id = this.dictionary.membership(key);
+	    assertTrue(key, id >= 0);
+	    assertTrue("duplicate id: " + id, ids.add(id));
+	    final byte[] utf8 = key.getBytes(StandardCharsets.UTF_8);
+	    assertEquals(key, id, this.dictionary.membership(utf8, 0, utf8.length));
+	}
+	final Random random = new Random(4L);
+	for (int i = 0; i < 3000; i++) {
+	    final String query = Fixtures.random(random, 1 + random.nextInt(8));
+	    if (!DictionaryStorageTest.KEY_SET.contains(query)) {
+		assertEquals(query, -1, this.dictionary.membership(query));
+	    }
+	}
+	assertEquals(-1, this.dictionary.membership(""));
+    }
+
+    @Test
+    public void testCommonPrefix() {
+	final Random random = new Random(5L);
+	for (int i = 0; i < 1000; i++) {
+	    final String query = Fixtures.random(random, 1 + random.nextInt(10));
+	    final int begin = random.nextInt(3) == 0 ? 0 : Math.min(query.length(), random.nextInt(3));
+	    final List<String> expected = new ArrayList<String>();
+	    for (int end = begin + 1; end <= query.length(); end++) {
+		final String key = query.substring(begin, end);
+		if (DictionaryStorageTest.KEY_SET.contains(key)) {
+		    expected.add(begin + ":" + (end - begin) + ":" + this.dictionary.membership(key));
+		}
+	    }
+	    final List<String> actual = new ArrayList<String>();
+	    this.dictionary.prefix(query, begin, new TrieSearcher.Callback() {
+		    @Override
+		    public void apply(int begin, int offset, int id) {
+			actual.add(begin + ":" + offset + ":" + id);
+		    }
+		});
+	    assertEquals(query + "@" + begin, expected, actual);
+	}
+    }
+
+    @Test
+    public void testTranslation() {
+	final StringBuilder buffer = new StringBuilder();
+	for (String key : DictionaryStorageTest.KEYS) {
+	    final int id = this.dictionary.membership(key);
+	    assertEquals(key, Fixtures.valueOf(key), this.dictionary.getTranslation(id));
+	    assertEquals(key, Fixtures.valueOf(key), this.dictionary.translate(key));
+	    buffer.setLength(0);
+	    assertEquals(key, Fixtures.valueOf(key), this.dictionary.getTranslation(id, buffer).toString());
+	}
+	assertNull(this.dictionary.translate("存在しないキー"));
+    }
+
+    @Test
+    public void testPredictive() {
+	// 文字コードを再割り当てした場合も、キーは文字の昇順に列挙する
+	final TreeSet<String> sorted = new TreeSet<String>(DictionaryStorageTest.KEYS);
+	assertEquals(new ArrayList<String>(sorted), DictionaryStorageTest.predictive(this.dictionary, ""));
+	final Random random = new Random(6L);
+	for (int i = 0; i < 100; i++) {
+	    final String key = DictionaryStorageTest.KEYS.get(random.nextInt(DictionaryStorageTest.KEYS.size()));
+	    final String prefix = key.substring(0, Character.charCount(key.codePointAt(0)));
+	    final List<String> expected = new ArrayList<String>();
+	    for (String k : sorted.tailSet(prefix)) {
+		if (!k.startsWith(prefix)) {
+		    break;
+		}
+		expected.add(k);
+	    }
+	    assertEquals(prefix, expected, DictionaryStorageTest.predictive(this.dictionary, prefix));
+	}
+    }
+
+    @Test
+    public void testApproximate() {
+	final Map<Integer, String> keys = new HashMap<Integer, String>();
+	for (String key : DictionaryStorageTest.KEYS) {
+	    keys.put(this.dictionary.membership(key), key);
+	}
+	final List<String> sorted = new ArrayList<String>(new TreeSet<String>(DictionaryStorageTest.KEYS));
+	final Random random = new Random(7L);
+	for (int i = 0; i < 100; i++) {
+	    final String query = Fixtures.random(random, 1 + random.nextInt(5));
+	    // 見つかったキーは文字の昇順に報告する
+	    final List<String> expected = new ArrayList<String>();
+	    for (String key : sorted) {
+		final int distance = Fixtures.distance(query, key);
+		if (distance <= 1) {
+		    expected.add(key + ":" + distance);
+		}
+	    }
+	    final List<String> actual = new ArrayList<String>();
+	    this.dictionary.approximate(query, 1, new TrieSearcher.DistanceCallback() {
+		    @Override
+		    public void apply(int id, int distance) {
+			actual.add(keys.get(id) + ":" + distance);
+		    }
+		});
+	    assertEquals(query, expected, actual);
+	}
+    }
+
+    /**
+     * 予測検索で列挙したキー
+     */
+    private static List<String> predictive(Dictionary dictionary, String prefix) {
+	final List<String> keys = new ArrayList<String>();
+	final TrieSearcher.Cursor cursor = dictionary.predictive(prefix, Integer.MAX_VALUE);
+	while (cursor.next()) {
+	    final String key = cursor.key().toString();
+	    assertEquals(key, dictionary.membership(key), cursor.id());
+	    keys.add(key);
+	}
+	return keys;
+    }
+}
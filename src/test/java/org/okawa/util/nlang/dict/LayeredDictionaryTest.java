@@ -0,0 +1,179 @@
+package org.okawa.util.nlang.dict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 基底の辞書にOverlayを重ねた辞書のテスト
+ * 上位の層のキーが下位の層の同じキーを隠すこと、削除したキーが全ての検索で隠されること、
+ * IDから正しい層の訳語を取り出せることを確認する。期待値は各層の登録と削除を順に適用した
+ * TreeMapから求める。
+ */
+public class LayeredDictionaryTest {
+    /** 基底の辞書のキー */
+    private static final List<String> BASE_KEYS = Fixtures.randomKeys(2000, 6, 11L);
+    /** 重ねる層の数 */
+    private static final int OVERLAYS = 3;
+
+    /** 検証する辞書 */
+    private LayeredDictionary dictionary;
+    /** 期待する訳語 */
+    private final TreeMap<String, String> expected = new TreeMap<String, String>();
+    /** 期待する層の番号 */
+    private final Map<String, Integer> layers = new HashMap<String, Integer>();
+    /** いずれかの層で登録または削除したキー */
+    private final List<String> touched = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+	for (String key : LayeredDictionaryTest.BASE_KEYS) {
+	    this.expected.put(key, Fixtures.valueOf(key));
+	    this.layers.put(key, 0);
+	}
+	final Dictionary base = new Dictionary(Fixtures.entries(LayeredDictionaryTest.BASE_KEYS), false);
+	final Random random = new Random(12L);
+	final List<Overlay> overlays = new ArrayList<Overlay>();
+	for (int layer = 1; layer <= LayeredDictionaryTest.OVERLAYS; layer++) {
+	    final OverlayBuilder builder = new OverlayBuilder();
+	    for (int i = 0; i < 200; i++) {
+		// 基底のキー、下位の層で触れたキー、新しいキーを混ぜる
+		final int kind = random.nextInt(3);
+		final String key = kind == 0 ? LayeredDictionaryTest.BASE_KEYS.get(random.nextInt(LayeredDictionaryTest.BASE_KEYS.size()))
+		    : kind == 1 && !this.touched.isEmpty() ? this.touched.get(random.nextInt(this.touched.size()))
+		    : Fixtures.random(random, 1 + random.nextInt(6));
+		this.touched.add(key);
+		if (random.nextInt(4) == 0) {
+		    builder.remove(key);
+		    this.expected.remove(key);
+		    this.layers.remove(key);
+		} else {
+		    final String value = "L" + layer + ":" + key;
+		    builder.put(key, value);
+		    this.expected.put(key, value);
+		    this.layers.put(key, layer);
+		}
+	    }
+	    overlays.add(builder.build());
+	}
+	this.dictionary = new LayeredDictionary(base, overlays);
+    }
+
+    @Test
+    public void testShadowing() {
+	final Dictionary base = new Dictionary(Fixtures.entries(Arrays.asList("あい", "あいう", "かき")), false);
+	final Overlay overlay = new OverlayBuilder().put("あい", "上書き").put("さし", "追加").remove("かき").build();
+	final LayeredDictionary layered = new LayeredDictionary(base, overlay);
+
+	final int shadowed = layered.membership("あい");
+	assertEquals(1, LayeredDictionary.layerOf(shadowed));
+	assertEquals("上書き", layered.getTranslation(shadowed));
+	assertEquals("上書き", layered.translate("あい"));
+
+	final int kept = layered.membership("あいう");
+	assertEquals(0, LayeredDictionary.layerOf(kept));
+	assertEquals(base.membership("あいう"), kept);
+	assertEquals(Fixtures.valueOf("あいう"), layered.getTranslation(kept));
+
+	assertEquals(-1, layered.membership("かき"));
+	assertNull(layered.translate("かき"));
+	assertEquals(1, LayeredDictionary.layerOf(layered.membership("さし")));
+    }
+
+    @Test
+    public void testMembership() {
+	final List<String> queries = new ArrayList<String>(this.touched);
+	queries.addAll(LayeredDictionaryTest.BASE_KEYS);
+	for (String key : queries) {
+	    final int id = this.dictionary.membership(key);
+	    final String value = this.expected.get(key);
+	    if (value == null) {
+		assertEquals(key, -1, id);
+		assertNull(key, this.dictionary.translate(key));
+	    } else {
+		assertTrue(key, id >= 0);
+		assertEquals(key, (int) this.layers.get(key), LayeredDictionary.layerOf(id));
+		assertEquals(key, value, this.dictionary.getTranslation(id));
+		assertEquals(key, value, this.dictionary.getTranslation(id, new StringBuilder()).toString());
+		assertEquals(key, value, this.dictionary.translate(key));
+	    }
+	}
+    }
+
+    @Test
+    public void testCommonPrefix() {
+	final Random random = new Random(13L);
+	final List<String> queries = new ArrayList<String>();
+	for (String key : this.touched) {
+	    queries.add(key + Fixtures.random(random, random.nextInt(4)));
+	}
+	for (int i = 0; i < 500; i++) {
+	    queries.add(Fixtures.random(random, 1 + random.nextInt(10)));
+	}
+	for (final String query : queries) {
+	    final List<String> expected = new ArrayList<String>();
+	    for (int end = 1; end <= query.length(); end++) {
+		final String value = this.expected.get(query.substring(0, end));
+		if (value != null) {
+		    expected.add(end + ":" + value);
+		}
+	    }
+	    final List<String> actual = new ArrayList<String>();
+	    this.dictionary.prefix(query, 0, new TrieSearcher.Callback() {
+		    @Override
+		    public void apply(int begin, int offset, int id) {
+			actual.add(offset + ":" + LayeredDictionaryTest.this.dictionary.getTranslation(id));
+		    }
+		});
+	    Collections.sort(expected);
+	    Collections.sort(actual);
+	    assertEquals(query, expected, actual);
+	}
+    }
+
+    @Test
+    public void testPredictive() {
+	final List<String> prefixes = new ArrayList<String>();
+	prefixes.add("");
+	for (String key : this.touched.subList(0, 100)) {
+	    prefixes.add(key.substring(0, Math.min(key.length(), 2)));
+	}
+	for (String prefix : prefixes) {
+	    final List<String> expected = new ArrayList<String>();
+	    for (Map.Entry<String, String> entry : this.expected.tailMap(prefix, true).entrySet()) {
+		if (!entry.getKey().startsWith(prefix)) {
+		    break;
+		}
+		expected.add(entry.getKey() + "=" + entry.getValue());
+	    }
+	    final List<String> actual = new ArrayList<String>();
+	    final TrieSearcher.Cursor cursor = this.dictionary.predictive(prefix, Integer.MAX_VALUE);
+	    while (cursor.next()) {
+		actual.add(cursor.key() + "=" + this.dictionary.getTranslation(cursor.id()));
+	    }
+	    assertEquals(prefix, expected, actual);
+
+	    // 件数を制限した場合は先頭から取り出す
+	    final TrieSearcher.Cursor limited = this.dictionary.predictive(prefix, 5);
+	    int count = 0;
+	    while (limited.next()) {
+		assertEquals(prefix, expected.get(count), limited.key() + "=" + this.dictionary.getTranslation(limited.id()));
+		count++;
+	    }
+	    assertEquals(prefix, Math.min(5, expected.size()), count);
+	}
+    }
+}
@@ -0,0 +1,60 @@
+package org.okawa.util.nlang.dict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * LexemeArrayBuilderの訳語の共有とDATA配列の伸張のテスト
+ */
+public class LexemeArrayBuilderTest {
+    @Test
+    public void testInternRecent() {
+	// 表の上限を超える訳語を追加した後に現れる訳語も共有される
+	final LexemeArrayBuilder builder = new LexemeArrayBuilder();
+	for (int i = 0; i < LexemeArrayBuilder.INTERN_LIMIT + 1000; i++) {
+	    builder.add("once:" + i);
+	}
+	final int first = builder.size();
+	builder.add("hot");
+	for (int i = 0; i < LexemeArrayBuilder.INTERN_LIMIT * 2; i++) {
+	    builder.add("late:" + i);
+	    if (i % 1000 == 0) {
+		builder.add("hot");
+	    }
+	}
+	final int offset = builder.getOffsets().get(first);
+	int hot = 0;
+	for (int id = first; id < builder.size(); id++) {
+	    if ("hot".equals(builder.get(id))) {
+		assertEquals(String.valueOf(id), offset, builder.getOffsets().get(id));
+		hot++;
+	    }
+	}
+	assertTrue(hot > 100);
+
+	// 長く参照されていない訳語は表から取り除かれ、再度格納される
+	final int dataSize = builder.getDataSize();
+	builder.add("once:0");
+	assertTrue(builder.getDataSize() > dataSize);
+	assertEquals("once:0", builder.get(builder.size() - 1));
+	assertEquals("once:0", builder.get(0));
+    }
+
+    @Test
+    public void testGrow() {
+	assertEquals(2048, LexemeArrayBuilder.grow(1024, 1025));
+	assertEquals(5000, LexemeArrayBuilder.grow(1024, 5000));
+	// 倍にすると1GBを超える場合も配列長の上限で止める
+	assertEquals(LexemeArrayBuilder.MAX_CAPACITY, LexemeArrayBuilder.grow(1 << 30, (1L << 30) + 1));
+	assertEquals(LexemeArrayBuilder.MAX_CAPACITY, LexemeArrayBuilder.grow(LexemeArrayBuilder.MAX_CAPACITY - 1, LexemeArrayBuilder.MAX_CAPACITY));
+	try {
+	    LexemeArrayBuilder.grow(LexemeArrayBuilder.MAX_CAPACITY, (long) LexemeArrayBuilder.MAX_CAPACITY + 1);
+	    fail("data over the array length limit");
+	} catch (IllegalStateException e) {
+	    assertTrue(e.getMessage(), e.getMessage().contains("lexeme data exceeds"));
+	}
+    }
+}
@@ -0,0 +1,233 @@
+package org.okawa.util.nlang.dict;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import org.junit.Assume;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+
+/**
+ * 検索結果のキャッシュのテスト
+ * 頻度による追加の可否、容量を超えた分の追い出し、セグメント毎の容量、文字列以外の
+ * CharSequenceのキーでの検索を確認する。
+ */
+public class LookupCacheTest {
+    /**
+     * キーを二回ミスさせて追加する
+     */
+    private static LookupCache.Entry admit(LookupCache cache, CharSequence key, int id) {
+	cache.put(key, id);
+	return cache.put(key, id);
+    }
+
+    @Test
+    public void testAdmission() {
+	final LookupCache cache = new LookupCache(64);
+	final LookupCache.Entry first = cache.put("a", 1);
+	assertEquals(1, first.id);
+	assertNull(first.key);
+	assertNull(cache.get("a"));
+	assertEquals(0, cache.size());
+
+	final LookupCache.Entry second = cache.put("a", 1);
+	assertEquals("a", second.key);
+	assertSame(second, cache.get("a"));
+	assertEquals(1, cache.size());
+	// 追加済みのキーは同じ検索結果を返す
+	assertSame(second, cache.put("a", 1));
+	assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCharSequenceKey() {
+	final LookupCache cache = new LookupCache(64);
+	final LookupCache.Entry entry = LookupCacheTest.admit(cache, "日本語", 7);
+	assertSame(entry, cache.get(new StringBuilder("日本語")));
+	assertNull(cache.get(new StringBuilder("日本")));
+
+	// 追加時のみ文字列へ複製するため、元のキーを変更しても影響しない
+	final StringBuilder key = new StringBuilder("辞書");
+	final LookupCache.Entry added = LookupCacheTest.admit(cache, key, 8);
+	assertEquals("辞書", added.key);
+	key.setLength(0);
+	key.append("xx");
+	assertSame(added, cache.get("辞書"));
+	assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testHash() {
+	for (String key : Fixtures.randomKeys(100, 8, 1L)) {
+	    assertEquals(key.hashCode(), LookupCache.hash(new StringBuilder(key)));
+	}
+    }
+
+    @Test
+    public void testEviction() {
+	final LookupCache cache = new LookupCache(100);
+	final List<String> keys = Fixtures.randomKeys(5000, 8, 2L);
+	for (int i = 0; i < keys.size(); i++) {
+	    LookupCacheTest.admit(cache, keys.get(i), i);
+	    assertTrue(cache.size() <= cache.capacity());
+	}
+	assertEquals(keys.size() - cache.size(), cache.getEvictionCount());
+	// 残っている検索結果は追加した時のIDを返す
+	int cached = 0;
+	for (int i = 0; i < keys.size(); i++) {
+	    final LookupCache.Entry entry = cache.get(keys.get(i));
+	    if (entry != null) {
+		assertEquals(i, entry.id);
+		cached++;
+	    }
+	}
+	assertEquals(cache.size(), cached);
+    }
+
+    @Test
+    public void testFrequentKeysSurvive() {
+	final LookupCache cache = new LookupCache(100);
+	final List<String> hot = Fixtures.randomKeys(20, 4, 3L);
+	for (int i = 0; i < hot.size(); i++) {
+	    LookupCacheTest.admit(cache, hot.get(i), i);
+	}
+	final List<String> scan = Fixtures.randomKeys(5000, 10, 4L);
+	for (int i = 0; i < scan.size(); i++) {
+	    if (hot.contains(scan.get(i))) {
+		continue;
+	    }
+	    if (i % 2 == 0) {
+		// 一度しか検索されないキーは追加しない
+		cache.put(scan.get(i), -1);
+	    } else {
+		LookupCacheTest.admit(cache, scan.get(i), -1);
+	    }
+	    if (i % 10 == 0) {
+		for (String key : hot) {
+		    cache.get(key);
+		}
+	    }
+	}
+	for (int i = 0; i < hot.size(); i++) {
+	    final LookupCache.Entry entry = cache.get(hot.get(i));
+	    assertNotNull(hot.get(i), entry);
+	    assertEquals(i, entry.id);
+	}
+    }
+
+    @Test
+    public void testSegmentCapacity() {
+	final LookupCache cache = new LookupCache(1000);
+	final int segments = cache.segmentCount();
+	int total = 0;
+	for (int i = 0; i < segments; i++) {
+	    total += cache.segmentCapacity(i);
+	}
+	assertEquals(cache.capacity(), total);
+
+	// 一つのセグメントに偏ったキーでも、そのセグメントの容量を超えない
+	int added = 0;
+	for (String key : Fixtures.randomKeys(20000, 8, 5L)) {
+	    if (cache.segmentOf(key) != 0) {
+		continue;
+	    }
+	    LookupCacheTest.admit(cache, key, added++);
+	    assertTrue(cache.segmentSize(0) <= cache.segmentCapacity(0));
+	}
+	assertTrue(added > cache.segmentCapacity(0));
+	assertEquals(cache.segmentCapacity(0), cache.segmentSize(0));
+	assertEquals(cache.segmentSize(0), cache.size());
+    }
+
+    @Test
+    public void testInvalidateAndClear() {
+	final LookupCache cache = new LookupCache(64);
+	final List<String> keys = Fixtures.randomKeys(40, 6, 6L);
+	for (int i = 0; i < keys.size(); i++) {
+	    LookupCacheTest.admit(cache, keys.get(i), i);
+	}
+	assertEquals(keys.size(), cache.size());
+	cache.invalidate(new StringBuilder(keys.get(0)));
+	assertNull(cache.get(keys.get(0)));
+	assertEquals(keys.size() - 1, cache.size());
+	// 破棄したキーは再度追加できる
+	assertEquals(keys.get(0), cache.put(keys.get(0), 0).key);
+	assertEquals(keys.size(), cache.size());
+
+	cache.clear();
+	assertEquals(0, cache.size());
+	for (String key : keys) {
+	    assertNull(cache.get(key));
+	}
+	// 破棄した後も容量まで追加できる
+	for (String key : Fixtures.randomKeys(500, 8, 7L)) {
+	    LookupCacheTest.admit(cache, key, 0);
+	}
+	assertEquals(cache.capacity(), cache.size());
+    }
+
+    @Test
+    public void testDictionary() {
+	final List<String> keys = Fixtures.randomKeys(500, 6, 8L);
+	final Dictionary dictionary = new Dictionary(Fixtures.entries(keys), false);
+	dictionary.setCacheCapacity(100);
+	final StringBuilder key = new StringBuilder();
+	for (int round = 0; round < 3; round++) {
+	    for (String k : keys.subList(0, 50)) {
+		key.setLength(0);
+		key.append(k);
+		final int id = dictionary.membership(key);
+		assertTrue(k, id >= 0);
+		assertEquals(Fixtures.valueOf(k), dictionary.translate(key));
+		assertEquals(Fixtures.valueOf(k), dictionary.getTranslation(id));
+	    }
+	}
+	assertTrue(dictionary.getCache().getHitCount() > 0);
+
+	// 更新した場合はキャッシュした検索結果を破棄する
+	final String added = "あああああああ";
+	key.setLength(0);
+	key.append(added);
+	assertEquals(-1, dictionary.membership(key));
+	assertEquals(-1, dictionary.membership(key));
+	final int id = dictionary.insert(added, "inserted");
+	assertEquals(id, dictionary.membership(key));
+	assertEquals("inserted", dictionary.translate(key));
+	dictionary.delete(added);
+	assertEquals(-1, dictionary.membership(key));
+	assertNull(dictionary.translate(key));
+    }
+
+    @Test
+    public void testHitAllocationFree() {
+	final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+	final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+	Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+	threads.setThreadAllocatedMemoryEnabled(true);
+
+	final LookupCache cache = new LookupCache(1000);
+	final List<String> keys = Fixtures.randomKeys(500, 8, 9L);
+	final StringBuilder[] queries = new StringBuilder[keys.size()];
+	for (int i = 0; i < keys.size(); i++) {
+	    LookupCacheTest.admit(cache, keys.get(i), i);
+	    queries[i] = new StringBuilder(keys.get(i));
+	}
+	long sum = 0;
+	for (int i = 0; i < 20000; i++) {
+	    sum += cache.get(queries[i % queries.length]).id;
+	}
+	final long id = Thread.currentThread().getId();
+	final long before = threads.getThreadAllocatedBytes(id);
+	for (int i = 0; i < 100000; i++) {
+	    sum += cache.get(queries[i % queries.length]).id;
+	}
+	final long allocated = threads.getThreadAllocatedBytes(id) - before;
+	assertTrue("get allocated " + allocated + " bytes (" + sum + ")", allocated < 8192);
+    }
+}
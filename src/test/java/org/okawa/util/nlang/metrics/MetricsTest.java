@@ -0,0 +1,214 @@
+package org.okawa.util.nlang.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.trie.TrieSearcher;
+import org.okawa.util.nlang.trie.impl.DoubleArray;
+import org.okawa.util.nlang.trie.impl.DoubleArrayBuilder;
+
+/**
+ * 計測のテスト
+ * ENABLEDはstatic finalのため、システムプロパティ org.okawa.util.nlang.metrics=true を
+ * 指定した専用のsurefireの実行 (library/pom.xml の metrics) でのみ実行する。
+ * 構築と検索の後に、リスナーへ通知された値とMXBeanの属性が一致することを確認する。
+ */
+public class MetricsTest {
+    /** 構築の計測値を公開するMXBean */
+    private BuildMetricsMXBean build;
+    /** membershipの計測値を公開するMXBean */
+    private LookupMetricsMXBean membership;
+    /** 共通接頭辞検索の計測値を公開するMXBean */
+    private LookupMetricsMXBean prefix;
+    /** 通知を記録するリスナー */
+    private Recorder recorder;
+
+    /**
+     * 通知された値を記録するリスナー
+     */
+    private static final class Recorder implements MetricsListener {
+	/** 工程毎の通知回数 (Phaseの順) */
+	final AtomicLongArray phases = new AtomicLongArray(MetricsListener.Phase.values().length);
+	/** 工程毎の時間の合計 (Phaseの順) */
+	final AtomicLongArray phaseNanos = new AtomicLongArray(MetricsListener.Phase.values().length);
+	/** 検索の種類毎の回数 (Lookupの順) */
+	final AtomicLongArray lookups = new AtomicLongArray(MetricsListener.Lookup.values().length);
+	/** 検索の種類毎の見つかったキーの数の合計 (Lookupの順) */
+	final AtomicLongArray matches = new AtomicLongArray(MetricsListener.Lookup.values().length);
+	/** 索引の構築回数 */
+	int builds;
+	/** 最後に構築した索引のキーワード数 */
+	int keySetSize;
+	/** 最後に構築した索引のBASE/CHECK配列長 */
+	int arrayLength;
+	/** 最後に構築した索引の使用されている番地の数 */
+	int usedNodes;
+
+	@Override
+	public void onLookup(MetricsListener.Lookup type, int transitions, int tailComparisons, int matches, long nanos) {
+	    this.lookups.incrementAndGet(type.ordinal());
+	    this.matches.addAndGet(type.ordinal(), matches);
+	}
+
+	@Override
+	public void onBuildPhase(MetricsListener.Phase phase, long nanos) {
+	    this.phases.incrementAndGet(phase.ordinal());
+	    this.phaseNanos.addAndGet(phase.ordinal(), nanos);
+	}
+
+	@Override
+	public synchronized void onBuild(int keySetSize, int arrayLength, int usedNodes, long nanos) {
+	    this.builds++;
+	    this.keySetSize = keySetSize;
+	    this.arrayLength = arrayLength;
+	    this.usedNodes = usedNodes;
+	}
+    }
+
+    /**
+     * 登録されているMXBeanのプロキシ
+     */
+    private static <T> T proxy(String properties, Class<T> type) throws MalformedObjectNameException {
+	final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	final ObjectName name = new ObjectName("org.okawa.util.nlang:" + properties);
+	assertTrue(name.toString(), server.isRegistered(name));
+	return JMX.newMXBeanProxy(server, name, type);
+    }
+
+    @Before
+    public void setUp() throws MalformedObjectNameException {
+	Assume.assumeTrue("run with -D" + Metrics.PROPERTY + "=true", Metrics.ENABLED);
+	this.build = MetricsTest.proxy("type=Build", BuildMetricsMXBean.class);
+	this.membership = MetricsTest.proxy("type=Lookup,name=membership", LookupMetricsMXBean.class);
+	this.prefix = MetricsTest.proxy("type=Lookup,name=prefix", LookupMetricsMXBean.class);
+	this.build.reset();
+	this.membership.reset();
+	this.prefix.reset();
+	this.recorder = new Recorder();
+	Metrics.addListener(this.recorder);
+    }
+
+    @After
+    public void tearDown() {
+	if (this.recorder != null) {
+	    Metrics.removeListener(this.recorder);
+	}
+    }
+
+    @Test
+    public void testBuild() {
+	final List<String> keys = Fixtures.randomKeys(20000, 8, 61L);
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(keys), false, true, Fixtures.IGNORE);
+
+	assertEquals(1, this.recorder.builds);
+	assertEquals(keys.size(), this.recorder.keySetSize);
+	assertEquals(doubleArray.check.length, this.recorder.arrayLength);
+	assertTrue(this.recorder.usedNodes > 0 && this.recorder.usedNodes <= this.recorder.arrayLength);
+	// 訳語の配列以外の工程は一度ずつ通知する
+	for (MetricsListener.Phase phase : MetricsListener.Phase.values()) {
+	    assertEquals(phase.name(), phase == MetricsListener.Phase.LEXEMES ? 0 : 1, this.recorder.phases.get(phase.ordinal()));
+	}
+	assertTrue(this.recorder.phaseNanos.get(MetricsListener.Phase.ALLOCATION.ordinal()) > 0);
+
+	assertEquals(1, this.build.getBuilds());
+	assertEquals(keys.size(), this.build.getLastKeySetSize());
+	assertEquals(doubleArray.check.length, this.build.getLastArrayLength());
+	assertEquals((double) this.recorder.usedNodes / this.recorder.arrayLength, this.build.getLastFillRatio(), 1e-12);
+	assertEquals(this.recorder.phaseNanos.get(MetricsListener.Phase.SORT.ordinal()) / 1e6, this.build.getSortMillis(), 1e-9);
+	assertEquals(this.recorder.phaseNanos.get(MetricsListener.Phase.ALLOCATION.ordinal()) / 1e6, this.build.getAllocationMillis(), 1e-9);
+	assertEquals(this.recorder.phaseNanos.get(MetricsListener.Phase.TAIL.ordinal()) / 1e6, this.build.getTailMillis(), 1e-9);
+	assertEquals(this.recorder.phaseNanos.get(MetricsListener.Phase.MERGE.ordinal()) / 1e6, this.build.getMergeMillis(), 1e-9);
+	assertEquals(0, this.build.getLexemesMillis(), 0);
+	assertTrue(this.build.getTotalMillis() > 0);
+
+	// 辞書の構築では訳語の配列の工程も通知する
+	new Dictionary(Fixtures.entries(keys.subList(0, 100)), false);
+	assertEquals(2, this.build.getBuilds());
+	assertEquals(100, this.build.getLastKeySetSize());
+	assertEquals(1, this.recorder.phases.get(MetricsListener.Phase.LEXEMES.ordinal()));
+	assertEquals(this.recorder.phaseNanos.get(MetricsListener.Phase.LEXEMES.ordinal()) / 1e6, this.build.getLexemesMillis(), 1e-9);
+
+	this.build.reset();
+	assertEquals(0, this.build.getBuilds());
+	assertEquals(0, this.build.getTotalMillis(), 0);
+	assertEquals(0, this.build.getAllocationMillis(), 0);
+    }
+
+    @Test
+    public void testLookup() {
+	final List<String> keys = Fixtures.randomKeys(2000, 6, 62L);
+	final Dictionary dictionary = new Dictionary(Fixtures.entries(keys), false);
+	final Set<String> registered = new HashSet<String>(keys);
+	final List<String> misses = new ArrayList<String>();
+	final Random random = new Random(63L);
+	while (misses.size() < 500) {
+	    final String query = Fixtures.random(random, 1 + random.nextInt(6)) + "#";
+	    if (!registered.contains(query)) {
+		misses.add(query);
+	    }
+	}
+
+	for (String key : keys) {
+	    assertTrue(key, dictionary.membership(key) >= 0);
+	}
+	for (String query : misses) {
+	    assertEquals(query, -1, dictionary.membership(query));
+	}
+	final int lookups = keys.size() + misses.size();
+	assertEquals(lookups, this.recorder.lookups.get(MetricsListener.Lookup.MEMBERSHIP.ordinal()));
+	assertEquals(keys.size(), this.recorder.matches.get(MetricsListener.Lookup.MEMBERSHIP.ordinal()));
+	assertEquals(lookups, this.membership.getLookups());
+	assertEquals(keys.size(), this.membership.getHits());
+	assertEquals(misses.size(), this.membership.getMisses());
+	assertEquals((double) keys.size() / lookups, this.membership.getHitRatio(), 1e-12);
+	assertEquals(1.0 * keys.size() / lookups, this.membership.getMatchesPerLookup(), 1e-12);
+	assertTrue(this.membership.getTransitionsPerLookup() > 0);
+
+	// 検索時間の分布は検索回数と一致し、百分位数は単調増加
+	long total = 0;
+	for (long count : this.membership.getLatencyHistogram()) {
+	    total += count;
+	}
+	assertEquals(lookups, total);
+	assertTrue(this.membership.getLatencyP50Nanos() <= this.membership.getLatencyP99Nanos());
+	assertTrue(this.membership.getLatencyP99Nanos() <= this.membership.getLatencyP999Nanos());
+	assertTrue(this.membership.getLatencyP999Nanos() > 0);
+
+	// 共通接頭辞検索は別のMXBeanで集計する
+	final long[] found = new long[1];
+	for (String key : keys.subList(0, 100)) {
+	    dictionary.prefix(key + "#", 0, new TrieSearcher.Callback() {
+		    @Override
+		    public void apply(int begin, int offset, int id) {
+			found[0]++;
+		    }
+		});
+	}
+	assertEquals(100, this.prefix.getLookups());
+	assertEquals(100, this.prefix.getHits());
+	assertEquals(found[0] / 100.0, this.prefix.getMatchesPerLookup(), 1e-12);
+	assertEquals(found[0], this.recorder.matches.get(MetricsListener.Lookup.PREFIX.ordinal()));
+	assertEquals(lookups, this.membership.getLookups());
+
+	this.membership.reset();
+	assertEquals(0, this.membership.getLookups());
+	assertEquals(0, this.membership.getLatencyP999Nanos());
+    }
+}
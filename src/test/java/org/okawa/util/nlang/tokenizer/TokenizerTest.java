@@ -0,0 +1,232 @@
+package org.okawa.util.nlang.tokenizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.dict.DictionaryBuilder;
+
+/**
+ * 入力の区切られ方に依らず分割結果が同じであることのテスト
+ * 一文字ずつしか返さないReaderから読み込んだ結果を、文字列全体を渡した結果と比較する。
+ * テキストはバッファ (8192文字) の境界を単語や未知語が跨ぐように組み立てる。
+ */
+public class TokenizerTest {
+    /** バッファの大きさ (単語の最大文字数が既定値の場合) */
+    private static final int BUFFER_SIZE = 8192;
+
+    private static Dictionary dictionary;
+    private static List<String> words;
+
+    /**
+     * 一回の読み込みで一文字のみを返すReader
+     */
+    private static final class OneCharReader extends Reader {
+	private final String text;
+	private int position;
+
+	OneCharReader(String text) {
+	    this.text = text;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+	    if (this.position == this.text.length()) {
+		return -1;
+	    }
+	    if (len == 0) {
+		return 0;
+	    }
+	    cbuf[off] = this.text.charAt(this.position++);
+	    return 1;
+	}
+
+	@Override
+	public void close() {
+	}
+    }
+
+    /**
+     * 分割結果を "入力全体での位置:文字数:ID:単語" として記録する
+     */
+    private static final class Recorder implements TokenSink {
+	final List<String> tokens = new ArrayList<String>();
+	/** 次の単語の開始位置 (単語が隙間なく続くことの確認) */
+	long next;
+
+	@Override
+	public void apply(char[] buffer, int begin, int length, long position, int id) {
+	    assertEquals("gap before " + position, this.next, position);
+	    assertTrue(length > 0);
+	    this.next = position + length;
+	    this.tokens.add(position + ":" + length + ":" + id + ":" + new String(buffer, begin, length));
+	}
+    }
+
+    @BeforeClass
+    public static void setUp() {
+	final Random random = new Random(31L);
+	final TreeSet<String> keys = new TreeSet<String>();
+	final String alphabet = "あいうえおかきくけこ日本語";
+	while (keys.size() < 500) {
+	    final StringBuilder key = new StringBuilder();
+	    for (int length = 1 + random.nextInt(4); key.length() < length; ) {
+		key.append(alphabet.charAt(random.nextInt(alphabet.length())));
+	    }
+	    keys.add(key.toString());
+	}
+	// バッファの境界を跨ぐための長い単語
+	keys.add("長い単語長い単語長い単語長い単語長い単語長い単語長い単語長い単語");
+	final DictionaryBuilder builder = new DictionaryBuilder();
+	for (String key : keys) {
+	    builder.add(key, key, key.length() == 1 ? 300 : 100);
+	}
+	TokenizerTest.dictionary = builder.build();
+	TokenizerTest.words = new ArrayList<String>(keys);
+    }
+
+    /**
+     * 辞書の単語と未知語を連結したテキスト
+     * 各境界の手前までを埋め、指定した断片が境界を跨ぐように置く。
+     *
+     * @param straddle 境界を跨がせる断片
+     * @param seed 乱数の種
+     */
+    private static String text(String straddle, long seed) {
+	final Random random = new Random(seed);
+	final StringBuilder text = new StringBuilder();
+	for (int boundary = TokenizerTest.BUFFER_SIZE; boundary <= TokenizerTest.BUFFER_SIZE * 3; boundary += TokenizerTest.BUFFER_SIZE) {
+	    final int start = boundary - straddle.length() / 2 - random.nextInt(3);
+	    while (text.length() < start) {
+		if (random.nextInt(5) == 0) {
+		    text.append("xyz".charAt(random.nextInt(3)));
+		} else {
+		    text.append(TokenizerTest.words.get(random.nextInt(TokenizerTest.words.size())));
+		}
+	    }
+	    text.append(straddle);
+	}
+	return text.toString();
+    }
+
+    private static List<String> tokenize(Tokenizer tokenizer, String text) {
+	final Recorder recorder = new Recorder();
+	tokenizer.tokenize(text, recorder);
+	assertEquals(text.length(), recorder.next);
+	return recorder.tokens;
+    }
+
+    private static List<String> tokenize(Tokenizer tokenizer, Reader reader, int length) throws IOException {
+	final Recorder recorder = new Recorder();
+	tokenizer.tokenize(reader, recorder);
+	assertEquals(length, recorder.next);
+	return recorder.tokens;
+    }
+
+    private static void assertSameTokens(Tokenizer tokenizer, String text) throws IOException {
+	final List<String> expected = TokenizerTest.tokenize(tokenizer, text);
+	assertEquals(expected, TokenizerTest.tokenize(tokenizer, new OneCharReader(text), text.length()));
+    }
+
+    /**
+     * 単語または未知語がいずれかの境界を跨いでいること (テキストの組み立ての確認)
+     *
+     * @param tokens 分割結果
+     * @param unknown trueの場合は未知語、falseの場合は辞書の単語
+     */
+    private static void assertStraddles(List<String> tokens, boolean unknown) {
+	for (String token : tokens) {
+	    final String[] fields = token.split(":", 4);
+	    final long position = Long.parseLong(fields[0]);
+	    final long end = position + Integer.parseInt(fields[1]);
+	    if (unknown == (Integer.parseInt(fields[2]) == TokenSink.UNKNOWN)
+		&& position / TokenizerTest.BUFFER_SIZE != (end - 1) / TokenizerTest.BUFFER_SIZE) {
+		return;
+	    }
+	}
+	throw new AssertionError("no token straddles a buffer boundary");
+    }
+
+    @Test
+    public void testLongestMatchWordAcrossBoundary() throws IOException {
+	final String text = TokenizerTest.text("長い単語長い単語長い単語長い単語長い単語長い単語長い単語長い単語", 32L);
+	final Tokenizer tokenizer = new LongestMatchTokenizer(TokenizerTest.dictionary);
+	TokenizerTest.assertSameTokens(tokenizer, text);
+	TokenizerTest.assertStraddles(TokenizerTest.tokenize(tokenizer, text), false);
+    }
+
+    @Test
+    public void testLongestMatchUnknownAcrossBoundary() throws IOException {
+	final String text = TokenizerTest.text("xyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyz", 33L);
+	final Tokenizer tokenizer = new LongestMatchTokenizer(TokenizerTest.dictionary);
+	TokenizerTest.assertSameTokens(tokenizer, text);
+	TokenizerTest.assertStraddles(TokenizerTest.tokenize(tokenizer, text), true);
+    }
+
+    @Test
+    public void testLongestMatchMatchesNaive() {
+	// 最長一致を文字列全体に対して素朴に行った結果と一致する
+	final String text = TokenizerTest.text("xyz長い単語長い単語長い単語長い単語長い単語長い単語長い単語長い単語xyz", 34L);
+	final List<String> expected = new ArrayList<String>();
+	int unknown = -1;
+	for (int i = 0; i < text.length(); ) {
+	    int length = 0;
+	    for (int end = i + 1; end <= Math.min(text.length(), i + Tokenizer.DEFAULT_MAX_TOKEN_LENGTH); end++) {
+		if (TokenizerTest.dictionary.membership(text.substring(i, end)) >= 0) {
+		    length = end - i;
+		}
+	    }
+	    if (length == 0) {
+		unknown = unknown < 0 ? i : unknown;
+		i++;
+		continue;
+	    }
+	    if (unknown >= 0) {
+		expected.add(unknown + ":" + (i - unknown) + ":-1:" + text.substring(unknown, i));
+		unknown = -1;
+	    }
+	    expected.add(i + ":" + length + ":" + TokenizerTest.dictionary.membership(text.substring(i, i + length)) + ":" + text.substring(i, i + length));
+	    i += length;
+	}
+	if (unknown >= 0) {
+	    expected.add(unknown + ":" + (text.length() - unknown) + ":-1:" + text.substring(unknown));
+	}
+	assertEquals(expected, TokenizerTest.tokenize(new LongestMatchTokenizer(TokenizerTest.dictionary), text));
+    }
+
+    @Test
+    public void testLatticeWordAcrossBoundary() throws IOException {
+	final String text = TokenizerTest.text("長い単語長い単語長い単語長い単語長い単語長い単語長い単語長い単語", 35L);
+	final Tokenizer tokenizer = new LatticeTokenizer(TokenizerTest.dictionary);
+	TokenizerTest.assertSameTokens(tokenizer, text);
+	TokenizerTest.assertStraddles(TokenizerTest.tokenize(tokenizer, text), false);
+    }
+
+    @Test
+    public void testLatticeUnknownAcrossBoundary() throws IOException {
+	final String text = TokenizerTest.text("xyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyzxyz", 36L);
+	final Tokenizer tokenizer = new LatticeTokenizer(TokenizerTest.dictionary);
+	TokenizerTest.assertSameTokens(tokenizer, text);
+	TokenizerTest.assertStraddles(TokenizerTest.tokenize(tokenizer, text), true);
+    }
+
+    @Test
+    public void testUnknownLongerThanBuffer() throws IOException {
+	// バッファに収まらない未知語は分けて渡されるが、区切られ方には依存しない
+	final StringBuilder text = new StringBuilder("日本語");
+	for (int i = 0; i < TokenizerTest.BUFFER_SIZE * 2; i++) {
+	    text.append('x');
+	}
+	text.append("日本語");
+	TokenizerTest.assertSameTokens(new LongestMatchTokenizer(TokenizerTest.dictionary), text.toString());
+	TokenizerTest.assertSameTokens(new LatticeTokenizer(TokenizerTest.dictionary), text.toString());
+    }
+}
@@ -0,0 +1,127 @@
+package org.okawa.util.nlang.trie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.okawa.util.nlang.dict.Dictionary;
+import org.okawa.util.nlang.dict.DictionaryBuilder;
+
+/**
+ * Trieの既定の実装のテスト
+ * membershipとprefixのみを実装したTrieの結果を、全てを実装したDictionaryと比較する。
+ */
+public class TrieTest {
+    /** 登録するキー (サロゲートペアを含む) */
+    private static final String[] KEYS = { "a", "ab", "abc", "b", "bc", "日本", "日本語", "語", "𠮷", "𠮷野家" };
+    /** 問い合わせる文字列 */
+    private static final String[] QUERIES = { "abcd", "日本語です", "𠮷野家で", "xyz", "", "bcab日本𠮷" };
+
+    private static Dictionary dictionary;
+    private static Trie trie;
+
+    @BeforeClass
+    public static void setUp() {
+	final DictionaryBuilder builder = new DictionaryBuilder();
+	for (String key : TrieTest.KEYS) {
+	    builder.add(key, key.toUpperCase());
+	}
+	TrieTest.dictionary = builder.build();
+	// 必須のメソッドのみを委譲する
+	TrieTest.trie = new Trie() {
+		@Override
+		public int membership(CharSequence key) {
+		    return TrieTest.dictionary.membership(key);
+		}
+
+		@Override
+		public void prefix(CharSequence query, int begin, TrieSearcher.Callback func) {
+		    TrieTest.dictionary.prefix(query, begin, func);
+		}
+	    };
+    }
+
+    @Test
+    public void testByteMembership() {
+	for (String key : TrieTest.KEYS) {
+	    final byte[] utf8 = ("#" + key + "#").getBytes(StandardCharsets.UTF_8);
+	    assertEquals(key, TrieTest.dictionary.membership(utf8, 1, utf8.length - 1), TrieTest.trie.membership(utf8, 1, utf8.length - 1));
+	}
+	// 不正なバイト列
+	final byte[] broken = { 'a', (byte) 0xE6, (byte) 0x97 };
+	assertEquals(-1, TrieTest.trie.membership(broken, 0, broken.length));
+	assertEquals(TrieTest.dictionary.membership(broken, 0, 1), TrieTest.trie.membership(broken, 0, 1));
+    }
+
+    @Test
+    public void testBytePrefix() {
+	for (String query : TrieTest.QUERIES) {
+	    final byte[] utf8 = query.getBytes(StandardCharsets.UTF_8);
+	    for (int from = 0; from <= utf8.length; from++) {
+		assertEquals(query + "@" + from, TrieTest.bytePrefix(TrieTest.dictionary, utf8, from), TrieTest.bytePrefix(TrieTest.trie, utf8, from));
+	    }
+	}
+	// 不正なバイト列の手前までの一致のみ
+	final byte[] broken = { 'a', 'b', (byte) 0xFF, 'c' };
+	assertEquals(TrieTest.bytePrefix(TrieTest.dictionary, broken, 0), TrieTest.bytePrefix(TrieTest.trie, broken, 0));
+    }
+
+    @Test
+    public void testBatch() {
+	final int[] expected = new int[TrieTest.QUERIES.length + TrieTest.KEYS.length];
+	final int[] actual = new int[expected.length];
+	final CharSequence[] keys = new CharSequence[expected.length];
+	System.arraycopy(TrieTest.QUERIES, 0, keys, 0, TrieTest.QUERIES.length);
+	System.arraycopy(TrieTest.KEYS, 0, keys, TrieTest.QUERIES.length, TrieTest.KEYS.length);
+	TrieTest.dictionary.membership(keys, expected, false);
+	TrieTest.trie.membership(keys, actual, true);
+	assertArrayEquals(expected, actual);
+
+	final PrefixMatches expectedMatches = new PrefixMatches();
+	final PrefixMatches actualMatches = new PrefixMatches();
+	TrieTest.dictionary.prefix(TrieTest.QUERIES, 0, expectedMatches, false);
+	TrieTest.trie.prefix(TrieTest.QUERIES, 0, actualMatches, true);
+	assertEquals(TrieTest.toList(expectedMatches), TrieTest.toList(actualMatches));
+    }
+
+    @Test
+    public void testScan() {
+	for (String query : TrieTest.QUERIES) {
+	    assertEquals(query, TrieTest.scan(TrieTest.dictionary, query), TrieTest.scan(TrieTest.trie, query));
+	}
+    }
+
+    private static List<String> bytePrefix(Trie trie, byte[] utf8, int from) {
+	final List<String> matches = new ArrayList<String>();
+	trie.prefix(utf8, from, utf8.length, new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    matches.add(begin + ":" + offset + ":" + id);
+		}
+	    });
+	return matches;
+    }
+
+    private static List<String> scan(Trie trie, String text) {
+	final List<String> matches = new ArrayList<String>();
+	trie.scan(text, new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    matches.add(begin + ":" + offset + ":" + id);
+		}
+	    });
+	return matches;
+    }
+
+    private static List<String> toList(PrefixMatches matches) {
+	final List<String> list = new ArrayList<String>();
+	for (int i = 0; i < matches.size(); i++) {
+	    list.add(matches.getQueryIndex(i) + ":" + matches.getBegin(i) + ":" + matches.getOffset(i) + ":" + matches.getId(i));
+	}
+	return list;
+    }
+}
@@ -0,0 +1,160 @@
+package org.okawa.util.nlang.trie.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieBuilder;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * DoubleArrayBuilderの構築方法による差異のテスト
+ * 異なる方法 (逐次と並列、整列済みと未整列) で構築したTrieが、同じキーに同じIDを付与し
+ * 同じ検索結果を返すことを確認する。
+ */
+public class DoubleArrayBuilderTest {
+    /** 並列構築で複数のアリーナへ分割される件数のキー */
+    private static final List<String> KEYS = Fixtures.randomKeys(50000, 8, 11L);
+
+    /**
+     * 登録時に付与されたIDを順に記録するコールバック
+     */
+    private static final class Recorder implements TrieBuilder.Callback {
+	final List<Integer> ids = new ArrayList<Integer>();
+
+	@Override
+	public void apply(int id) {
+	    this.ids.add(id);
+	}
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+	final Recorder sequential = new Recorder();
+	final Recorder parallel = new Recorder();
+	final TrieSearcher expected = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(DoubleArrayBuilderTest.KEYS), false, false, sequential));
+	final TrieSearcher actual = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(DoubleArrayBuilderTest.KEYS), false, true, parallel));
+	assertEquals(sequential.ids, parallel.ids);
+	DoubleArrayBuilderTest.assertSameResults(expected, actual);
+    }
+
+    @Test
+    public void testParallelDirectMatchesSequential() {
+	final TrieSearcher expected = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(DoubleArrayBuilderTest.KEYS), false, false, Fixtures.IGNORE));
+	final TrieSearcher actual = new DoubleArrayBufferSearcher(DoubleArrayBuilder.buildDirect(Fixtures.entries(DoubleArrayBuilderTest.KEYS), false, true, Fixtures.IGNORE));
+	DoubleArrayBuilderTest.assertSameResults(expected, actual);
+    }
+
+    @Test
+    public void testParallelRemapMatchesSequential() {
+	final TrieSearcher expected = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(DoubleArrayBuilderTest.KEYS), false, false, false, Fixtures.IGNORE));
+	final TrieSearcher actual = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(DoubleArrayBuilderTest.KEYS), false, true, true, Fixtures.IGNORE));
+	DoubleArrayBuilderTest.assertSameResults(expected, actual);
+    }
+
+    @Test
+    public void testUnsortedMatchesSorted() {
+	final List<String> sortedKeys = new ArrayList<String>(DoubleArrayBuilderTest.KEYS);
+	Collections.sort(sortedKeys);
+	final Recorder sorted = new Recorder();
+	final Recorder unsorted = new Recorder();
+	final TrieSearcher expected = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(sortedKeys), true, sorted));
+	final List<Fixtures.Entry> entries = Fixtures.entries(DoubleArrayBuilderTest.KEYS);
+	final TrieSearcher actual = new DoubleArraySearcher(DoubleArrayBuilder.build(entries, false, unsorted));
+	assertEquals(sorted.ids, unsorted.ids);
+	DoubleArrayBuilderTest.assertSameResults(expected, actual);
+	// 未整列の一覧は整列後の順序に並べ替えられる
+	for (int i = 0; i < entries.size(); i++) {
+	    assertEquals(sortedKeys.get(i), entries.get(i).getKey());
+	}
+    }
+
+    @Test
+    public void testParallelSortMatchesSorted() {
+	final List<String> sortedKeys = new ArrayList<String>(DoubleArrayBuilderTest.KEYS);
+	Collections.sort(sortedKeys);
+	final TrieSearcher expected = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(sortedKeys), true, Fixtures.IGNORE));
+	final TrieSearcher actual = new DoubleArrayBufferSearcher(DoubleArrayBuilder.buildDirect(Fixtures.entries(DoubleArrayBuilderTest.KEYS), false, true, Fixtures.IGNORE));
+	DoubleArrayBuilderTest.assertSameResults(expected, actual);
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+	// 重複するキーは一つのIDのみを付与される
+	final List<String> keys = new ArrayList<String>();
+	for (String key : DoubleArrayBuilderTest.KEYS.subList(0, 1000)) {
+	    keys.add(key);
+	    keys.add(key);
+	}
+	keys.addAll(DoubleArrayBuilderTest.KEYS.subList(0, 500));
+	Collections.shuffle(keys, new Random(13L));
+	final Recorder unsorted = new Recorder();
+	final TrieSearcher searcher = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(keys), false, unsorted));
+	assertEquals(1000, unsorted.ids.size());
+	assertEquals(1000, new HashSet<Integer>(unsorted.ids).size());
+	for (String key : keys) {
+	    assertTrue(key, unsorted.ids.contains(searcher.membership(key)));
+	}
+
+	// 整列済みとして指定した場合も、隣接する重複は読み飛ばす
+	Collections.sort(keys);
+	final Recorder sorted = new Recorder();
+	final TrieSearcher sortedSearcher = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(keys), true, sorted));
+	assertEquals(unsorted.ids, sorted.ids);
+	for (String key : keys) {
+	    assertEquals(key, searcher.membership(key), sortedSearcher.membership(key));
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsortedKeysMarkedSorted() {
+	final List<String> keys = new ArrayList<String>(DoubleArrayBuilderTest.KEYS.subList(0, 100));
+	Collections.sort(keys);
+	Collections.swap(keys, 10, 90);
+	DoubleArrayBuilder.build(Fixtures.entries(keys), true, Fixtures.IGNORE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsortedKeysMarkedSortedDirect() {
+	final List<String> keys = new ArrayList<String>(DoubleArrayBuilderTest.KEYS.subList(0, 100));
+	Collections.sort(keys, Collections.reverseOrder());
+	DoubleArrayBuilder.buildDirect(Fixtures.entries(keys), true, true, Fixtures.IGNORE);
+    }
+
+    /**
+     * 全てのキーに同じIDを付与し、登録されていないキーと共通接頭辞検索の結果も同じであること
+     */
+    private static void assertSameResults(TrieSearcher expected, TrieSearcher actual) {
+	final Set<Integer> ids = new HashSet<Integer>();
+	for (String key : DoubleArrayBuilderTest.KEYS) {
+	    final int id = expected.membership(key);
+	    assertTrue(key, id >= 0);
+	    assertTrue("duplicate id: " + id, ids.add(id));
+	    assertEquals(key, id, actual.membership(key));
+	}
+	final Random random = new Random(12L);
+	for (int i = 0; i < 5000; i++) {
+	    final String query = Fixtures.random(random, 1 + random.nextInt(12));
+	    assertEquals(query, expected.membership(query), actual.membership(query));
+	    assertEquals(query, DoubleArrayBuilderTest.prefix(expected, query), DoubleArrayBuilderTest.prefix(actual, query));
+	}
+    }
+
+    private static List<String> prefix(TrieSearcher searcher, String query) {
+	final List<String> matches = new ArrayList<String>();
+	searcher.eachCommonPrefix(query, 0, new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    matches.add(offset + ":" + id);
+		}
+	    });
+	return matches;
+    }
+}
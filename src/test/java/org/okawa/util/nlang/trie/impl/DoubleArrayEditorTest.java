@@ -0,0 +1,166 @@
+package org.okawa.util.nlang.trie.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.NavigableTrieSearcher;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * DoubleArrayEditorの追加と削除をTreeMapと比較するテスト
+ * ランダムな追加と削除を繰り返し、各操作の戻り値と、一定間隔で検索結果全体を照合する。
+ * 短いキーを少ない種類の文字で生成し、接尾辞の分割や子ノードの移動が頻繁に起こるようにする。
+ */
+public class DoubleArrayEditorTest {
+    /** 操作の回数 */
+    private static final int OPERATIONS = 20000;
+    /** 検索結果全体を照合する間隔 */
+    private static final int CHECK_INTERVAL = 500;
+
+    @Test
+    public void testFromEmpty() {
+	DoubleArrayEditorTest.run(new ArrayList<String>(), 6L);
+    }
+
+    @Test
+    public void testFromBuilt() {
+	DoubleArrayEditorTest.run(Fixtures.randomKeys(1000, 5, 7L), 8L);
+    }
+
+    @Test
+    public void testFromBuffer() {
+	final List<String> keys = Fixtures.randomKeys(1000, 5, 9L);
+	final TreeMap<String, Integer> oracle = new TreeMap<String, Integer>();
+	final DoubleArrayEditor editor = new DoubleArrayEditor(DoubleArrayBuilder.buildDirect(Fixtures.entries(keys), false, Fixtures.IGNORE));
+	for (String key : keys) {
+	    oracle.put(key, editor.membership(key));
+	}
+	DoubleArrayEditorTest.run(editor, oracle, new Random(10L));
+    }
+
+    @Test
+    public void testFromRemapped() {
+	// 構築時に無い文字を追加すると文字コードの対応表を拡張する
+	final List<String> keys = new ArrayList<String>();
+	for (String key : Fixtures.randomKeys(1000, 5, 11L)) {
+	    if (!key.contains("日") && !key.contains("本") && !key.contains("語") && !key.contains("𠮷")) {
+		keys.add(key);
+	    }
+	}
+	final DoubleArray built = DoubleArrayBuilder.build(Fixtures.entries(keys), false, false, true, Fixtures.IGNORE);
+	assertFalse(built.codeMap.isIdentity());
+	final TreeMap<String, Integer> oracle = new TreeMap<String, Integer>();
+	final DoubleArrayEditor editor = new DoubleArrayEditor(built);
+	for (String key : keys) {
+	    oracle.put(key, editor.membership(key));
+	}
+	// 予測検索の順序 (verify) は対応表を拡張した後も文字の昇順
+	DoubleArrayEditorTest.run(editor, oracle, new Random(12L));
+	final CodeMap extended = editor.snapshot().codeMap;
+	assertEquals(built.codeMap.size() + 5, extended.size());
+	for (char c : "日本語𠮷".toCharArray()) {
+	    assertEquals(c, extended.charOf(extended.code(c)));
+	}
+    }
+
+    private static void run(List<String> keys, long seed) {
+	final TreeMap<String, Integer> oracle = new TreeMap<String, Integer>();
+	final DoubleArrayEditor editor = new DoubleArrayEditor(DoubleArrayBuilder.build(Fixtures.entries(keys), false, Fixtures.IGNORE));
+	for (String key : keys) {
+	    final int id = editor.membership(key);
+	    assertTrue(key, id >= 0);
+	    oracle.put(key, id);
+	}
+	DoubleArrayEditorTest.run(editor, oracle, new Random(seed));
+    }
+
+    private static void run(DoubleArrayEditor editor, TreeMap<String, Integer> oracle, Random random) {
+	final Set<Integer> used = new HashSet<Integer>(oracle.values());
+	DoubleArrayEditorTest.verify(editor, oracle, random);
+	for (int i = 0; i < DoubleArrayEditorTest.OPERATIONS; i++) {
+	    final String key = Fixtures.random(random, 1 + random.nextInt(5));
+	    final Integer expected = oracle.get(key);
+	    // 登録数が増えすぎないよう、追加をやや多くする
+	    if (random.nextInt(5) < 3) {
+		final int id = editor.insert(key);
+		if (expected != null) {
+		    assertEquals("insert " + key, expected.intValue(), id);
+		} else {
+		    assertTrue("insert " + key + " reused id " + id, used.add(id));
+		    oracle.put(key, id);
+		}
+	    } else {
+		final int id = editor.delete(key);
+		assertEquals("delete " + key, expected == null ? -1 : expected.intValue(), id);
+		oracle.remove(key);
+		assertEquals("deleted " + key, -1, editor.membership(key));
+	    }
+	    assertEquals(oracle.size(), editor.size());
+	    if (i % DoubleArrayEditorTest.CHECK_INTERVAL == 0) {
+		DoubleArrayEditorTest.verify(editor, oracle, random);
+	    }
+	}
+	DoubleArrayEditorTest.verify(editor, oracle, random);
+	// スナップショットも同じ内容を持つ
+	DoubleArrayEditorTest.verify(new DoubleArraySearcher(editor.snapshot()), oracle, random);
+	DoubleArrayEditorTest.verify(new DoubleArrayBufferSearcher(editor.wrap()), oracle, random);
+    }
+
+    /**
+     * 検索結果全体をTreeMapと照合する
+     */
+    private static void verify(NavigableTrieSearcher searcher, TreeMap<String, Integer> oracle, Random random) {
+	for (Map.Entry<String, Integer> entry : oracle.entrySet()) {
+	    assertEquals(entry.getKey(), entry.getValue().intValue(), searcher.membership(entry.getKey()));
+	}
+	for (int i = 0; i < 200; i++) {
+	    final String query = Fixtures.random(random, 1 + random.nextInt(7));
+	    final Integer id = oracle.get(query);
+	    assertEquals(query, id == null ? -1 : id.intValue(), searcher.membership(query));
+	    assertEquals(query, DoubleArrayEditorTest.expectedPrefix(oracle, query), DoubleArrayEditorTest.prefix(searcher, query));
+	}
+	// 予測検索は全てのキーを辞書順に列挙する
+	final List<String> keys = new ArrayList<String>();
+	final TrieSearcher.Cursor cursor = searcher.predictive("", Integer.MAX_VALUE);
+	while (cursor.next()) {
+	    final String key = cursor.key().toString();
+	    assertEquals(key, oracle.get(key).intValue(), cursor.id());
+	    keys.add(key);
+	}
+	assertEquals(new ArrayList<String>(oracle.keySet()), keys);
+	assertFalse(cursor.next());
+    }
+
+    private static List<String> expectedPrefix(TreeMap<String, Integer> oracle, String query) {
+	final List<String> matches = new ArrayList<String>();
+	for (int end = 1; end <= query.length(); end++) {
+	    final Integer id = oracle.get(query.substring(0, end));
+	    if (id != null) {
+		matches.add(end + ":" + id);
+	    }
+	}
+	return matches;
+    }
+
+    private static List<String> prefix(TrieSearcher searcher, String query) {
+	final List<String> matches = new ArrayList<String>();
+	searcher.eachCommonPrefix(query, 0, new TrieSearcher.Callback() {
+		@Override
+		public void apply(int begin, int offset, int id) {
+		    matches.add(offset + ":" + id);
+		}
+	    });
+	return matches;
+    }
+}
@@ -0,0 +1,147 @@
+package org.okawa.util.nlang.trie.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * DoubleArrayScannerを全ての部分文字列の照合と比較するテスト
+ * テキストの全ての部分文字列についてキーとして登録されているかを調べた結果を期待値とし、
+ * 終了位置の昇順、同じ終了位置では長い順に並べたものと走査の結果を比較する。
+ */
+public class DoubleArrayScannerTest {
+    /**
+     * 失敗遷移、出力遷移の連鎖、TAIL配列の接尾辞の状態を経由する遷移が起こるキー
+     * "abcdefgh"の接尾辞の途中から"cdefx"の接尾辞の途中へ失敗遷移し、"a"/"aa"/"aaa"は
+     * 同じ位置で終わる出力が連鎖する。
+     */
+    private static final List<String> FIXED_KEYS = Arrays.asList(
+	"he", "she", "his", "hers", "abcdefgh", "cdefx", "defy", "a", "aa", "aaa",
+	"bab", "bc", "bca", "c", "caa", "日本", "本語", "日本語学校", "語学", "𠮷", "𠮷野");
+    /** 固定のキーに対するテキスト */
+    private static final String[] FIXED_TEXTS = {
+	"ushers", "abcdefx", "abcdefgh", "xabcdefy", "aaaa", "babcabca", "日本語学校と𠮷野家", "cdefgh", "", "a" };
+
+    @Test
+    public void testFixedKeys() {
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(DoubleArrayScannerTest.FIXED_KEYS), false, Fixtures.IGNORE);
+	DoubleArrayScannerTest.assertScans(new DoubleArraySearcher(doubleArray), new DoubleArrayScanner(doubleArray),
+					   DoubleArrayScannerTest.FIXED_KEYS, Arrays.asList(DoubleArrayScannerTest.FIXED_TEXTS));
+    }
+
+    @Test
+    public void testRandomKeys() {
+	final List<String> keys = Fixtures.randomKeys(3000, 6, 21L);
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(keys), false, Fixtures.IGNORE);
+	DoubleArrayScannerTest.assertScans(new DoubleArraySearcher(doubleArray), new DoubleArrayScanner(doubleArray),
+					   keys, DoubleArrayScannerTest.texts(22L));
+    }
+
+    @Test
+    public void testDirect() {
+	final List<String> keys = Fixtures.randomKeys(3000, 6, 23L);
+	final DoubleArrayBuffer doubleArray = DoubleArrayBuilder.buildDirect(Fixtures.entries(keys), false, Fixtures.IGNORE);
+	DoubleArrayScannerTest.assertScans(new DoubleArrayBufferSearcher(doubleArray), new DoubleArrayScanner(doubleArray),
+					   keys, DoubleArrayScannerTest.texts(24L));
+    }
+
+    @Test
+    public void testRemapped() {
+	final Set<String> keySet = new LinkedHashSet<String>(Fixtures.randomKeys(3000, 6, 25L));
+	keySet.addAll(DoubleArrayScannerTest.FIXED_KEYS);
+	final List<String> keys = new ArrayList<String>(keySet);
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(keys), false, false, true, Fixtures.IGNORE);
+	final List<String> texts = new ArrayList<String>(DoubleArrayScannerTest.texts(26L));
+	texts.addAll(Arrays.asList(DoubleArrayScannerTest.FIXED_TEXTS));
+	DoubleArrayScannerTest.assertScans(new DoubleArraySearcher(doubleArray), new DoubleArrayScanner(doubleArray), keys, texts);
+    }
+
+    @Test
+    public void testEdited() {
+	// 削除されたキーの接尾辞がTAIL配列に残った状態でも、登録中のキーのみを報告する
+	final List<String> keys = Fixtures.randomKeys(2000, 6, 27L);
+	final DoubleArrayEditor editor = new DoubleArrayEditor(DoubleArrayBuilder.build(Fixtures.entries(keys.subList(0, 1000)), false, Fixtures.IGNORE));
+	for (String key : keys.subList(1000, 2000)) {
+	    editor.insert(key);
+	}
+	final List<String> remaining = new ArrayList<String>();
+	for (int i = 0; i < keys.size(); i++) {
+	    if (i % 3 == 0) {
+		editor.delete(keys.get(i));
+	    } else {
+		remaining.add(keys.get(i));
+	    }
+	}
+	final DoubleArrayBuffer doubleArray = editor.wrap();
+	DoubleArrayScannerTest.assertScans(editor, new DoubleArrayScanner(doubleArray), remaining, DoubleArrayScannerTest.texts(28L));
+    }
+
+    @Test
+    public void testEmpty() {
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(new ArrayList<String>()), false, Fixtures.IGNORE);
+	DoubleArrayScannerTest.assertScans(new DoubleArraySearcher(doubleArray), new DoubleArrayScanner(doubleArray),
+					   new ArrayList<String>(), Arrays.asList(DoubleArrayScannerTest.FIXED_TEXTS));
+    }
+
+    /**
+     * ランダムなテキスト
+     */
+    private static List<String> texts(long seed) {
+	final Random random = new Random(seed);
+	final List<String> texts = new ArrayList<String>();
+	for (int i = 0; i < 300; i++) {
+	    texts.add(Fixtures.random(random, random.nextInt(40)));
+	}
+	return texts;
+    }
+
+    /**
+     * 各テキストの走査結果が、全ての部分文字列の照合結果と一致すること
+     * stepで一文字ずつ進めた場合の出力も比較する。
+     */
+    private static void assertScans(TrieSearcher searcher, DoubleArrayScanner scanner, List<String> keys, List<String> texts) {
+	final Map<String, Integer> ids = new HashMap<String, Integer>();
+	for (String key : keys) {
+	    ids.put(key, searcher.membership(key));
+	}
+	for (String text : texts) {
+	    final List<String> expected = new ArrayList<String>();
+	    for (int end = 1; end <= text.length(); end++) {
+		for (int begin = 0; begin < end; begin++) {
+		    final Integer id = ids.get(text.substring(begin, end));
+		    if (id != null) {
+			expected.add(begin + ":" + (end - begin) + ":" + id);
+		    }
+		}
+	    }
+	    final List<String> actual = new ArrayList<String>();
+	    scanner.scan(text, new TrieSearcher.Callback() {
+		    @Override
+		    public void apply(int begin, int offset, int id) {
+			actual.add(begin + ":" + offset + ":" + id);
+		    }
+		});
+	    assertEquals(text, expected, actual);
+
+	    final List<String> stepped = new ArrayList<String>();
+	    int state = DoubleArrayScanner.START;
+	    for (int i = 0; i < text.length(); i++) {
+		state = scanner.step(state, text.charAt(i));
+		for (int output = scanner.output(state); output != DoubleArrayScanner.NONE; output = scanner.nextOutput(output)) {
+		    stepped.add((i + 1 - scanner.outputLength(output)) + ":" + scanner.outputLength(output) + ":" + scanner.outputId(output));
+		}
+	    }
+	    assertEquals(text, expected, stepped);
+	}
+    }
+}
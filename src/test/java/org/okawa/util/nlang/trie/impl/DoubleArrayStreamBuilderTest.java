@@ -0,0 +1,122 @@
+package org.okawa.util.nlang.trie.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieBuilder;
+
+/**
+ * DoubleArrayStreamBuilderをDoubleArrayBuilderと比較するテスト
+ * 同じ整列済みのキーから構築した場合にIDとTAIL配列が一致すること、整列されていない
+ * キーや構築後の追加を拒否することを確認する。
+ */
+public class DoubleArrayStreamBuilderTest {
+    /** 整列済みのキー */
+    private static final List<String> KEYS = DoubleArrayStreamBuilderTest.sorted(Fixtures.randomKeys(20000, 8, 21L));
+
+    private static List<String> sorted(List<String> keys) {
+	Collections.sort(keys);
+	return keys;
+    }
+
+    /**
+     * キーを順に追加したビルダー
+     */
+    private static DoubleArrayStreamBuilder stream(List<String> keys) {
+	final DoubleArrayStreamBuilder builder = new DoubleArrayStreamBuilder();
+	for (int i = 0; i < keys.size(); i++) {
+	    assertEquals(keys.get(i), i, builder.add(keys.get(i)));
+	}
+	return builder;
+    }
+
+    @Test
+    public void testMatchesBuilder() {
+	final List<Integer> ids = new ArrayList<Integer>();
+	final DoubleArray expected = DoubleArrayBuilder.build(Fixtures.entries(DoubleArrayStreamBuilderTest.KEYS), true, new TrieBuilder.Callback() {
+		@Override
+		public void apply(int id) {
+		    ids.add(id);
+		}
+	    });
+	final DoubleArray actual = DoubleArrayStreamBuilderTest.stream(DoubleArrayStreamBuilderTest.KEYS).build();
+	assertEquals(expected.keySetSize, actual.keySetSize);
+	assertEquals(expected.tail, actual.tail);
+	final DoubleArraySearcher expectedSearcher = new DoubleArraySearcher(expected);
+	final DoubleArraySearcher actualSearcher = new DoubleArraySearcher(actual);
+	for (int i = 0; i < DoubleArrayStreamBuilderTest.KEYS.size(); i++) {
+	    final String key = DoubleArrayStreamBuilderTest.KEYS.get(i);
+	    assertEquals(key, ids.get(i).intValue(), actualSearcher.membership(key));
+	    assertEquals(key, expectedSearcher.membership(key), actualSearcher.membership(key));
+	}
+    }
+
+    @Test
+    public void testBuildDirect() {
+	final DoubleArray expected = DoubleArrayStreamBuilderTest.stream(DoubleArrayStreamBuilderTest.KEYS).build();
+	final DoubleArrayBuffer actual = DoubleArrayStreamBuilderTest.stream(DoubleArrayStreamBuilderTest.KEYS).buildDirect();
+	assertEquals(expected.tail, actual.tail.toString());
+	final DoubleArrayBufferSearcher searcher = new DoubleArrayBufferSearcher(actual);
+	for (int i = 0; i < DoubleArrayStreamBuilderTest.KEYS.size(); i++) {
+	    assertEquals(DoubleArrayStreamBuilderTest.KEYS.get(i), i, searcher.membership(DoubleArrayStreamBuilderTest.KEYS.get(i)));
+	}
+	assertEquals(-1, searcher.membership("存在しないキー"));
+    }
+
+    @Test
+    public void testDuplicate() {
+	final DoubleArrayStreamBuilder builder = new DoubleArrayStreamBuilder();
+	assertEquals(0, builder.add("a"));
+	assertEquals(-1, builder.add("a"));
+	assertEquals(1, builder.add("ab"));
+	assertEquals(-1, builder.add(new StringBuilder("ab")));
+	assertEquals(2, builder.getKeySetSize());
+	final DoubleArraySearcher searcher = new DoubleArraySearcher(builder.build());
+	assertEquals(0, searcher.membership("a"));
+	assertEquals(1, searcher.membership("ab"));
+    }
+
+    @Test
+    public void testUnsorted() {
+	for (String[] keys : new String[][] { { "b", "a" }, { "ab", "a" }, { "abc", "abb" }, { "日本", "あ" } }) {
+	    final DoubleArrayStreamBuilder builder = new DoubleArrayStreamBuilder();
+	    builder.add(keys[0]);
+	    try {
+		builder.add(keys[1]);
+		fail(keys[0] + " > " + keys[1]);
+	    } catch (IllegalArgumentException e) {
+		// 期待通り
+	    }
+	}
+    }
+
+    @Test
+    public void testAddAfterBuild() {
+	final DoubleArrayStreamBuilder builder = DoubleArrayStreamBuilderTest.stream(DoubleArrayStreamBuilderTest.KEYS.subList(0, 10));
+	builder.build();
+	try {
+	    builder.add("𠮷");
+	    fail("add after build");
+	} catch (IllegalStateException e) {
+	    // 期待通り
+	}
+	try {
+	    builder.buildDirect();
+	    fail("build twice");
+	} catch (IllegalStateException e) {
+	    // 期待通り
+	}
+    }
+
+    @Test
+    public void testEmpty() {
+	final DoubleArraySearcher searcher = new DoubleArraySearcher(new DoubleArrayStreamBuilder().build());
+	assertEquals(-1, searcher.membership(""));
+	assertEquals(-1, searcher.membership("a"));
+    }
+}
@@ -0,0 +1,193 @@
+package org.okawa.util.nlang.trie.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.NavigableTrieSearcher;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 近似検索を全てのキーとの編集距離の総当たりと比較するテスト
+ * 許容する距離0から2について、報告されたIDと距離の組が総当たりの結果と一致し、同じキーが
+ * 二度報告されないことを確認する。ヒープ上、バッファ上、文字コードを再割り当てしたもの、
+ * 追加と削除を行ったものの各Double-Arrayで検索する。
+ */
+public class LevenshteinWalkerTest {
+    /** 許容する距離の最大値 */
+    private static final int MAX_DISTANCE = 2;
+    /** キー */
+    private static final List<String> KEYS = Fixtures.randomKeys(2000, 6, 51L);
+
+    /**
+     * キーに編集を加えたクエリ、キーそのもの、ランダムな文字列を混ぜたクエリ
+     */
+    private static List<String> queries(List<String> keys, long seed) {
+	final Random random = new Random(seed);
+	final List<String> queries = new ArrayList<String>();
+	queries.add("");
+	for (int i = 0; i < 300; i++) {
+	    final StringBuilder query = new StringBuilder(keys.get(random.nextInt(keys.size())));
+	    final int edits = random.nextInt(4);
+	    for (int e = 0; e < edits; e++) {
+		final int position = random.nextInt(query.length() + 1);
+		switch (random.nextInt(3)) {
+		case 0:
+		    query.insert(position, Fixtures.random(random, 1).charAt(0));
+		    break;
+		case 1:
+		    if (position < query.length()) {
+			query.deleteCharAt(position);
+		    }
+		    break;
+		default:
+		    if (position < query.length()) {
+			query.setCharAt(position, Fixtures.random(random, 1).charAt(0));
+		    }
+		    break;
+		}
+	    }
+	    queries.add(query.toString());
+	}
+	for (int i = 0; i < 50; i++) {
+	    queries.add(Fixtures.random(random, 1 + random.nextInt(6)));
+	}
+	return queries;
+    }
+
+    /**
+     * 近似検索の結果を総当たりと比較する
+     *
+     * @param searcher 検索対象
+     * @param keys 登録されているキー
+     * @param queries クエリ
+     */
+    private static void assertApproximate(NavigableTrieSearcher searcher, List<String> keys, List<String> queries) {
+	final int[] ids = new int[keys.size()];
+	for (int i = 0; i < keys.size(); i++) {
+	    ids[i] = searcher.membership(keys.get(i));
+	}
+	for (String query : queries) {
+	    final int[] distances = new int[keys.size()];
+	    for (int i = 0; i < keys.size(); i++) {
+		distances[i] = Fixtures.distance(query, keys.get(i));
+	    }
+	    for (int k = 0; k <= LevenshteinWalkerTest.MAX_DISTANCE; k++) {
+		final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < keys.size(); i++) {
+		    if (distances[i] <= k) {
+			expected.put(ids[i], distances[i]);
+		    }
+		}
+		assertEquals(query + " k=" + k, expected, LevenshteinWalkerTest.approximate(searcher, query, k));
+	    }
+	}
+    }
+
+    /**
+     * 近似検索の結果 (IDと距離)、同じIDが二度報告された場合は失敗する
+     */
+    private static Map<Integer, Integer> approximate(NavigableTrieSearcher searcher, final String query, final int k) {
+	final Map<Integer, Integer> actual = new HashMap<Integer, Integer>();
+	searcher.eachApproximate(query, k, new TrieSearcher.DistanceCallback() {
+		@Override
+		public void apply(int id, int distance) {
+		    assertNull(query + " k=" + k + " reported " + id + " twice", actual.put(id, distance));
+		}
+	    });
+	return actual;
+    }
+
+    @Test
+    public void testHeap() {
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(LevenshteinWalkerTest.KEYS), false, Fixtures.IGNORE);
+	LevenshteinWalkerTest.assertApproximate(new DoubleArraySearcher(doubleArray), LevenshteinWalkerTest.KEYS,
+						LevenshteinWalkerTest.queries(LevenshteinWalkerTest.KEYS, 52L));
+    }
+
+    @Test
+    public void testDirect() {
+	final DoubleArrayBuffer doubleArray = DoubleArrayBuilder.buildDirect(Fixtures.entries(LevenshteinWalkerTest.KEYS), false, Fixtures.IGNORE);
+	LevenshteinWalkerTest.assertApproximate(new DoubleArrayBufferSearcher(doubleArray), LevenshteinWalkerTest.KEYS,
+						LevenshteinWalkerTest.queries(LevenshteinWalkerTest.KEYS, 53L));
+    }
+
+    @Test
+    public void testRemapped() {
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(LevenshteinWalkerTest.KEYS), false, false, true, Fixtures.IGNORE);
+	LevenshteinWalkerTest.assertApproximate(new DoubleArraySearcher(doubleArray), LevenshteinWalkerTest.KEYS,
+						LevenshteinWalkerTest.queries(LevenshteinWalkerTest.KEYS, 54L));
+    }
+
+    @Test
+    public void testEdited() {
+	// 再割り当てした対応表に、追加で新しい文字が加わった状態も含める
+	final List<String> keys = LevenshteinWalkerTest.KEYS;
+	final DoubleArrayEditor editor = new DoubleArrayEditor(DoubleArrayBuilder.build(Fixtures.entries(keys.subList(0, 1000)), false, false, true, Fixtures.IGNORE));
+	final List<String> remaining = new ArrayList<String>();
+	for (String key : keys.subList(1000, keys.size())) {
+	    editor.insert(key);
+	}
+	for (String key : Arrays.asList("xyz", "xyzw", "aéz")) {
+	    editor.insert(key);
+	    remaining.add(key);
+	}
+	for (int i = 0; i < keys.size(); i++) {
+	    if (i % 3 == 0) {
+		editor.delete(keys.get(i));
+	    } else {
+		remaining.add(keys.get(i));
+	    }
+	}
+	final List<String> queries = LevenshteinWalkerTest.queries(remaining, 55L);
+	queries.addAll(Arrays.asList("xy", "xyzz", "az", "wxyz"));
+	LevenshteinWalkerTest.assertApproximate(editor, remaining, queries);
+	LevenshteinWalkerTest.assertApproximate(new DoubleArraySearcher(editor.snapshot()), remaining, queries);
+    }
+
+    @Test
+    public void testTailSuffixes() {
+	// 分岐の後の接尾辞はTAIL配列に格納されるため、一文字ずつ距離を計算する
+	final List<String> keys = Arrays.asList("abcdef", "abcxyz", "b", "日本語辞書");
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(keys), false, Fixtures.IGNORE);
+	final DoubleArraySearcher searcher = new DoubleArraySearcher(doubleArray);
+	final int abcdef = searcher.membership("abcdef");
+	final int abcxyz = searcher.membership("abcxyz");
+	final int dictionary = searcher.membership("日本語辞書");
+
+	final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+	expected.put(abcdef, 1);
+	assertEquals(expected, LevenshteinWalkerTest.approximate(searcher, "abcdeg", 1));
+	assertEquals(expected, LevenshteinWalkerTest.approximate(searcher, "abcde", 1));
+	assertEquals(expected, LevenshteinWalkerTest.approximate(searcher, "abcdeef", 1));
+	expected.clear();
+	expected.put(abcxyz, 1);
+	assertEquals(expected, LevenshteinWalkerTest.approximate(searcher, "abcxy", 1));
+	expected.clear();
+	expected.put(dictionary, 2);
+	assertEquals(expected, LevenshteinWalkerTest.approximate(searcher, "日本辞", 2));
+	expected.put(dictionary, 0);
+	assertEquals(expected, LevenshteinWalkerTest.approximate(searcher, "日本語辞書", 0));
+	// 接尾辞の途中で距離を超えた場合は報告しない
+	assertEquals(new HashMap<Integer, Integer>(), LevenshteinWalkerTest.approximate(searcher, "abcd", 1));
+	LevenshteinWalkerTest.assertApproximate(searcher, keys, Arrays.asList("abc", "abcdefgh", "bb", "", "日本語", "abxdef"));
+    }
+
+    @Test
+    public void testExactPruning() {
+	// 許容する距離に達した後は、クエリ中の文字 (重複を除く) による遷移のみを辿る
+	final List<String> keys = Arrays.asList("ああああ", "あああ", "ああいあ", "あいああ", "いああ", "ああ", "a", "aa", "aaa", "aab", "aba", "baa");
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(keys), false, Fixtures.IGNORE);
+	final List<String> queries = Arrays.asList("ああああ", "ああいい", "いいいい", "あ", "aaaa", "aa", "abab", "b", "bbb", "ああa");
+	LevenshteinWalkerTest.assertApproximate(new DoubleArraySearcher(doubleArray), keys, queries);
+	final DoubleArray remapped = DoubleArrayBuilder.build(Fixtures.entries(keys), false, false, true, Fixtures.IGNORE);
+	LevenshteinWalkerTest.assertApproximate(new DoubleArraySearcher(remapped), keys, queries);
+    }
+}
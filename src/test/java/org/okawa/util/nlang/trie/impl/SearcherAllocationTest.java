@@ -0,0 +1,109 @@
+package org.okawa.util.nlang.trie.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * 検索時にオブジェクトを生成しないことのテスト
+ * ウォームアップ後に一定回数検索し、スレッドが確保したバイト数が検索回数に比例しないことを
+ * 確認する。DoubleArraySearcherとDoubleArrayBufferSearcherの両方を対象とする。
+ */
+public class SearcherAllocationTest {
+    /** ウォームアップの回数 */
+    private static final int WARMUP = 20000;
+    /** 計測する検索の回数 */
+    private static final int ITERATIONS = 100000;
+    /** 計測全体で許容するバイト数 (計測自体の確保分、一回あたり0.1バイト未満) */
+    private static final long TOLERANCE = 8192;
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static String[] queries;
+    private static TrieSearcher heap;
+    private static TrieSearcher direct;
+
+    /** 一致した件数を数えるだけのコールバック */
+    private static final class Counter implements TrieSearcher.Callback {
+	long count;
+
+	@Override
+	public void apply(int begin, int offset, int id) {
+	    this.count++;
+	}
+    }
+
+    @BeforeClass
+    public static void setUp() {
+	final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+	SearcherAllocationTest.threads = (com.sun.management.ThreadMXBean) bean;
+	Assume.assumeTrue(SearcherAllocationTest.threads.isThreadAllocatedMemorySupported());
+	SearcherAllocationTest.threads.setThreadAllocatedMemoryEnabled(true);
+
+	final List<String> keys = Fixtures.randomKeys(2000, 8, 1L);
+	// 登録されたキーと登録されていないキーを半分ずつ問い合わせる
+	SearcherAllocationTest.queries = new String[1000];
+	final List<String> misses = Fixtures.randomKeys(SearcherAllocationTest.queries.length, 10, 2L);
+	for (int i = 0; i < SearcherAllocationTest.queries.length; i++) {
+	    SearcherAllocationTest.queries[i] = i % 2 == 0 ? keys.get(i) : misses.get(i);
+	}
+	SearcherAllocationTest.heap = new DoubleArraySearcher(DoubleArrayBuilder.build(Fixtures.entries(keys), false, Fixtures.IGNORE));
+	SearcherAllocationTest.direct = new DoubleArrayBufferSearcher(DoubleArrayBuilder.buildDirect(Fixtures.entries(keys), false, Fixtures.IGNORE));
+    }
+
+    @Test
+    public void testHeapMembership() {
+	SearcherAllocationTest.assertMembershipAllocationFree(SearcherAllocationTest.heap);
+    }
+
+    @Test
+    public void testDirectMembership() {
+	SearcherAllocationTest.assertMembershipAllocationFree(SearcherAllocationTest.direct);
+    }
+
+    @Test
+    public void testHeapCommonPrefix() {
+	SearcherAllocationTest.assertCommonPrefixAllocationFree(SearcherAllocationTest.heap);
+    }
+
+    @Test
+    public void testDirectCommonPrefix() {
+	SearcherAllocationTest.assertCommonPrefixAllocationFree(SearcherAllocationTest.direct);
+    }
+
+    private static void assertMembershipAllocationFree(TrieSearcher searcher) {
+	final String[] queries = SearcherAllocationTest.queries;
+	long found = 0;
+	for (int i = 0; i < SearcherAllocationTest.WARMUP; i++) {
+	    found += searcher.membership(queries[i % queries.length]) >>> 31;
+	}
+	final long id = Thread.currentThread().getId();
+	final long before = SearcherAllocationTest.threads.getThreadAllocatedBytes(id);
+	for (int i = 0; i < SearcherAllocationTest.ITERATIONS; i++) {
+	    found += searcher.membership(queries[i % queries.length]) >>> 31;
+	}
+	final long allocated = SearcherAllocationTest.threads.getThreadAllocatedBytes(id) - before;
+	assertTrue("membership allocated " + allocated + " bytes (" + found + ")", allocated < SearcherAllocationTest.TOLERANCE);
+    }
+
+    private static void assertCommonPrefixAllocationFree(TrieSearcher searcher) {
+	final String[] queries = SearcherAllocationTest.queries;
+	final Counter counter = new Counter();
+	for (int i = 0; i < SearcherAllocationTest.WARMUP; i++) {
+	    searcher.eachCommonPrefix(queries[i % queries.length], 0, counter);
+	}
+	final long id = Thread.currentThread().getId();
+	final long before = SearcherAllocationTest.threads.getThreadAllocatedBytes(id);
+	for (int i = 0; i < SearcherAllocationTest.ITERATIONS; i++) {
+	    searcher.eachCommonPrefix(queries[i % queries.length], 0, counter);
+	}
+	final long allocated = SearcherAllocationTest.threads.getThreadAllocatedBytes(id) - before;
+	assertTrue("eachCommonPrefix allocated " + allocated + " bytes (" + counter.count + ")", allocated < SearcherAllocationTest.TOLERANCE);
+    }
+}
@@ -0,0 +1,136 @@
+package org.okawa.util.nlang.trie.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+import org.okawa.util.nlang.Fixtures;
+import org.okawa.util.nlang.trie.TrieSearcher;
+
+/**
+ * TailCompactorのテスト
+ * 他の接尾辞の末尾と一致する接尾辞がその位置を指し、TAIL配列が短くなっても各接尾辞の
+ * 内容と検索結果が変わらないことを確認する。
+ */
+public class TailCompactorTest {
+    /** 活用語尾のように共通の末尾を持つ語尾 */
+    private static final String[] ENDINGS = { "ます", "ました", "ません", "ませんでした", "る", "た", "ない", "なかった", "ing", "ed", "s" };
+
+    /**
+     * 接尾辞を順に格納したTAIL配列を詰め、各接尾辞の開始位置を返す
+     */
+    private static int[] compact(List<String> suffixes, StringBuilder tail) {
+	final DynamicIntArray begins = new DynamicIntArray(0);
+	final DynamicIntArray lengths = new DynamicIntArray(0);
+	for (String suffix : suffixes) {
+	    begins.add(tail.length());
+	    lengths.add(suffix.length());
+	    tail.append(suffix);
+	}
+	TailCompactor.compact(begins, lengths, tail);
+	for (int id = 0; id < suffixes.size(); id++) {
+	    assertEquals(suffixes.get(id), suffixes.get(id).length(), lengths.get(id));
+	    assertEquals(suffixes.get(id), tail.substring(begins.get(id), begins.get(id) + lengths.get(id)));
+	}
+	return begins.toArray();
+    }
+
+    /**
+     * 他の接尾辞の末尾と一致しない接尾辞 (重複を除く) の長さの合計
+     */
+    private static int distinctLength(List<String> suffixes) {
+	final Set<String> distinct = new LinkedHashSet<String>(suffixes);
+	int length = 0;
+	for (String suffix : distinct) {
+	    boolean shared = false;
+	    for (String other : distinct) {
+		if (other.length() > suffix.length() && other.endsWith(suffix)) {
+		    shared = true;
+		    break;
+		}
+	    }
+	    if (!shared) {
+		length += suffix.length();
+	    }
+	}
+	return length;
+    }
+
+    @Test
+    public void testSharedSuffix() {
+	final List<String> suffixes = Arrays.asList("ing", "eating", "ng", "xyz", "ing", "", "yz", "g", "ました", "した");
+	final StringBuilder tail = new StringBuilder();
+	final int[] begins = TailCompactorTest.compact(suffixes, tail);
+	assertEquals("eating".length() + "xyz".length() + "ました".length(), tail.length());
+	// 他の接尾辞の末尾と一致する接尾辞は、その接尾辞の格納位置を指す
+	assertEquals(begins[1] + 3, begins[0]);
+	assertEquals(begins[1] + 4, begins[2]);
+	assertEquals(begins[0], begins[4]);
+	assertEquals(begins[1] + 5, begins[7]);
+	assertEquals(begins[3] + 1, begins[6]);
+	assertEquals(begins[8] + 1, begins[9]);
+    }
+
+    @Test
+    public void testRandomSuffixes() {
+	// 挿入ソートに切り替わらない件数で、共通の末尾を多く持つ接尾辞
+	final Random random = new Random(41L);
+	final List<String> suffixes = new ArrayList<String>();
+	for (int i = 0; i < 3000; i++) {
+	    final String ending = TailCompactorTest.ENDINGS[random.nextInt(TailCompactorTest.ENDINGS.length)];
+	    suffixes.add(Fixtures.random(random, random.nextInt(3)) + ending.substring(random.nextInt(ending.length())));
+	}
+	final StringBuilder tail = new StringBuilder();
+	TailCompactorTest.compact(suffixes, tail);
+	assertEquals(TailCompactorTest.distinctLength(suffixes), tail.length());
+    }
+
+    @Test
+    public void testLookupsUnchanged() {
+	final Set<String> keySet = new LinkedHashSet<String>();
+	for (String stem : Fixtures.randomKeys(1500, 3, 42L)) {
+	    for (String ending : TailCompactorTest.ENDINGS) {
+		keySet.add(stem + ending);
+	    }
+	}
+	final List<String> keys = new ArrayList<String>(new TreeSet<String>(keySet));
+	final DoubleArray doubleArray = DoubleArrayBuilder.build(Fixtures.entries(keys), true, Fixtures.IGNORE);
+	// 詰める前のTAIL配列は各接尾辞長の合計
+	int uncompacted = 0;
+	for (int length : doubleArray.lengths) {
+	    uncompacted += length;
+	}
+	assertTrue(doubleArray.tail.length() + " < " + uncompacted, doubleArray.tail.length() * 2 < uncompacted);
+
+	// IDは整列順に付与されている
+	final DoubleArraySearcher searcher = new DoubleArraySearcher(doubleArray);
+	for (int i = 0; i < keys.size(); i++) {
+	    final String key = keys.get(i);
+	    assertEquals(key, i, searcher.membership(key));
+	    assertEquals(key + "!", -1, searcher.membership(key + "!"));
+	    assertEquals(key, -1, searcher.membership(key.substring(0, key.length() - 1) + "!"));
+	    // 共通接頭辞検索で見つかるのは登録されたキーのみ
+	    final List<String> expected = new ArrayList<String>();
+	    for (int end = 1; end <= key.length(); end++) {
+		if (keySet.contains(key.substring(0, end))) {
+		    expected.add(end + ":" + searcher.membership(key.substring(0, end)));
+		}
+	    }
+	    final List<String> actual = new ArrayList<String>();
+	    searcher.eachCommonPrefix(key, 0, new TrieSearcher.Callback() {
+		    @Override
+		    public void apply(int begin, int offset, int id) {
+			actual.add(offset + ":" + id);
+		    }
+		});
+	    assertEquals(key, expected, actual);
+	}
+    }
+}